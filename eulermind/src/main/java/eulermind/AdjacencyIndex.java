@@ -0,0 +1,987 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//节点之间父子关系(INCLUDE边)的内存索引，不限容量。
+//每个节点占一个slot, 父节点和子节点都用slot号保存在int数组中，判断祖先关系时不需要访问数据库
+//节点id (cluster, position) 压缩成一个long: cluster占高16位, position占低48位
+//
+//从根节点开始，子节点列表已知的部分另外维护区间标号 [pre, post]: 子节点的区间包含在父节点的区间之内，兄弟节点的区间互不相交。
+//这样判断 "A是否在B的子树中" 只需比较两个区间，O(1)。
+//新加入的子节点从父节点剩余空间中分一块，空间不足时找一个足够稀疏的祖先，按子树大小重新分配它的整个子树。
+//
+//另外记录引用边的端点(被引用的节点和引用它的节点), 每个节点保存沿父节点指针能到达它的端点个数。
+//删除子树时只需沿个数不为0的子节点向下找，不必检查所有的引用边
+class AdjacencyIndex {
+
+    static final int NO_PARENT = -1; //根节点，或者被删除子树的根节点
+    static final int UNKNOWN = -2; //还没有从数据库中读取
+
+    private static final int NO_SLOT = -1;
+    static final long INVALID_KEY = -1; //也标记被忘记的slot
+
+    private static final long NO_LABEL = -1;
+
+    //新的子节点所在子树，平均每个节点至少占用的区间宽度
+    private static final long LABEL_DENSITY = 64;
+
+    //被重新标号的祖先，平均每个节点至少占用的区间宽度。取得大一些，重新标号后可以连续插入更多层
+    private static final long RELABEL_DENSITY = 1L << 22;
+
+    private static final int SNAPSHOT_MAGIC = 0x45414a49; //"EAJI"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private long m_ids[];
+    private int m_parents[];
+    private int m_children[][]; //null表示还没有读取，按照出边的顺序排列
+    private int m_childCounts[];
+    private int m_size;
+
+    //区间标号, NO_LABEL表示没有标号
+    private long m_labelPres[];
+    private long m_labelPosts[];
+    private long m_labelNextFrees[]; //区间中尚未分配给子节点的第一个位置
+
+    //引用边端点的标记, 以及子树(父节点指针已知的部分)中端点的个数, 包括自身
+    private boolean m_isRefEndpoints[];
+    private int m_refEndpointCounts[];
+
+    //父节点变为未知, 而子树中有引用边端点的slot。由调用者重新读取它们的父节点
+    private ArrayList<Integer> m_detachedRefEndpointSlots = new ArrayList<>();
+
+    private int m_rootSlot;
+    private boolean m_labelEnabled = true;
+
+    //遍历子树用的缓冲区, 按先序排列的slot和对应的子树大小
+    private int m_subTreeSlots[] = new int[64];
+    private int m_subTreeSizes[] = new int[64];
+    private int m_dfsStack[] = new int[64];
+    private int m_dfsNextChild[] = new int[64];
+    private int m_dfsPositions[] = new int[64];
+
+    //key -> slot的开放地址哈希表
+    private long m_hashKeys[];
+    private int m_hashSlots[];
+
+    AdjacencyIndex()
+    {
+        clear();
+    }
+
+    void clear()
+    {
+        m_ids = new long[1024];
+        m_parents = new int[1024];
+        m_children = new int[1024][];
+        m_childCounts = new int[1024];
+        m_size = 0;
+
+        m_labelPres = new long[1024];
+        m_labelPosts = new long[1024];
+        m_labelNextFrees = new long[1024];
+        m_rootSlot = NO_SLOT;
+
+        m_isRefEndpoints = new boolean[1024];
+        m_refEndpointCounts = new int[1024];
+        m_detachedRefEndpointSlots.clear();
+
+        m_hashKeys = new long[2048];
+        m_hashSlots = new int[2048];
+        Arrays.fill(m_hashSlots, NO_SLOT);
+    }
+
+    int size()
+    {
+        return m_size;
+    }
+
+    //临时id (position < 0) 在commit后会改变，不能加入索引
+    static long packId(Object dbId)
+    {
+        if (!(dbId instanceof ORecordId)) {
+            return INVALID_KEY;
+        }
+
+        ORecordId recordId = (ORecordId)dbId;
+        int clusterId = recordId.getClusterId();
+        long position = recordId.getClusterPosition();
+
+        if (clusterId < 0 || clusterId > Short.MAX_VALUE || position < 0 || position >= (1L << 48)) {
+            return INVALID_KEY;
+        }
+
+        return ((long)clusterId << 48) | position;
+    }
+
+    static Object unpackId(long key)
+    {
+        return new ORecordId((int)(key >>> 48), key & ((1L << 48) - 1));
+    }
+
+    boolean canIndex(Object dbId)
+    {
+        return packId(dbId) != INVALID_KEY;
+    }
+
+    private int hashIndex(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int)key & (m_hashKeys.length - 1);
+    }
+
+    private int getSlot(long key)
+    {
+        if (key == INVALID_KEY) {
+            return NO_SLOT;
+        }
+
+        int i = hashIndex(key);
+        while (m_hashSlots[i] != NO_SLOT) {
+            if (m_hashKeys[i] == key) {
+                return m_hashSlots[i];
+            }
+            i = (i + 1) & (m_hashKeys.length - 1);
+        }
+        return NO_SLOT;
+    }
+
+    private int getSlot(Object dbId)
+    {
+        return getSlot(packId(dbId));
+    }
+
+    //线性探测的删除: 把探测链上后面的元素前移到空位, 查找时不会提前遇到空位
+    private void removeHash(long key)
+    {
+        int mask = m_hashKeys.length - 1;
+        int hole = hashIndex(key);
+        while (m_hashSlots[hole] != NO_SLOT && m_hashKeys[hole] != key) {
+            hole = (hole + 1) & mask;
+        }
+        if (m_hashSlots[hole] == NO_SLOT) {
+            return;
+        }
+
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (m_hashSlots[i] == NO_SLOT) {
+                break;
+            }
+
+            //i的起始位置在(hole, i]之间时不能移动
+            int home = hashIndex(m_hashKeys[i]);
+            boolean reachable = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (! reachable) {
+                m_hashKeys[hole] = m_hashKeys[i];
+                m_hashSlots[hole] = m_hashSlots[i];
+                hole = i;
+            }
+        }
+        m_hashSlots[hole] = NO_SLOT;
+    }
+
+    private void putHash(long key, int slot)
+    {
+        int i = hashIndex(key);
+        while (m_hashSlots[i] != NO_SLOT) {
+            i = (i + 1) & (m_hashKeys.length - 1);
+        }
+        m_hashKeys[i] = key;
+        m_hashSlots[i] = slot;
+    }
+
+    private int getOrCreateSlot(long key)
+    {
+        assert key != INVALID_KEY;
+
+        int slot = getSlot(key);
+        if (slot != NO_SLOT) {
+            return slot;
+        }
+
+        if (m_size == m_ids.length) {
+            int capacity = m_ids.length * 2;
+            m_ids = Arrays.copyOf(m_ids, capacity);
+            m_parents = Arrays.copyOf(m_parents, capacity);
+            m_children = Arrays.copyOf(m_children, capacity);
+            m_childCounts = Arrays.copyOf(m_childCounts, capacity);
+            m_labelPres = Arrays.copyOf(m_labelPres, capacity);
+            m_labelPosts = Arrays.copyOf(m_labelPosts, capacity);
+            m_labelNextFrees = Arrays.copyOf(m_labelNextFrees, capacity);
+            m_isRefEndpoints = Arrays.copyOf(m_isRefEndpoints, capacity);
+            m_refEndpointCounts = Arrays.copyOf(m_refEndpointCounts, capacity);
+        }
+
+        slot = m_size++;
+        m_ids[slot] = key;
+        m_parents[slot] = UNKNOWN;
+        m_children[slot] = null;
+        m_childCounts[slot] = 0;
+        m_labelPres[slot] = NO_LABEL;
+        m_isRefEndpoints[slot] = false;
+        m_refEndpointCounts[slot] = 0;
+
+        //装载因子不超过0.5
+        if (m_size * 2 > m_hashKeys.length) {
+            m_hashKeys = new long[m_hashKeys.length * 2];
+            m_hashSlots = new int[m_hashSlots.length * 2];
+            Arrays.fill(m_hashSlots, NO_SLOT);
+            for (int i=0; i<m_size; i++) {
+                if (m_ids[i] != INVALID_KEY) {
+                    putHash(m_ids[i], i);
+                }
+            }
+        } else {
+            putHash(key, slot);
+        }
+
+        return slot;
+    }
+
+    private int getOrCreateSlot(Object dbId)
+    {
+        return getOrCreateSlot(packId(dbId));
+    }
+
+    boolean isParentKnown(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        return slot != NO_SLOT && m_parents[slot] != UNKNOWN;
+    }
+
+    //调用者需保证isParentKnown(dbId), 没有父节点返回null
+    Object getParentId(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        assert slot != NO_SLOT && m_parents[slot] != UNKNOWN;
+
+        int parentSlot = m_parents[slot];
+        return parentSlot == NO_PARENT ? null : unpackId(m_ids[parentSlot]);
+    }
+
+    //parentId == null 表示没有父节点
+    void setParent(Object childId, Object parentId)
+    {
+        if (! canIndex(childId)) {
+            return;
+        }
+
+        int childSlot = getOrCreateSlot(childId);
+        int parentSlot;
+
+        if (parentId == null) {
+            parentSlot = NO_PARENT;
+        } else if (canIndex(parentId)) {
+            parentSlot = getOrCreateSlot(parentId);
+        } else {
+            parentSlot = UNKNOWN;
+        }
+
+        changeParent(childSlot, parentSlot);
+    }
+
+    //所有对父节点指针的修改都经过这里, 同时维护区间标号和引用边端点的个数
+    private void changeParent(int childSlot, int parentSlot)
+    {
+        if (m_parents[childSlot] == parentSlot) {
+            return;
+        }
+
+        unlabelSubTree(childSlot);
+
+        int refEndpointCount = m_refEndpointCounts[childSlot];
+        addRefEndpointCountToAncestors(m_parents[childSlot], -refEndpointCount);
+        m_parents[childSlot] = parentSlot;
+        addRefEndpointCountToAncestors(parentSlot, refEndpointCount);
+
+        if (parentSlot == UNKNOWN && refEndpointCount > 0) {
+            m_detachedRefEndpointSlots.add(childSlot);
+        }
+    }
+
+    private void addRefEndpointCountToAncestors(int slot, int delta)
+    {
+        if (delta == 0) {
+            return;
+        }
+
+        for (int i=0; slot >= 0 && i<=m_size; i++) {
+            m_refEndpointCounts[slot] += delta;
+            slot = m_parents[slot];
+        }
+    }
+
+    //返回从dbId开始向上，第一个父节点未知的节点。若整条路径都已知，返回null
+    Object getFirstUnknownAncestorOrSelf(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        if (slot == NO_SLOT) {
+            return dbId;
+        }
+
+        for (int i=0; i<=m_size; i++) {
+            int parentSlot = m_parents[slot];
+            if (parentSlot == UNKNOWN) {
+                return unpackId(m_ids[slot]);
+            } else if (parentSlot == NO_PARENT) {
+                return null;
+            }
+            slot = parentSlot;
+        }
+
+        assert false : "cycle in adjacency index";
+        return null;
+    }
+
+    //调用者需保证整条路径已知
+    List getInheritPath(Object dbId)
+    {
+        LinkedList inheritPath = new LinkedList();
+
+        int slot = getSlot(dbId);
+        assert slot != NO_SLOT;
+
+        int parentSlot = m_parents[slot];
+        while (parentSlot != NO_PARENT) {
+            assert parentSlot != UNKNOWN;
+            inheritPath.addFirst(unpackId(m_ids[parentSlot]));
+            parentSlot = m_parents[parentSlot];
+        }
+
+        return inheritPath;
+    }
+
+    //调用者需保证thiz到根节点的路径已知
+    boolean isDescendantOf(Object thiz, Object that)
+    {
+        long thatKey = packId(that);
+        int slot = getSlot(thiz);
+        assert slot != NO_SLOT;
+
+        int parentSlot = m_parents[slot];
+        while (parentSlot != NO_PARENT) {
+            assert parentSlot != UNKNOWN;
+            if (m_ids[parentSlot] == thatKey) {
+                return true;
+            }
+            parentSlot = m_parents[parentSlot];
+        }
+        return false;
+    }
+
+    boolean isChildrenKnown(Object parentId)
+    {
+        int slot = getSlot(parentId);
+        return slot != NO_SLOT && m_children[slot] != null;
+    }
+
+    //childIds: 所有子节点(不包括引用节点)，按出边顺序排列
+    void setChildren(Object parentId, List<Object> childIds)
+    {
+        if (! canIndex(parentId)) {
+            return;
+        }
+
+        int parentSlot = getOrCreateSlot(parentId);
+
+        for (Object childId : childIds) {
+            if (! canIndex(childId)) {
+                //有子节点无法索引，子节点列表视为未知
+                dropChildren(parentSlot);
+                return;
+            }
+        }
+
+        int children[] = new int[Math.max(childIds.size(), 4)];
+        int count = 0;
+
+        for (Object childId : childIds) {
+            children[count++] = getOrCreateSlot(childId);
+        }
+
+        //旧列表中有，新列表中没有的子节点 (数据库被其他途径修改过)
+        if (m_children[parentSlot] != null) {
+            int sortedChildren[] = Arrays.copyOf(children, count);
+            Arrays.sort(sortedChildren);
+
+            for (int i=0; i<m_childCounts[parentSlot]; i++) {
+                int oldChild = m_children[parentSlot][i];
+                if (m_parents[oldChild] == parentSlot && Arrays.binarySearch(sortedChildren, oldChild) < 0) {
+                    changeParent(oldChild, UNKNOWN);
+                }
+            }
+        }
+
+        for (int i=0; i<count; i++) {
+            changeParent(children[i], parentSlot);
+        }
+
+        m_children[parentSlot] = children;
+        m_childCounts[parentSlot] = count;
+
+        for (int i=0; i<count; i++) {
+            labelNewChild(parentSlot, children[i]);
+        }
+    }
+
+    private void dropChildren(int parentSlot)
+    {
+        for (int i=0; i<m_childCounts[parentSlot]; i++) {
+            int child = m_children[parentSlot][i];
+            if (m_parents[child] == parentSlot) {
+                unlabelSubTree(child);
+            }
+        }
+
+        m_children[parentSlot] = null;
+        m_childCounts[parentSlot] = 0;
+    }
+
+    //rank: 在子节点(不包括引用节点)中的位置, 小于0表示追加到最后
+    void insertChild(Object parentId, int rank, Object childId)
+    {
+        int parentSlot = getSlot(parentId);
+        if (parentSlot == NO_SLOT || m_children[parentSlot] == null) {
+            return;
+        }
+
+        if (! canIndex(childId)) {
+            dropChildren(parentSlot);
+            return;
+        }
+
+        int childSlot = getOrCreateSlot(childId);
+        changeParent(childSlot, parentSlot);
+
+        int children[] = m_children[parentSlot];
+        int count = m_childCounts[parentSlot];
+
+        if (rank < 0) {
+            rank = count;
+        }
+
+        assert rank <= count;
+
+        if (count == children.length) {
+            children = Arrays.copyOf(children, count * 2);
+            m_children[parentSlot] = children;
+        }
+
+        System.arraycopy(children, rank, children, rank + 1, count - rank);
+        children[rank] = childSlot;
+        m_childCounts[parentSlot] = count + 1;
+
+        labelNewChild(parentSlot, childSlot);
+    }
+
+    void removeChild(Object parentId, Object childId)
+    {
+        int parentSlot = getSlot(parentId);
+        int childSlot = getSlot(childId);
+        if (parentSlot == NO_SLOT || childSlot == NO_SLOT || m_children[parentSlot] == null) {
+            return;
+        }
+
+        removeChild(parentSlot, childSlot);
+    }
+
+    private void removeChild(int parentSlot, int childSlot)
+    {
+        int children[] = m_children[parentSlot];
+        int count = m_childCounts[parentSlot];
+
+        for (int i=0; i<count; i++) {
+            if (children[i] == childSlot) {
+                System.arraycopy(children, i + 1, children, i, count - i - 1);
+                m_childCounts[parentSlot] = count - 1;
+
+                if (m_parents[childSlot] == parentSlot) {
+                    unlabelSubTree(childSlot);
+                }
+                return;
+            }
+        }
+
+        //与数据库不一致，重新读取
+        dropChildren(parentSlot);
+    }
+
+    //只改变兄弟之间的顺序，区间标号不变
+    void moveChild(Object parentId, Object childId, int newRank)
+    {
+        int parentSlot = getSlot(parentId);
+        int childSlot = getSlot(childId);
+        if (parentSlot == NO_SLOT || childSlot == NO_SLOT || m_children[parentSlot] == null) {
+            return;
+        }
+
+        int children[] = m_children[parentSlot];
+        int count = m_childCounts[parentSlot];
+
+        int oldRank = -1;
+        for (int i=0; i<count; i++) {
+            if (children[i] == childSlot) {
+                oldRank = i;
+                break;
+            }
+        }
+
+        if (oldRank < 0 || newRank >= count) {
+            dropChildren(parentSlot);
+            return;
+        }
+
+        if (newRank < 0) {
+            newRank = count - 1;
+        }
+
+        if (oldRank < newRank) {
+            System.arraycopy(children, oldRank + 1, children, oldRank, newRank - oldRank);
+        } else {
+            System.arraycopy(children, newRank, children, newRank + 1, oldRank - newRank);
+        }
+        children[newRank] = childSlot;
+    }
+
+    //调用者需保证isChildrenKnown(parentId)
+    int getChildCount(Object parentId)
+    {
+        int slot = getSlot(parentId);
+        assert slot != NO_SLOT && m_children[slot] != null;
+        return m_childCounts[slot];
+    }
+
+    Object getChildId(Object parentId, int rank)
+    {
+        int slot = getSlot(parentId);
+        assert slot != NO_SLOT && m_children[slot] != null && rank < m_childCounts[slot];
+        return unpackId(m_ids[m_children[slot][rank]]);
+    }
+
+    //节点被彻底删除后调用。slot从哈希表中去掉, 其他slot不再指向它, 保存快照时跳过
+    void forgetVertex(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        if (slot == NO_SLOT) {
+            return;
+        }
+
+        setRefEndpoint(slot, false);
+
+        int parentSlot = m_parents[slot];
+        if (parentSlot >= 0 && m_children[parentSlot] != null) {
+            removeChild(parentSlot, slot);
+        }
+
+        if (m_children[slot] != null) {
+            for (int i=0; i<m_childCounts[slot]; i++) {
+                int child = m_children[slot][i];
+                if (m_parents[child] == slot) {
+                    changeParent(child, UNKNOWN);
+                }
+            }
+            dropChildren(slot);
+        }
+
+        changeParent(slot, UNKNOWN);
+        m_detachedRefEndpointSlots.removeAll(Collections.singleton(slot));
+
+        removeHash(m_ids[slot]);
+        m_ids[slot] = INVALID_KEY;
+    }
+
+    //调用者应先读入dbId到根节点的路径, 否则个数只累加到第一个父节点未知的祖先。无法索引时返回false
+    boolean setRefEndpoint(Object dbId, boolean isRefEndpoint)
+    {
+        if (! canIndex(dbId)) {
+            return false;
+        }
+
+        int slot = isRefEndpoint ? getOrCreateSlot(dbId) : getSlot(dbId);
+        if (slot != NO_SLOT) {
+            setRefEndpoint(slot, isRefEndpoint);
+        }
+        return true;
+    }
+
+    private void setRefEndpoint(int slot, boolean isRefEndpoint)
+    {
+        if (m_isRefEndpoints[slot] == isRefEndpoint) {
+            return;
+        }
+
+        m_isRefEndpoints[slot] = isRefEndpoint;
+        m_refEndpointCounts[slot] += isRefEndpoint ? 1 : -1;
+        addRefEndpointCountToAncestors(m_parents[slot], isRefEndpoint ? 1 : -1);
+    }
+
+    boolean isRefEndpoint(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        return slot != NO_SLOT && m_isRefEndpoints[slot];
+    }
+
+    //dbId的子树中, 父节点指针都已知的那部分所包含的引用边端点个数
+    int getRefEndpointCount(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        return slot == NO_SLOT ? 0 : m_refEndpointCounts[slot];
+    }
+
+    //子树中有引用边端点的子节点。调用者需保证isChildrenKnown(parentId)
+    List<Object> getRefEndpointBearingChildIds(Object parentId)
+    {
+        int slot = getSlot(parentId);
+        assert slot != NO_SLOT && m_children[slot] != null;
+
+        ArrayList<Object> childIds = new ArrayList<>();
+        for (int i=0; i<m_childCounts[slot]; i++) {
+            int child = m_children[slot][i];
+            if (m_parents[child] == slot && m_refEndpointCounts[child] > 0) {
+                childIds.add(unpackId(m_ids[child]));
+            }
+        }
+        return childIds;
+    }
+
+    //取出父节点变为未知的子树根节点, 调用者重新读取它们的父节点后, 端点的个数才能再累加到祖先上
+    List<Object> takeDetachedRefEndpointIds()
+    {
+        ArrayList<Object> ids = new ArrayList<>();
+        for (int slot : m_detachedRefEndpointSlots) {
+            if (m_parents[slot] == UNKNOWN && m_refEndpointCounts[slot] > 0) {
+                ids.add(unpackId(m_ids[slot]));
+            }
+        }
+        m_detachedRefEndpointSlots.clear();
+        return ids;
+    }
+
+    void setRoot(Object rootId)
+    {
+        if (! canIndex(rootId)) {
+            return;
+        }
+
+        m_rootSlot = getOrCreateSlot(rootId);
+        changeParent(m_rootSlot, NO_PARENT);
+
+        if (m_labelEnabled) {
+            labelSubTree(m_rootSlot, 0, Long.MAX_VALUE);
+        }
+    }
+
+    void setIntervalLabelEnabled(boolean enabled)
+    {
+        m_labelEnabled = enabled;
+
+        if (enabled) {
+            if (m_rootSlot != NO_SLOT) {
+                labelSubTree(m_rootSlot, 0, Long.MAX_VALUE);
+            }
+        } else {
+            Arrays.fill(m_labelPres, NO_LABEL);
+        }
+    }
+
+    boolean isLabelled(Object dbId)
+    {
+        int slot = getSlot(dbId);
+        return slot != NO_SLOT && m_labelPres[slot] != NO_LABEL;
+    }
+
+    //通过区间标号判断，若其中一个节点没有标号，返回null
+    Boolean isDescendantOfByLabel(Object thiz, Object that)
+    {
+        int thizSlot = getSlot(thiz);
+        int thatSlot = getSlot(that);
+
+        if (thizSlot == NO_SLOT || thatSlot == NO_SLOT ||
+                m_labelPres[thizSlot] == NO_LABEL || m_labelPres[thatSlot] == NO_LABEL) {
+            return null;
+        }
+
+        return m_labelPres[thatSlot] < m_labelPres[thizSlot] && m_labelPosts[thizSlot] <= m_labelPosts[thatSlot];
+    }
+
+    //先序遍历子节点列表已知的子树, 结果保存在m_subTreeSlots, m_subTreeSizes中，返回节点个数
+    private int collectSubTree(int rootSlot)
+    {
+        int count = 0;
+        int top = 0;
+
+        m_subTreeSlots[count] = rootSlot;
+        m_dfsStack[top] = rootSlot;
+        m_dfsNextChild[top] = 0;
+        m_dfsPositions[top] = count;
+        count++;
+        top++;
+
+        while (top > 0) {
+            int slot = m_dfsStack[top - 1];
+            int children[] = m_children[slot];
+
+            if (children != null && m_dfsNextChild[top - 1] < m_childCounts[slot]) {
+                int child = children[m_dfsNextChild[top - 1]++];
+
+                //父节点指针不一致的是过期的子节点，跳过
+                if (m_parents[child] != slot) {
+                    continue;
+                }
+
+                if (count == m_subTreeSlots.length) {
+                    m_subTreeSlots = Arrays.copyOf(m_subTreeSlots, count * 2);
+                    m_subTreeSizes = Arrays.copyOf(m_subTreeSizes, count * 2);
+                }
+                if (top == m_dfsStack.length) {
+                    m_dfsStack = Arrays.copyOf(m_dfsStack, top * 2);
+                    m_dfsNextChild = Arrays.copyOf(m_dfsNextChild, top * 2);
+                    m_dfsPositions = Arrays.copyOf(m_dfsPositions, top * 2);
+                }
+
+                m_subTreeSlots[count] = child;
+                m_dfsStack[top] = child;
+                m_dfsNextChild[top] = 0;
+                m_dfsPositions[top] = count;
+                count++;
+                top++;
+
+            } else {
+                top--;
+                m_subTreeSizes[m_dfsPositions[top]] = count - m_dfsPositions[top];
+            }
+        }
+
+        return count;
+    }
+
+    //给rootSlot分配区间[pre, post], 并按子树大小把区间分给整个子树
+    private void labelSubTree(int rootSlot, long pre, long post)
+    {
+        int count = collectSubTree(rootSlot);
+
+        for (int i=1; i<count; i++) {
+            m_labelPres[m_subTreeSlots[i]] = NO_LABEL;
+        }
+
+        m_labelPres[rootSlot] = pre;
+        m_labelPosts[rootSlot] = post;
+
+        for (int i=0; i<count; i++) {
+            int slot = m_subTreeSlots[i];
+            if (m_labelPres[slot] == NO_LABEL) {
+                continue;
+            }
+
+            long nodePost = m_labelPosts[slot];
+            long next = m_labelPres[slot] + 1;
+
+            //每个节点按 自身 + 子节点个数 计算份数，留出以后插入子节点的空间。
+            //子树的份数为 2 * size - 1, 这样每一层的一份宽度相同，深的子树不会越分越少
+            double unit = (double)(nodePost - m_labelPres[slot]) / (2 * m_subTreeSizes[i] - 1);
+
+            for (int childPos = i + 1; childPos < i + m_subTreeSizes[i]; childPos += m_subTreeSizes[childPos]) {
+                int child = m_subTreeSlots[childPos];
+                long childWidth = Math.min((long)(unit * (2 * m_subTreeSizes[childPos] - 1)), nodePost - next + 1);
+
+                //空间不够时, 子树保持没有标号
+                if (childWidth < 1) {
+                    continue;
+                }
+
+                m_labelPres[child] = next;
+                m_labelPosts[child] = next + childWidth - 1;
+                next += childWidth;
+            }
+
+            m_labelNextFrees[slot] = next;
+        }
+    }
+
+    private void unlabelSubTree(int rootSlot)
+    {
+        if (m_labelPres[rootSlot] == NO_LABEL) {
+            return;
+        }
+
+        int count = collectSubTree(rootSlot);
+        for (int i=0; i<count; i++) {
+            m_labelPres[m_subTreeSlots[i]] = NO_LABEL;
+        }
+    }
+
+    //childSlot刚加入parentSlot的子节点列表
+    private void labelNewChild(int parentSlot, int childSlot)
+    {
+        if (! m_labelEnabled || m_labelPres[parentSlot] == NO_LABEL || m_labelPres[childSlot] != NO_LABEL) {
+            return;
+        }
+
+        int subTreeSize = collectSubTree(childSlot);
+
+        long freeWidth = m_labelPosts[parentSlot] - m_labelNextFrees[parentSlot] + 1;
+
+        //唯一的子节点分得大部分空间，这样一层层向下插入时, 区间缩小得很慢。
+        //有兄弟时按子节点个数分，兄弟越多每次分得越少, 剩余空间按调和级数减少而不是按几何级数
+        int childCount = m_childCounts[parentSlot];
+        long childWidth = childCount == 1 ? freeWidth - freeWidth / 16 : freeWidth / (childCount + 1);
+
+        if (childWidth >= subTreeSize * LABEL_DENSITY) {
+            long pre = m_labelNextFrees[parentSlot];
+            m_labelNextFrees[parentSlot] += childWidth;
+            labelSubTree(childSlot, pre, pre + childWidth - 1);
+            return;
+        }
+
+        //父节点的剩余空间不够，向上找一个足够稀疏的祖先, 重新标号它的整个子树
+        //向上时只需再遍历兄弟子树，所以查找的代价与重新标号的代价相同
+        int slot = parentSlot;
+        int size = collectSubTree(parentSlot);
+
+        while (slot != m_rootSlot) {
+            long width = m_labelPosts[slot] - m_labelPres[slot];
+            if (width >= size * RELABEL_DENSITY) {
+                break;
+            }
+
+            int parent = m_parents[slot];
+            assert m_labelPres[parent] != NO_LABEL;
+
+            int parentSize = 1;
+            for (int i=0; i<m_childCounts[parent]; i++) {
+                int sibling = m_children[parent][i];
+                if (sibling == slot) {
+                    parentSize += size;
+                } else if (m_parents[sibling] == parent) {
+                    parentSize += collectSubTree(sibling);
+                }
+            }
+
+            slot = parent;
+            size = parentSize;
+        }
+
+        labelSubTree(slot, m_labelPres[slot], m_labelPosts[slot]);
+    }
+
+    //被忘记的slot不写入, 其余的slot按顺序重新编号。
+    //指向被忘记slot的父节点指针写成UNKNOWN, 包含被忘记slot的子节点列表写成未知
+    void save(File file) throws IOException
+    {
+        int newSlots[] = new int[m_size];
+        int newSize = 0;
+        for (int slot=0; slot<m_size; slot++) {
+            newSlots[slot] = m_ids[slot] == INVALID_KEY ? NO_SLOT : newSize++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(newSize);
+
+            for (int slot=0; slot<m_size; slot++) {
+                if (newSlots[slot] == NO_SLOT) {
+                    continue;
+                }
+
+                out.writeLong(m_ids[slot]);
+
+                int parentSlot = m_parents[slot];
+                if (parentSlot >= 0) {
+                    parentSlot = newSlots[parentSlot] == NO_SLOT ? UNKNOWN : newSlots[parentSlot];
+                }
+                out.writeInt(parentSlot);
+
+                boolean childrenKnown = m_children[slot] != null;
+                for (int i=0; childrenKnown && i<m_childCounts[slot]; i++) {
+                    childrenKnown = newSlots[m_children[slot][i]] != NO_SLOT;
+                }
+
+                if (! childrenKnown) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(m_childCounts[slot]);
+                    for (int i=0; i<m_childCounts[slot]; i++) {
+                        out.writeInt(newSlots[m_children[slot][i]]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    //快照无效时返回false, 索引保持为空
+    boolean load(File file) throws IOException
+    {
+        clear();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+
+            int size = in.readInt();
+            for (int slot=0; slot<size; slot++) {
+                long key = in.readLong();
+                int parentSlot = in.readInt();
+                int childCount = in.readInt();
+
+                int newSlot = getOrCreateSlot(key);
+                assert newSlot == slot;
+
+                m_parents[slot] = parentSlot;
+
+                if (childCount >= 0) {
+                    int children[] = new int[Math.max(childCount, 4)];
+                    for (int i=0; i<childCount; i++) {
+                        children[i] = in.readInt();
+                    }
+                    m_children[slot] = children;
+                    m_childCounts[slot] = childCount;
+                }
+            }
+        } catch (EOFException e) {
+            clear();
+            return false;
+        } finally {
+            in.close();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package eulermind;
+
+import prefuse.data.Table;
+import prefuse.data.event.EventConstants;
+import prefuse.data.event.TableListener;
+import prefuse.util.collections.IntIterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//界面树的节点表(或边表)上, dbId到行号的索引。一个数据库节点在界面树上可以有多个化身 (avatar)，
+//查找化身时不必扫描整个表。作为TableListener随表的增删改更新
+class AvatarIndex implements TableListener {
+
+    private final int m_dbIdColumn;
+
+    //每个dbId的所有行，从小到大排列
+    private final HashMap<Object, ArrayList<Integer>> m_rowsOfDbId = new HashMap<>();
+
+    //每行当前的dbId。更新事件不带旧值，要靠它从旧dbId的行中去掉
+    private final ArrayList<Object> m_dbIdOfRow = new ArrayList<>();
+
+    AvatarIndex(Table table, String dbIdColumnName)
+    {
+        m_dbIdColumn = table.getColumnNumber(dbIdColumnName);
+        assert m_dbIdColumn >= 0;
+
+        IntIterator rows = table.rows();
+        while (rows.hasNext()) {
+            int row = rows.nextInt();
+            addRow(row, table.get(row, m_dbIdColumn));
+        }
+
+        table.addTableListener(this);
+    }
+
+    void detach(Table table)
+    {
+        table.removeTableListener(this);
+    }
+
+    //返回一份拷贝，调用者可以修改
+    ArrayList<Integer> getRows(Object dbId)
+    {
+        ArrayList<Integer> rows = m_rowsOfDbId.get(dbId);
+        return rows == null ? new ArrayList<Integer>() : new ArrayList<>(rows);
+    }
+
+    @Override
+    public void tableChanged(Table table, int start, int end, int col, int type)
+    {
+        if (type == EventConstants.UPDATE && col != m_dbIdColumn && col != EventConstants.ALL_COLUMNS) {
+            return;
+        }
+
+        //删除事件在清除各列的值之前发出
+        for (int row = start; row <= end; row++) {
+            removeRow(row);
+            if (type != EventConstants.DELETE) {
+                addRow(row, table.get(row, m_dbIdColumn));
+            }
+        }
+    }
+
+    private void addRow(int row, Object dbId)
+    {
+        while (m_dbIdOfRow.size() <= row) {
+            m_dbIdOfRow.add(null);
+        }
+        m_dbIdOfRow.set(row, dbId);
+
+        //编辑中的占位节点没有dbId
+        if (dbId == null) {
+            return;
+        }
+
+        ArrayList<Integer> rows = m_rowsOfDbId.get(dbId);
+        if (rows == null) {
+            rows = new ArrayList<>(1);
+            m_rowsOfDbId.put(dbId, rows);
+        }
+
+        int pos = Collections.binarySearch(rows, row);
+        if (pos < 0) {
+            rows.add(-pos - 1, row);
+        }
+    }
+
+    private void removeRow(int row)
+    {
+        if (row >= m_dbIdOfRow.size()) {
+            return;
+        }
+
+        Object dbId = m_dbIdOfRow.get(row);
+        m_dbIdOfRow.set(row, null);
+
+        if (dbId == null) {
+            return;
+        }
+
+        ArrayList<Integer> rows = m_rowsOfDbId.get(dbId);
+        int pos = Collections.binarySearch(rows, row);
+        if (pos >= 0) {
+            rows.remove(pos);
+        }
+
+        if (rows.isEmpty()) {
+            m_rowsOfDbId.remove(dbId);
+        }
+    }
+}
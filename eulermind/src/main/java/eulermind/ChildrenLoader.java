@@ -0,0 +1,235 @@
+package eulermind;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//在后台线程中读取子节点，界面线程不等待数据库。
+//
+//OrientDB的数据库实例绑定在线程上 (ODatabaseRecordThreadLocal)，所以后台线程打开自己的数据库实例,
+//只能读到已经提交的数据。读到的出边与子节点属性复制成普通对象，在界面线程中由回调一次挂到界面树上。
+//读取期间界面线程提交过修改，或者有未提交的修改时，回调应该丢弃结果，改为同步读取
+public class ChildrenLoader {
+
+    static Logger s_logger = LoggerFactory.getLogger(ChildrenLoader.class);
+
+    public interface Callback {
+        //在界面线程中调用。请求被取消后不再调用
+        void childrenLoaded(Request request);
+    }
+
+    public static class Request {
+        final Object m_parentId;
+        final int m_maxCount;
+        final String m_propNames[];
+        final long m_commitCount;
+        final Callback m_callback;
+
+        private volatile boolean m_cancelled = false;
+
+        //读取的结果: 所有出边，前m_childProperties.size()个子节点的属性与出边个数。读取失败时都是null
+        List<MindDB.EdgeVertexId> m_outEdgeVertexIds;
+        List<Map<String, Object>> m_childProperties;
+        List<Integer> m_childOutEdgeCounts;
+
+        Request(Object parentId, int maxCount, String propNames[], long commitCount, Callback callback)
+        {
+            m_parentId = parentId;
+            m_maxCount = maxCount;
+            m_propNames = propNames;
+            m_commitCount = commitCount;
+            m_callback = callback;
+        }
+
+        public void cancel()
+        {
+            m_cancelled = true;
+        }
+
+        public boolean isCancelled()
+        {
+            return m_cancelled;
+        }
+
+        public boolean isLoaded()
+        {
+            return m_outEdgeVertexIds != null;
+        }
+    }
+
+    //放入队列后，后台线程退出
+    private final static Request STOP_REQUEST = new Request(null, 0, null, 0, null);
+
+    private final MindDB m_mindDb;
+    private final LinkedBlockingQueue<Request> m_requests = new LinkedBlockingQueue<>();
+    private Thread m_thread;
+
+    ChildrenLoader(MindDB mindDb)
+    {
+        m_mindDb = mindDb;
+    }
+
+    void start()
+    {
+        assert m_thread == null;
+
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadRequests();
+            }
+        }, "ChildrenLoader");
+
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    //与TrashCollector一样不用interrupt, 最多等待一个请求读取完成
+    void stop()
+    {
+        if (m_thread == null) {
+            return;
+        }
+
+        m_requests.add(STOP_REQUEST);
+
+        try {
+            m_thread.join();
+        } catch (InterruptedException e) {
+            s_logger.warn("interrupted while waiting children loader");
+        }
+        m_thread = null;
+    }
+
+    //请求读取parentId的所有出边，以及前maxCount个子节点的propNames属性
+    public Request load(Object parentId, int maxCount, String propNames[], Callback callback)
+    {
+        Request request = new Request(parentId, maxCount, propNames, m_mindDb.getCommitCount(), callback);
+        m_requests.add(request);
+        return request;
+    }
+
+    private void loadRequests()
+    {
+        TransactionalGraph graph = m_mindDb.openBackGraph();
+
+        try {
+            while (true) {
+                final Request request = m_requests.take();
+                if (request == STOP_REQUEST) {
+                    break;
+                }
+
+                if (request.isCancelled()) {
+                    continue;
+                }
+
+                try {
+                    read(graph, request);
+
+                } catch (Exception e) {
+                    s_logger.warn("load children of {} failed: {}", request.m_parentId, e.getMessage());
+                    request.m_outEdgeVertexIds = null;
+                    request.m_childProperties = null;
+                    request.m_childOutEdgeCounts = null;
+
+                } finally {
+                    //结束只读的事务，丢掉这个数据库实例缓存的记录，下次读到最新提交的数据
+                    graph.rollback();
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (! request.isCancelled()) {
+                            request.m_callback.childrenLoaded(request);
+                        }
+                    }
+                });
+            }
+
+        } catch (InterruptedException e) {
+            s_logger.warn("children loader interrupted");
+
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    private void read(TransactionalGraph graph, Request request)
+    {
+        Vertex parent = graph.getVertex(request.m_parentId);
+        if (parent == null) {
+            return;
+        }
+
+        List<MindDB.EdgeVertexId> outEdgeVertexIds = m_mindDb.readOutEdgeVertexIds(parent);
+        if (outEdgeVertexIds == null) {
+            return;
+        }
+
+        int count = Math.min(outEdgeVertexIds.size(), request.m_maxCount);
+        ArrayList<Object> childIds = new ArrayList<>(count);
+        for (int i=0; i<count; i++) {
+            childIds.add(outEdgeVertexIds.get(i).m_targetId);
+        }
+
+        List<Vertex> children = m_mindDb.getVerticesById(graph, childIds);
+
+        ArrayList<Map<String, Object>> childProperties = new ArrayList<>(count);
+        ArrayList<Integer> childOutEdgeCounts = new ArrayList<>(count);
+        for (Vertex child : children) {
+            if (child == null) {
+                return;
+            }
+
+            HashMap<String, Object> properties = new HashMap<>();
+            for (String propName : request.m_propNames) {
+                properties.put(propName, child.getProperty(propName));
+            }
+            childProperties.add(properties);
+
+            int outEdgeCount = 0;
+            for (Edge outEdge : child.getEdges(Direction.OUT)) {
+                outEdgeCount++;
+            }
+            childOutEdgeCounts.add(outEdgeCount);
+        }
+
+        request.m_childProperties = childProperties;
+        request.m_childOutEdgeCounts = childOutEdgeCounts;
+        request.m_outEdgeVertexIds = outEdgeVertexIds;
+    }
+}
@@ -1,6 +1,5 @@
 package eulermind;
 
-import com.tinkerpop.blueprints.Vertex;
 import edu.uci.ics.crawler4j.crawler.Page;
 import edu.uci.ics.crawler4j.crawler.WebCrawler;
 import edu.uci.ics.crawler4j.parser.HtmlParseData;
@@ -84,12 +83,9 @@ public class Crawler extends WebCrawler {
         return !BINARY_FILES_EXTENSIONS.matcher(href).matches();
     }
 
-    private Object addChild(Object parentDbId, String text)
+    private Object addChild(MindDB.BulkInsertSession bulkInsertSession, Object parentDbId, String text)
     {
-        Vertex dbParent = sm_mindDb.getVertex(parentDbId);
-        MindDB.EdgeVertex edgeVertex = sm_mindDb.addChild(dbParent);
-        edgeVertex.m_target.setProperty(MindModel.TEXT_PROP_NAME, text);
-        return edgeVertex.m_target.getId();
+        return bulkInsertSession.appendChild(parentDbId, -1, text);
     }
 
     /**
@@ -115,15 +111,21 @@ public class Crawler extends WebCrawler {
 
             Object parentDbId = m_docId2DbIdMap.get(parentDocid);
 
-            Object currentDbId = addChild(parentDbId, url);
-            m_docId2DbIdMap.put(docid, currentDbId);
-
             HtmlParseData htmlParseData = (HtmlParseData) page.getParseData();
             String text = htmlParseData.getText();
 
             page_count++;
 
-            m_importer.importString(currentDbId, 0, text);
+            //一个页面的所有节点在一个session内插入, m_importer 共用这个session
+            MindDB.BulkInsertSession bulkInsertSession = sm_mindDb.openBulkInsertSession();
+            try {
+                Object currentDbId = addChild(bulkInsertSession, parentDbId, url);
+                m_docId2DbIdMap.put(docid, currentDbId);
+
+                m_importer.importString(currentDbId, 0, text);
+            } finally {
+                bulkInsertSession.close();
+            }
 
             /*TODO: get vertex Count
             m_logger.info("add page: {},  vertex: {}, page_count: {}, vertex_count {}",
@@ -231,6 +231,7 @@ public class MainFrame  extends JFrame {
         setComponentEnabled(false);
         unbindComponents();
 
+        m_mindController.close();
         m_mindModel.close();
         m_mindModel = null;
         m_mindController = null;
@@ -20,9 +20,9 @@ import prefuse.data.event.TableListener;
 import prefuse.util.collections.IntIterator;
 
 import javax.swing.*;
-import javax.swing.undo.UndoManager;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 
@@ -52,7 +52,7 @@ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
 CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-public class MindController extends UndoManager {
+public class MindController {
     Logger m_logger = LoggerFactory.getLogger(this.getClass());
 
     Hashtable<Tree, DefaultSingleCDockable> m_mindViewDockables = new Hashtable<>();
@@ -74,14 +74,28 @@ public class MindController extends UndoManager {
 
     private DefaultSingleCDockable m_currentDockable;
 
+    //undo日志在内存中最多占用的字节数，超过后写入文件
+    public static long sm_undoJournalMemoryCap = 1 << 20;
+
+    private UndoJournal m_undoJournal;
+
     MindController(MindModel mindModel, CControl dockingCControl, JLabel tabInfoLabel) {
-        super();
         m_mindModel = mindModel;
         m_dockingCControl = dockingCControl;
         m_dockingCControl.putProperty(StackDockStation.TAB_PLACEMENT, TabPlacement.TOP_OF_DOCKABLE);
 
         m_nodeInfoLabel = tabInfoLabel;
 
+        m_undoJournal = new UndoJournal(m_mindModel.m_mindDb.getUndoJournalFile(), sm_undoJournalMemoryCap);
+
+        //新打开的树，第二层子节点在后台读取，读完后重新绘制
+        m_mindModel.startChildrenLoader(new Runnable() {
+            @Override
+            public void run() {
+                updateAllMindViews();
+            }
+        });
+
         ArrayList<Object> lastOpenedRootId = m_mindModel.getLastOpenedRootId();
 
         if (lastOpenedRootId.size() > 0) {
@@ -346,14 +360,18 @@ public class MindController extends UndoManager {
     }
     */
 
-    private void updateMindViews()
+    //只重新布局一组操作改变过的界面树，以及发起操作的界面树 (光标变了)
+    private void updateMindViews(Set<Tree> changedTrees, MindView operatorBornMindView)
     {
         removeInvalidMindViews();
 
         for (Tree tree : m_mindViewDockables.keySet()) {
             MindView mindView = (MindView)m_mindViewDockables.get(tree).getContentPane().getComponent(0);
             mindView.m_cursor.checkSelectNodeItemsValid();
-            mindView.renderTreeToEndChanging();
+
+            if (changedTrees.contains(tree) || mindView == operatorBornMindView || mindView.isChanging()) {
+                mindView.renderTreeToEndChanging();
+            }
         }
     }
 
@@ -365,27 +383,25 @@ public class MindController extends UndoManager {
 
     public void does(List<MindOperator> operators) {
 
-        MindOperator firstOperator = null;
-
         if (operators.size() == 0) {
             return;
         }
 
         ArrayList<NodeItem> newSelectedNodes = new ArrayList<NodeItem>();
-        MindView operatorBornMindView = getMindView(operators.get(0).m_rootDbId);
+        ArrayList<MindOperator> doneOperators = new ArrayList<>();
+        Object rootDbId = operators.get(0).m_rootDbId;
+        MindView operatorBornMindView = getMindView(rootDbId);
+        Set<Tree> changedTrees;
 
+        //一组操作中的所有修改，界面树的childrenAttached只更新一次，数据库只提交一次
+        m_mindModel.beginBatch();
         try {
             for (MindOperator operator : operators)
             {
                 if (operator.does()) {
-                    //要放在前面，
-                    if (firstOperator == null) {
-                        firstOperator = operator;
-                    }
-
-                    m_logger.info("m_formerCursorPath: " + operator.m_formerCursorPath.toString());
-                    m_logger.info("m_laterCursorPath: " + operator.m_laterCursorPath.toString());
-                    super.addEdit(operator);
+                    m_logger.info("m_formerCursorPath: " + operator.m_formerCursorPath);
+                    m_logger.info("m_laterCursorPath: " + operator.m_laterCursorPath);
+                    doneOperators.add(operator);
 
                     newSelectedNodes.add(operatorBornMindView.toVisual(operator.getNodeByPath(operator.m_laterCursorPath)));
 
@@ -400,87 +416,157 @@ public class MindController extends UndoManager {
             m_logger.error("operator exception: " + e.getMessage());
             m_logger.error("StackTrace: {}", Utils.getThrowableStackTraceString(e));
             JOptionPane.showMessageDialog(null, e.getMessage(), e.getMessage(), JOptionPane.ERROR_MESSAGE);
+        } finally {
+            changedTrees = m_mindModel.endBatch();
         }
 
+        if (doneOperators.size() > 0) {
+            //提交之后新节点的id才确定，这时再写入undo日志
+            appendUndoGroup(rootDbId, doneOperators);
 
-        if (firstOperator != null) {
-            firstOperator.m_firstInGroup = true;
             operatorBornMindView.m_cursor.selectNodeItems(newSelectedNodes);
             exposeMindView(operatorBornMindView.getRootDbId());
-            updateMindViews();
+            updateMindViews(changedTrees, operatorBornMindView);
         }
     }
 
-    public void redo()
+    private void appendUndoGroup(Object rootDbId, List<MindOperator> doneOperators)
+    {
+        ArrayList<MindDelta.Step> steps = new ArrayList<>(doneOperators.size());
+        boolean hasDelta = false;
+
+        for (MindOperator operator : doneOperators) {
+            MindDelta.Step step = operator.toUndoStep();
+            hasDelta = hasDelta || step.m_deltas.size() > 0;
+            steps.add(step);
+        }
+
+        if (hasDelta) {
+            m_undoJournal.append(new MindDelta.Group(rootDbId, steps).toBytes());
+        }
+    }
+
+    public boolean canUndo()
+    {
+        return m_undoJournal.canUndo();
+    }
+
+    public boolean canRedo()
+    {
+        return m_undoJournal.canRedo();
+    }
+
+    //重新打开脑图后，发起操作的树不一定打开着
+    private MindView getReplayMindView(Object rootDbId)
+    {
+        if (m_mindModel.isVertexTrashed(rootDbId)) {
+            return getCurrentView();
+        } else {
+            return findOrAddMindView(rootDbId);
+        }
+    }
+
+    //日志记录无法读取，或者涉及的节点已经被回收站彻底删除时，返回null，并只丢掉这一条记录
+    private MindDelta.Group readUndoGroup(byte record[], int index)
     {
-        boolean meetFirstInGroup = false;
-        ArrayList<NodeItem> newSelectedNodes = new ArrayList<NodeItem>();
-        MindView operatorBornMindView = null;
         try {
-            while (canRedo()) {
-                MindOperator operator = (MindOperator)editToBeRedone();
-                if (operatorBornMindView == null) {
-                    operatorBornMindView = getMindView(operator.m_rootDbId);
-                }
+            MindDelta.Group group = MindDelta.Group.fromBytes(record);
+            if (group.isApplicable(m_mindModel.m_mindDb)) {
+                return group;
+            }
+            m_logger.warn("undo record refers to removed vertices");
 
-                //到达下一个operator group的开头
-                if (meetFirstInGroup && operator.m_firstInGroup) {
-                    break;
-                }
+        } catch (IOException e) {
+            m_logger.warn("invalid undo record: " + e.getMessage());
+        }
 
-                if (meetFirstInGroup == false) {
-                    assert operator.m_firstInGroup == true;
-                    meetFirstInGroup = true;
-                }
+        m_undoJournal.remove(index);
+        return null;
+    }
+
+    public void redo()
+    {
+        if (! canRedo()) {
+            return;
+        }
 
-                super.redo();
-                newSelectedNodes.add(operatorBornMindView.toVisual(operator.getNodeByPath(operator.m_laterCursorPath)));
+        byte record[] = m_undoJournal.redoRecord();
+        MindDelta.Group group = readUndoGroup(record, m_undoJournal.getDoneCount() - 1);
+        if (group == null) {
+            return;
+        }
+
+        ArrayList<NodeItem> newSelectedNodes = new ArrayList<NodeItem>();
+        MindView operatorBornMindView = getReplayMindView(group.m_rootDbId);
+        Tree tree = operatorBornMindView.m_tree;
+        Set<Tree> changedTrees;
+
+        m_mindModel.beginBatch();
+        try {
+            for (MindDelta.Step step : group.m_steps) {
+                step.redo(m_mindModel);
+                Node laterCursor = m_mindModel.getNearestNodeByPath(tree, step.m_laterCursorPath);
+                newSelectedNodes.add(operatorBornMindView.toVisual(laterCursor));
             }
 
         } catch (Exception e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null, e.getMessage(), e.getMessage(), JOptionPane.ERROR_MESSAGE);
             m_logger.warn("operator exception" + e.getMessage());
+            m_undoJournal.discardAll();
+        } finally {
+            changedTrees = m_mindModel.endBatch();
         }
 
-        if (operatorBornMindView != null) {
-            operatorBornMindView.m_cursor.selectNodeItems(newSelectedNodes);
-            exposeMindView(operatorBornMindView.getRootDbId());
-            updateMindViews();
-        }
+        operatorBornMindView.m_cursor.selectNodeItems(newSelectedNodes);
+        exposeMindView(operatorBornMindView.getRootDbId());
+        updateMindViews(changedTrees, operatorBornMindView);
     }
 
     public void undo()
     {
-        ArrayList<NodeItem> newSelectedNodes = new ArrayList<NodeItem>();
-        MindView operatorBornMindView = null;
-        try {
-            while (canUndo()) {
-                MindOperator operator = (MindOperator)editToBeUndone();
-                if (operatorBornMindView == null) {
-                    operatorBornMindView = getMindView(operator.m_rootDbId);
-                }
+        if (! canUndo()) {
+            return;
+        }
 
-                super.undo();
-                newSelectedNodes.add(operatorBornMindView.toVisual(operator.getNodeByPath(operator.m_formerCursorPath)));
+        byte record[] = m_undoJournal.undoRecord();
+        MindDelta.Group group = readUndoGroup(record, m_undoJournal.getDoneCount());
+        if (group == null) {
+            return;
+        }
 
-                //到达下一个operator group的开头
-                if (operator.m_firstInGroup) {
-                    break;
-                }
+        ArrayList<NodeItem> newSelectedNodes = new ArrayList<NodeItem>();
+        MindView operatorBornMindView = getReplayMindView(group.m_rootDbId);
+        Tree tree = operatorBornMindView.m_tree;
+        Set<Tree> changedTrees;
+
+        m_mindModel.beginBatch();
+        try {
+            for (int i=group.m_steps.size()-1; i>=0; i--) {
+                MindDelta.Step step = group.m_steps.get(i);
+                step.undo(m_mindModel);
+                Node formerCursor = m_mindModel.getNearestNodeByPath(tree, step.m_formerCursorPath);
+                newSelectedNodes.add(operatorBornMindView.toVisual(formerCursor));
             }
 
         } catch (Exception e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null, e.getMessage(), e.getMessage(), JOptionPane.ERROR_MESSAGE);
             m_logger.warn("operator exception" + e.getMessage());
+            m_undoJournal.discardAll();
+        } finally {
+            changedTrees = m_mindModel.endBatch();
         }
 
-        if (operatorBornMindView != null) {
-            operatorBornMindView.m_cursor.selectNodeItems(newSelectedNodes);
-            exposeMindView(operatorBornMindView.getRootDbId());
-            updateMindViews();
-        }
+        operatorBornMindView.m_cursor.selectNodeItems(newSelectedNodes);
+        exposeMindView(operatorBornMindView.getRootDbId());
+        updateMindViews(changedTrees, operatorBornMindView);
+    }
+
+    //关闭脑图时调用，把undo日志全部写入文件
+    public void close()
+    {
+        m_undoJournal.close();
     }
 
     HashSet<MindPropertyComponent> m_mindPropertyComponents = new HashSet<>();
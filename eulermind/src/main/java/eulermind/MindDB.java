@@ -1,9 +1,11 @@
 package eulermind;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
 import com.tinkerpop.blueprints.impls.orient.OrientIndex;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -46,20 +48,29 @@ abstract public class MindDB {
     Logger m_logger = LoggerFactory.getLogger(this.getClass());
 
 	public final static String EDGE_TYPE_PROP_NAME = "t"; //type
-    public final static String EDGE_INNER_ID_PROP_NAME = "i"; //EdgeInnerId
+    public final static String EDGE_INNER_ID_PROP_NAME = "i"; //EdgeInnerId, 兄弟之间的顺序键, 见SiblingOrder
 
     public final static String CREATE_TIME_PROP_NAME = "c"; //创建时间
 
 	private final static String ROOT_INDEX_NAME = "rootIndex";
 	private final static String ROOT_KEY_NAME = "root";
 
-	private final static String TRASH_INDEX_NAME = "trashIndex";
-	private final static String TRASH_KEY_NAME = "trash";
+	final static String TRASH_INDEX_NAME = "trashIndex";
+	final static String TRASH_KEY_NAME = "trash";
+
+    //被引用边指向的节点。删除子树时从这里找子树外部指向子树内部的引用边，不必遍历整个子树
+    final static String REFERENT_INDEX_NAME = "referentIndex";
+    final static String REFERENT_KEY_NAME = "referent";
+    //旧数据库没有referentIndex, 第一次打开时扫描所有边建立。建立完成后用这个键记录根节点
+    private final static String REFERENT_INDEX_BUILT_KEY_NAME = "built";
 
     //这几个属性使用频率不高，属性名可以长点
 	private final static String SAVED_PARENT_ID_PROP_NAME = "th_parent";
 	private final static String SAVED_POS_PROP_NAME = "th_pos";
 	public final static String SAVED_REFERRER_INFO_PROP_NAME = "th_referrers";
+    //子树内部指向外部的引用边
+	public final static String SAVED_REFERENT_INFO_PROP_NAME = "th_referents";
+    //只有被删除子树的根节点有这个属性，值是删除时间
     public final static String IS_TRASHED_PROP_NAME = PrefuseLib.FIELD_PREFIX + "isTrashed";
 
     public final static String VERTEX_CLASS = "mind_node";
@@ -72,6 +83,21 @@ abstract public class MindDB {
 
 	private Index<Vertex> m_rootIndex;
 	private Index<Vertex> m_trashIndex;
+    //m_trashIndex中所有子树根节点的id, 第一次使用时从m_trashIndex读入。TrashCollector在后台线程中删除其中的元素
+    volatile Set<Object> m_trashedRootIds;
+    //TrashCollector已经开始回收的子树根节点，不能再恢复。检查与修改都锁住这个集合
+    private final Set<Object> m_collectingRootIds = new HashSet<>();
+    //undo日志中还能恢复的子树根节点，TrashCollector不回收它们: 否则undo时恢复的是删除了一部分的子树。
+    //只需要startUp时从日志文件读入: 之后新增记录中的子树是本次启动后删除的，本来就不回收
+    private final Set<Object> m_undoJournalRootIds = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+	private Index<Vertex> m_referentIndex;
+
+    //引用边的两个端点在第一次删除子树时登记到m_adjacencyIndex, 之后随引用边的增删更新。
+    //id无法索引的(还没有提交的节点)放在m_unregisteredRefEndpoints中，下次删除子树时再登记
+    private boolean m_refEndpointsRegistered = false;
+    private ArrayList<Vertex> m_unregisteredRefEndpoints = new ArrayList<>();
+    //父节点变为未知，子树中有引用边端点的节点。读入它们到根节点的路径之前，端点的个数不完整
+    private ArrayList<Object> m_detachedRefEndpointIds = new ArrayList<>();
 
     Object m_rootId;
 
@@ -79,6 +105,22 @@ abstract public class MindDB {
 
     EdgeVertexIdCache m_edgeVertexIdCache = new EdgeVertexIdCache();
 
+    //父子关系索引，不限容量。关闭数据库时保存到快照文件，下次启动时读入
+    AdjacencyIndex m_adjacencyIndex = new AdjacencyIndex();
+
+    private TrashCollector m_trashCollector = new TrashCollector(this);
+    private volatile long m_commitCount = 0;
+    private int m_deferCommitDepth = 0;
+    private boolean m_commitDeferred = false;
+    private final static String ADJACENCY_INDEX_FILE_NAME = "adjacency.idx";
+    private final static String UNDO_JOURNAL_FILE_NAME = "undo.journal";
+    private final static String TEXT_INDEX_DIR_NAME = "textIndex";
+
+    //节点文字的全文索引, 在startUp中打开
+    TextIndex m_textIndex;
+    //还没有提交的删除与恢复, 提交后交给m_textIndex标记子树中的节点
+    private ArrayList<TextIndex.TrashMark> m_uncommittedTrashMarks = new ArrayList<>();
+
 
     MindDB(String path)
 	{
@@ -95,8 +137,10 @@ abstract public class MindDB {
 
             m_rootIndex = getOrCreateIndex(ROOT_INDEX_NAME);
             m_trashIndex = getOrCreateIndex(TRASH_INDEX_NAME);
+            m_referentIndex = getOrCreateIndex(REFERENT_INDEX_NAME);
 
-            createFullTextVertexKeyIndex(MindModel.TEXT_PROP_NAME);
+            //全文索引由m_textIndex维护
+            dropFullTextVertexKeyIndex(MindModel.TEXT_PROP_NAME);
 
             Vertex root = null;
             if (m_rootIndex.get(ROOT_KEY_NAME, ROOT_KEY_NAME).iterator().hasNext()) {
@@ -118,6 +162,20 @@ abstract public class MindDB {
 
             m_rootId = root.getId();
 
+            if (! m_referentIndex.get(REFERENT_INDEX_BUILT_KEY_NAME, REFERENT_INDEX_BUILT_KEY_NAME).iterator().hasNext()) {
+                buildReferentIndex(root);
+            }
+
+            loadAdjacencyIndex();
+            m_adjacencyIndex.setRoot(m_rootId);
+
+            //startUp之前删除的子树在后台回收, undo日志还引用的除外
+            loadUndoJournalRootIds();
+            m_trashCollector.start();
+
+            m_textIndex = new TextIndex(this, new File(m_path + File.separator + TEXT_INDEX_DIR_NAME));
+            m_textIndex.open();
+
         } catch (Exception e) {
             m_logger.error("startup mind db get exception: " + e.getMessage());
             m_logger.error("StackTrace: {}", Utils.getThrowableStackTraceString(e));
@@ -132,6 +190,9 @@ abstract public class MindDB {
 
     abstract void initBackGraph();
 
+    //打开同一个数据库的另一个实例，给其他线程使用
+    abstract TransactionalGraph openBackGraph();
+
 	private Vertex addVertex(Object arg0) {
         Vertex vertex =  m_graph.addVertex(null);
         vertex.setProperty(MindModel.TEXT_PROP_NAME, "a");
@@ -147,15 +208,194 @@ abstract public class MindDB {
 		return m_graph.getVertex(arg0);
 	}
 
+    //一次读取多个节点，返回的顺序与ids相同。子类可以用一次查询读取
+    public List<Vertex> getVerticesById(List<Object> ids) {
+        return getVerticesById(m_graph, ids);
+    }
+
+    //graph可以是后台线程自己的数据库实例
+    List<Vertex> getVerticesById(Graph graph, List<Object> ids) {
+        ArrayList<Vertex> vertices = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            vertices.add(graph.getVertex(id));
+        }
+        return vertices;
+    }
+
 	public void shutdown() {
-		cleanTrash ();
+        //m_graph.shutdown也会提交, 这里先提交，文字的修改才能进入全文索引
+        if (hasUncommittedChanges()) {
+            commit();
+        }
+
+        stopTrashCollector();
+        m_textIndex.close();
+        saveAdjacencyIndex();
 		m_graph.shutdown();
 	}
+
+    public TrashCollector getTrashCollector()
+    {
+        return m_trashCollector;
+    }
+
+    void startTrashCollector()
+    {
+        m_trashCollector.start();
+    }
+
+    void stopTrashCollector()
+    {
+        m_trashCollector.stop();
+        forgetCollectedVertices();
+    }
+
+    //把后台回收的节点从m_adjacencyIndex中去掉
+    private void forgetCollectedVertices()
+    {
+        Object dbId = m_trashCollector.pollRemovedVertexId();
+        while (dbId != null) {
+            m_adjacencyIndex.forgetVertex(dbId);
+            m_textIndex.removeVertex(dbId);
+            dbId = m_trashCollector.pollRemovedVertexId();
+        }
+    }
+
+    private File getAdjacencyIndexFile()
+    {
+        return new File(m_path + File.separator + ADJACENCY_INDEX_FILE_NAME);
+    }
+
+    //undo日志与数据库放在同一个目录，重新打开脑图时还能undo
+    File getUndoJournalFile()
+    {
+        return new File(m_path + File.separator + UNDO_JOURNAL_FILE_NAME);
+    }
+
+    private void loadUndoJournalRootIds()
+    {
+        File file = getUndoJournalFile();
+        if (! file.exists()) {
+            return;
+        }
+
+        UndoJournal journal = new UndoJournal(file, Long.MAX_VALUE);
+        for (int i=0; i<journal.size(); i++) {
+            try {
+                m_undoJournalRootIds.addAll(MindDelta.Group.fromBytes(journal.getRecord(i)).getSubTreeRootIds());
+            } catch (IOException e) {
+                //无法读取的记录在undo时丢掉
+                m_logger.warn("invalid undo record: " + e.getMessage());
+            }
+        }
+        journal.close();
+    }
+
+    boolean isReferredByUndoJournal(Object rootId)
+    {
+        return m_undoJournalRootIds.contains(rootId);
+    }
+
+    //读入后立即删除快照文件: 若程序异常退出，下次启动时快照不存在，索引从数据库中重新读取
+    private void loadAdjacencyIndex()
+    {
+        File file = getAdjacencyIndexFile();
+        if (! file.exists()) {
+            return;
+        }
+
+        try {
+            if (! m_adjacencyIndex.load(file)) {
+                m_logger.warn("invalid adjacency index snapshot: {}", file);
+            }
+        } catch (IOException e) {
+            m_logger.warn("load adjacency index failed: {}", e.getMessage());
+            m_adjacencyIndex.clear();
+        }
+
+        if (! file.delete()) {
+            m_logger.warn("can not delete adjacency index snapshot: {}", file);
+            m_adjacencyIndex.clear();
+        }
+    }
+
+    private void saveAdjacencyIndex()
+    {
+        try {
+            m_adjacencyIndex.save(getAdjacencyIndexFile());
+        } catch (IOException e) {
+            m_logger.warn("save adjacency index failed: {}", e.getMessage());
+            getAdjacencyIndexFile().delete();
+        }
+    }
+
+    //出边中前pos个边里，父子边的个数
+    static int getIncludeEdgeRank(List<EdgeVertexId> outEdgeVertexIds, int pos)
+    {
+        int rank = 0;
+        for (int i=0; i<pos; i++) {
+            if (outEdgeVertexIds.get(i).m_edgeType == EdgeType.INCLUDE) {
+                rank++;
+            }
+        }
+        return rank;
+    }
 	
 	public void commit() {
+        //新节点的id在提交时才变成正式的, 所以提交前取出修改, 提交后再交给全文索引
+        List<TextIndex.Change> textChanges = m_textIndex != null ?
+                getUncommittedTextChanges() : Collections.<TextIndex.Change>emptyList();
+
 		m_graph.commit();
+        m_commitCount++;
+
+        ArrayList<TextIndex.TrashMark> trashMarks = m_uncommittedTrashMarks;
+        m_uncommittedTrashMarks = new ArrayList<>();
+
+        if (m_textIndex != null) {
+            m_textIndex.addChanges(textChanges);
+            m_textIndex.addTrashMarks(trashMarks);
+        }
 	}
 
+    //批量修改期间，trashSubTree等操作不单独提交，最外层的endDeferringCommit提交一次。可以嵌套
+    void beginDeferringCommit()
+    {
+        m_deferCommitDepth++;
+    }
+
+    void endDeferringCommit()
+    {
+        assert m_deferCommitDepth > 0;
+        m_deferCommitDepth--;
+
+        if (m_deferCommitDepth == 0 && m_commitDeferred) {
+            m_commitDeferred = false;
+            commit();
+        }
+    }
+
+    private void commitOrDefer()
+    {
+        if (m_deferCommitDepth > 0) {
+            m_commitDeferred = true;
+        } else {
+            commit();
+        }
+    }
+
+    //每次提交加1。后台线程读到的数据，只有在读取期间界面线程没有提交过修改时才可以使用
+    public long getCommitCount()
+    {
+        return m_commitCount;
+    }
+
+    //界面线程的事务中是否有还没有提交的修改。有修改时，其他线程的数据库实例读不到这些修改
+    abstract boolean hasUncommittedChanges();
+
+    //界面线程的事务中新建、修改文字、删除的节点
+    abstract List<TextIndex.Change> getUncommittedTextChanges();
+
     abstract public Index<Vertex> getOrCreateIndex(final String indexName);
 
     abstract public void dropIndex(String indexName);
@@ -205,9 +445,10 @@ abstract public class MindDB {
         }
     }
 
-    public static String getOutEdgeInnerId(Edge edge)
+    public static long getOutEdgeInnerId(Edge edge)
     {
-        return edge.getProperty(EDGE_INNER_ID_PROP_NAME);
+        Long innerId = edge.getProperty(EDGE_INNER_ID_PROP_NAME);
+        return innerId;
     }
 
     public EdgeVertexId getEdgeVertexId(Edge edge) {
@@ -223,29 +464,72 @@ abstract public class MindDB {
     private List<EdgeVertexId> getOutEdgeVertexIdsFromBackDb(Vertex source)
     {
         ArrayList<EdgeVertexId> outEdgeIdPair = new ArrayList<>();
-        ArrayList<Edge> noInnerIdEdges = new ArrayList<>();
+        ArrayList<Edge> outEdges = new ArrayList<>();
+        boolean needMigrate = false;
 
         Iterator<Edge> outEdgeIterator = source.getEdges(Direction.OUT).iterator();
         while (outEdgeIterator.hasNext())
         {
             Edge outEdge = outEdgeIterator.next();
-            String innerId = getOutEdgeInnerId(outEdge);
-            if (innerId != null && innerId.length() > 0) {
-                outEdgeIdPair.add(new EdgeVertexId(outEdge));
-            } else {
-                noInnerIdEdges.add(outEdge);
+            outEdges.add(outEdge);
+
+            if (! (outEdge.getProperty(EDGE_INNER_ID_PROP_NAME) instanceof Long)) {
+                needMigrate = true;
             }
         }
 
-        Collections.sort(outEdgeIdPair);
+        if (needMigrate) {
+            migrateOutEdgeInnerIds(outEdges);
+        }
 
-        for (Edge noInnerIdEdge : noInnerIdEdges) {
-            insertToOrderedOutEdges(outEdgeIdPair, -1, noInnerIdEdge);
+        for (Edge outEdge : outEdges) {
+            outEdgeIdPair.add(new EdgeVertexId(outEdge));
         }
 
+        Collections.sort(outEdgeIdPair);
+        indexChildren(source.getId(), outEdgeIdPair);
+
         return outEdgeIdPair;
     }
 
+    private void indexChildren(Object sourceId, List<EdgeVertexId> outEdgeVertexIds)
+    {
+        ArrayList<Object> childIds = new ArrayList<>();
+        for (EdgeVertexId edgeVertexId : outEdgeVertexIds) {
+            if (edgeVertexId.m_edgeType == EdgeType.INCLUDE) {
+                childIds.add(edgeVertexId.m_targetId);
+            }
+        }
+        m_adjacencyIndex.setChildren(sourceId, childIds);
+    }
+
+    //在后台线程中读取出边，不修改数据库与缓存。有旧格式的innerId时返回null, 由界面线程读取并转换
+    List<EdgeVertexId> readOutEdgeVertexIds(Vertex source)
+    {
+        ArrayList<EdgeVertexId> outEdgeVertexIds = new ArrayList<>();
+
+        for (Edge outEdge : source.getEdges(Direction.OUT)) {
+            if (! (outEdge.getProperty(EDGE_INNER_ID_PROP_NAME) instanceof Long)) {
+                return null;
+            }
+            outEdgeVertexIds.add(new EdgeVertexId(outEdge));
+        }
+
+        Collections.sort(outEdgeVertexIds);
+        return outEdgeVertexIds;
+    }
+
+    //在界面线程中，把后台线程读到的出边放入缓存。已经缓存的不替换
+    void cacheOutEdgeVertexIds(Object sourceId, List<EdgeVertexId> outEdgeVertexIds)
+    {
+        if (m_edgeVertexIdCache.getOutEdgesOfOneVertex(sourceId) != null) {
+            return;
+        }
+
+        indexChildren(sourceId, outEdgeVertexIds);
+        m_edgeVertexIdCache.cacheOutEdgesOfOneVertex(sourceId, outEdgeVertexIds);
+    }
+
     /*
 	private List<EdgeVertexId> getOutEdgeVertexIds(Vertex source, boolean updateCache)
 	{
@@ -259,18 +543,24 @@ abstract public class MindDB {
 	}
 	*/
 
-    //返回的是一份拷贝，用户可以自由修改
-    public List<EdgeVertexId> getOutEdgeVertexIds(Vertex source)
+    //返回缓存中不可修改的快照，只读的调用者共享它，不复制。出边增删后缓存中换成新的快照，已返回的快照不变
+    public OutEdgeList getOutEdgeVertexIds(Vertex source)
     {
-        List<EdgeVertexId> outEdgeVertexIds = m_edgeVertexIdCache.getOutEdgesOfOneVertex(source.getId());
+        OutEdgeList outEdgeVertexIds = m_edgeVertexIdCache.getOutEdgesOfOneVertex(source.getId());
         if (outEdgeVertexIds == null) {
-            outEdgeVertexIds = getOutEdgeVertexIdsFromBackDb(source);
-            m_edgeVertexIdCache.cacheOutEdgesOfOneVertex(source.getId(), outEdgeVertexIds);
+            outEdgeVertexIds = m_edgeVertexIdCache.cacheOutEdgesOfOneVertex(source.getId(),
+                    getOutEdgeVertexIdsFromBackDb(source));
         }
 
         return outEdgeVertexIds;
     }
 
+    //要修改出边列表的调用者用这份拷贝，改完后再放入缓存
+    private List<EdgeVertexId> copyOutEdgeVertexIds(Vertex source)
+    {
+        return new ArrayList<>(getOutEdgeVertexIds(source));
+    }
+
     private EdgeVertex getParentFromBackDb(Vertex vertex)
     {
         if (vertex.getId().toString().equals("#9:2")) {
@@ -294,14 +584,46 @@ abstract public class MindDB {
 
         } else {
             Vertex parent = getEdgeSource(parentToVertex);
+
+            //旧版本的innerId是字符串: 先读一次父节点的出边, 整组兄弟换成long型的顺序键
+            if (! (parentToVertex.getProperty(EDGE_INNER_ID_PROP_NAME) instanceof Long)) {
+                getOutEdgeVertexIds(parent);
+                parentToVertex = getEdge(parentToVertex.getId());
+            }
+
             return new EdgeVertex(parent, vertex, parentToVertex);
         }
     }
 
+    //把dbId到根节点路径上的父子关系都读入m_adjacencyIndex。若路径上有无法索引的id，返回false
+    private boolean indexInheritPath(Object dbId)
+    {
+        Object unknownId = m_adjacencyIndex.getFirstUnknownAncestorOrSelf(dbId);
+
+        while (unknownId != null) {
+            if (! m_adjacencyIndex.canIndex(unknownId)) {
+                return false;
+            }
+
+            Object parentDbId = getParentDbId(unknownId);
+            if (parentDbId != null && ! m_adjacencyIndex.canIndex(parentDbId)) {
+                return false;
+            }
+
+            unknownId = m_adjacencyIndex.getFirstUnknownAncestorOrSelf(unknownId);
+        }
+
+        return true;
+    }
+
     public List getInheritPath(Object dbId)
     {
         assert !(dbId instanceof Vertex);
 
+        if (indexInheritPath(dbId)) {
+            return m_adjacencyIndex.getInheritPath(dbId);
+        }
+
         LinkedList inheritPath = new LinkedList();
 
         Object parentDbId = getParentDbId(dbId);
@@ -330,7 +652,22 @@ abstract public class MindDB {
     }
 
 
+    //区间标号只对从根节点开始，子节点列表已读取过的部分有效。其他节点沿父节点向上查找
+    public void setIntervalLabelEnabled(boolean enabled)
+    {
+        m_adjacencyIndex.setIntervalLabelEnabled(enabled);
+    }
+
     public boolean vertexIdIsDescendantOf(Object thiz, Object that) {
+        Boolean isDescendant = m_adjacencyIndex.isDescendantOfByLabel(thiz, that);
+        if (isDescendant != null) {
+            return isDescendant;
+        }
+
+        if (indexInheritPath(thiz)) {
+            return m_adjacencyIndex.isDescendantOf(thiz, that);
+        }
+
         List thizInheritPath = getInheritPath(thiz);
         return thizInheritPath.contains(that);
     }
@@ -340,8 +677,7 @@ abstract public class MindDB {
     }
 
     public boolean vertexIdIsAncestorOf(Object thiz, Object that) {
-        List thatInheritPath = getInheritPath(that);
-        return thatInheritPath.contains(thiz);
+        return vertexIdIsDescendantOf(that, thiz);
     }
 
     public boolean subTreeContainsVertexId(Object subTreeId, Object vertexId) {
@@ -354,104 +690,80 @@ abstract public class MindDB {
 		return EdgeType.values()[edgeTypeValue];
 	}
 
-    private char[] stringIdToCharArray(String id, int arraySize, char padding) {
-        assert id.length() < arraySize;
-
-        char chars[] = new char[arraySize];
-
-        int i, j;
-
-        for (i=0; i<id.length(); i++) {
-            chars[i] = id.charAt(i);
-        }
+    //旧版本的innerId是字符串 (a..z组成的26进制小数)，没有innerId的边排在最后。
+    //读取出边时，若有这样的边, 把这一组兄弟按原来的顺序换成long型的顺序键
+    private void migrateOutEdgeInnerIds(List<Edge> outEdges)
+    {
+        Collections.sort(outEdges, new Comparator<Edge>() {
+            public int compare(Edge e1, Edge e2) {
+                return compareOldInnerId(e1.getProperty(EDGE_INNER_ID_PROP_NAME),
+                        e2.getProperty(EDGE_INNER_ID_PROP_NAME));
+            }
+        });
 
-        for (j=i; j<arraySize; j++) {
-            chars[j] = padding;
+        long innerIds[] = SiblingOrder.getEvenlySpacedKeys(SiblingOrder.MIN_KEY, SiblingOrder.MAX_KEY, outEdges.size());
+        for (int i=0; i<outEdges.size(); i++) {
+            outEdges.get(i).setProperty(EDGE_INNER_ID_PROP_NAME, innerIds[i]);
         }
 
-        return chars;
+        m_logger.info("migrate {} out edges to long inner id", outEdges.size());
     }
 
-    private String getMiddleString(String lower, String upper)
+    //字符串在前, long在后，null在最后
+    private static int compareOldInnerId(Object id1, Object id2)
     {
-        //字符串比较类似纯小数的比较 "ab" < "ac" 类似  0.01 < 0.03
-        //  a看作0，  z看作9
-
-        assert lower != null;
-        assert upper != null;
-
-        if (lower.length() == 0 && upper.length() == 0) {
-            return  "h"; // "h" = 0.2, 根据二八定律，用户很有可能在后面追加节点
+        int rank1 = id1 instanceof String ? 0 : (id1 instanceof Long ? 1 : 2);
+        int rank2 = id2 instanceof String ? 0 : (id2 instanceof Long ? 1 : 2);
+
+        if (rank1 != rank2) {
+            return rank1 - rank2;
+        } else if (rank1 == 0) {
+            return ((String)id1).compareTo((String)id2);
+        } else if (rank1 == 1) {
+            return ((Long)id1).compareTo((Long)id2);
+        } else {
+            return 0;
         }
+    }
 
-        assert lower.compareTo(upper) < 0 || upper.length() == 0;
-
-        int charCount = lower.length() > upper.length() ? lower.length() : upper.length();
-        charCount += 2; //补上两位用户扩展
-
-        char lowerChars[] = stringIdToCharArray(lower, charCount, 'a');
-        char upperChars[] =  upper.length() == 0 ?
-                stringIdToCharArray("", charCount, 'z') :  stringIdToCharArray(upper, charCount, 'a');
-
-        int i = 0;
-
-        while(lowerChars[i] == upperChars[i]) {
-            i++;
+    //为插入到pos位置的count个边分配顺序键。若中间没有空位，附近的兄弟会被重新编号，数据库、outEdgeIdPairs与缓存同时更新
+    private long[] allocateInnerIds(Object sourceId, List<EdgeVertexId> outEdgeIdPairs, int pos, int count)
+    {
+        long innerIds[] = new long[outEdgeIdPairs.size()];
+        for (int i=0; i<innerIds.length; i++) {
+            innerIds[i] = outEdgeIdPairs.get(i).m_edgeInnerId;
         }
 
-        if (lowerChars[i] + 1 == upperChars[i]) {
-            //0.19994 , 0.2 中间有一个 0.19995
+        SiblingOrder.Renumbering renumbering = SiblingOrder.insert(innerIds, innerIds.length, pos, count);
 
-            i++;
+        if (renumbering.m_from < renumbering.m_to) {
+            m_logger.debug("renumber out edges [{}, {}) of {}", renumbering.m_from, renumbering.m_to, sourceId);
 
-            //跳过中间的999
-            while (lowerChars[i] == 'z') {
-                i++;
+            for (int i=renumbering.m_from; i<renumbering.m_to; i++) {
+                Edge edge = m_graph.getEdge(outEdgeIdPairs.get(i).m_edgeId);
+                edge.setProperty(EDGE_INNER_ID_PROP_NAME, renumbering.getRenumberedKey(pos, count, i));
+                outEdgeIdPairs.set(i, new EdgeVertexId(edge));
             }
 
-            if (lowerChars[i] == 'a') {
-                //如果是 0.19990, 返回 0.19992
-                lowerChars[i] = 'h';
-            } else {
-                //如果是 0.19993, 返回 0.19994
-                lowerChars[i]++;
-            }
-
-        } else {
-            //0.19999,  0.4123 之间有一个0.2
-            lowerChars[i]++;
+            m_edgeVertexIdCache.cacheOutEdgesOfOneVertex(sourceId, outEdgeIdPairs);
         }
 
-        return new String(lowerChars, 0, i+1);
+        long newInnerIds[] = new long[count];
+        for (int i=0; i<count; i++) {
+            newInnerIds[i] = renumbering.getInsertedKey(pos, i);
+        }
+        return newInnerIds;
     }
 
-
-    //TODO: 需要整理
     private EdgeVertexId insertToOrderedOutEdges(List<EdgeVertexId> outEdgeIdPairs, int pos, Edge edge)
     {
-        String newInnerId;
-        String upper;
-        String lower;
-
         if (pos < 0) {
             pos = outEdgeIdPairs.size();
         }
 
         assert pos <= outEdgeIdPairs.size();
 
-        if (pos == 0) {
-            lower = "";
-        } else  {
-            lower = outEdgeIdPairs.get(pos - 1).m_edgeInnerId;
-        }
-
-        if (pos == outEdgeIdPairs.size()) {
-            upper = "";
-        } else {
-            upper = outEdgeIdPairs.get(pos).m_edgeInnerId;
-        }
-
-        newInnerId = getMiddleString(lower, upper);
+        long newInnerId = allocateInnerIds(getEdgeSource(edge).getId(), outEdgeIdPairs, pos, 1)[0];
 
         edge.setProperty(EDGE_INNER_ID_PROP_NAME, newInnerId);
 
@@ -464,7 +776,7 @@ abstract public class MindDB {
 
 	private Edge addEdge(Vertex source, Vertex target, int pos, EdgeType edgeType)
 	{
-        List<EdgeVertexId> outEdgeVertexIds = getOutEdgeVertexIds(source);
+        List<EdgeVertexId> outEdgeVertexIds = copyOutEdgeVertexIds(source);
 
 		Edge edge = m_graph.addEdge(null, source, target, "E");
         edge.setProperty(EDGE_TYPE_PROP_NAME, edgeType.ordinal());
@@ -473,6 +785,18 @@ abstract public class MindDB {
 
         m_edgeVertexIdCache.addNewEdge(newEdgeVertexId);
 
+        if (edgeType == EdgeType.INCLUDE) {
+            int newPos = pos < 0 ? outEdgeVertexIds.size() - 1 : pos;
+            m_adjacencyIndex.setParent(target.getId(), source.getId());
+            m_adjacencyIndex.insertChild(source.getId(), getIncludeEdgeRank(outEdgeVertexIds, newPos), target.getId());
+        } else {
+            m_referentIndex.put(REFERENT_KEY_NAME, REFERENT_KEY_NAME, target);
+            if (m_refEndpointsRegistered) {
+                registerRefEndpoint(source);
+                registerRefEndpoint(target);
+            }
+        }
+
 		return edge;
 	}
 
@@ -492,9 +816,24 @@ abstract public class MindDB {
 
     private void removeEdge (Edge edge)
     {
-        Vertex source = edge.getVertex(Direction.OUT);
-        m_edgeVertexIdCache.removeInvalidEdge(new EdgeVertexId(edge));
+        EdgeVertexId edgeVertexId = new EdgeVertexId(edge);
+        m_edgeVertexIdCache.removeInvalidEdge(edgeVertexId);
         m_graph.removeEdge(edge);
+
+        if (edgeVertexId.m_edgeType == EdgeType.INCLUDE) {
+            m_adjacencyIndex.setParent(edgeVertexId.m_targetId, null);
+            m_adjacencyIndex.removeChild(edgeVertexId.m_sourceId, edgeVertexId.m_targetId);
+        } else {
+            Vertex referent = getVertex(edgeVertexId.m_targetId);
+            if (getReferrers(referent) == null) {
+                m_referentIndex.remove(REFERENT_KEY_NAME, REFERENT_KEY_NAME, referent);
+            }
+
+            if (m_refEndpointsRegistered) {
+                unregisterRefEndpointIfUnlinked(referent);
+                unregisterRefEndpointIfUnlinked(getVertex(edgeVertexId.m_sourceId));
+            }
+        }
     }
 
     public void removeRefEdge(Edge edge)
@@ -536,6 +875,7 @@ abstract public class MindDB {
 
         Edge edge = addEdge(parent, child, pos, EdgeType.INCLUDE);
         m_edgeVertexIdCache.addNewEdge(new EdgeVertexId(edge));
+        m_adjacencyIndex.setChildren(child.getId(), Collections.<Object>emptyList());
 
         verifyVertex(parent);
         verifyVertex(child);
@@ -543,9 +883,193 @@ abstract public class MindDB {
         return new EdgeVertex(parent, child, edge);
 	}
 
+    //导入大文件时，逐个调用addChild太慢：每次都要读父节点的出边，innerId越来越长，每个节点都要commit和verify
+    //BulkInsertSession一次性插入一串兄弟节点，每BULK_INSERT_COMMIT_INTERVAL个元素才commit一次
+    public final static int BULK_INSERT_COMMIT_INTERVAL = 5000;
+
+    private BulkInsertSession m_bulkInsertSession;
+    private int m_bulkInsertSessionOpenCount = 0;
+
+    //可以嵌套调用 (如DirectoryImporter内部再调用其他Importer), 嵌套的调用共用同一个session
+    public BulkInsertSession openBulkInsertSession()
+    {
+        return openBulkInsertSession(true);
+    }
+
+    //deferTextIndexRefresh: 导入期间不刷新全文索引的查询结果, 关闭session时刷新一次。由最外层的session决定
+    public BulkInsertSession openBulkInsertSession(boolean deferTextIndexRefresh)
+    {
+        if (m_bulkInsertSession == null) {
+            m_bulkInsertSession = new BulkInsertSession(deferTextIndexRefresh);
+        }
+        m_bulkInsertSessionOpenCount++;
+        return m_bulkInsertSession;
+    }
+
+    public class BulkInsertSession {
+        //本session内新建的节点 -> 其最后一个子节点的innerId, 新建节点的出边不必从数据库中读取
+        private HashMap<Object, Long> m_lastInnerIdOfNewVertices = new HashMap<>();
+
+        //本session之前就存在的父节点，关闭时再统一verify
+        private HashSet<Object> m_oldParentIds = new HashSet<>();
+
+        private int m_uncommittedElementCount = 0;
+
+        private final boolean m_deferTextIndexRefresh;
+
+        private BulkInsertSession(boolean deferTextIndexRefresh)
+        {
+            m_deferTextIndexRefresh = deferTextIndexRefresh;
+            if (m_deferTextIndexRefresh) {
+                m_textIndex.beginDeferringRefresh();
+            }
+        }
+
+        //pos < 0 表示追加到最后, 返回新节点的id。本session新建的父节点只能追加子节点
+        public List<Object> appendChildren(Object parentId, int pos, List<String> texts)
+        {
+            assert m_bulkInsertSession == this;
+
+            ArrayList<Object> childIds = new ArrayList<>(texts.size());
+            if (texts.isEmpty()) {
+                return childIds;
+            }
+
+            long innerIds[];
+
+            //新节点在父节点的子节点(不包括引用节点)中的位置, -1表示追加到最后
+            int firstChildRank = -1;
+
+            Long lastInnerId = m_lastInnerIdOfNewVertices.get(parentId);
+            if (lastInnerId != null) {
+                //新建的节点只会被追加子节点, pos只能是-1或者已有子节点的个数
+                assert pos < 0 || ! m_adjacencyIndex.isChildrenKnown(parentId)
+                        || pos == m_adjacencyIndex.getChildCount(parentId);
+                innerIds = SiblingOrder.getEvenlySpacedKeys(lastInnerId, SiblingOrder.MAX_KEY, texts.size());
+                assert innerIds != null;
+
+            } else {
+                List<EdgeVertexId> outEdgeVertexIds = copyOutEdgeVertexIds(getVertex(parentId));
+                if (pos < 0) {
+                    pos = outEdgeVertexIds.size();
+                }
+
+                assert pos <= outEdgeVertexIds.size();
+
+                innerIds = allocateInnerIds(parentId, outEdgeVertexIds, pos, texts.size());
+                firstChildRank = getIncludeEdgeRank(outEdgeVertexIds, pos);
+
+                m_oldParentIds.add(parentId);
+            }
+
+            ArrayList<Vertex> children = new ArrayList<>(texts.size());
+            boolean hasTemporaryId = false;
+            long createTime = System.currentTimeMillis();
+
+            for (String text : texts) {
+                Vertex child = m_graph.addVertex(null);
+                child.setProperty(MindModel.TEXT_PROP_NAME, text);
+                child.setProperty(CREATE_TIME_PROP_NAME, createTime);
+                children.add(child);
+
+                if (((ORecordId)child.getId()).isTemporary()) {
+                    hasTemporaryId = true;
+                }
+            }
+
+            //同addChild, 若id是临时的，commit一次把整串节点的id都转换成正式的
+            if (hasTemporaryId) {
+                commit();
+                m_uncommittedElementCount = 0;
+
+                for (int i=0; i<children.size(); i++) {
+                    children.set(i, getVertex(children.get(i).getId()));
+                }
+            }
+
+            Vertex parent = getVertex(parentId);
+            boolean parentIsNew = lastInnerId != null;
+
+            for (int i=0; i<children.size(); i++) {
+                Vertex child = children.get(i);
+
+                Edge edge = m_graph.addEdge(null, parent, child, "E");
+                edge.setProperty(EDGE_TYPE_PROP_NAME, EdgeType.INCLUDE.ordinal());
+                edge.setProperty(EDGE_INNER_ID_PROP_NAME, innerIds[i]);
+
+                //新建节点的出边没有被缓存过，不必更新缓存
+                if (! parentIsNew) {
+                    m_edgeVertexIdCache.addNewEdge(new EdgeVertexId(edge));
+                }
+
+                m_adjacencyIndex.setParent(child.getId(), parentId);
+                m_adjacencyIndex.setChildren(child.getId(), Collections.<Object>emptyList());
+                m_adjacencyIndex.insertChild(parentId, firstChildRank < 0 ? -1 : firstChildRank + i, child.getId());
+
+                m_lastInnerIdOfNewVertices.put(child.getId(), SiblingOrder.MIN_KEY);
+                childIds.add(child.getId());
+            }
+
+            if (parentIsNew) {
+                m_lastInnerIdOfNewVertices.put(parentId, innerIds[innerIds.length - 1]);
+            }
+
+            m_uncommittedElementCount += 2 * children.size();
+            if (m_uncommittedElementCount >= BULK_INSERT_COMMIT_INTERVAL) {
+                commit();
+                m_uncommittedElementCount = 0;
+            }
+
+            return childIds;
+        }
+
+        public Object appendChild(Object parentId, int pos, String text)
+        {
+            return appendChildren(parentId, pos, Collections.singletonList(text)).get(0);
+        }
+
+        //调用者保证不再给这个新节点追加子节点, 不再记录它, 流式导入时内存不随节点数增长
+        //之后若仍向它追加，按已有节点处理，只是慢一些
+        public void finishChildren(Object parentId)
+        {
+            m_lastInnerIdOfNewVertices.remove(parentId);
+        }
+
+        public void close()
+        {
+            assert m_bulkInsertSession == this && m_bulkInsertSessionOpenCount > 0;
+
+            m_bulkInsertSessionOpenCount--;
+            if (m_bulkInsertSessionOpenCount > 0) {
+                return;
+            }
+
+            commit();
+            m_bulkInsertSession = null;
+
+            if (m_deferTextIndexRefresh) {
+                m_textIndex.endDeferringRefresh();
+            }
+
+            for (Object oldParentId : m_oldParentIds) {
+                verifyVertex(getVertex(oldParentId));
+            }
+        }
+    }
+
     public int getChildOrReferentCount(Vertex vertex)
     {
-        return getOutEdgeVertexIds(vertex).size();
+        return getOutEdgeCount(vertex.getId());
+    }
+
+    //出边的个数。缓存中有时直接取计数，不复制出边列表
+    public int getOutEdgeCount(Object sourceId)
+    {
+        int count = m_edgeVertexIdCache.getOutEdgeCount(sourceId);
+        if (count < 0) {
+            count = getOutEdgeVertexIds(getVertex(sourceId)).size();
+        }
+        return count;
     }
 
 	public EdgeVertex getChildOrReferent(Vertex parent, int pos)
@@ -576,10 +1100,12 @@ abstract public class MindDB {
 	
     public EdgeVertexId getParentEdgeId(Object dbId)
     {
-        if (dbId.equals(m_rootId) || isInTrashIndex(dbId)) {
-            if (isInTrashIndex(dbId)) {
-                assert isVertexTrashed(getVertex(dbId));
-            }
+        if (dbId.equals(m_rootId)) {
+            return null;
+        }
+
+        if (isInTrashIndex(dbId)) {
+            assert isVertexTrashed(getVertex(dbId));
             return null;
         }
 
@@ -604,12 +1130,15 @@ abstract public class MindDB {
 
     public Object getParentDbId(Object dbId)
     {
-        EdgeVertexId edgeParentId = getParentEdgeId(dbId);
-        if (edgeParentId == null) {
-            return null;
-        } else {
-            return edgeParentId.m_sourceId;
+        if (m_adjacencyIndex.isParentKnown(dbId)) {
+            return m_adjacencyIndex.getParentId(dbId);
         }
+
+        EdgeVertexId edgeParentId = getParentEdgeId(dbId);
+        Object parentDbId = edgeParentId == null ? null : edgeParentId.m_sourceId;
+
+        m_adjacencyIndex.setParent(dbId, parentDbId);
+        return parentDbId;
     }
 
 
@@ -678,7 +1207,7 @@ abstract public class MindDB {
             sourceId = source.getId();
         }
 
-        List<EdgeVertexId> outEdgeVertexIds = getOutEdgeVertexIds(source);
+        List<EdgeVertexId> outEdgeVertexIds = copyOutEdgeVertexIds(source);
 
         int oldPos = getEdgeIndex(outEdgeVertexIds, edge.getId());
 
@@ -689,7 +1218,13 @@ abstract public class MindDB {
         outEdgeVertexIds.remove(new EdgeVertexId(edge));
 
         EdgeVertexId newEdgeVertexId = insertToOrderedOutEdges(outEdgeVertexIds, newPos, edge);
-        m_edgeVertexIdCache.updateEdgeInnerId(newEdgeVertexId);
+        m_edgeVertexIdCache.cacheOutEdgesOfOneVertex(sourceId, outEdgeVertexIds);
+
+        if (newEdgeVertexId.m_edgeType == EdgeType.INCLUDE) {
+            int rankPos = newPos < 0 ? outEdgeVertexIds.size() - 1 : newPos;
+            m_adjacencyIndex.moveChild(sourceId, newEdgeVertexId.m_targetId,
+                    getIncludeEdgeRank(outEdgeVertexIds, rankPos));
+        }
 
         return newEdgeVertexId;
     }
@@ -741,141 +1276,448 @@ abstract public class MindDB {
 		}
 	}
 
-	private void deepTraverse (Vertex vertex, Processor proc)
-	{
-		deepTraverse(vertex, proc, 0);
-	}
+	private void deepTraverse (Vertex vertex, Processor proc)
+	{
+		deepTraverse(vertex, proc, 0);
+	}
+
+    //删除子树时用，保存子树之外的节点到子树之内的节点的引用关系
+    //
+    //一组RefLinkInfo编码成一个byte[], 存为orientdb的BINARY属性: 版本号，个数，然后每个引用占定长的REF_LINK_INFO_BYTES字节。
+    //旧版本把每个RefLinkInfo作为OSerializableStream经base64编码后存成一个列表, 读取时仍然支持
+	public static class RefLinkInfo implements OSerializableStream, Comparable<RefLinkInfo> {
+		public final Object m_referrer;
+		public final Object m_referent;
+        public final Object m_edge;
+		public final int m_pos;
+		
+		RefLinkInfo (Object referrer, Object referent, Object edge, int pos)
+		{
+			m_referrer = referrer;
+			m_referent = referent;
+            m_edge = edge;
+			m_pos = pos;
+
+            assert referent instanceof ORecordId;
+            assert referrer instanceof ORecordId;
+            assert edge instanceof ORecordId;
+		}
+
+        final static byte FORMAT_VERSION = 1;
+        final static int HEADER_BYTES = 1 + 4;
+
+        //pos, 然后是referrer, referent, edge三个id的clusterId与clusterPosition
+        final static int REF_LINK_INFO_BYTES = 4 + 3 * (2 + 8);
+
+        private static void putRecordId(ByteBuffer byteBuffer, Object id)
+        {
+            ORecordId recordId = (ORecordId)id;
+            byteBuffer.putShort((short)recordId.getClusterId());
+            byteBuffer.putLong(recordId.getClusterPosition());
+        }
+
+        private static ORecordId getRecordId(ByteBuffer byteBuffer)
+        {
+            int clusterId = byteBuffer.getShort();
+            long clusterPosition = byteBuffer.getLong();
+            return new ORecordId(clusterId, clusterPosition);
+        }
+
+        static byte[] toBytes(List<RefLinkInfo> refLinkInfos)
+        {
+            byte bytes[] = new byte[HEADER_BYTES + REF_LINK_INFO_BYTES * refLinkInfos.size()];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+
+            byteBuffer.put(FORMAT_VERSION);
+            byteBuffer.putInt(refLinkInfos.size());
+
+            for (RefLinkInfo refLinkInfo : refLinkInfos) {
+                byteBuffer.putInt(refLinkInfo.m_pos);
+                putRecordId(byteBuffer, refLinkInfo.m_referrer);
+                putRecordId(byteBuffer, refLinkInfo.m_referent);
+                putRecordId(byteBuffer, refLinkInfo.m_edge);
+            }
+
+            assert ! byteBuffer.hasRemaining();
+            return bytes;
+        }
+
+        static ArrayList<RefLinkInfo> fromBytes(byte bytes[])
+        {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+
+            byte version = byteBuffer.get();
+            if (version != FORMAT_VERSION) {
+                throw new OSerializationException("unknown RefLinkInfo format version: " + version);
+            }
+
+            int count = byteBuffer.getInt();
+            ArrayList<RefLinkInfo> refLinkInfos = new ArrayList<>(count);
+
+            for (int i=0; i<count; i++) {
+                int pos = byteBuffer.getInt();
+                ORecordId referrer = getRecordId(byteBuffer);
+                ORecordId referent = getRecordId(byteBuffer);
+                ORecordId edge = getRecordId(byteBuffer);
+                refLinkInfos.add(new RefLinkInfo(referrer, referent, edge, pos));
+            }
+
+            assert ! byteBuffer.hasRemaining();
+            return refLinkInfos;
+        }
+
+        //读取SAVED_REFERRER_INFO_PROP_NAME属性, 新的BINARY格式或旧的RefLinkInfo列表。没有属性时返回空列表
+        static ArrayList<RefLinkInfo> readProperty(Element element, String propName)
+        {
+            Object property = element.getProperty(propName);
+
+            if (property instanceof byte[]) {
+                return fromBytes((byte[])property);
+
+            } else {
+                ArrayList<Object> oldRefLinkInfos = getContainerProperty(element, propName);
+                ArrayList<RefLinkInfo> refLinkInfos = new ArrayList<>(oldRefLinkInfos.size());
+                for (Object obj : oldRefLinkInfos) {
+                    refLinkInfos.add((RefLinkInfo) obj);
+                }
+                return refLinkInfos;
+            }
+        }
+
+        static void writeProperty(Element element, String propName, List<RefLinkInfo> refLinkInfos)
+        {
+            if (refLinkInfos.isEmpty()) {
+                element.removeProperty(propName);
+            } else {
+                element.setProperty(propName, toBytes(refLinkInfos));
+            }
+        }
+
+        //以下是旧格式, 只用于读取旧数据库中已经删除的子树
+        public byte[] toStream() throws OSerializationException
+        {
+            byte referrerBytes[] = ((ORecordId)m_referrer).toStream();
+            byte referentBytes[] = ((ORecordId)m_referent).toStream();
+            byte edgeBytes[] = ((ORecordId)m_edge).toStream();
+
+            ByteBuffer byteBuffer = ByteBuffer.allocate(16 + referrerBytes.length + referentBytes.length + edgeBytes.length);
+
+            byteBuffer.putInt(m_pos);
+            byteBuffer.putInt(referrerBytes.length);
+            byteBuffer.putInt(referentBytes.length);
+            byteBuffer.putInt(edgeBytes.length);
+
+            byteBuffer.put(referrerBytes);
+            byteBuffer.put(referentBytes);
+            byteBuffer.put(edgeBytes);
+
+            //orientdb内部不是直接存byte[], 而是先把它当成utf-8字符串先解析一遍，再存储。不知道为什么这样
+            //所以这里用base64 转换一下
+            return Base64.encodeBase64(byteBuffer.array());
+        }
+
+        public RefLinkInfo fromStream(byte[] iStream) throws OSerializationException
+        {
+            iStream = Base64.decodeBase64(iStream);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(iStream);
+            int pos = byteBuffer.getInt();
+            int referrerByteLength = byteBuffer.getInt();
+            int referentByteLength = byteBuffer.getInt();
+            int edgeByteLength = byteBuffer.getInt();
+
+            int from = 16;
+            int to = from + referrerByteLength;
+            byte referrerByte[] = Arrays.copyOfRange(iStream, from, to);
+
+            from = to;
+            to += referentByteLength;
+            byte referentByte[] = Arrays.copyOfRange(iStream, from, to);
+
+            from = to;
+            to += edgeByteLength;
+            byte edgeByte[] = Arrays.copyOfRange(iStream, from, to);
+
+            assert to == iStream.length;
+
+            ORecordId referrer = (new ORecordId()).fromStream(referrerByte);
+            ORecordId referent = (new ORecordId()).fromStream(referentByte);
+            ORecordId edge = (new ORecordId()).fromStream(edgeByte);
+            return new RefLinkInfo(referrer, referent, edge, pos);
+        }
+
+        public int compareTo(RefLinkInfo other) {
+            if (! m_referrer.equals(other.m_referrer)) {
+                return m_referrer.hashCode() - other.m_referrer.hashCode();
+            } else {
+                return m_pos - other.m_pos;
+            }
+        }
+    }
+
+    static public int getEdgeIndex(List<EdgeVertexId> edges, Object edgeId)
+    {
+        for (int i=0; i<edges.size(); i++) {
+            if (edges.get(i).m_edgeId.equals(edgeId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void buildReferentIndex(Vertex root)
+    {
+        m_logger.info("build referent index");
+
+        for (Edge edge : m_graph.getEdges()) {
+            if (getEdgeType(edge) == EdgeType.REFERENCE) {
+                m_referentIndex.put(REFERENT_KEY_NAME, REFERENT_KEY_NAME, getEdgeTarget(edge));
+            }
+        }
+
+        m_referentIndex.put(REFERENT_INDEX_BUILT_KEY_NAME, REFERENT_INDEX_BUILT_KEY_NAME, root);
+        m_graph.commit();
+    }
+
+    private boolean hasRefEdges(Vertex vertex)
+    {
+        if (getReferrers(vertex) != null) {
+            return true;
+        }
+
+        for (EdgeVertexId outEdge : getOutEdgeVertexIds(vertex)) {
+            if (outEdge.m_edgeType == EdgeType.REFERENCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void registerRefEndpoint(Vertex vertex)
+    {
+        if (! indexInheritPath(vertex.getId()) || ! m_adjacencyIndex.setRefEndpoint(vertex.getId(), true)) {
+            m_unregisteredRefEndpoints.add(vertex);
+        }
+    }
+
+    private void unregisterRefEndpointIfUnlinked(Vertex vertex)
+    {
+        if (! hasRefEdges(vertex)) {
+            m_adjacencyIndex.setRefEndpoint(vertex.getId(), false);
+            m_unregisteredRefEndpoints.remove(vertex);
+        }
+    }
+
+    //保证m_adjacencyIndex中引用边端点的个数完整。有到根节点的路径无法读入时返回false
+    private boolean registerRefEndpoints()
+    {
+        if (! m_refEndpointsRegistered) {
+            m_refEndpointsRegistered = true;
+            for (Vertex referent : m_referentIndex.get(REFERENT_KEY_NAME, REFERENT_KEY_NAME)) {
+                if (referent == null) {
+                    continue;
+                }
+
+                registerRefEndpoint(referent);
+
+                ArrayList<EdgeVertex> referrers = getReferrers(referent);
+                if (referrers != null) {
+                    for (EdgeVertex referrer : referrers) {
+                        registerRefEndpoint(referrer.m_source);
+                    }
+                }
+            }
+        }
+
+        ArrayList<Vertex> unregisteredRefEndpoints = m_unregisteredRefEndpoints;
+        m_unregisteredRefEndpoints = new ArrayList<>();
+        for (Vertex vertex : unregisteredRefEndpoints) {
+            if (getVertex(vertex.getId()) != null) {
+                registerRefEndpoint(vertex);
+            }
+        }
+
+        m_detachedRefEndpointIds.addAll(m_adjacencyIndex.takeDetachedRefEndpointIds());
+        Iterator<Object> iterator = m_detachedRefEndpointIds.iterator();
+        while (iterator.hasNext()) {
+            if (indexInheritPath(iterator.next())) {
+                iterator.remove();
+            }
+        }
+
+        return m_detachedRefEndpointIds.isEmpty();
+    }
+
+    //只沿子树中有引用边端点的子节点向下，找出子树中登记过的端点。有子节点列表无法索引时返回false
+    private boolean collectRefEndpointsInSubTree(Object subTreeId, ArrayList<Vertex> endpoints)
+    {
+        LinkedList<Object> stack = new LinkedList<>();
+        stack.add(subTreeId);
+
+        while (! stack.isEmpty()) {
+            Object dbId = stack.removeLast();
+            if (m_adjacencyIndex.getRefEndpointCount(dbId) == 0) {
+                continue;
+            }
+
+            Vertex vertex = getVertex(dbId);
+            if (vertex == null) {
+                return false;
+            }
+
+            if (m_adjacencyIndex.isRefEndpoint(dbId)) {
+                endpoints.add(vertex);
+            }
 
-    //删除子树时用，保存子树之外的节点到子树之内的节点的引用关系
-	public static class RefLinkInfo implements OSerializableStream, Comparable<RefLinkInfo> {
-		public final Object m_referrer;
-		public final Object m_referent;
-        public final Object m_edge;
-		public final int m_pos;
-		
-		RefLinkInfo (Object referrer, Object referent, Object edge, int pos)
-		{
-			m_referrer = referrer;
-			m_referent = referent;
-            m_edge = edge;
-			m_pos = pos;
+            if (! m_adjacencyIndex.isChildrenKnown(dbId)) {
+                indexChildren(dbId, getOutEdgeVertexIds(vertex));
+                if (! m_adjacencyIndex.isChildrenKnown(dbId)) {
+                    return false;
+                }
+            }
 
-            assert referent instanceof ORecordId;
-            assert referrer instanceof ORecordId;
-            assert edge instanceof ORecordId;
-		}
+            stack.addAll(m_adjacencyIndex.getRefEndpointBearingChildIds(dbId));
+        }
 
-        public byte[] toStream() throws OSerializationException
-        {
-            byte referrerBytes[] = ((ORecordId)m_referrer).toStream();
-            byte referentBytes[] = ((ORecordId)m_referent).toStream();
-            byte edgeBytes[] = ((ORecordId)m_edge).toStream();
+        return true;
+    }
 
-            ByteBuffer byteBuffer = ByteBuffer.allocate(16 + referrerBytes.length + referentBytes.length + edgeBytes.length);
+    //子树外部指向子树内部的引用边放入inRefEdges, 子树内部指向外部的放入outRefEdges。
+    //代价与子树中引用边端点到子树根的路径有关, 与子树大小和引用边的总数无关
+    private void getRefEdgesAcrossSubTree(Object subTreeId, ArrayList<EdgeVertex> inRefEdges, ArrayList<EdgeVertex> outRefEdges)
+    {
+        ArrayList<Vertex> endpoints = new ArrayList<>();
 
-            byteBuffer.putInt(m_pos);
-            byteBuffer.putInt(referrerBytes.length);
-            byteBuffer.putInt(referentBytes.length);
-            byteBuffer.putInt(edgeBytes.length);
+        if (! registerRefEndpoints() || ! collectRefEndpointsInSubTree(subTreeId, endpoints)) {
+            getRefEdgesAcrossSubTreeByReferentIndex(subTreeId, inRefEdges, outRefEdges);
+            return;
+        }
 
-            byteBuffer.put(referrerBytes);
-            byteBuffer.put(referentBytes);
-            byteBuffer.put(edgeBytes);
+        for (Vertex vertex : m_unregisteredRefEndpoints) {
+            if (subTreeContainsVertexId(subTreeId, vertex.getId())) {
+                endpoints.add(vertex);
+            }
+        }
 
-            //orientdb内部不是直接存byte[], 而是先把它当成utf-8字符串先解析一遍，再存储。不知道为什么这样
-            //所以这里用base64 转换一下
-            return Base64.encodeBase64(byteBuffer.array());
+        HashSet<Object> visitedIds = new HashSet<>();
+
+        for (Vertex endpoint : endpoints) {
+            if (! visitedIds.add(endpoint.getId())) {
+                continue;
+            }
+
+            ArrayList<EdgeVertex> referrers = getReferrers(endpoint);
+            if (referrers != null) {
+                for (EdgeVertex referrer : referrers) {
+                    //跳过被删除子树内部的引用关系
+                    if (! subTreeContainsVertexId(subTreeId, referrer.m_source.getId())) {
+                        inRefEdges.add(referrer);
+                    }
+                }
+            }
+
+            for (EdgeVertexId outEdge : getOutEdgeVertexIds(endpoint)) {
+                if (outEdge.m_edgeType == EdgeType.REFERENCE && ! subTreeContainsVertexId(subTreeId, outEdge.m_targetId)) {
+                    outRefEdges.add(outEdge.getEdgeVertex());
+                }
+            }
         }
+    }
 
-        public RefLinkInfo fromStream(byte[] iStream) throws OSerializationException
-        {
-            iStream = Base64.decodeBase64(iStream);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(iStream);
-            int pos = byteBuffer.getInt();
-            int referrerByteLength = byteBuffer.getInt();
-            int referentByteLength = byteBuffer.getInt();
-            int edgeByteLength = byteBuffer.getInt();
+    //m_adjacencyIndex不完整时，检查m_referentIndex中所有的引用边: 两个端点只有一个在子树中
+    private void getRefEdgesAcrossSubTreeByReferentIndex(Object subTreeId,
+                                                         ArrayList<EdgeVertex> inRefEdges, ArrayList<EdgeVertex> outRefEdges)
+    {
+        ArrayList<Vertex> staleReferents = new ArrayList<>();
 
-            int from = 16;
-            int to = from + referrerByteLength;
-            byte referrerByte[] = Arrays.copyOfRange(iStream, from, to);
+        for (Vertex referent : m_referentIndex.get(REFERENT_KEY_NAME, REFERENT_KEY_NAME)) {
+            if (referent == null) {
+                continue;
+            }
 
-            from = to;
-            to += referentByteLength;
-            byte referentByte[] = Arrays.copyOfRange(iStream, from, to);
+            ArrayList<EdgeVertex> referrers = getReferrers(referent);
+            if (referrers == null) {
+                staleReferents.add(referent);
+                continue;
+            }
 
-            from = to;
-            to += edgeByteLength;
-            byte edgeByte[] = Arrays.copyOfRange(iStream, from, to);
+            boolean isReferentInSubTree = subTreeContainsVertexId(subTreeId, referent.getId());
 
-            assert to == iStream.length;
+            for (EdgeVertex referrer : referrers) {
+                boolean isReferrerInSubTree = subTreeContainsVertexId(subTreeId, referrer.m_source.getId());
 
-            ORecordId referrer = (new ORecordId()).fromStream(referrerByte);
-            ORecordId referent = (new ORecordId()).fromStream(referentByte);
-            ORecordId edge = (new ORecordId()).fromStream(edgeByte);
-            return new RefLinkInfo(referrer, referent, edge, pos);
+                if (isReferentInSubTree && ! isReferrerInSubTree) {
+                    inRefEdges.add(referrer);
+                } else if (! isReferentInSubTree && isReferrerInSubTree) {
+                    outRefEdges.add(referrer);
+                }
+            }
         }
 
-        public int compareTo(RefLinkInfo other) {
-            if (! m_referrer.equals(other.m_referrer)) {
-                return m_referrer.hashCode() - other.m_referrer.hashCode();
-            } else {
-                return m_pos - other.m_pos;
-            }
+        for (Vertex referent : staleReferents) {
+            m_referentIndex.remove(REFERENT_KEY_NAME, REFERENT_KEY_NAME, referent);
         }
     }
 
-    static public int getEdgeIndex(List<EdgeVertexId> edges, Object edgeId)
+    //先记下所有引用边的位置，再删除边。同一节点有多个引用边时，记下的是删除之前的位置, 按位置从小到大恢复
+    private ArrayList<RefLinkInfo> removeRefEdges(List<EdgeVertex> refEdges)
     {
-        for (int i=0; i<edges.size(); i++) {
-            if (edges.get(i).m_edgeId.equals(edgeId)) {
-                return i;
+        ArrayList<RefLinkInfo> refLinkInfos = new ArrayList<>();
+
+        for (EdgeVertex refEdge : refEdges) {
+            List<EdgeVertexId> outEdgeIdPairsOfReferrer = m_edgeVertexIdCache.getOutEdgesOfOneVertex(refEdge.m_source.getId());
+            if (outEdgeIdPairsOfReferrer == null) {
+                outEdgeIdPairsOfReferrer = getOutEdgeVertexIdsFromBackDb(refEdge.m_source);
+                //因为重复利用率不高，所以此处不必再加入m_outEdgeInnerIdCache
             }
+
+            int edgeIndex = getEdgeIndex(outEdgeIdPairsOfReferrer, refEdge.m_edge.getId());
+
+            refLinkInfos.add(new RefLinkInfo(refEdge.m_source.getId(), refEdge.m_target.getId(),
+                    refEdge.m_edge.getId(), edgeIndex));
         }
-        return -1;
-    }
 
-	//return the removed vertex
-	public void trashSubTree(final Vertex removedVertex)
-	{
-        //collect the refer info, to help update display tree
-        final ArrayList<RefLinkInfo> refLinkInfos = new ArrayList<> ();
+        for (EdgeVertex refEdge : refEdges) {
+            removeRefEdge(refEdge.m_edge);
+        }
 
-		deepTraverse(removedVertex, new Processor() {
-			
-			public boolean run(Vertex vertex, int level) {
-				ArrayList<EdgeVertex> referrers = getReferrers(vertex);
-				
-				if (referrers != null)
-				{
-					for (EdgeVertex referrer : referrers)
-					{
-                        //跳过被删除子树内部的引用关系
-                        if (subTreeContainsVertexId(removedVertex.getId(), referrer.m_source.getId())) {
-                            continue;
-                        }
+        //需要先按照边的位置排序，保证恢复的时候，按照位置从小到大的顺序添加引用边
+        Collections.sort(refLinkInfos);
+        return refLinkInfos;
+    }
 
-                        List<EdgeVertexId> outEdgeIdPairsOfReferrer = m_edgeVertexIdCache.getOutEdgesOfOneVertex(referrer.m_source.getId());
-                        if (outEdgeIdPairsOfReferrer == null) {
-                            outEdgeIdPairsOfReferrer = getOutEdgeVertexIdsFromBackDb(referrer.m_source);
-                            //因为重复利用率不高，所以此处不必再加入m_outEdgeInnerIdCache
-                        }
+    private void restoreRefEdges(List<RefLinkInfo> refLinkInfos)
+    {
+        for (RefLinkInfo refLinkInfo : refLinkInfos) {
+            Vertex referrer = getVertex(refLinkInfo.m_referrer);
+            Vertex referent = getVertex(refLinkInfo.m_referent);
 
-                        int edgeIndex = getEdgeIndex(outEdgeIdPairsOfReferrer, referrer.m_edge.getId());
+            //另一端已经被回收站彻底删除
+            if (referrer == null || referent == null) {
+                m_logger.warn("skip reference {} -> {}, vertex removed", refLinkInfo.m_referrer, refLinkInfo.m_referent);
+                continue;
+            }
 
-                        refLinkInfos.add(new RefLinkInfo(referrer.m_source.getId(), referrer.m_target.getId(),
-                                referrer.m_edge.getId(), edgeIndex));
+            addEdge(referrer, referent, refLinkInfo.m_pos, EdgeType.REFERENCE);
+        }
+    }
 
-                        removeRefEdge(referrer.m_edge);
-					}
-				}
+	//只标记子树的根节点, 子树内的其他节点通过isVertexIdTrashed沿祖先链判断
+	public void trashSubTree(final Vertex removedVertex)
+	{
+        forgetCollectedVertices();
 
-                vertex.setProperty(IS_TRASHED_PROP_NAME, System.currentTimeMillis());
+        ArrayList<EdgeVertex> inRefEdges = new ArrayList<>();
+        ArrayList<EdgeVertex> outRefEdges = new ArrayList<>();
+        getRefEdgesAcrossSubTree(removedVertex.getId(), inRefEdges, outRefEdges);
 
-				return true;
-			}
-		});
+        //collect the refer info, to help update display tree
+        final ArrayList<RefLinkInfo> refLinkInfos = removeRefEdges(inRefEdges);
+
+        //子树引出的引用边也在这里删除: 若由TrashCollector删除, 它会在另一个数据库实例中修改子树外部节点的入边,
+        //界面线程下次提交时发生冲突
+        ArrayList<RefLinkInfo> referentLinkInfos = removeRefEdges(outRefEdges);
 
+        removedVertex.setProperty(IS_TRASHED_PROP_NAME, System.currentTimeMillis());
 
         //由于被删除节点的父节点可能引用了子树的其他节点。 所以: 删除时，先删除引用边，再删除子树, 恢复时，先恢复子树，再恢复引用边
         //而且恢复时，引用边要根据边的位置，防止位置错乱
@@ -888,18 +1730,19 @@ abstract public class MindDB {
 		removedVertex.setProperty(SAVED_PARENT_ID_PROP_NAME, edgeParent.m_source.getId());
 		removedVertex.setProperty(SAVED_POS_PROP_NAME, removedVertexIndex);
 
-        //需要先按照边的位置排序，保证恢复的时候，按照位置从小到大的顺序添加引用边
-        Collections.sort(refLinkInfos);
-        setContainerProperty(removedVertex, SAVED_REFERRER_INFO_PROP_NAME, refLinkInfos);
+        RefLinkInfo.writeProperty(removedVertex, SAVED_REFERRER_INFO_PROP_NAME, refLinkInfos);
+        RefLinkInfo.writeProperty(removedVertex, SAVED_REFERENT_INFO_PROP_NAME, referentLinkInfos);
 
         removeEdge(edgeParent.m_edge);
 
 		m_trashIndex.put(TRASH_KEY_NAME, TRASH_KEY_NAME, removedVertex);
+        getTrashedRootIds().add(removedVertex.getId());
+        m_uncommittedTrashMarks.add(new TextIndex.TrashMark(removedVertex.getId(), true));
 
         if (m_graph instanceof OrientGraph) {
             ((OrientIndex)m_trashIndex).getUnderlying().flush();
         }
-        m_graph.commit();
+        commitOrDefer();
 
         verifyTrashedTree(removedVertex);
 	}
@@ -929,126 +1772,124 @@ abstract public class MindDB {
         }
 
         int pos = (Integer)vertex.getProperty(SAVED_POS_PROP_NAME);
-        ArrayList<Object> refLinkInfoes = getContainerProperty(vertex, SAVED_REFERRER_INFO_PROP_NAME);
+        ArrayList<RefLinkInfo> refLinkInfos = RefLinkInfo.readProperty(vertex, SAVED_REFERRER_INFO_PROP_NAME);
 
         assert (parentId != null);
 
-        if (refLinkInfoes == null) {
-            return new TrashedTreeContext (parentId, pos, null);
-
-        } else {
-            ArrayList<RefLinkInfo> new_array = new ArrayList<RefLinkInfo>();
-            for (Object obj : refLinkInfoes)
-            {
-                RefLinkInfo refLinkInfo = (RefLinkInfo) obj;
-                new_array.add(refLinkInfo);
-            }
-
-            return new TrashedTreeContext (parentId, pos, new_array);
-        }
-
+        return new TrashedTreeContext (parentId, pos, refLinkInfos);
     }
 	
 	//return parent vertex, and 
+    //子树已经开始被TrashCollector回收时不能恢复, 返回null
 	public EdgeVertex restoreTrashedSubTree(Vertex vertex)
 	{
         assert isInTrashIndex(vertex.getId());
 
+        //从m_trashedRootIds中去掉后, 回收线程不会再开始回收这个子树
+        synchronized (m_collectingRootIds) {
+            if (m_collectingRootIds.contains(vertex.getId())) {
+                m_logger.warn("trashed subtree {} is being collected, can not restore it", vertex.getId());
+                return null;
+            }
+            getTrashedRootIds().remove(vertex.getId());
+        }
+
 		Object parentId = vertex.getProperty(SAVED_PARENT_ID_PROP_NAME);
         if (parentId instanceof Vertex) {
             parentId = ((Vertex)parentId).getId();
         }
 
 		int pos = vertex.getProperty(SAVED_POS_PROP_NAME);
-		ArrayList<Object> refLinkInfoes = getContainerProperty(vertex, SAVED_REFERRER_INFO_PROP_NAME);
+		ArrayList<RefLinkInfo> refLinkInfos = RefLinkInfo.readProperty(vertex, SAVED_REFERRER_INFO_PROP_NAME);
+		ArrayList<RefLinkInfo> referentLinkInfos = RefLinkInfo.readProperty(vertex, SAVED_REFERENT_INFO_PROP_NAME);
 		
 		Vertex parent = getVertex(parentId);
 		Edge edge = addEdge(parent, vertex, pos, EdgeType.INCLUDE);
-		
-		if (refLinkInfoes != null)
-		{
-			for (Object obj : refLinkInfoes)
-			{
-				RefLinkInfo refLinkInfo = (RefLinkInfo) obj;
-				addEdge(getVertex(refLinkInfo.m_referrer),
-                        getVertex(refLinkInfo.m_referent),
-                        refLinkInfo.m_pos,
-                        EdgeType.REFERENCE);
-			}
-		}
 
-        deepTraverse(vertex, new Processor() {
-            public boolean run(Vertex vertex, int level) {
-                vertex.removeProperty(IS_TRASHED_PROP_NAME);
-                return true;
-            }
-        });
+        restoreRefEdges(refLinkInfos);
+        restoreRefEdges(referentLinkInfos);
 
+        vertex.removeProperty(IS_TRASHED_PROP_NAME);
 		vertex.removeProperty(SAVED_PARENT_ID_PROP_NAME);
 		vertex.removeProperty(SAVED_POS_PROP_NAME);
 		vertex.removeProperty(SAVED_REFERRER_INFO_PROP_NAME);
+		vertex.removeProperty(SAVED_REFERENT_INFO_PROP_NAME);
 
         m_trashIndex.remove(TRASH_KEY_NAME, TRASH_KEY_NAME, vertex);
+        m_uncommittedTrashMarks.add(new TextIndex.TrashMark(vertex.getId(), false));
 
         assert(!(parentId instanceof Vertex));
 		return new EdgeVertex(parent, vertex, edge);
 	}
 
-    private void removeSubTree(Vertex root)
+    private Set<Object> getTrashedRootIds()
     {
-        for (EdgeVertex edgeVertex : getChildrenAndReferents(root)) {
-            if (getEdgeType(edgeVertex.m_edge) == EdgeType.INCLUDE) {
-                removeSubTree(edgeVertex.m_target);
-            }
-        }
+        return getTrashedRootIds(m_trashIndex);
+    }
 
-        try {
-            Long trashedTime =  root.getProperty(IS_TRASHED_PROP_NAME);
-            if (trashedTime == null) {
-                return;
-            }
+    //TrashCollector用自己数据库实例中的trashIndex调用。两个线程同时第一次使用时, 只读入一次
+    Set<Object> getTrashedRootIds(Index<Vertex> trashIndex)
+    {
+        Set<Object> trashedRootIds = m_trashedRootIds;
+        if (trashedRootIds != null) {
+            return trashedRootIds;
+        }
 
-            assert trashedTime != null;
-            Date date = new Date(trashedTime);
+        synchronized (m_collectingRootIds) {
+            if (m_trashedRootIds == null) {
+                trashedRootIds = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
 
-            m_logger.info("remove vertex trashed at {}",  date);
-            m_graph.removeVertex(root);
+                for (Vertex trashedRoot : trashIndex.get(TRASH_KEY_NAME, TRASH_KEY_NAME)) {
+                    //FIXME: 会不会null做为遍历的结尾，有待验证
+                    if (trashedRoot == null) {
+                        continue;
+                    }
+                    trashedRootIds.add(trashedRoot.getId());
+                }
 
-        } catch (ORecordNotFoundException e) {
-            m_logger.warn("remove Vertex: not found: {}, exception {}", root.getId(), e);
+                m_trashedRootIds = trashedRootIds;
+            }
+            return m_trashedRootIds;
         }
     }
 
     private boolean isInTrashIndex(Object dbId) {
+        return getTrashedRootIds().contains(dbId);
+    }
 
-        for (Vertex trashedRoot : m_trashIndex.get(TRASH_KEY_NAME, TRASH_KEY_NAME)) {
-            //FIXME: 会不会null做为遍历的结尾，有待验证
-            if (trashedRoot == null) {
-                continue;
-            }
-            if (dbId.equals(trashedRoot.getId())) {
-                return true;
+    //TrashCollector删除每一批节点之前调用，在后台线程中。子树已经被恢复时返回false。
+    //返回true之后，子树不能再恢复, 即使回收中途停止: 已经删除了一部分节点
+    boolean beginCollectingTrashedSubTree(Object rootId)
+    {
+        synchronized (m_collectingRootIds) {
+            Set<Object> trashedRootIds = m_trashedRootIds;
+            if (trashedRootIds != null && ! trashedRootIds.contains(rootId)) {
+                return false;
             }
+            m_collectingRootIds.add(rootId);
+            return true;
         }
-        return false;
     }
 
-	private void cleanTrash ()
-	{
-        for (Vertex vertex: m_trashIndex.get(TRASH_KEY_NAME, TRASH_KEY_NAME)) {
-            if (vertex == null) {
-                break;
-            }
+    public boolean isTrashedSubTreeCollecting(Object rootId)
+    {
+        synchronized (m_collectingRootIds) {
+            return m_collectingRootIds.contains(rootId);
+        }
+    }
 
-            try {
-                removeSubTree(vertex);
-            } catch (Exception e) {
-                e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-                m_logger.error("RemoveSubTree: {}: {}", vertex.getId(), vertex.getProperty(MindModel.TEXT_PROP_NAME));
+    //TrashCollector删除了整个子树后调用，可能在后台线程中
+    void onTrashedSubTreeCollected(Object rootId)
+    {
+        synchronized (m_collectingRootIds) {
+            Set<Object> trashedRootIds = m_trashedRootIds;
+            if (trashedRootIds != null) {
+                trashedRootIds.remove(rootId);
             }
+            m_collectingRootIds.remove(rootId);
         }
-	}
-	
+    }
+
 	public void copyProperty(Element from, Element to)
 	{
         assert from.getClass() == to.getClass();
@@ -1064,6 +1905,141 @@ abstract public class MindDB {
 
     abstract public void createFullTextVertexKeyIndex(final String key);
 
+    //旧版本数据库中由后端维护的全文索引
+    abstract void dropFullTextVertexKeyIndex(final String key);
+
+    //全文查找的一条结果
+    public static class SearchHit {
+        final public Object m_dbId;
+        final public String m_text;
+        final public Object m_parentDbId;
+        final public String m_parentText;
+
+        //HTML片段, 命中的词用<b>标出
+        final public String m_snippet;
+
+        SearchHit(Object dbId, String text, Object parentDbId, String parentText, String snippet)
+        {
+            m_dbId = dbId;
+            m_text = text;
+            m_parentDbId = parentDbId;
+            m_parentText = parentText;
+            m_snippet = snippet;
+        }
+    }
+
+    //全文索引或TextSuggester查到的节点id, 还没有读数据库, 也没有检查是否在被删除的子树中。
+    //查找分两步: searchCandidates, suggestCandidates只读索引, 可以在后台线程中调用;
+    //readSearchHits要读数据库和m_adjacencyIndex, 只能在界面线程中调用
+    public static class SearchCandidate {
+        final public Object m_dbId;
+
+        //全文查找的词, 前缀提示时为null
+        final Set<String> m_terms;
+
+        //前缀提示时标出开头的字数, 模糊匹配时为0
+        final int m_prefixLength;
+
+        SearchCandidate(Object dbId, Set<String> terms, int prefixLength)
+        {
+            m_dbId = dbId;
+            m_terms = terms;
+            m_prefixLength = prefixLength;
+        }
+    }
+
+    //按相关度从高到低, 返回全文索引中第offset个开始的最多limit个节点, 全文索引已经跳过被删除子树中的节点。
+    //刚删除的子树还没有在全文索引中标记完时, 会有几个被删除的节点, 由readSearchHits去掉
+    public List<SearchCandidate> searchCandidates(String query, int offset, int limit)
+    {
+        ArrayList<SearchCandidate> candidates = new ArrayList<>();
+        if (query == null || query.trim().isEmpty() || limit <= 0) {
+            return candidates;
+        }
+
+        Set<String> terms = SearchSnippet.getTerms(query);
+        for (String key : m_textIndex.search(query, offset, limit)) {
+            candidates.add(new SearchCandidate(new ORecordId(key), terms, 0));
+        }
+        return candidates;
+    }
+
+    //输入时的提示: 文字开头与text相同、或只差一个字的节点 (内存中的TextSuggester, 不访问全文索引)。
+    //被删除的节点仍在TextSuggester中, 由readSearchHits去掉
+    public List<SearchCandidate> suggestCandidates(String text, int limit)
+    {
+        ArrayList<SearchCandidate> candidates = new ArrayList<>();
+        if (text == null || text.trim().isEmpty() || limit <= 0) {
+            return candidates;
+        }
+
+        int prefixLength = TextSuggester.toKey(text).length();
+        for (TextSuggester.Suggestion suggestion : m_textIndex.suggest(text, limit)) {
+            candidates.add(new SearchCandidate(suggestion.m_dbId, null, suggestion.m_isFuzzy ? 0 : prefixLength));
+        }
+        return candidates;
+    }
+
+    //读取候选节点与其父节点，跳过已被回收或在被删除子树中的节点。祖先一般已在m_adjacencyIndex中, 不读数据库
+    public List<SearchHit> readSearchHits(List<SearchCandidate> candidates)
+    {
+        ArrayList<Object> ids = new ArrayList<>(candidates.size());
+        for (SearchCandidate candidate : candidates) {
+            ids.add(candidate.m_dbId);
+        }
+        List<Vertex> vertices = getVerticesById(ids);
+
+        ArrayList<SearchHit> hits = new ArrayList<>();
+        for (int i=0; i<candidates.size(); i++) {
+            Vertex vertex = vertices.get(i);
+            if (vertex == null || isVertexIdTrashed(vertex.getId())) {
+                continue;
+            }
+
+            SearchCandidate candidate = candidates.get(i);
+            String text = vertex.getProperty(MindModel.TEXT_PROP_NAME);
+            String snippet = candidate.m_terms != null ? SearchSnippet.make(text, candidate.m_terms) :
+                    SearchSnippet.makePrefix(text, candidate.m_prefixLength);
+
+            Object parentDbId = getParentDbId(vertex.getId());
+            String parentText = parentDbId == null ? null :
+                    (String)getVertex(parentDbId).getProperty(MindModel.TEXT_PROP_NAME);
+
+            hits.add(new SearchHit(vertex.getId(), text, parentDbId, parentText, snippet));
+        }
+        return hits;
+    }
+
+    //按相关度排序，跳过已删除的节点，返回第offset个开始的最多limit个结果。
+    //被删除的节点由全文索引过滤, 偏移也由全文索引处理。只为返回的结果读取父节点，常用词也不会读出几万个节点
+    public List<SearchHit> search(String query, int offset, int limit)
+    {
+        ArrayList<SearchHit> hits = new ArrayList<>();
+
+        //去掉还没有在全文索引中标记完的被删除节点后, 再取后面的补足
+        int indexOffset = offset;
+        int indexLimit = limit;
+        while (indexLimit > 0) {
+            List<SearchCandidate> candidates = searchCandidates(query, indexOffset, indexLimit);
+            hits.addAll(readSearchHits(candidates));
+
+            if (candidates.size() < indexLimit) {
+                break;
+            }
+            indexOffset += indexLimit;
+            indexLimit = limit - hits.size();
+        }
+        return hits;
+    }
+
+    //输入时的提示列表, 每次按键都可以调用。不够一页时, 界面在用户停下来后再用search补足。只为返回的结果读取节点和父节点
+    public List<SearchHit> suggest(String text, int limit)
+    {
+        //被删除的节点仍在TextSuggester中, 多取一些
+        List<SearchHit> hits = readSearchHits(suggestCandidates(text, limit * 2));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
     public Iterable<Vertex> getVertices(String key, String value)
     {
         return m_graph.getVertices(key, value);
@@ -1089,7 +2065,7 @@ abstract public class MindDB {
     private void verifyOutEdges(Vertex vertex)
     {
         List<EdgeVertexId> outEdgeVertexIds = getOutEdgeVertexIds(vertex);
-        Map<String, Integer> outEdgeIdPairExists = new HashMap<>();
+        Map<Long, Integer> outEdgeIdPairExists = new HashMap<>();
 
         for(EdgeVertexId edgeVertexId : outEdgeVertexIds) {
             outEdgeIdPairExists.put(edgeVertexId.m_edgeInnerId, 0);
@@ -1157,15 +2133,18 @@ abstract public class MindDB {
 
     public boolean isVertexTrashed(Vertex vertex)
     {
-        return vertex.getProperty(IS_TRASHED_PROP_NAME) != null;
+        return isVertexIdTrashed(vertex.getId());
     }
 
-    private void setVertexTrashed(Vertex vertex, boolean trashed)
+    //被删除子树的根节点没有父节点。沿祖先链向上，最上层不是m_rootId的节点都已被删除
+    public boolean isVertexIdTrashed(Object dbId)
     {
-        if (trashed == true)
-            vertex.setProperty(IS_TRASHED_PROP_NAME, System.currentTimeMillis());
-        else
-            vertex.removeProperty(IS_TRASHED_PROP_NAME);
+        if (dbId.equals(m_rootId)) {
+            return false;
+        }
+
+        List inheritPath = getInheritPath(dbId);
+        return inheritPath.isEmpty() || ! inheritPath.get(0).equals(m_rootId);
     }
 
     public void verifyTrashedTree(final Vertex root)
@@ -1182,33 +2161,30 @@ abstract public class MindDB {
             parentId = ((Vertex) parentId).getId();
         }
         Integer pos = root.getProperty(SAVED_POS_PROP_NAME);
-        ArrayList<RefLinkInfo> refLinkInfos = (ArrayList<RefLinkInfo>)root.getProperty(SAVED_REFERRER_INFO_PROP_NAME);
+        ArrayList<RefLinkInfo> refLinkInfos = RefLinkInfo.readProperty(root, SAVED_REFERRER_INFO_PROP_NAME);
 
         assert parentId != null;
         assert pos != null;
-        assert refLinkInfos == null || !refLinkInfos.isEmpty();
 
-        if (refLinkInfos != null) {
-            for (RefLinkInfo refLinkInfo : refLinkInfos) {
-                assert root.getId().equals(refLinkInfo.m_referent) ||
-                        vertexIdIsAncestorOf(root.getId(), refLinkInfo.m_referent);
-            }
+        for (RefLinkInfo refLinkInfo : refLinkInfos) {
+            assert root.getId().equals(refLinkInfo.m_referent) ||
+                    vertexIdIsAncestorOf(root.getId(), refLinkInfo.m_referent);
         }
 
-        verifyOutEdges(root);
-
-        deepTraverse(root, new Processor() {
-
-            public boolean run(Vertex vertex, int level) {
-                if (vertex == root) {
-                    return true;
-                }
+        for (RefLinkInfo refLinkInfo : RefLinkInfo.readProperty(root, SAVED_REFERENT_INFO_PROP_NAME)) {
+            assert root.getId().equals(refLinkInfo.m_referrer) ||
+                    vertexIdIsAncestorOf(root.getId(), refLinkInfo.m_referrer);
+        }
 
-                verifyVertex(vertex);
+        assert root.getProperty(IS_TRASHED_PROP_NAME) != null;
+        verifyOutEdges(root);
 
-                return true;
+        //子树内部没有被修改，只检查根节点的子节点
+        for (EdgeVertex child : getChildrenAndReferents(root)) {
+            if (getEdgeType(child.m_edge) == EdgeType.INCLUDE) {
+                verifyVertex(child.m_target);
             }
-        });
+        }
     }
 
     //这是一个保存临时信息的类
@@ -1216,7 +2192,7 @@ abstract public class MindDB {
         final public Vertex m_source;
         final public Vertex m_target;
         final public Edge m_edge;
-        final public String m_edgeInnerId;
+        final public long m_edgeInnerId;
 
         public EdgeVertex(Vertex source, Vertex target, Edge edge) {
             m_source = source;
@@ -1232,13 +2208,14 @@ abstract public class MindDB {
             if (! m_source.getId().equals(other.m_source.getId())) {
                 return m_source.getId().hashCode() - other.m_source.getId().hashCode();
             } else {
-                return getOutEdgeInnerId(m_edge).compareTo(getOutEdgeInnerId(other.m_edge));
+                return Long.compare(m_edgeInnerId, other.m_edgeInnerId);
             }
         }
 
         public EdgeVertexId getEdgeVertexId ()
         {
-            return new EdgeVertexId(m_source.getId(), m_target.getId(), m_edge.getId(), m_edgeInnerId);
+            return new EdgeVertexId(m_source.getId(), m_target.getId(), m_edge.getId(), m_edgeInnerId,
+                    getEdgeType(m_edge));
         }
     };
 
@@ -1247,7 +2224,8 @@ abstract public class MindDB {
         public final Object m_sourceId;
         public final Object m_edgeId;
         public final Object m_targetId;
-        public final String m_edgeInnerId; //用于排序，无其他用途
+        public final long m_edgeInnerId; //用于排序，无其他用途
+        public final EdgeType m_edgeType;
 
         EdgeVertexId(Edge edge) {
 
@@ -1255,24 +2233,26 @@ abstract public class MindDB {
             m_targetId = edge.getVertex(Direction.IN).getId();
             m_edgeId = edge.getId();
             m_edgeInnerId = getOutEdgeInnerId(edge);
+            m_edgeType = getEdgeType(edge);
 
-            assert m_targetId != null && m_sourceId != null && m_edgeId != null && m_edgeInnerId != null;
+            assert m_targetId != null && m_sourceId != null && m_edgeId != null;
         }
 
-        EdgeVertexId(Object sourceId, Object targetId, Object edgeId, String edgeInnerId) {
+        EdgeVertexId(Object sourceId, Object targetId, Object edgeId, long edgeInnerId, EdgeType edgeType) {
             m_sourceId = sourceId;
             m_targetId = targetId;
             m_edgeId = edgeId;
             m_edgeInnerId = edgeInnerId;
+            m_edgeType = edgeType;
 
-            assert m_targetId != null && m_sourceId != null && m_edgeId != null && m_edgeInnerId != null;
+            assert m_targetId != null && m_sourceId != null && m_edgeId != null;
         }
 
         public int compareTo(EdgeVertexId other) {
             if (! m_sourceId.equals(other.m_sourceId)) {
                 return m_sourceId.hashCode() - other.m_sourceId.hashCode();
             } else {
-                return m_edgeInnerId.compareTo(other.m_edgeInnerId);
+                return Long.compare(m_edgeInnerId, other.m_edgeInnerId);
             }
         }
 
@@ -1294,12 +2274,12 @@ abstract public class MindDB {
             if (m_edgeId.equals(((EdgeVertexId) other).m_edgeId)) {
                 assert m_sourceId.equals(((EdgeVertexId) other).m_sourceId);
                 assert m_targetId.equals(((EdgeVertexId) other).m_targetId);
-                assert m_edgeInnerId.equals(((EdgeVertexId) other).m_edgeInnerId);
+                assert m_edgeInnerId == ((EdgeVertexId) other).m_edgeInnerId;
                 return true;
             } else {
                 assert (! m_sourceId.equals(((EdgeVertexId) other).m_sourceId)) ||
                         (! m_targetId.equals(((EdgeVertexId) other).m_targetId)) ||
-                        (! m_edgeInnerId.equals(((EdgeVertexId) other).m_edgeInnerId));
+                        m_edgeInnerId != ((EdgeVertexId) other).m_edgeInnerId;
                 return false;
             }
         }
@@ -1323,15 +2303,18 @@ abstract public class MindDB {
                     }
                 };
 
-        //vertex到子节点的映射
-        LinkedHashMap<Object, TreeMap<String, EdgeVertexId>> m_outEdgesMap =
-                new LinkedHashMap<Object, TreeMap<String, EdgeVertexId>>(512, 0.75f, true) {
+        //vertex到子节点的映射。值是不可修改的快照，出边增删时整个替换
+        LinkedHashMap<Object, OutEdgeList> m_outEdgesMap =
+                new LinkedHashMap<Object, OutEdgeList>(512, 0.75f, true) {
 
-                    protected boolean removeEldestEntry (Map.Entry<Object, TreeMap<String, EdgeVertexId>> eldest) {
+                    protected boolean removeEldestEntry (Map.Entry<Object, OutEdgeList> eldest) {
                         return size() > CACHE_CAPACITY;
                     }
                 };
 
+        //每生成一个快照加一
+        private long m_outEdgesVersion = 0;
+
         //edgeId到EdgeVertexId的映射
         LinkedHashMap<Object, EdgeVertexId> m_edges =
             new LinkedHashMap<Object, EdgeVertexId>(512, 0.75f, true) {
@@ -1345,7 +2328,7 @@ abstract public class MindDB {
         {
             m_edges.put(edge.m_edgeId, edge);
 
-            if (getEdgeType(m_graph.getEdge(edge.m_edgeId)) == EdgeType.INCLUDE) {
+            if (edge.m_edgeType == EdgeType.INCLUDE) {
                 m_parentEdgeMap.put(edge.m_targetId, edge);
             }
         }
@@ -1358,42 +2341,42 @@ abstract public class MindDB {
             return m_parentEdgeMap.get(childId);
         }
 
-        void cacheOutEdgesOfOneVertex(Object sourceVertexId, List<EdgeVertexId> outEdgeVertexIds)
+        OutEdgeList cacheOutEdgesOfOneVertex(Object sourceVertexId, List<EdgeVertexId> outEdgeVertexIds)
         {
-            if (m_outEdgesMap.get(sourceVertexId) != null) {
-                m_outEdgesMap.remove(sourceVertexId);
-            }
-
-            TreeMap<String, EdgeVertexId> outEdgeMap = new TreeMap<>();
-
             for (EdgeVertexId edge : outEdgeVertexIds) {
-                outEdgeMap.put(edge.m_edgeInnerId, edge);
                 cacheEdge(edge);
             }
 
-            m_outEdgesMap.put(sourceVertexId, outEdgeMap);
+            OutEdgeList outEdgeList = outEdgeVertexIds instanceof OutEdgeList ?
+                    (OutEdgeList) outEdgeVertexIds : new OutEdgeList(outEdgeVertexIds, ++m_outEdgesVersion);
+
+            m_outEdgesMap.put(sourceVertexId, outEdgeList);
+            return outEdgeList;
         }
 
-        List<EdgeVertexId> getOutEdgesOfOneVertex(Object sourceVertexId)
+        //返回缓存中的快照，不复制
+        OutEdgeList getOutEdgesOfOneVertex(Object sourceVertexId)
         {
-            TreeMap<String, EdgeVertexId> outEdgeVertexIds = m_outEdgesMap.get(sourceVertexId);
-            if (outEdgeVertexIds == null) {
-                return null;
-            }
+            return m_outEdgesMap.get(sourceVertexId);
+        }
 
-            return new ArrayList<EdgeVertexId>(outEdgeVertexIds.values());
+        //没有缓存时返回-1
+        int getOutEdgeCount(Object sourceVertexId)
+        {
+            OutEdgeList outEdgeVertexIds = m_outEdgesMap.get(sourceVertexId);
+            return outEdgeVertexIds == null ? -1 : outEdgeVertexIds.size();
         }
 
         void addNewEdge(EdgeVertexId edge) {
             m_edges.put(edge.m_edgeId, edge);
 
-            if (getEdgeType(m_graph.getEdge(edge.m_edgeId)) == EdgeType.INCLUDE) {
+            if (edge.m_edgeType == EdgeType.INCLUDE) {
                 m_parentEdgeMap.put(edge.m_targetId, edge);
             }
 
-            TreeMap<String, EdgeVertexId> outEdgeVertexIds = m_outEdgesMap.get(edge.m_sourceId);
+            OutEdgeList outEdgeVertexIds = m_outEdgesMap.get(edge.m_sourceId);
             if (outEdgeVertexIds != null) {
-                outEdgeVertexIds.put(edge.m_edgeInnerId, edge);
+                m_outEdgesMap.put(edge.m_sourceId, outEdgeVertexIds.withEdge(edge, ++m_outEdgesVersion));
             }
         }
 
@@ -1401,40 +2384,16 @@ abstract public class MindDB {
         void removeInvalidEdge(EdgeVertexId edge) {
             m_edges.remove(edge.m_edgeId);
 
-            //因为不知道是否是父子边，所以直接删除，缓存的父子映射
-            //TODO: EdgeVertexId中加入边的类型，以便提高性能
-            m_parentEdgeMap.remove(edge.m_targetId);
-
-            TreeMap<String, EdgeVertexId> outEdgeVertexIds = m_outEdgesMap.get(edge.m_sourceId);
-            if (outEdgeVertexIds != null) {
-                EdgeVertexId removedEdge = outEdgeVertexIds.remove(edge.m_edgeInnerId);
-                assert removedEdge.m_edgeId.equals(edge.m_edgeId);
-                assert removedEdge.m_edgeInnerId.equals(edge.m_edgeInnerId);
-            }
-        }
-
-        void updateEdgeInnerId(EdgeVertexId newEdge)
-        {
-            m_edges.remove(newEdge.m_edgeId);
-            m_edges.put(newEdge.m_edgeId, newEdge);
-
-            if (getEdgeType(m_graph.getEdge(newEdge.m_edgeId)) == EdgeType.INCLUDE) {
-                m_parentEdgeMap.remove(newEdge.m_targetId);
-                m_parentEdgeMap.put(newEdge.m_targetId, newEdge);
+            if (edge.m_edgeType == EdgeType.INCLUDE) {
+                m_parentEdgeMap.remove(edge.m_targetId);
             }
 
-            TreeMap<String, EdgeVertexId> outEdgeVertexIds = m_outEdgesMap.get(newEdge.m_sourceId);
+            OutEdgeList outEdgeVertexIds = m_outEdgesMap.get(edge.m_sourceId);
             if (outEdgeVertexIds != null) {
-                for (Map.Entry<String, EdgeVertexId> entry : outEdgeVertexIds.entrySet()) {
-                    if (entry.getValue().m_edgeId.equals((newEdge.m_edgeId))) {
-                            outEdgeVertexIds.remove(entry.getKey());
-                            outEdgeVertexIds.put(newEdge.m_edgeInnerId, newEdge);
-                            return;
-                    }
-                }
+                int index = outEdgeVertexIds.indexOfInnerId(edge.m_edgeInnerId);
+                assert index >= 0 && outEdgeVertexIds.get(index).m_edgeId.equals(edge.m_edgeId);
+                m_outEdgesMap.put(edge.m_sourceId, outEdgeVertexIds.withoutEdge(edge.m_edgeInnerId, ++m_outEdgesVersion));
             }
-
-            assert false;
         }
     }
 }
@@ -0,0 +1,525 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+//一个操作对数据库的修改，只含节点id、位置和属性值，不引用界面树。undo, redo时直接对数据库重放。
+//边的id在删除、恢复时会改变，所以边用 (源节点, 位置) 表示，重放时再查出边的id
+public class MindDelta {
+
+    enum Type {
+        NEW_SUBTREE,        //m_vertexId: 新建(或粘贴、导入)的子树根节点
+        TRASH_SUBTREE,      //m_vertexId: 删除的子树根节点
+        ADD_REFERENCE,      //m_vertexId 在 m_pos 处引用 m_otherVertexId
+        REMOVE_REFERENCE,   //同上
+        CHANGE_POSITION,    //m_vertexId 的子节点从 m_pos 移到 m_otherPos
+        HANDOVER,           //m_vertexId 的第m_pos个子节点(或引用)，移到 m_otherVertexId 的 m_otherPos 处
+        SET_PROPERTY,       //m_vertexId 的属性m_key, 从m_oldValue改为m_newValue
+    }
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte VALUE_NULL = 0;
+    private final static byte VALUE_STRING = 1;
+    private final static byte VALUE_INTEGER = 2;
+    private final static byte VALUE_BOOLEAN = 3;
+
+    final Type m_type;
+    final Object m_vertexId;
+    final int m_pos;
+    final Object m_otherVertexId;
+    final int m_otherPos;
+    final String m_key;
+    final Object m_oldValue;
+    final Object m_newValue;
+
+    private MindDelta(Type type, Object vertexId, int pos, Object otherVertexId, int otherPos,
+                      String key, Object oldValue, Object newValue)
+    {
+        m_type = type;
+        m_vertexId = vertexId;
+        m_pos = pos;
+        m_otherVertexId = otherVertexId;
+        m_otherPos = otherPos;
+        m_key = key;
+        m_oldValue = oldValue;
+        m_newValue = newValue;
+    }
+
+    public static MindDelta newSubTree(Object vertexId)
+    {
+        return new MindDelta(Type.NEW_SUBTREE, vertexId, 0, null, 0, null, null, null);
+    }
+
+    public static MindDelta trashSubTree(Object vertexId)
+    {
+        return new MindDelta(Type.TRASH_SUBTREE, vertexId, 0, null, 0, null, null, null);
+    }
+
+    public static MindDelta addReference(Object referrerId, int pos, Object referentId)
+    {
+        return new MindDelta(Type.ADD_REFERENCE, referrerId, pos, referentId, 0, null, null, null);
+    }
+
+    public static MindDelta removeReference(Object referrerId, int pos, Object referentId)
+    {
+        return new MindDelta(Type.REMOVE_REFERENCE, referrerId, pos, referentId, 0, null, null, null);
+    }
+
+    public static MindDelta changePosition(Object sourceId, int oldPos, int newPos)
+    {
+        return new MindDelta(Type.CHANGE_POSITION, sourceId, oldPos, null, newPos, null, null, null);
+    }
+
+    public static MindDelta handover(Object oldSourceId, int oldPos, Object newSourceId, int newPos)
+    {
+        return new MindDelta(Type.HANDOVER, oldSourceId, oldPos, newSourceId, newPos, null, null, null);
+    }
+
+    public static MindDelta setProperty(Object vertexId, String key, Object oldValue, Object newValue)
+    {
+        return new MindDelta(Type.SET_PROPERTY, vertexId, 0, null, 0, key, oldValue, newValue);
+    }
+
+    void undo(MindModel mindModel)
+    {
+        apply(mindModel, true);
+    }
+
+    void redo(MindModel mindModel)
+    {
+        apply(mindModel, false);
+    }
+
+    private void apply(MindModel mindModel, boolean undo)
+    {
+        switch (m_type) {
+            case NEW_SUBTREE:
+            case TRASH_SUBTREE:
+                //撤销新建与重做删除，都是删除子树
+                if (undo == (m_type == Type.NEW_SUBTREE)) {
+                    mindModel.trashNode(m_vertexId);
+                } else {
+                    mindModel.restoreNodeFromTrash(m_vertexId);
+                }
+                break;
+
+            case ADD_REFERENCE:
+            case REMOVE_REFERENCE:
+                if (undo == (m_type == Type.ADD_REFERENCE)) {
+                    mindModel.removeReference(getOutEdgeId(mindModel, m_vertexId, m_pos));
+                } else {
+                    mindModel.addReference(m_vertexId, m_pos, m_otherVertexId);
+                }
+                break;
+
+            case CHANGE_POSITION:
+                if (undo) {
+                    mindModel.changeChildPos(getOutEdgeId(mindModel, m_vertexId, m_otherPos), m_pos);
+                } else {
+                    mindModel.changeChildPos(getOutEdgeId(mindModel, m_vertexId, m_pos), m_otherPos);
+                }
+                break;
+
+            case HANDOVER:
+                if (undo) {
+                    mindModel.handoverRelation(m_otherVertexId, m_otherPos, null, m_vertexId, m_pos, null);
+                } else {
+                    mindModel.handoverRelation(m_vertexId, m_pos, null, m_otherVertexId, m_otherPos, null);
+                }
+                break;
+
+            case SET_PROPERTY:
+                mindModel.setProperty(m_vertexId, m_key, undo ? m_oldValue : m_newValue);
+                break;
+        }
+    }
+
+    private static Object getOutEdgeId(MindModel mindModel, Object sourceId, int pos)
+    {
+        MindDB mindDb = mindModel.m_mindDb;
+        return mindDb.getOutEdgeVertexIds(mindDb.getVertex(sourceId)).get(pos).m_edgeId;
+    }
+
+    //涉及的节点都还在数据库中 (没有被回收站彻底删除)。
+    //要恢复或删除的子树正在被回收时，根节点还在, 但子树已经不完整
+    boolean isApplicable(MindDB mindDb)
+    {
+        if (isSubTreeDelta() && mindDb.isTrashedSubTreeCollecting(m_vertexId)) {
+            return false;
+        }
+
+        return mindDb.getVertex(m_vertexId) != null
+                && (m_otherVertexId == null || mindDb.getVertex(m_otherVertexId) != null);
+    }
+
+    boolean isSubTreeDelta()
+    {
+        return m_type == Type.NEW_SUBTREE || m_type == Type.TRASH_SUBTREE;
+    }
+
+    private void write(DataOutput out) throws IOException
+    {
+        out.writeByte(m_type.ordinal());
+        writeId(out, m_vertexId);
+
+        switch (m_type) {
+            case ADD_REFERENCE:
+            case REMOVE_REFERENCE:
+                writeVarInt(out, m_pos);
+                writeId(out, m_otherVertexId);
+                break;
+
+            case CHANGE_POSITION:
+                writeVarInt(out, m_pos);
+                writeVarInt(out, m_otherPos);
+                break;
+
+            case HANDOVER:
+                writeVarInt(out, m_pos);
+                writeId(out, m_otherVertexId);
+                writeVarInt(out, m_otherPos);
+                break;
+
+            case SET_PROPERTY:
+                writeString(out, m_key);
+                writeValue(out, m_oldValue);
+                writeValue(out, m_newValue);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private static MindDelta read(DataInputStream in) throws IOException
+    {
+        byte typeOrdinal = in.readByte();
+        if (typeOrdinal < 0 || typeOrdinal >= Type.values().length) {
+            throw new IOException("invalid delta type: " + typeOrdinal);
+        }
+        Type type = Type.values()[typeOrdinal];
+        Object vertexId = readId(in);
+
+        switch (type) {
+            case ADD_REFERENCE:
+            case REMOVE_REFERENCE: {
+                int pos = readVarInt(in);
+                Object otherVertexId = readId(in);
+                return new MindDelta(type, vertexId, pos, otherVertexId, 0, null, null, null);
+            }
+
+            case CHANGE_POSITION: {
+                int pos = readVarInt(in);
+                int otherPos = readVarInt(in);
+                return new MindDelta(type, vertexId, pos, null, otherPos, null, null, null);
+            }
+
+            case HANDOVER: {
+                int pos = readVarInt(in);
+                Object otherVertexId = readId(in);
+                int otherPos = readVarInt(in);
+                return new MindDelta(type, vertexId, pos, otherVertexId, otherPos, null, null, null);
+            }
+
+            case SET_PROPERTY: {
+                String key = readString(in);
+                Object oldValue = readValue(in);
+                Object newValue = readValue(in);
+                return new MindDelta(type, vertexId, 0, null, 0, key, oldValue, newValue);
+            }
+
+            default:
+                return new MindDelta(type, vertexId, 0, null, 0, null, null, null);
+        }
+    }
+
+    //一个操作的修改，以及操作前后的光标路径
+    static class Step {
+        final int m_formerCursorPath[];
+        final int m_laterCursorPath[];
+        final List<MindDelta> m_deltas;
+
+        Step(int formerCursorPath[], int laterCursorPath[], List<MindDelta> deltas)
+        {
+            m_formerCursorPath = formerCursorPath;
+            m_laterCursorPath = laterCursorPath;
+            m_deltas = deltas;
+        }
+
+        void undo(MindModel mindModel)
+        {
+            for (int i=m_deltas.size()-1; i>=0; i--) {
+                m_deltas.get(i).undo(mindModel);
+            }
+        }
+
+        void redo(MindModel mindModel)
+        {
+            for (MindDelta delta : m_deltas) {
+                delta.redo(mindModel);
+            }
+        }
+    }
+
+    //一组同时执行的操作，是undo日志中的一条记录。
+    //编码: 版本号, 发起操作的树根id, 操作个数, 每个操作的光标路径与修改。整数都用变长编码
+    static class Group {
+        private final static byte FORMAT_VERSION = 1;
+
+        final Object m_rootDbId;
+        final List<Step> m_steps;
+
+        Group(Object rootDbId, List<Step> steps)
+        {
+            m_rootDbId = rootDbId;
+            m_steps = steps;
+        }
+
+        boolean isApplicable(MindDB mindDb)
+        {
+            if (mindDb.getVertex(m_rootDbId) == null) {
+                return false;
+            }
+
+            for (Step step : m_steps) {
+                for (MindDelta delta : step.m_deltas) {
+                    if (! delta.isApplicable(mindDb)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        //undo或redo时要恢复的子树根节点: 新建的子树undo时被删除，redo时恢复
+        List<Object> getSubTreeRootIds()
+        {
+            ArrayList<Object> rootIds = new ArrayList<>();
+            for (Step step : m_steps) {
+                for (MindDelta delta : step.m_deltas) {
+                    if (delta.isSubTreeDelta()) {
+                        rootIds.add(delta.m_vertexId);
+                    }
+                }
+            }
+            return rootIds;
+        }
+
+        byte[] toBytes()
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            try {
+                out.writeByte(FORMAT_VERSION);
+                writeId(out, m_rootDbId);
+                writeVarInt(out, m_steps.size());
+
+                for (Step step : m_steps) {
+                    writePath(out, step.m_formerCursorPath);
+                    writePath(out, step.m_laterCursorPath);
+
+                    writeVarInt(out, step.m_deltas.size());
+                    for (MindDelta delta : step.m_deltas) {
+                        delta.write(out);
+                    }
+                }
+                out.flush();
+
+            } catch (IOException e) {
+                //写入内存，不会出错
+                throw new IllegalStateException(e);
+            }
+
+            return bytes.toByteArray();
+        }
+
+        static Group fromBytes(byte bytes[]) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            if (in.readByte() != FORMAT_VERSION) {
+                throw new IOException("unknown undo record version");
+            }
+
+            Object rootDbId = readId(in);
+            int stepCount = readLength(in);
+
+            ArrayList<Step> steps = new ArrayList<>(stepCount);
+            for (int i=0; i<stepCount; i++) {
+                int formerCursorPath[] = readPath(in);
+                int laterCursorPath[] = readPath(in);
+
+                int deltaCount = readLength(in);
+                ArrayList<MindDelta> deltas = new ArrayList<>(deltaCount);
+                for (int j=0; j<deltaCount; j++) {
+                    deltas.add(MindDelta.read(in));
+                }
+
+                steps.add(new Step(formerCursorPath, laterCursorPath, deltas));
+            }
+
+            return new Group(rootDbId, steps);
+        }
+    }
+
+    static int[] toIntArray(List<Integer> list)
+    {
+        int array[] = new int[list.size()];
+        for (int i=0; i<array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    //提交之后的id, 与RefLinkInfo一样存为 clusterId + clusterPosition
+    private static void writeId(DataOutput out, Object id) throws IOException
+    {
+        ORecordId recordId = (ORecordId)id;
+        assert ! recordId.isTemporary();
+
+        out.writeShort(recordId.getClusterId());
+        out.writeLong(recordId.getClusterPosition());
+    }
+
+    private static Object readId(DataInputStream in) throws IOException
+    {
+        int clusterId = in.readShort();
+        long clusterPosition = in.readLong();
+        return new ORecordId(clusterId, clusterPosition);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        assert value >= 0;
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    //写入的都是非负数, 最多5个字节, 第5个字节只有低3位
+    private static int readVarInt(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift=0; shift<32; shift+=7) {
+            byte b = in.readByte();
+            if (shift == 28 && (b & ~0x07) != 0) {
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("invalid var int");
+    }
+
+    private static void writePath(DataOutput out, int path[]) throws IOException
+    {
+        writeVarInt(out, path.length);
+        for (int pos : path) {
+            writeVarInt(out, pos);
+        }
+    }
+
+    //长度与个数不会超过剩下的字节数。损坏的记录不能分配过大的数组
+    private static int readLength(DataInputStream in) throws IOException
+    {
+        int length = readVarInt(in);
+        if (length > in.available()) {
+            throw new IOException("invalid length: " + length);
+        }
+        return length;
+    }
+
+    private static int[] readPath(DataInputStream in) throws IOException
+    {
+        int path[] = new int[readLength(in)];
+        for (int i=0; i<path.length; i++) {
+            path[i] = readVarInt(in);
+        }
+        return path;
+    }
+
+    //节点的文字可能超过writeUTF的64K限制
+    private static void writeString(DataOutput out, String str) throws IOException
+    {
+        byte bytes[] = str.getBytes(UTF8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte bytes[] = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    //节点属性只有这几种类型, 见MindModel.fillPropertyClassMap
+    private static void writeValue(DataOutput out, Object value) throws IOException
+    {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String)value);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        } else {
+            throw new IllegalArgumentException("unsupported property value: " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException
+    {
+        byte tag = in.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_INTEGER:
+                return in.readInt();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            default:
+                throw new IOException("invalid property value tag: " + tag);
+        }
+    }
+}
@@ -58,7 +58,17 @@ public class MindModel {
 	final static String sm_dbIdColumnName = "dbElementId";
 
     private final static String CHILDREN_ATTACHED_PROP_NAME = "childrenAttached";
-    private final static String EDGE_INNER_ID_PROP_NAME = MindDB.EDGE_INNER_ID_PROP_NAME;
+
+    //子节点很多时 (例如导入一个大目录), 只挂上前面的一页子节点，最后加一个"更多子节点"的占位节点。
+    //光标移到占位节点上时再挂上下一页。挂上的子节点总是数据库中子节点的前缀，所以界面树与数据库中的位置仍然一致
+    public final static int CHILDREN_PAGE_SIZE = 200;
+
+    //占位节点与它的边，dbId列都是这个对象; 该列记录还有几个子节点没有挂上
+    private final static Object MORE_CHILDREN_DB_ID = "moreChildren";
+    private final static String MORE_CHILDREN_COUNT_PROP_NAME = "moreChildrenCount";
+
+    //正在后台线程中读取子节点
+    private final static String CHILDREN_LOADING_PROP_NAME = "childrenLoading";
 
     //这两个属性应用频繁
     public final static String TEXT_PROP_NAME = "x"; //"t" 已经占用了
@@ -135,14 +145,32 @@ public class MindModel {
 
 	public OrientMindDb m_mindDb;
 
+    private ChildrenLoader m_childrenLoader;
+    private Runnable m_afterAsyncAttached;
+
+    //正在后台读取子节点的界面节点
+    private HashMap<Node, ChildrenLoader.Request> m_loadingRequests = new HashMap<>();
+
     //需要记住打开tree的位置，所以不能用HashSet
     private ArrayList<Tree> m_trees = new ArrayList<Tree>();
 
+    //每个界面树的节点表、边表上dbId到行号的索引
+    private HashMap<Tree, AvatarIndex> m_nodeAvatarIndexes = new HashMap<>();
+    private HashMap<Tree, AvatarIndex> m_edgeAvatarIndexes = new HashMap<>();
+
+    //批量修改的嵌套深度。大于0时，childrenAttached的更新推迟到endBatch, 在一次遍历中完成
+    private int m_batchDepth = 0;
+    //批量修改期间出边变化过的节点，以及内容变化过的界面树
+    private LinkedHashSet<Object> m_batchChangedSourceIds = new LinkedHashSet<>();
+    private HashSet<Tree> m_batchChangedTrees = new HashSet<>();
+
 	//return sorted copy of propName
 	private void addNodeTableProperties(Table t)
 	{
 		t.addColumn(sm_dbIdColumnName, Object.class, null);
         t.addColumn(CHILDREN_ATTACHED_PROP_NAME, boolean.class, false);
+        t.addColumn(MORE_CHILDREN_COUNT_PROP_NAME, int.class, 0);
+        t.addColumn(CHILDREN_LOADING_PROP_NAME, boolean.class, false);
 
 		for (String propName : sm_nodePropNames)
 		{
@@ -154,7 +182,6 @@ public class MindModel {
     {
         t.addColumn(sm_dbIdColumnName, Object.class, null);
         t.addColumn(sm_edgeTypePropName, Object.class, null);
-        t.addColumn(EDGE_INNER_ID_PROP_NAME, Object.class, null);
 
         for (String propName : sm_nodePropNames)
         {
@@ -178,12 +205,20 @@ public class MindModel {
 
         edge.set(sm_dbIdColumnName, dbEdge.getId());
         edge.set(sm_edgeTypePropName, dbEdge.getProperty(MindDB.EDGE_TYPE_PROP_NAME));
-        edge.set(EDGE_INNER_ID_PROP_NAME, dbEdge.getProperty(MindDB.EDGE_INNER_ID_PROP_NAME));
 
         loadElementProperties(dbEdge, edge, sm_edgePropNames);
 
     }
 
+    //边上没有其他属性，只用缓存中的id与类型，不必读取数据库中的边
+    private void loadEdgeProperties (MindDB.EdgeVertexId edgeVertexId, Edge edge)
+    {
+        assert sm_edgePropNames.length == 0;
+
+        edge.set(sm_dbIdColumnName, edgeVertexId.m_edgeId);
+        edge.set(sm_edgeTypePropName, edgeVertexId.m_edgeType.ordinal());
+    }
+
     //store 仅仅保存与图无关的属性
     protected void storeNodeProperties(Vertex vertex, Node node)
     {
@@ -279,9 +314,24 @@ public class MindModel {
 
     public void close()
     {
+        if (m_childrenLoader != null) {
+            m_childrenLoader.stop();
+            m_childrenLoader = null;
+        }
         m_mindDb.shutdown();
     }
 
+    //由界面启动。没有启动时 (例如单元测试)，子节点都在调用者的线程中同步读取。
+    //afterAsyncAttached: 展开新打开的树时，后台读取的子节点挂上后调用，用于重新绘制
+    public void startChildrenLoader(Runnable afterAsyncAttached)
+    {
+        assert m_childrenLoader == null;
+
+        m_afterAsyncAttached = afterAsyncAttached;
+        m_childrenLoader = new ChildrenLoader(m_mindDb);
+        m_childrenLoader.start();
+    }
+
     public Tree findTree(Object rootId)
     {
         for (Tree tree : m_trees) {
@@ -294,12 +344,12 @@ public class MindModel {
 
     public prefuse.data.Tree findOrPutTree(Object rootId)
     {
-        Tree tree;
+        final Tree tree;
 
-        tree = findTree(rootId);
+        Tree existingTree = findTree(rootId);
 
-        if (tree != null) {
-            return tree;
+        if (existingTree != null) {
+            return existingTree;
         }
 
         tree = new Tree();
@@ -318,19 +368,41 @@ public class MindModel {
         });
 
         m_trees.add(tree);
+        m_nodeAvatarIndexes.put(tree, new AvatarIndex(displayNodeTable, sm_dbIdColumnName));
+        m_edgeAvatarIndexes.put(tree, new AvatarIndex(displayEdgeTable, sm_dbIdColumnName));
+
+        //批量修改期间，记录哪些界面树需要重新布局
+        TableListener batchChangeListener = new TableListener() {
+            @Override
+            public void tableChanged(Table t, int start, int end, int col, int type) {
+                if (m_batchDepth > 0) {
+                    m_batchChangedTrees.add(tree);
+                }
+            }
+        };
+        displayNodeTable.addTableListener(batchChangeListener);
+        displayEdgeTable.addTableListener(batchChangeListener);
 
         Node root = tree.addRoot();
         loadNodeProperties(m_mindDb.getVertex(rootId), root);
+        updateChildrenAttached(root);
+
+        if (m_childrenLoader == null) {
+            final int expandLevel = 2;
+            tree.depthFirstTraverse(root, new Tree.DepthFirstTraverseProcessor() {
+                public boolean run(Node parent, Node node, int level) {
+                    attachChildren(node);
+                    return level < expandLevel;
+                }
+            });
 
-        final int expandLevel = 2;
-        tree.depthFirstTraverse(root, new Tree.DepthFirstTraverseProcessor() {
-            public boolean run(Node parent, Node node, int level) {
-                attachChildren(node);
-                return level < expandLevel;
+        } else {
+            //只同步挂上第一层，下一层在后台读取
+            attachChildren(root);
+            for (int i=0; i<root.getChildCount(); i++) {
+                attachChildrenAsync(root.getChild(i), m_afterAsyncAttached);
             }
-        });
-
-        updateChildrenAttached();
+        }
 
         return tree;
     }
@@ -343,6 +415,20 @@ public class MindModel {
     public void closeSubTree(Tree tree)
     {
         m_trees.remove(tree);
+        removeAvatarIndexes(tree);
+    }
+
+    private void removeAvatarIndexes(Tree tree)
+    {
+        AvatarIndex nodeAvatarIndex = m_nodeAvatarIndexes.remove(tree);
+        if (nodeAvatarIndex != null) {
+            nodeAvatarIndex.detach(tree.getNodeTable());
+        }
+
+        AvatarIndex edgeAvatarIndex = m_edgeAvatarIndexes.remove(tree);
+        if (edgeAvatarIndex != null) {
+            edgeAvatarIndex.detach(tree.getEdgeTable());
+        }
     }
 
 	private void loadElementProperties(com.tinkerpop.blueprints.Element dbElement, Tuple tuple, String keys[])
@@ -406,101 +492,287 @@ public class MindModel {
 
 	public void attachChildren (Node parent)
 	{
+        if (isMoreChildrenNode(parent) || isChildrenAttached(parent)) {
+            return;
+        }
+
+        //同步挂上后，后台读取的结果就不需要了
+        if (isChildrenLoading(parent)) {
+            cancelAttachingChildren(parent);
+        }
+
+        attachChildrenPage(parent, CHILDREN_PAGE_SIZE);
+
+        verifyNode(parent, false);
+        updateChildrenAttached(parent);
+	}
+
+    //在已经挂上的子节点后面，再挂上最多maxCount个子节点。返回新挂上的第一个子节点
+    private Node attachChildrenPage(Node parent, int maxCount)
+    {
         Tree tree = (Tree)parent.getGraph();
+        List<MindDB.EdgeVertexId> outEdgeVertexIds = getNodeOutEdgeIdPairs(parent);
 
-        if (isChildrenAttached(parent)) {
-            return;
+        Node moreChildrenNode = getMoreChildrenNode(parent);
+        if (moreChildrenNode != null) {
+            tree.removeChild(moreChildrenNode);
         }
 
-		ArrayList<EdgeVertex> edgeVertexArray = m_mindDb.getChildrenAndReferents(getDBVertex(parent));
+        int from = parent.getChildCount();
+        int to = Math.min(outEdgeVertexIds.size(), from + maxCount);
+        List<MindDB.EdgeVertexId> page = outEdgeVertexIds.subList(from, to);
 
-		if (edgeVertexArray == null || edgeVertexArray.size() == 0)
-		{
-			return;
-		}
+        //一页子节点用一次查询读取
+        ArrayList<Object> targetIds = new ArrayList<>(page.size());
+        for (MindDB.EdgeVertexId edgeVertexId : page) {
+            targetIds.add(edgeVertexId.m_targetId);
+        }
+        List<Vertex> targets = m_mindDb.getVerticesById(targetIds);
 
-        if (edgeVertexArray.size() > 50) {
-            for (EdgeVertex edgeVertex : edgeVertexArray)
-            {
-                Vertex parentV = getDBVertex(parent);
-                Vertex childV = edgeVertex.m_target;
+        Node firstChild = null;
+        for (int i=0; i<page.size(); i++) {
+            Node child = tree.addChild(parent);
+            Edge edge = tree.getEdge(parent, child);
 
-                s_logger.info("[{}] -> [{}]", parentV.getProperty(TEXT_PROP_NAME), childV.getProperty(TEXT_PROP_NAME));
+            loadNodeProperties(targets.get(i), child);
+            loadEdgeProperties(page.get(i), edge);
+            updateChildrenAttached(child);
+
+            if (firstChild == null) {
+                firstChild = child;
             }
+        }
 
+        if (to < outEdgeVertexIds.size()) {
+            addMoreChildrenNode(parent, outEdgeVertexIds.size() - to);
         }
 
-		for (EdgeVertex edgeVertex : edgeVertexArray)
-		{
-			Node child = tree.addChild(parent);
-			Edge edge = tree.getEdge(parent, child);
+        return firstChild;
+    }
 
-			s_logger.info(getDBVertex(parent) + "->" + edgeVertex.m_target + "   :  " + edgeVertex.m_edge);
-			loadNodeProperties(edgeVertex.m_target, child);
-			loadEdgeProperties(edgeVertex.m_edge, edge);
+    private void addMoreChildrenNode(Node parent, int moreCount)
+    {
+        Tree tree = (Tree)parent.getGraph();
+        Node node = tree.addChild(parent);
+        Edge edge = tree.getEdge(parent, node);
 
-            verifyNode(child, false);
-		}
+        node.set(sm_dbIdColumnName, MORE_CHILDREN_DB_ID);
+        node.setBoolean(CHILDREN_ATTACHED_PROP_NAME, true);
+        edge.set(sm_dbIdColumnName, MORE_CHILDREN_DB_ID);
+        edge.set(sm_edgeTypePropName, MindDB.EdgeType.INCLUDE.ordinal());
 
-        verifyNode(parent, true);
-        updateChildrenAttached();
-	}
+        setMoreChildrenCount(node, moreCount);
+    }
 
+    private void setMoreChildrenCount(Node moreChildrenNode, int moreCount)
+    {
+        moreChildrenNode.setInt(MORE_CHILDREN_COUNT_PROP_NAME, moreCount);
+        moreChildrenNode.set(TEXT_PROP_NAME, "... " + moreCount + " more");
+    }
 
-    public void detachChildern (Node node)
+    public static boolean isMoreChildrenNode(Tuple tuple)
     {
-        Tree tree = (Tree)node.getGraph();
-        tree.removeDescendants(node);
+        return getDbId(tuple) == MORE_CHILDREN_DB_ID;
     }
 
-	interface NodeVisitor {
-	 	abstract public void visit(Node node);
-	}
+    private Node getMoreChildrenNode(Node parent)
+    {
+        int childCount = parent.getChildCount();
+        if (childCount == 0) {
+            return null;
+        }
 
-    interface EdgeVisitor {
-        abstract public void visit(Edge edge);
+        Node lastChild = parent.getChild(childCount - 1);
+        return isMoreChildrenNode(lastChild) ? lastChild : null;
     }
 
-    static ArrayList<Integer> getNodeAvatars(Tree tree, Object dbId)
+    public boolean hasMoreChildren(Node parent)
     {
-        Table nodeTable = tree.getNodeTable();
-        IntIterator allRows = nodeTable.rows();
+        return getMoreChildrenNode(parent) != null;
+    }
 
-        ArrayList<Integer> aimRows = new ArrayList<Integer> ();
+    //已经挂上的子节点个数，不含占位节点
+    public int getAttachedChildCount(Node parent)
+    {
+        int childCount = parent.getChildCount();
+        return hasMoreChildren(parent) ? childCount - 1 : childCount;
+    }
 
-        //collect the node with the same parentDbId to aimRows
-        while (allRows.hasNext()) {
-            int curRow = allRows.nextInt();
+    public static boolean isChildrenLoading(Tuple node)
+    {
+        return node.getBoolean(CHILDREN_LOADING_PROP_NAME);
+    }
 
-            assert (curRow >= 0);
+    //在后台线程中读取parent的第一页子节点，然后在界面线程中一次挂上，再调用onAttached。
+    //读取期间parent的CHILDREN_LOADING列为true, 界面可以显示"正在读取"。
+    //没有启动后台线程，或者界面线程有未提交的修改 (后台线程读不到) 时，直接同步挂上
+    public void attachChildrenAsync(final Node parent, final Runnable onAttached)
+    {
+        if (isMoreChildrenNode(parent) || isChildrenLoading(parent)) {
+            return;
+        }
 
-            if (nodeTable.get(curRow, sm_dbIdColumnName).equals(dbId)) {
-                aimRows.add(curRow);
+        if (isChildrenAttached(parent) || m_childrenLoader == null || m_mindDb.hasUncommittedChanges()) {
+            attachChildren(parent);
+            if (onAttached != null) {
+                onAttached.run();
             }
+            return;
         }
 
-        return aimRows;
+        final Object parentId = getDbId(parent);
+
+        ChildrenLoader.Request request = m_childrenLoader.load(parentId, CHILDREN_PAGE_SIZE, sm_nodePropNames,
+                new ChildrenLoader.Callback() {
+                    @Override
+                    public void childrenLoaded(ChildrenLoader.Request request)
+                    {
+                        m_loadingRequests.remove(parent);
+
+                        //读取期间节点可能已经从界面树上去掉了
+                        if (! parent.isValid() || ! parentId.equals(getDbId(parent))) {
+                            return;
+                        }
+
+                        parent.setBoolean(CHILDREN_LOADING_PROP_NAME, false);
+
+                        if (! isChildrenAttached(parent)) {
+                            if (! applyLoadedChildren(parent, request)) {
+                                attachChildren(parent);
+                            }
+                        }
+
+                        if (onAttached != null) {
+                            onAttached.run();
+                        }
+                    }
+                });
+
+        parent.setBoolean(CHILDREN_LOADING_PROP_NAME, true);
+        m_loadingRequests.put(parent, request);
     }
 
-    static ArrayList<Integer> getEdgeAvatars(Tree tree, Object dbId)
+    //取消后台读取，例如正在读取时节点又被折叠了。读取的结果被丢弃
+    public void cancelAttachingChildren(Node parent)
     {
-        Table edgeTable = tree.getEdgeTable();
-        IntIterator allRows = edgeTable.rows();
+        ChildrenLoader.Request request = m_loadingRequests.remove(parent);
+        if (request != null) {
+            request.cancel();
+        }
+        parent.setBoolean(CHILDREN_LOADING_PROP_NAME, false);
+    }
 
-        ArrayList<Integer> aimRows = new ArrayList<Integer> ();
+    //后台读到的数据过时了，返回false, 由调用者同步读取
+    private boolean applyLoadedChildren(Node parent, ChildrenLoader.Request request)
+    {
+        if (! request.isLoaded()
+                || request.m_commitCount != m_mindDb.getCommitCount()
+                || m_mindDb.hasUncommittedChanges()) {
+            return false;
+        }
 
-        //collect the edge with the same dbId to aimRows
-        while (allRows.hasNext()) {
-            int curRow = allRows.nextInt();
+        assert parent.getChildCount() == 0;
+
+        //缓存中已有的出边是界面线程读到的，与后台读到的不同时以缓存为准
+        m_mindDb.cacheOutEdgeVertexIds(getDbId(parent), request.m_outEdgeVertexIds);
+        List<MindDB.EdgeVertexId> outEdgeVertexIds = getNodeOutEdgeIdPairs(parent);
+        if (! isSameEdges(outEdgeVertexIds, request.m_outEdgeVertexIds)) {
+            return false;
+        }
+
+        Tree tree = (Tree)parent.getGraph();
+        List<Map<String, Object>> childProperties = request.m_childProperties;
+
+        for (int i=0; i<childProperties.size(); i++) {
+            Node child = tree.addChild(parent);
+            Edge edge = tree.getEdge(parent, child);
+
+            child.set(sm_dbIdColumnName, outEdgeVertexIds.get(i).m_targetId);
+            for (Map.Entry<String, Object> property : childProperties.get(i).entrySet()) {
+                child.set(property.getKey(), property.getValue());
+            }
+            loadEdgeProperties(outEdgeVertexIds.get(i), edge);
+
+            //子节点的出边个数也在后台读取，没有出边的子节点不必再挂
+            child.setBoolean(CHILDREN_ATTACHED_PROP_NAME, request.m_childOutEdgeCounts.get(i) == 0);
+        }
+
+        if (childProperties.size() < outEdgeVertexIds.size()) {
+            addMoreChildrenNode(parent, outEdgeVertexIds.size() - childProperties.size());
+        }
 
-            assert (curRow >= 0);
+        updateChildrenAttached(parent);
+        return true;
+    }
+
+    private static boolean isSameEdges(List<MindDB.EdgeVertexId> edges1, List<MindDB.EdgeVertexId> edges2)
+    {
+        if (edges1.size() != edges2.size()) {
+            return false;
+        }
 
-            if (edgeTable.get(curRow, sm_dbIdColumnName).equals(dbId)) {
-                aimRows.add(curRow);
+        for (int i=0; i<edges1.size(); i++) {
+            if (! edges1.get(i).m_edgeId.equals(edges2.get(i).m_edgeId)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    //光标移到占位节点上时调用: 挂上下一页，返回新挂上的第一个子节点
+    public Node attachMoreChildren(Node moreChildrenNode)
+    {
+        assert isMoreChildrenNode(moreChildrenNode);
+
+        Node parent = moreChildrenNode.getParent();
+        Node firstChild = attachChildrenPage(parent, CHILDREN_PAGE_SIZE);
+        updateChildrenAttached(parent);
+
+        return firstChild != null ? firstChild : parent;
+    }
+
+    //位置pos的子节点是否已经挂在界面树上
+    private boolean isChildShown(Node parent, int pos)
+    {
+        return isChildrenAttached(parent) && pos < getAttachedChildCount(parent);
+    }
+
+    //挂上子节点，直到位置pos的子节点已经挂上，或者所有子节点都已挂上
+    public void attachChildrenUntil(Node parent, int pos)
+    {
+        if (! isChildrenAttached(parent)) {
+            attachChildren(parent);
+        }
+
+        if (hasMoreChildren(parent) && getAttachedChildCount(parent) <= pos) {
+            attachChildrenPage(parent, pos + 1 - getAttachedChildCount(parent));
+            updateChildrenAttached(parent);
+        }
+    }
 
-        return aimRows;
+    public void detachChildern (Node node)
+    {
+        Tree tree = (Tree)node.getGraph();
+        tree.removeDescendants(node);
+    }
+
+	interface NodeVisitor {
+	 	abstract public void visit(Node node);
+	}
+
+    interface EdgeVisitor {
+        abstract public void visit(Edge edge);
+    }
+
+    //返回行号的拷贝，调用者可以修改
+    ArrayList<Integer> getNodeAvatars(Tree tree, Object dbId)
+    {
+        return m_nodeAvatarIndexes.get(tree).getRows(dbId);
+    }
+
+    ArrayList<Integer> getEdgeAvatars(Tree tree, Object dbId)
+    {
+        return m_edgeAvatarIndexes.get(tree).getRows(dbId);
     }
 
 	void visitNodeAvatars(Tree tree, Object dbId, NodeVisitor nodeVisitor)
@@ -554,8 +826,9 @@ public class MindModel {
         }
     }
 
-    private List<MindDB.EdgeVertexId> getNodeOutEdgeIdPairs(Node sourceNode) {
-        return Collections.unmodifiableList(m_mindDb.getOutEdgeVertexIds(getDBVertex(sourceNode)));
+    //缓存中的快照，不复制
+    private OutEdgeList getNodeOutEdgeIdPairs(Node sourceNode) {
+        return m_mindDb.getOutEdgeVertexIds(getDBVertex(sourceNode));
     }
 
     protected void exposeNodeRelation(Node sourceNode, int pos, EdgeVertex toTarget)
@@ -566,6 +839,11 @@ public class MindModel {
         //如果原来没有挂上子节点，仅仅更新outEdgeIdPairs
         if (isChildrenAttached(sourceNode)) {
 
+            //插入位置在已经挂上的子节点之后，只在updateAvatarsChildrenAttached中更新占位节点的计数
+            if (hasMoreChildren(sourceNode) && pos > getAttachedChildCount(sourceNode)) {
+                return;
+            }
+
             if (!(pos < sourceNode.getChildCount()
                     && getDbId(sourceNode.getChildEdge(pos)).equals(toTarget.m_edge.getId()))) {
                 Tree tree = (Tree)sourceNode.getGraph();
@@ -575,6 +853,7 @@ public class MindModel {
 
                 loadNodeProperties(toTarget.m_target, child);
                 loadEdgeProperties(toTarget.m_edge, edge);
+                updateChildrenAttached(child);
             }
         }
 
@@ -692,9 +971,8 @@ public class MindModel {
     //return new child node
 	public Node addChild(Node parent, int pos, String text)
     {
-        if (! isChildrenAttached(parent)) {
-            attachChildren(parent);
-        }
+        //新节点插入在pos, 它前面的子节点都要挂上
+        attachChildrenUntil(parent, pos - 1);
 
         Object parentDbId = getDbId(parent);
 		Vertex dbParent = m_mindDb.getVertex(parentDbId);
@@ -704,7 +982,7 @@ public class MindModel {
 
         exposeModelRelation(parentDbId, pos, edgeVertex);
 
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(parentDbId);
 
         return parent.getChild(pos);
 	}
@@ -733,9 +1011,8 @@ public class MindModel {
     //return new child node
     public List importFile(final Node parent, final String path, final Component progressMonitorParent) throws Exception
     {
-        if (! isChildrenAttached(parent)) {
-            attachChildren(parent);
-        }
+        //导入的节点追加在最后，所以挂上所有子节点
+        attachChildrenUntil(parent, getDBChildCount(parent) - 1);
 
         final int pos = parent.getChildCount();
 
@@ -781,16 +1058,15 @@ public class MindModel {
 
         }
 
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(parentDbId);
         return newChildren;
     }
 
     //return new child node
     public List importText(final Node parent, final String text) throws Exception
     {
-        if (! isChildrenAttached(parent)) {
-            attachChildren(parent);
-        }
+        //导入的节点追加在最后，所以挂上所有子节点
+        attachChildrenUntil(parent, getDBChildCount(parent) - 1);
 
         final int pos = parent.getChildCount();
 
@@ -823,7 +1099,7 @@ public class MindModel {
 
         }
 
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(parentDbId);
         return newChildren;
     }
 
@@ -837,6 +1113,7 @@ public class MindModel {
             Object treeRootId = tree.getRoot().get(sm_dbIdColumnName);
             if (m_mindDb.subTreeContainsVertexId(dbId, treeRootId)) {
                 treeIterator.remove();
+                removeAvatarIndexes(tree);
             }
         }
 
@@ -853,15 +1130,17 @@ public class MindModel {
             hideModelRelation(refLinkInfo.m_edge);
         }
 
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(edgeParentId.m_sourceId);
+        for (final RefLinkInfo refLinkInfo : context.m_refLinkInfos) {
+            updateAvatarsChildrenAttached(refLinkInfo.m_referrer);
+        }
 
         return dbId;
 	}
 
     public boolean isVertexTrashed(Object dbId)
     {
-        Vertex vertex = m_mindDb.getVertex(dbId);
-        return m_mindDb.isVertexTrashed(vertex);
+        return m_mindDb.isVertexIdTrashed(dbId);
     }
 
 	public void restoreNodeFromTrash(final Object dbId)
@@ -876,6 +1155,9 @@ public class MindModel {
         final MindDB.TrashedTreeContext context = m_mindDb.getTrashedTreeContext(restoredVertex);
 
         final EdgeVertex restoredEdgeVertex = m_mindDb.restoreTrashedSubTree(restoredVertex);
+        if (restoredEdgeVertex == null) {
+            return;
+        }
 
         exposeModelRelation(context.m_parentId, context.m_pos, restoredEdgeVertex);
 
@@ -887,29 +1169,38 @@ public class MindModel {
 
             exposeModelRelation(refLinkInfo.m_referrer, refLinkInfo.m_pos, toReferent);
         }
-        updateChildrenAttached();
+
+        updateAvatarsChildrenAttached(context.m_parentId);
+        for (final RefLinkInfo refLinkInfo : context.m_refLinkInfos) {
+            updateAvatarsChildrenAttached(refLinkInfo.m_referrer);
+        }
 	}
 
     public void addReference(Node referrerNode, int pos, Object referentDbId) {
-        if (! isChildrenAttached(referrerNode)) {
-            attachChildren(referrerNode);
-        }
+        attachChildrenUntil(referrerNode, pos - 1);
 
         s_logger.info(String.format("addReference : %s -- %s", getText(referrerNode), referentDbId.toString()));
-        Object referrerDbId  = getDbId(referrerNode);
+        addReference(getDbId(referrerNode), pos, referentDbId);
+    }
+
+    //undo, redo时只有dbId
+    public void addReference(Object referrerDbId, int pos, Object referentDbId) {
         Vertex referrerVertex = m_mindDb.getVertex(referrerDbId);
         Vertex referentVertex = m_mindDb.getVertex(referentDbId);
         EdgeVertex edgeVertex = m_mindDb.addRefEdge(referrerVertex, referentVertex, pos);
 
-        exposeModelRelation(getDbId(referrerNode), pos, edgeVertex);
-        updateChildrenAttached();
+        exposeModelRelation(referrerDbId, pos, edgeVertex);
+        updateAvatarsChildrenAttached(referrerDbId);
     }
 
 
     public void removeReference(Object edgeId) {
-        m_mindDb.removeRefEdge(m_mindDb.getEdge(edgeId));
+        com.tinkerpop.blueprints.Edge edge = m_mindDb.getEdge(edgeId);
+        Object referrerDbId = m_mindDb.getEdgeVertexId(edge).m_sourceId;
+
+        m_mindDb.removeRefEdge(edge);
         hideModelRelation(edgeId);
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(referrerDbId);
     }
 
     public void changeChildPos(final Object edgeId, final int newPos)
@@ -931,18 +1222,29 @@ public class MindModel {
                             Node sourceNode = tree.getSourceNode(edge);
                             Node targetNode = tree.getTargetNode(edge);
 
-                            edge.set(EDGE_INNER_ID_PROP_NAME, edgeVertexId.m_edgeInnerId);
-
                             int oldPos = targetNode.getIndex();
-                            tree.changeChildIndex(sourceNode, oldPos, newPos);
+
+                            //移到已经挂上的子节点之后，就不再显示
+                            if (hasMoreChildren(sourceNode) && newPos >= getAttachedChildCount(sourceNode)) {
+                                tree.removeChild(targetNode);
+                            } else {
+                                tree.changeChildIndex(sourceNode, oldPos, newPos);
+                            }
 
                             verifyNode(sourceNode, false);
                         }
                     });
         }
 
+        //原来没有显示的子节点，移到已经挂上的子节点之间
+        Vertex sourceVertex = m_mindDb.getVertex(edgeVertexId.m_sourceId);
+        EdgeVertex toTarget = m_mindDb.getChildOrReferent(sourceVertex, newPos);
+        for (final Tree tree : m_trees) {
+            exposeTreeRelation(tree, edgeVertexId.m_sourceId, newPos, toTarget);
+        }
+
         s_logger.info("ret:");
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(edgeVertexId.m_sourceId);
     }
 
     public boolean canDragTo(Node node, Node newParent)
@@ -993,14 +1295,12 @@ public class MindModel {
 		return tuple.get(sm_dbIdColumnName);
 	}
 
-    static public String getOutEdgeInnerId(Edge edge)
-    {
-        return (String)edge.get(EDGE_INNER_ID_PROP_NAME);
-    }
-
     public int getDBChildCount(Node node)
     {
-        return getNodeOutEdgeIdPairs(node).size();
+        if (isMoreChildrenNode(node)) {
+            return 0;
+        }
+        return m_mindDb.getOutEdgeCount(getDbId(node));
     }
 
     public boolean isChildrenAttached(Node node)
@@ -1012,25 +1312,88 @@ public class MindModel {
         */
     }
 
-    void updateChildrenAttached()
+    //子节点增删后，更新一个化身的childrenAttached与占位节点的计数。新加入界面树的节点也要调用一次:
+    //没有子节点的节点，子节点算是都已挂上
+    private void updateChildrenAttached(Node node)
     {
-        for (Tree tree: m_trees) {
+        if (isMoreChildrenNode(node)) {
+            return;
+        }
 
-            visitAllNode(tree, new NodeVisitor() {
-                @Override
-                public void visit(Node node) {
-                    if (!(node.getChildCount() == 0 || node.getChildCount() == getNodeOutEdgeIdPairs(node).size())) {
-                        int debug = 1;
-                    }
-                    assert  node.getChildCount() == 0 || node.getChildCount() == getNodeOutEdgeIdPairs(node).size();
-                    boolean childrenAttached = getNodeOutEdgeIdPairs(node).size() == node.getChildCount();
-                    node.setBoolean(CHILDREN_ATTACHED_PROP_NAME, childrenAttached);
-                }
-            });
+        int dbChildCount = getDBChildCount(node);
+        int attachedChildCount = getAttachedChildCount(node);
+        Node moreChildrenNode = getMoreChildrenNode(node);
+
+        //后面的子节点都被删除了，就去掉占位节点
+        if (moreChildrenNode != null) {
+            int moreCount = dbChildCount - attachedChildCount;
+            if (moreCount <= 0) {
+                ((Tree)node.getGraph()).removeChild(moreChildrenNode);
+                moreChildrenNode = null;
+            } else if (moreChildrenNode.getInt(MORE_CHILDREN_COUNT_PROP_NAME) != moreCount) {
+                setMoreChildrenCount(moreChildrenNode, moreCount);
+            }
+        }
+
+        assert attachedChildCount == 0 || attachedChildCount == dbChildCount || moreChildrenNode != null;
+        boolean childrenAttached = attachedChildCount == dbChildCount
+                || (moreChildrenNode != null && attachedChildCount < dbChildCount);
+        node.setBoolean(CHILDREN_ATTACHED_PROP_NAME, childrenAttached);
+    }
+
+    //数据库中dbId的出边增删、移动后调用。只更新它在各个界面树上的化身，不遍历整个界面树
+    private void updateAvatarsChildrenAttached(Object dbId)
+    {
+        if (m_batchDepth > 0) {
+            m_batchChangedSourceIds.add(dbId);
+        } else {
+            updateChildrenAttachedOfAvatars(dbId);
+        }
+    }
+
+    private void updateChildrenAttachedOfAvatars(Object dbId)
+    {
+        for (Tree tree : m_trees) {
+            for (int row : getNodeAvatars(tree, dbId)) {
+                updateChildrenAttached(tree.getNode(row));
+            }
         }
     }
 
 
+    //多个节点的移动、删除等放在beginBatch与endBatch之间: 每个修改仍然立即反映到界面树上,
+    //但同一个节点的childrenAttached与占位节点计数在endBatch中只更新一次，数据库只提交一次。可以嵌套
+    public void beginBatch()
+    {
+        m_batchDepth++;
+        m_mindDb.beginDeferringCommit();
+    }
+
+    //返回批量修改期间变化过的界面树，调用者只需要重新布局这些树。嵌套在内层的endBatch返回空集
+    public Set<Tree> endBatch()
+    {
+        assert m_batchDepth > 0;
+
+        if (m_batchDepth > 1) {
+            m_batchDepth--;
+            m_mindDb.endDeferringCommit();
+            return Collections.emptySet();
+        }
+
+        //更新childrenAttached时可能去掉占位节点，也算界面树的变化
+        for (Object sourceId : m_batchChangedSourceIds) {
+            updateChildrenAttachedOfAvatars(sourceId);
+        }
+        m_batchChangedSourceIds.clear();
+
+        m_batchDepth--;
+        m_mindDb.endDeferringCommit();
+
+        HashSet<Tree> changedTrees = new HashSet<>(m_batchChangedTrees);
+        m_batchChangedTrees.clear();
+        return changedTrees;
+    }
+
     public boolean isSelfInDB(Node n1, Node n2)
     {
         return m_mindDb.vertexIdIsSelf(getDbId(n1), getDbId(n2));
@@ -1072,7 +1435,7 @@ public class MindModel {
 
 
         Object dbId = getDbId(node);
-        if (dbId != null) {
+        if (dbId != null && ! isMoreChildrenNode(node)) {
             List inheritPath = m_mindDb.getInheritPath(dbId);
             String infoFmt = "row:%d, rootId:%s, nodePath:%s, inheritPath:%s, id:%s, text:%s";
             return String.format(infoFmt,
@@ -1125,43 +1488,54 @@ public class MindModel {
     }
 
 
-    public ArrayList<Integer> getNodePath(Node node)
+    //树上记录了每个节点在兄弟节点中的序号，路径的长度与层数成正比，与兄弟节点个数无关
+    public int[] getNodePathArray(Node node)
     {
+        assert (node != null);
+
         Tree tree = (Tree)node.getGraph();
-        ArrayList<Integer> path = new ArrayList<Integer>();
+        int[] path = tree.getPath(node);
 
-        Node climber = node;
-        Node root = tree.getRoot();
+        assert (path != null);
+        return path;
+    }
 
-        assert (climber != null);
+    public ArrayList<Integer> getNodePath(Node node)
+    {
+        int[] pathArray = getNodePathArray(node);
+        ArrayList<Integer> path = new ArrayList<>(pathArray.length);
 
-        while (climber != root)
-        {
-            path.add(0, tree.getIndexInSiblings(climber));
-            climber = climber.getParent();
-            if (climber.getRow()==root.getRow() && climber != root) {
-                s_logger.info("aaaaaaaaaaaa");
-            }
+        for (int pos : pathArray) {
+            path.add(pos);
         }
 
         return path;
     }
 
     public Node getNodeByPath(Tree tree, ArrayList<Integer> path)
+    {
+        int[] pathArray = new int[path.size()];
+        for (int i=0; i<pathArray.length; i++) {
+            pathArray[i] = path.get(i);
+        }
+
+        return getNodeByPath(tree, pathArray);
+    }
+
+    public Node getNodeByPath(Tree tree, int[] path)
     {
         Node node = tree.getRoot();
 
-        for (int i=0; i<path.size(); i++) {
+        for (int i=0; i<path.length; i++) {
+
+            int pos = path[i];
 
-            if (node.getChildCount() == 0 && getDBChildCount(node) > 0) {
-                attachChildren(node);
+            if (! isChildrenAttached(node) || pos >= getAttachedChildCount(node)) {
+                attachChildrenUntil(node, pos);
             }
 
-            int pos = path.get(i);
             node = node.getChild(pos);
 
-            assert(node != null);
-
             if (node == null) {
                 return null;
             }
@@ -1170,22 +1544,24 @@ public class MindModel {
         return node;
     }
 
-    public Node getNodeByPath(Tree tree, int[] path)
+    //路径中超出数据库子节点个数的部分去掉，返回最深的有效节点。
+    //重新打开脑图后，undo日志中的光标路径可能已经不完全有效
+    public Node getNearestNodeByPath(Tree tree, int[] path)
     {
         Node node = tree.getRoot();
 
         for (int i=0; i<path.length; i++) {
+            int pos = path[i];
 
-            if (! isChildrenAttached(node)) {
-                attachChildren(node);
+            if (pos >= getDBChildCount(node)) {
+                break;
             }
 
-            int pos = path[i];
-            node = node.getChild(pos);
-
-            if (node == null) {
-                return null;
+            if (! isChildrenAttached(node) || pos >= getAttachedChildCount(node)) {
+                attachChildrenUntil(node, pos);
             }
+
+            node = node.getChild(pos);
         }
 
         return node;
@@ -1256,14 +1632,18 @@ public class MindModel {
         });
     }
 
-    private static double getNodeDistanceSquare(Node node1, Node node2)
+    private static NearestPointIndex buildNodeAvatarsIndex(Tree tree, List<Integer> nodeAvatars)
     {
-        double x1 = node1.getDouble(MIRROR_X);
-        double y1 = node1.getDouble(MIRROR_Y);
-        double x2 = node2.getDouble(MIRROR_X);
-        double y2 = node2.getDouble(MIRROR_Y);
+        double xs[] = new double[nodeAvatars.size()];
+        double ys[] = new double[nodeAvatars.size()];
 
-        return (x1 - x2) * (x1 - x2)  + (y1 - y2) * (y1 - y2) ;
+        for (int i=0; i<xs.length; i++) {
+            Node node = tree.getNode(nodeAvatars.get(i));
+            xs[i] = node.getDouble(MIRROR_X);
+            ys[i] = node.getDouble(MIRROR_Y);
+        }
+
+        return new NearestPointIndex(xs, ys);
     }
 
     private static class NodeAvatarsPairingInfo {
@@ -1307,39 +1687,43 @@ public class MindModel {
             nodeAvatars2.remove((Integer)enforceNode2);
         }
 
-        //sort by x,y
-        Iterator<Integer> iterator1 = nodeAvatars1.iterator();
-        while (iterator1.hasNext() && nodeAvatars2.size() > 0) {
-            int node1 = iterator1.next();
+        //按顺序为每个node1找剩下的node2中最近的一个。node2较多时逐个比较太慢，用k-d树查找
+        ArrayList<Integer> aloneNodeAvatars1 = new ArrayList<Integer>();
+        NearestPointIndex nodeAvatars2Index = null;
+        boolean nodeAvatars2Paired[] = new boolean[nodeAvatars2.size()];
 
-            if (! isChildrenAttached(tree.getNode(node1))) {
+        for (int node1 : nodeAvatars1) {
+            if (! isChildrenAttached(tree.getNode(node1))
+                    || (nodeAvatars2Index != null && nodeAvatars2Index.size() == 0)
+                    || nodeAvatars2.isEmpty()) {
+                aloneNodeAvatars1.add(node1);
                 continue;
             }
 
-            int nearestNode2 = -1;
-            Double minDistanceSquare = Double.MAX_VALUE;
-
-            for (int node2 : nodeAvatars2) {
-
-                double distanceSquare = getNodeDistanceSquare(tree.getNode(node1), tree.getNode(node2));
-                if (distanceSquare < minDistanceSquare) {
-                    minDistanceSquare = distanceSquare;
-                    nearestNode2 = node2;
-                }
+            //MIRROR_X, MIRROR_Y列由MindView加入，只在需要计算距离时读取
+            if (nodeAvatars2Index == null) {
+                nodeAvatars2Index = buildNodeAvatarsIndex(tree, nodeAvatars2);
             }
 
-            pairs.put(node1, nearestNode2);
+            Node node = tree.getNode(node1);
+            int nearestIndex = nodeAvatars2Index.removeNearest(node.getDouble(MIRROR_X), node.getDouble(MIRROR_Y));
+            pairs.put(node1, nodeAvatars2.get(nearestIndex));
+            nodeAvatars2Paired[nearestIndex] = true;
+        }
 
-            iterator1.remove();
-            nodeAvatars2.remove((Integer)nearestNode2);
+        ArrayList<Integer> aloneNodeAvatars2 = new ArrayList<Integer>();
+        for (int i=0; i<nodeAvatars2.size(); i++) {
+            if (! nodeAvatars2Paired[i]) {
+                aloneNodeAvatars2.add(nodeAvatars2.get(i));
+            }
         }
 
         s_logger.info("QQQQQQQQQQQQQQQQQQQQQQQqq");
         NodeAvatarsPairingInfo pairingInfo = new NodeAvatarsPairingInfo();
         s_logger.info("llllllllllllllllllQQQQQQQQQQQQQQQQQQQQQQqq");
         pairingInfo.m_nodeAvatarPairs = pairs;
-        pairingInfo.m_nodeAvatars1Alone = nodeAvatars1;
-        pairingInfo.m_nodeAvatars2Alone = nodeAvatars2;
+        pairingInfo.m_nodeAvatars1Alone = aloneNodeAvatars1;
+        pairingInfo.m_nodeAvatars2Alone = aloneNodeAvatars2;
 
         s_logger.info("ret: {}", pairingInfo);
 
@@ -1356,12 +1740,25 @@ public class MindModel {
             int node2 = pairs.get(node1);
             Node oldParent = tree.getNode(node1);
             Node newParent = tree.getNode(node2);
-            Node child = oldParent.getChild(oldChildPos);
 
-            tree.removeEdge(tree.getEdge(oldParent, child));
+            //子节点很多时，原位置或新位置可能在已经挂上的子节点之后
+            boolean childShown = isChildShown(oldParent, oldChildPos);
+            boolean childShowable = ! hasMoreChildren(newParent) || newChildPos <= getAttachedChildCount(newParent);
+
+            if (childShown && childShowable) {
+                Node child = oldParent.getChild(oldChildPos);
 
-            Edge newEdge = tree.addChildEdge(newParent, child, newChildPos);
-            loadEdgeProperties(childEdgeVertex.m_edge, newEdge);
+                tree.removeEdge(tree.getEdge(oldParent, child));
+
+                Edge newEdge = tree.addChildEdge(newParent, child, newChildPos);
+                loadEdgeProperties(childEdgeVertex.m_edge, newEdge);
+
+            } else {
+                if (childShown) {
+                    hideNodeRelation(tree.getChildEdge(oldParent, oldChildPos));
+                }
+                exposeNodeRelation(newParent, newChildPos, childEdgeVertex);
+            }
 
             verifyNode(oldParent, true);
             verifyNode(newParent, true);
@@ -1371,7 +1768,7 @@ public class MindModel {
             if (tree.getNodeTable().isValidRow(node1)) {
                 Node oldParent = tree.getNode(node1);
                 //NO, 不是他
-                if (isChildrenAttached(oldParent)) {
+                if (isChildShown(oldParent, oldChildPos)) {
                     hideNodeRelation(tree.getChildEdge(oldParent, oldChildPos));
                 }
                 verifyNode(oldParent, false);
@@ -1433,9 +1830,7 @@ public class MindModel {
 
         //通过Node获取比直接用数据查找快
         if (oldSource != null) {
-            if (! isChildrenAttached(oldSource)) {
-                attachChildren(oldSource);
-            }
+            attachChildrenUntil(oldSource, oldPos);
 
             Node child = oldSource.getChild(oldPos);
             targetVertex = getDBVertex(child);
@@ -1460,8 +1855,8 @@ public class MindModel {
         }
 
         //FIXME: 如果newSource有指向自身的边，此处展开一层对于并不能简化代码。
-        if (newSource != null && !isChildrenAttached(newSource)) {
-            attachChildren(newSource);
+        if (newSource != null) {
+            attachChildrenUntil(newSource, newPos < 0 ? getDBChildCount(newSource) - 1 : newPos - 1);
         }
 
         Vertex newSourceVertex = m_mindDb.getVertex(newSourceDbId);
@@ -1477,7 +1872,8 @@ public class MindModel {
         }
         handoverNode(oldSourceDbId, oldPos, oldSource, newSourceDbId, newPos, newSource, newEdgeVertex, oldEdgeId);
 
-        updateChildrenAttached();
+        updateAvatarsChildrenAttached(oldSourceDbId);
+        updateAvatarsChildrenAttached(newSourceDbId);
         s_logger.info("ret:");
     }
 
@@ -1490,7 +1886,7 @@ public class MindModel {
             return;
         }
 
-        if (m_verifyNodeEnabled == false) {
+        if (m_verifyNodeEnabled == false || isMoreChildrenNode(node)) {
             return;
         }
 
@@ -1501,15 +1897,15 @@ public class MindModel {
         verifyElementProperties(vertex, node, sm_nodePropNames);
 
         List<MindDB.EdgeVertexId> outEdgeVertexIds = m_mindDb.getOutEdgeVertexIds(getDBVertex(node));
-        if (outEdgeVertexIds.size() > 0 && forceChildAttached) {
+        if (outEdgeVertexIds.size() > 0 && forceChildAttached && ! hasMoreChildren(node)) {
             assert node.getChildCount() == outEdgeVertexIds.size();
         }
 
-        for (int i=0; i<node.getChildCount(); i++) {
+        for (int i=0; i<getAttachedChildCount(node); i++) {
             Node childOrReferenceNode = node.getChild(i);
             Edge outEdge = (node.getGraph()).getEdge(node, childOrReferenceNode);
 
-            assert(getOutEdgeInnerId(outEdge).equals(outEdgeVertexIds.get(i).m_edgeInnerId));
+            assert(getDbId(outEdge).equals(outEdgeVertexIds.get(i).m_edgeId));
             verifyElementProperties(getDBEdge(outEdge), outEdge, sm_edgePropNames);
 
             Integer outEdgeType = (Integer)outEdge.get(sm_edgeTypePropName);
@@ -1534,7 +1930,7 @@ public class MindModel {
                 int debug = 1;
             }
 
-            assert parentOrReferrerOutEdgeIdPairs.get(node.getIndex()).m_edgeInnerId.equals(getOutEdgeInnerId(inEdge));
+            assert parentOrReferrerOutEdgeIdPairs.get(node.getIndex()).m_edgeId.equals(getDbId(inEdge));
 
             if (MindDB.EdgeType.values()[inEdgeType] == MindDB.EdgeType.INCLUDE) {
                 assert m_mindDb.vertexIdIsParentOf(getDbId(parentOrReferrerNode), getDbId(node));
@@ -1664,7 +2060,6 @@ public class MindModel {
 
         Node subTreeRoot = addChild(pastePoint, position, "pasteTree");
         pasteNodeRecursively(externalTree.getRoot(), subTreeRoot);
-        updateChildrenAttached();
         return subTreeRoot;
     }
 
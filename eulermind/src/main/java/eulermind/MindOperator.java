@@ -4,7 +4,6 @@ import prefuse.data.Edge;
 import prefuse.data.Node;
 import prefuse.data.Tree;
 
-import javax.swing.undo.AbstractUndoableEdit;
 import java.util.ArrayList;
 
 import org.slf4j.Logger;
@@ -32,7 +31,9 @@ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
 CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
-public abstract class MindOperator extends AbstractUndoableEdit {
+//操作对象只在执行时存在。does记下对数据库的修改 (m_deltas)，由MindController写入undo日志，
+//undo, redo时按日志重放，不再保留操作对象以及它引用的界面树节点
+public abstract class MindOperator {
     protected Logger m_logger;
     protected MindModel m_mindModel;
 
@@ -59,8 +60,8 @@ public abstract class MindOperator extends AbstractUndoableEdit {
 
     protected int m_formerCursorPos;
 
-    //同时操作多个节点的时候，表示第一个操作符。undo的时候也是回退到这里
-    public boolean m_firstInGroup = false;
+    //does执行的数据库修改，按执行顺序排列
+    protected ArrayList<MindDelta> m_deltas = new ArrayList<>();
 
     public MindOperator(MindModel mindModel, Node formerCursor) {
         m_logger = LoggerFactory.getLogger(this.getClass());
@@ -118,11 +119,10 @@ public abstract class MindOperator extends AbstractUndoableEdit {
     //如果返回false，表示条件不足，没有执行
     abstract public boolean does() throws Exception;
 
-    public boolean canRedo() {
-        return true;
-    }
-
-    public boolean canUndo() {
-        return true;
+    //undo日志中的一步。要在数据库提交之后调用，这时新节点的id才是最终的
+    MindDelta.Step toUndoStep() {
+        int formerCursorPath[] = m_formerCursorPath == null ? new int[0] : MindDelta.toIntArray(m_formerCursorPath);
+        int laterCursorPath[] = m_laterCursorPath == null ? formerCursorPath : MindDelta.toIntArray(m_laterCursorPath);
+        return new MindDelta.Step(formerCursorPath, laterCursorPath, m_deltas);
     }
 }
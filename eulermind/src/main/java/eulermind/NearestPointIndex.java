@@ -0,0 +1,192 @@
+package eulermind;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+//平面上一组点的二维k-d树，支持"找到并去掉离查询点最近的点"。
+//距离相同时返回下标最小的点，与按下标顺序扫描、取第一个最近点的结果一致
+class NearestPointIndex {
+
+    private final double m_xs[];
+    private final double m_ys[];
+
+    //隐式平衡树: 区间[lo, hi)的根在 mid = (lo + hi) / 2, 左子树[lo, mid), 右子树[mid+1, hi)。
+    //深度为偶数的节点按x划分，奇数的按y划分
+    private final int m_points[];
+    //以该位置为根的子树中还没有去掉的点数
+    private final int m_aliveCounts[];
+    //每个点在m_points中的位置
+    private final int m_positions[];
+    private final boolean m_removed[];
+
+    private int m_bestPoint;
+    private double m_bestDistanceSquare;
+
+    NearestPointIndex(double xs[], double ys[])
+    {
+        assert xs.length == ys.length;
+
+        m_xs = xs;
+        m_ys = ys;
+
+        int count = xs.length;
+        Integer points[] = new Integer[count];
+        for (int i=0; i<count; i++) {
+            points[i] = i;
+        }
+
+        build(points, 0, count, 0);
+
+        m_points = new int[count];
+        m_positions = new int[count];
+        for (int i=0; i<count; i++) {
+            m_points[i] = points[i];
+            m_positions[points[i]] = i;
+        }
+
+        m_aliveCounts = new int[count];
+        initAliveCounts(0, count);
+        m_removed = new boolean[count];
+    }
+
+    private void build(Integer points[], int lo, int hi, final int depth)
+    {
+        if (hi - lo <= 1) {
+            return;
+        }
+
+        Arrays.sort(points, lo, hi, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer p1, Integer p2) {
+                return Double.compare(coordinate(p1, depth), coordinate(p2, depth));
+            }
+        });
+
+        int mid = (lo + hi) >>> 1;
+        build(points, lo, mid, depth + 1);
+        build(points, mid + 1, hi, depth + 1);
+    }
+
+    private int initAliveCounts(int lo, int hi)
+    {
+        if (lo >= hi) {
+            return 0;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        m_aliveCounts[mid] = initAliveCounts(lo, mid) + 1 + initAliveCounts(mid + 1, hi);
+        return m_aliveCounts[mid];
+    }
+
+    private double coordinate(int point, int depth)
+    {
+        return (depth & 1) == 0 ? m_xs[point] : m_ys[point];
+    }
+
+    int size()
+    {
+        return m_points.length == 0 ? 0 : m_aliveCounts[m_points.length >>> 1];
+    }
+
+    //返回最近点的下标并把它去掉。没有点时返回-1
+    int removeNearest(double x, double y)
+    {
+        if (size() == 0) {
+            return -1;
+        }
+
+        m_bestPoint = -1;
+        m_bestDistanceSquare = Double.POSITIVE_INFINITY;
+        searchNearest(x, y, 0, m_points.length, 0);
+
+        assert m_bestPoint >= 0;
+        remove(m_bestPoint);
+        return m_bestPoint;
+    }
+
+    private void searchNearest(double x, double y, int lo, int hi, int depth)
+    {
+        if (lo >= hi) {
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        if (m_aliveCounts[mid] == 0) {
+            return;
+        }
+
+        int point = m_points[mid];
+        if (! m_removed[point]) {
+            double dx = m_xs[point] - x;
+            double dy = m_ys[point] - y;
+            double distanceSquare = dx * dx + dy * dy;
+
+            if (distanceSquare < m_bestDistanceSquare
+                    || (distanceSquare == m_bestDistanceSquare && point < m_bestPoint)) {
+                m_bestDistanceSquare = distanceSquare;
+                m_bestPoint = point;
+            }
+        }
+
+        double diff = ((depth & 1) == 0 ? x : y) - coordinate(point, depth);
+
+        //先查找查询点所在的一侧。另一侧的点距离不小于diff, 距离相等时还要比较下标，所以用 <=
+        if (diff < 0) {
+            searchNearest(x, y, lo, mid, depth + 1);
+            if (diff * diff <= m_bestDistanceSquare) {
+                searchNearest(x, y, mid + 1, hi, depth + 1);
+            }
+        } else {
+            searchNearest(x, y, mid + 1, hi, depth + 1);
+            if (diff * diff <= m_bestDistanceSquare) {
+                searchNearest(x, y, lo, mid, depth + 1);
+            }
+        }
+    }
+
+    private void remove(int point)
+    {
+        assert ! m_removed[point];
+        m_removed[point] = true;
+
+        int position = m_positions[point];
+        int lo = 0;
+        int hi = m_points.length;
+
+        while (true) {
+            int mid = (lo + hi) >>> 1;
+            m_aliveCounts[mid]--;
+
+            if (position == mid) {
+                break;
+            } else if (position < mid) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+    }
+}
@@ -25,12 +25,19 @@ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 import com.orientechnologies.common.util.OCallable;
 import com.orientechnologies.orient.core.command.OCommandOutputListener;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.tx.OTransaction;
+import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Index;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.impls.orient.OrientBaseGraph;
+import com.tinkerpop.blueprints.impls.orient.OrientEdgeType;
 import com.tinkerpop.blueprints.impls.orient.OrientGraph;
 import org.apache.ivy.util.FileUtil;
 import org.apache.lucene.index.IndexWriter;
@@ -38,6 +45,9 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 public class OrientMindDb extends MindDB{
@@ -54,6 +64,79 @@ public class OrientMindDb extends MindDB{
         m_graph = new OrientGraph (m_orientDbUrl, true);
     }
 
+    TransactionalGraph openBackGraph() {
+        return new OrientGraph (m_orientDbUrl, true);
+    }
+
+    boolean hasUncommittedChanges() {
+        return ((OrientGraph)m_graph).getRawGraph().getTransaction().getEntryCount() > 0;
+    }
+
+    //返回的id对象就是事务中记录的id, 提交时新节点的id在原对象上变成正式的
+    List<TextIndex.Change> getUncommittedTextChanges() {
+        ArrayList<TextIndex.Change> changes = new ArrayList<>();
+        OTransaction transaction = ((OrientGraph)m_graph).getRawGraph().getTransaction();
+
+        for (ORecordOperation operation : transaction.getAllRecordEntries()) {
+            if (! (operation.getRecord() instanceof ODocument)) {
+                continue;
+            }
+
+            ODocument doc = (ODocument)operation.getRecord();
+            OClass type = doc.getSchemaClass();
+            if (type != null && type.isSubClassOf(OrientEdgeType.CLASS_NAME)) {
+                continue;
+            }
+
+            if (operation.type == ORecordOperation.DELETED) {
+                changes.add(new TextIndex.Change(doc.getIdentity(), null, false));
+
+            } else if (doc.containsField(MindModel.TEXT_PROP_NAME)) {
+                String text = doc.field(MindModel.TEXT_PROP_NAME);
+                boolean isNew = operation.type == ORecordOperation.CREATED;
+
+                //修改的节点可能在被删除的子树中, 替换文档时保留删除标记
+                boolean isTrashed = ! isNew && isVertexIdTrashed(doc.getIdentity());
+                changes.add(new TextIndex.Change(doc.getIdentity(), text, isNew, isTrashed));
+            }
+        }
+        return changes;
+    }
+
+    //用一条 select from [#x:y, ...] 读取一页节点, 不再逐个getVertex
+    List<Vertex> getVerticesById(Graph graph, List<Object> ids) {
+        if (ids.size() <= 1 || ! (graph instanceof OrientGraph)) {
+            return super.getVerticesById(graph, ids);
+        }
+
+        StringBuilder sql = new StringBuilder("select from [");
+        for (int i=0; i<ids.size(); i++) {
+            //事务中新建的节点还没有正式的id, 不能用查询读取
+            if (! ((ORecordId)ids.get(i)).isPersistent()) {
+                return super.getVerticesById(graph, ids);
+            }
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(ids.get(i).toString());
+        }
+        sql.append(']');
+
+        Iterable<Vertex> result = ((OrientGraph)graph).command(new OCommandSQL(sql.toString())).execute();
+
+        HashMap<Object, Vertex> vertexMap = new HashMap<>();
+        for (Vertex vertex : result) {
+            vertexMap.put(vertex.getId(), vertex);
+        }
+
+        ArrayList<Vertex> vertices = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            Vertex vertex = vertexMap.get(id);
+            vertices.add(vertex != null ? vertex : graph.getVertex(id));
+        }
+        return vertices;
+    }
+
     void backup(String backupPath) {
 
         OCommandOutputListener listener = new OCommandOutputListener() {
@@ -63,6 +146,7 @@ public class OrientMindDb extends MindDB{
             }
         };
 
+        stopTrashCollector();
         m_graph.shutdown();
 
         /*
@@ -99,6 +183,7 @@ public class OrientMindDb extends MindDB{
             db.release();
             db.close();
             m_graph = new OrientGraph (m_orientDbUrl, true);
+            startTrashCollector();
 
         }
     }
@@ -111,6 +196,7 @@ public class OrientMindDb extends MindDB{
             }
         };
 
+        stopTrashCollector();
         m_graph.shutdown();
         ODatabaseDocumentTx db = new ODatabaseDocumentTx(m_orientDbUrl);
         db.open("admin", "admin");
@@ -125,6 +211,11 @@ public class OrientMindDb extends MindDB{
         } finally {
             db.close();
             m_graph = new OrientGraph (m_orientDbUrl, true);
+            m_adjacencyIndex.clear();
+            m_adjacencyIndex.setRoot(m_rootId);
+            m_trashedRootIds = null;
+            startTrashCollector();
+            m_textIndex.rebuildLater();
 
         }
     }
@@ -175,6 +266,23 @@ public class OrientMindDb extends MindDB{
         });
     }
 
+    //OrientDB的lucene索引在每次setProperty时同步更新, 现在由TextIndex代替
+    void dropFullTextVertexKeyIndex(final String key)
+    {
+        OrientGraph graph = (OrientGraph) m_graph;
+        if (! graph.getIndexedKeys(Vertex.class).contains(key)) {
+            return;
+        }
+
+        graph.executeOutsideTx(new OCallable<Object, OrientBaseGraph>() {
+            @Override
+            public Object call(OrientBaseGraph iArgument) {
+                iArgument.dropKeyIndex(key, Vertex.class);
+                return null;
+            }
+        });
+    }
+
     public void dropIndex(String indexName)
     {
         //FIXME: dropIndex后马上 createIndex, 会有bug，提示该index已经存在
@@ -0,0 +1,154 @@
+package eulermind;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+//一个节点的所有出边，按顺序键 (m_edgeInnerId) 排列。不可修改，可以被多个读者共享而不必复制。
+//出边增删时由EdgeVertexIdCache生成新的快照，版本号增大，旧快照保持不变
+public class OutEdgeList extends AbstractList<MindDB.EdgeVertexId> implements RandomAccess {
+
+    private final MindDB.EdgeVertexId m_edges[];
+    private final long m_version;
+
+    OutEdgeList(List<MindDB.EdgeVertexId> edges, long version)
+    {
+        this(edges.toArray(new MindDB.EdgeVertexId[edges.size()]), version);
+
+        for (int i=1; i<m_edges.length; i++) {
+            assert m_edges[i-1].m_edgeInnerId < m_edges[i].m_edgeInnerId;
+        }
+    }
+
+    private OutEdgeList(MindDB.EdgeVertexId edges[], long version)
+    {
+        m_edges = edges;
+        m_version = version;
+    }
+
+    @Override
+    public MindDB.EdgeVertexId get(int index)
+    {
+        return m_edges[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return m_edges.length;
+    }
+
+    public long getVersion()
+    {
+        return m_version;
+    }
+
+    //二分查找。没有找到时与Arrays.binarySearch一样返回 -(插入位置) - 1
+    public int indexOfInnerId(long innerId)
+    {
+        int low = 0;
+        int high = m_edges.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midInnerId = m_edges[mid].m_edgeInnerId;
+
+            if (midInnerId < innerId) {
+                low = mid + 1;
+            } else if (midInnerId > innerId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        if (! (o instanceof MindDB.EdgeVertexId)) {
+            return -1;
+        }
+
+        int index = indexOfInnerId(((MindDB.EdgeVertexId) o).m_edgeInnerId);
+        return index >= 0 && m_edges[index].equals(o) ? index : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o)
+    {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return indexOf(o) >= 0;
+    }
+
+    //返回加入edge后的新快照。已有同样顺序键的边时替换它
+    OutEdgeList withEdge(MindDB.EdgeVertexId edge, long version)
+    {
+        int index = indexOfInnerId(edge.m_edgeInnerId);
+        MindDB.EdgeVertexId edges[];
+
+        if (index >= 0) {
+            edges = m_edges.clone();
+            edges[index] = edge;
+        } else {
+            int insertPos = -index - 1;
+            edges = new MindDB.EdgeVertexId[m_edges.length + 1];
+            System.arraycopy(m_edges, 0, edges, 0, insertPos);
+            edges[insertPos] = edge;
+            System.arraycopy(m_edges, insertPos, edges, insertPos + 1, m_edges.length - insertPos);
+        }
+
+        return new OutEdgeList(edges, version);
+    }
+
+    //返回去掉顺序键为innerId的边后的新快照。没有这条边时返回自身
+    OutEdgeList withoutEdge(long innerId, long version)
+    {
+        int index = indexOfInnerId(innerId);
+        if (index < 0) {
+            return this;
+        }
+
+        MindDB.EdgeVertexId edges[] = new MindDB.EdgeVertexId[m_edges.length - 1];
+        System.arraycopy(m_edges, 0, edges, 0, index);
+        System.arraycopy(m_edges, index + 1, edges, index, m_edges.length - index - 1);
+
+        return new OutEdgeList(edges, version);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "v" + m_version + Arrays.toString(m_edges);
+    }
+}
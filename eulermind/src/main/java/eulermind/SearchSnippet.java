@@ -0,0 +1,205 @@
+package eulermind;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//全文查找结果的摘要: 用与全文索引相同的分词器切词, 截取第一个命中词附近的文字, 命中词用<b>标出
+class SearchSnippet {
+
+    //摘要最多的字符数(不含标记)
+    static final int SNIPPET_LENGTH = 60;
+
+    //命中词之前保留的字符数
+    static final int LEADING_LENGTH = 15;
+
+    //分词器加载词典很慢, 只建一个。Analyzer 可以多线程共用
+    private static Analyzer s_analyzer;
+
+    static synchronized Analyzer getAnalyzer()
+    {
+        if (s_analyzer == null) {
+            s_analyzer = new SmartChineseAnalyzer(Version.LUCENE_47);
+        }
+        return s_analyzer;
+    }
+
+    //查询串切成的词
+    static Set<String> getTerms(String query)
+    {
+        HashSet<String> terms = new HashSet<>();
+        try {
+            TokenStream stream = getAnalyzer().tokenStream(MindModel.TEXT_PROP_NAME, query);
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            try {
+                stream.reset();
+                while (stream.incrementToken()) {
+                    terms.add(termAttribute.toString());
+                }
+                stream.end();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            //从字符串读取，不会有IO错误
+            throw new RuntimeException(e);
+        }
+        return terms;
+    }
+
+    private static void appendEscaped(StringBuilder builder, String text, int start, int end)
+    {
+        for (int i=start; i<end; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    //输入提示的HTML片段: 取文字开头, 与输入相同的前prefixLength个字符(不算开头的空白)用<b>标出
+    static String makePrefix(String text, int prefixLength)
+    {
+        if (text == null) {
+            return "";
+        }
+
+        int snippetEnd = Math.min(text.length(), SNIPPET_LENGTH);
+
+        int hitStart = 0;
+        while (hitStart < snippetEnd && Character.isWhitespace(text.charAt(hitStart))) {
+            hitStart++;
+        }
+        int hitEnd = Math.min(hitStart + prefixLength, snippetEnd);
+
+        StringBuilder builder = new StringBuilder();
+        appendEscaped(builder, text, 0, hitStart);
+        if (hitStart < hitEnd) {
+            builder.append("<b>");
+            appendEscaped(builder, text, hitStart, hitEnd);
+            builder.append("</b>");
+        }
+        appendEscaped(builder, text, hitEnd, snippetEnd);
+
+        if (snippetEnd < text.length()) {
+            builder.append("...");
+        }
+        return builder.toString();
+    }
+
+    //返回HTML片段，没有命中词时取文字开头
+    static String make(String text, Set<String> terms)
+    {
+        if (text == null) {
+            return "";
+        }
+
+        //命中词的[开始, 结束)位置, 按顺序排列
+        int hitOffsets[] = new int[16];
+        int hitCount = 0;
+
+        try {
+            TokenStream stream = getAnalyzer().tokenStream(MindModel.TEXT_PROP_NAME, text);
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAttribute = stream.addAttribute(OffsetAttribute.class);
+            try {
+                stream.reset();
+                while (stream.incrementToken()) {
+                    if (! terms.contains(termAttribute.toString())) {
+                        continue;
+                    }
+
+                    //分词器输出的位置可能重叠, 只保留不重叠的
+                    int start = offsetAttribute.startOffset();
+                    if (hitCount > 0 && start < hitOffsets[hitCount * 2 - 1]) {
+                        continue;
+                    }
+
+                    if (hitCount * 2 == hitOffsets.length) {
+                        hitOffsets = Arrays.copyOf(hitOffsets, hitOffsets.length * 2);
+                    }
+                    hitOffsets[hitCount * 2] = start;
+                    hitOffsets[hitCount * 2 + 1] = offsetAttribute.endOffset();
+                    hitCount++;
+                }
+                stream.end();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        int snippetStart = hitCount == 0 ? 0 : Math.max(0, hitOffsets[0] - LEADING_LENGTH);
+        int snippetEnd = Math.min(text.length(), snippetStart + SNIPPET_LENGTH);
+        if (snippetEnd - snippetStart < SNIPPET_LENGTH) {
+            snippetStart = Math.max(0, snippetEnd - SNIPPET_LENGTH);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        if (snippetStart > 0) {
+            builder.append("...");
+        }
+
+        int pos = snippetStart;
+        for (int i=0; i<hitCount; i++) {
+            int hitStart = Math.max(hitOffsets[i * 2], pos);
+            int hitEnd = Math.min(hitOffsets[i * 2 + 1], snippetEnd);
+            if (hitStart >= hitEnd) {
+                continue;
+            }
+
+            appendEscaped(builder, text, pos, hitStart);
+            builder.append("<b>");
+            appendEscaped(builder, text, hitStart, hitEnd);
+            builder.append("</b>");
+            pos = hitEnd;
+        }
+        appendEscaped(builder, text, pos, snippetEnd);
+
+        if (snippetEnd < text.length()) {
+            builder.append("...");
+        }
+        return builder.toString();
+    }
+}
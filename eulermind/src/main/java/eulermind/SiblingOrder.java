@@ -0,0 +1,131 @@
+package eulermind;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//兄弟节点之间的顺序键 (出边的EDGE_INNER_ID_PROP_NAME属性)，是一个long, 长度固定。
+//新键取左右两个键之间的值。中间没有空位时，把插入位置附近的一段兄弟重新均匀编号:
+//从插入位置开始成倍扩大这一段，直到它足够稀疏。段越长要求的平均间隔越小，这样重新编号的代价分摊下来是对数级的
+final class SiblingOrder {
+
+    //键的取值范围是 (MIN_KEY, MAX_KEY), 两端不能取到
+    static final long MIN_KEY = 0;
+    static final long MAX_KEY = Long.MAX_VALUE;
+
+    //在最后追加或在最前插入时，与相邻键的间隔
+    static final long APPEND_STEP = 1L << 32;
+
+    //重新编号后，长度为1的一段的平均间隔。段的长度每增加一倍，要求的平均间隔减半
+    static final long RENUMBER_GAP = 1L << 40;
+
+    private SiblingOrder()
+    {
+    }
+
+    //在(lower, upper)之间取count个均匀分布的键。没有足够的空位时返回null
+    static long[] getEvenlySpacedKeys(long lower, long upper, int count)
+    {
+        assert MIN_KEY <= lower && lower < upper && upper <= MAX_KEY && count > 0;
+
+        long step = (upper - lower) / (count + 1);
+        if (step < 1) {
+            return null;
+        }
+
+        //一端是边界时，新键靠近另一端，给以后的追加和插入都留出空间
+        if (step > APPEND_STEP) {
+            if (lower == MIN_KEY && upper == MAX_KEY) {
+                lower = MAX_KEY / 2 - APPEND_STEP * (count / 2) - APPEND_STEP;
+                step = APPEND_STEP;
+            } else if (upper == MAX_KEY) {
+                step = APPEND_STEP;
+            } else if (lower == MIN_KEY) {
+                lower = upper - APPEND_STEP * (count + 1);
+                step = APPEND_STEP;
+            }
+        }
+
+        long keys[] = new long[count];
+        for (int i=0; i<count; i++) {
+            keys[i] = lower + step * (i + 1);
+        }
+        return keys;
+    }
+
+    //重新编号的结果：keys[from, to)这一段的旧键与插入的count个新键，按顺序排列的新值
+    static class Renumbering {
+        final int m_from;
+        final int m_to;
+        final long m_keys[];
+
+        Renumbering(int from, int to, long keys[])
+        {
+            m_from = from;
+            m_to = to;
+            m_keys = keys;
+        }
+
+        //插入的第i个新键
+        long getInsertedKey(int pos, int i)
+        {
+            return m_keys[pos - m_from + i];
+        }
+
+        //原来keys[index]的新键, index在[m_from, m_to)之间
+        long getRenumberedKey(int pos, int count, int index)
+        {
+            return index < pos ? m_keys[index - m_from] : m_keys[index - m_from + count];
+        }
+    }
+
+    //在有序的keys[0, size)中，keys[pos]之前插入count个键
+    static Renumbering insert(long keys[], int size, int pos, int count)
+    {
+        assert 0 <= pos && pos <= size && count > 0;
+
+        int from = pos;
+        int to = pos;
+        long gap = RENUMBER_GAP;
+
+        while (true) {
+            long lower = from == 0 ? MIN_KEY : keys[from - 1];
+            long upper = to == size ? MAX_KEY : keys[to];
+            int n = to - from + count;
+
+            //不需要重新编号的情况，不要求间隔
+            long requiredGap = from == to ? 1 : gap;
+
+            if ((upper - lower) / (n + 1) >= requiredGap || (from == 0 && to == size)) {
+                long newKeys[] = getEvenlySpacedKeys(lower, upper, n);
+                if (newKeys != null) {
+                    return new Renumbering(from, to, newKeys);
+                }
+                assert from != 0 || to != size : "too many siblings";
+            }
+
+            int width = Math.max(to - from, 1);
+            from = Math.max(0, from - width);
+            to = Math.min(size, to + width);
+            gap = Math.max(gap / 2, 2);
+        }
+    }
+}
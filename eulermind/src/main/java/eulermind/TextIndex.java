@@ -0,0 +1,813 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Index;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.FieldCacheDocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//节点文字的全文索引, 由MindDB自己维护, 不再让OrientDB在每次setProperty时同步更新lucene索引。
+//
+//MindDB提交后把文字有变化的节点交给addChanges, 先放在缓冲区中。后台线程每隔REFRESH_INTERVAL毫秒
+//把缓冲区写入IndexWriter并刷新SearcherManager(近实时, 不必提交), 段的合并由ConcurrentMergeScheduler在后台进行。
+//批量导入期间(deferRefresh)只写入IndexWriter, 不刷新, 导入结束后刷新一次, 不会产生很多小段。
+//
+//被删除子树中的节点, 文档的TRASHED_FIELD为1, 查询时直接由lucene过滤掉, 偏移也交给lucene。
+//删除或恢复子树后, 后台线程用自己的数据库实例读出子树中的节点, 修改它们的TRASHED_FIELD (doc values可以单独修改)。
+//
+//输入提示用的TextSuggester也在这里维护: 打开时从索引中保存的key装入, 修改提交后立即更新。
+//
+//IndexWriter只在关闭时提交, 并在提交数据中标记正常关闭。同邻接索引的快照: 若程序异常退出或索引损坏，
+//下次打开时在后台从数据库重建
+class TextIndex {
+
+    static Logger s_logger = LoggerFactory.getLogger(TextIndex.class);
+
+    final static String ID_FIELD = "id";
+    final static String TEXT_FIELD = MindModel.TEXT_PROP_NAME;
+
+    //TextSuggester的key, 只保存不索引
+    final static String KEY_FIELD = "key";
+
+    //节点在被删除的子树中时为1
+    final static String TRASHED_FIELD = "trashed";
+
+    //提交后的修改最多过这么久就能查到
+    final static long REFRESH_INTERVAL = 1000;
+
+    //缓冲的修改超过这个数时, 不等定时器, 立即写入IndexWriter
+    final static int MAX_PENDING_CHANGES = 10000;
+
+    private final static double RAM_BUFFER_SIZE_MB = 32;
+
+    private final static String CLEAN_CLOSED_KEY = "cleanClosed";
+
+    //一个节点的文字修改。m_text为null表示节点被删除。m_isTrashed: 提交时节点在被删除的子树中
+    static class Change {
+        final Object m_dbId;
+        final String m_text;
+        final boolean m_isNew;
+        final boolean m_isTrashed;
+
+        Change(Object dbId, String text, boolean isNew)
+        {
+            this(dbId, text, isNew, false);
+        }
+
+        Change(Object dbId, String text, boolean isNew, boolean isTrashed)
+        {
+            m_dbId = dbId;
+            m_text = text;
+            m_isNew = isNew;
+            m_isTrashed = isTrashed;
+        }
+    }
+
+    //删除或恢复的子树
+    static class TrashMark {
+        final Object m_rootId;
+        final boolean m_isTrashed;
+
+        TrashMark(Object rootId, boolean isTrashed)
+        {
+            m_rootId = rootId;
+            m_isTrashed = isTrashed;
+        }
+    }
+
+    private final MindDB m_mindDb;
+    private final File m_dir;
+
+    private final TextSuggester m_suggester = new TextSuggester();
+
+    private ScheduledExecutorService m_executor;
+    private volatile boolean m_closing;
+
+    private final Object m_lock = new Object();
+
+    //以下成员由m_lock保护
+    //节点id -> 最后一次修改。在数据库提交后才放入，此时新节点的id已是正式的
+    private HashMap<String, Change> m_pending = new HashMap<>();
+    //按顺序修改TRASHED_FIELD, 只在后台线程中写入
+    private ArrayList<TrashMark> m_pendingTrashMarks = new ArrayList<>();
+    private int m_deferRefreshDepth = 0;
+    private boolean m_rebuilding = false;
+    //重建失败或被中断时为false, 关闭时不标记为正常关闭
+    private boolean m_complete = true;
+    private boolean m_flushRequested = false;
+
+    //以下成员在持有m_writeLock时修改
+    private final Object m_writeLock = new Object();
+    private Directory m_directory;
+    private IndexWriter m_writer;
+    private volatile SearcherManager m_searcherManager;
+
+    TextIndex(MindDB mindDb, File dir)
+    {
+        m_mindDb = mindDb;
+        m_dir = dir;
+    }
+
+    void open()
+    {
+        m_executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "text-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        boolean rebuildNeeded;
+        synchronized (m_writeLock) {
+            rebuildNeeded = openOrRecreate();
+        }
+
+        if (rebuildNeeded) {
+            rebuildLater();
+        } else {
+            loadSuggesterLater();
+        }
+
+        m_executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    //返回true表示需要重建
+    private boolean openOrRecreate()
+    {
+        try {
+            return openIndex();
+        } catch (IOException e) {
+            s_logger.warn("text index is broken, recreate it: {}", e.getMessage());
+        }
+
+        closeQuietly();
+        try {
+            FileUtils.deleteDirectory(m_dir);
+            openIndex();
+        } catch (IOException e) {
+            s_logger.error("can not create text index: {}", Utils.getThrowableStackTraceString(e));
+            closeQuietly();
+        }
+        return true;
+    }
+
+    //返回true表示上次没有正常关闭
+    private boolean openIndex() throws IOException
+    {
+        m_directory = FSDirectory.open(m_dir);
+
+        boolean cleanClosed = false;
+        if (DirectoryReader.indexExists(m_directory)) {
+            List<IndexCommit> commits = DirectoryReader.listCommits(m_directory);
+            IndexCommit lastCommit = commits.get(commits.size() - 1);
+            cleanClosed = Boolean.parseBoolean(lastCommit.getUserData().get(CLEAN_CLOSED_KEY));
+        }
+
+        //异常退出时留下的锁
+        if (IndexWriter.isLocked(m_directory)) {
+            IndexWriter.unlock(m_directory);
+        }
+
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_47, SearchSnippet.getAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        config.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
+        config.setMergePolicy(new TieredMergePolicy());
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+
+        m_writer = new IndexWriter(m_directory, config);
+        m_searcherManager = new SearcherManager(m_writer, true, null);
+
+        //打开期间的提交都标记为未正常关闭
+        commit(false);
+        return ! cleanClosed;
+    }
+
+    private void commit(boolean cleanClosed) throws IOException
+    {
+        m_writer.setCommitData(Collections.singletonMap(CLEAN_CLOSED_KEY, String.valueOf(cleanClosed)));
+        m_writer.commit();
+    }
+
+    private void closeQuietly()
+    {
+        IOUtils.closeWhileHandlingException(m_searcherManager);
+        m_searcherManager = null;
+
+        if (m_writer != null) {
+            try {
+                m_writer.rollback();
+            } catch (IOException e) {
+                s_logger.warn("rollback text index writer failed: {}", e.getMessage());
+            }
+            m_writer = null;
+        }
+
+        IOUtils.closeWhileHandlingException(m_directory);
+        m_directory = null;
+    }
+
+    void close()
+    {
+        m_closing = true;
+        m_executor.shutdown();
+        try {
+            m_executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            s_logger.warn("interrupted while waiting text index thread");
+        }
+
+        synchronized (m_writeLock) {
+            if (m_writer == null) {
+                return;
+            }
+
+            HashMap<String, Change> pending;
+            boolean cleanClosed;
+            synchronized (m_lock) {
+                pending = m_pending;
+                m_pending = new HashMap<>();
+                cleanClosed = m_complete;
+            }
+
+            try {
+                applyChanges(pending);
+                m_searcherManager.close();
+                commit(cleanClosed);
+                m_writer.close(false);
+                m_directory.close();
+
+            } catch (IOException e) {
+                s_logger.error("close text index failed: {}", Utils.getThrowableStackTraceString(e));
+                closeQuietly();
+            }
+
+            m_searcherManager = null;
+            m_writer = null;
+            m_directory = null;
+        }
+    }
+
+    //数据库提交之后调用
+    void addChanges(List<Change> changes)
+    {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        boolean flushNeeded;
+        synchronized (m_lock) {
+            for (Change change : changes) {
+                m_suggester.put(change.m_dbId, change.m_text);
+
+                String key = change.m_dbId.toString();
+                Change old = m_pending.get(key);
+
+                //重建期间提交的新节点, 可能已经被重建读出并加入索引, 要按id替换, 不能再添加一次
+                if (m_rebuilding && change.m_isNew) {
+                    change = new Change(change.m_dbId, change.m_text, false, change.m_isTrashed);
+                }
+
+                //还没写入索引的新节点, 仍然直接添加, 不必按id删除旧文档
+                if (old != null && old.m_isNew) {
+                    if (change.m_text == null) {
+                        m_pending.remove(key);
+                        continue;
+                    }
+                    change = new Change(change.m_dbId, change.m_text, true, change.m_isTrashed);
+                }
+                m_pending.put(key, change);
+            }
+            flushNeeded = m_pending.size() >= MAX_PENDING_CHANGES;
+        }
+
+        if (flushNeeded) {
+            requestFlush();
+        }
+    }
+
+    void removeVertex(Object dbId)
+    {
+        addChanges(Collections.singletonList(new Change(dbId, null, false)));
+    }
+
+    //删除或恢复子树的事务提交之后调用。之前提交的文字修改先写入, 然后在后台线程中标记子树中的节点
+    void addTrashMarks(List<TrashMark> marks)
+    {
+        if (marks.isEmpty()) {
+            return;
+        }
+
+        synchronized (m_lock) {
+            if (m_closing) {
+                return;
+            }
+            m_pendingTrashMarks.addAll(marks);
+        }
+
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                applyTrashMarks();
+            }
+        });
+    }
+
+    private void requestFlush()
+    {
+        synchronized (m_lock) {
+            if (m_flushRequested || m_closing) {
+                return;
+            }
+            m_flushRequested = true;
+        }
+
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    //批量导入期间只写入IndexWriter, 不刷新SearcherManager。可以嵌套
+    void beginDeferringRefresh()
+    {
+        synchronized (m_lock) {
+            m_deferRefreshDepth++;
+        }
+    }
+
+    void endDeferringRefresh()
+    {
+        synchronized (m_lock) {
+            assert m_deferRefreshDepth > 0;
+            m_deferRefreshDepth--;
+        }
+        requestFlush();
+    }
+
+    //把缓冲的修改写入IndexWriter, 不在批量导入期间时刷新SearcherManager。
+    //后台线程定时调用, 查询前也调用, 查询总能看到已提交的修改
+    void flush()
+    {
+        synchronized (m_writeLock) {
+            HashMap<String, Change> pending;
+            boolean refreshDeferred;
+
+            synchronized (m_lock) {
+                m_flushRequested = false;
+
+                //重建期间的修改留在缓冲区中，重建完成后再写入 (新节点也按id替换, 见addChanges)
+                if (m_rebuilding) {
+                    return;
+                }
+                pending = m_pending;
+                m_pending = new HashMap<>();
+                refreshDeferred = m_deferRefreshDepth > 0;
+            }
+
+            if (m_writer == null) {
+                return;
+            }
+
+            try {
+                applyChanges(pending);
+                if (! refreshDeferred) {
+                    m_searcherManager.maybeRefreshBlocking();
+                }
+
+            } catch (IOException e) {
+                s_logger.error("write text index failed, rebuild it: {}", Utils.getThrowableStackTraceString(e));
+                closeQuietly();
+                try {
+                    FileUtils.deleteDirectory(m_dir);
+                } catch (IOException deleteException) {
+                    s_logger.warn("delete text index failed: {}", deleteException.getMessage());
+                }
+                openOrRecreate();
+                rebuildLater();
+            }
+        }
+    }
+
+    private void applyChanges(Map<String, Change> changes) throws IOException
+    {
+        for (Map.Entry<String, Change> entry : changes.entrySet()) {
+            String key = entry.getKey();
+            Change change = entry.getValue();
+
+            if (change.m_text == null) {
+                m_writer.deleteDocuments(new Term(ID_FIELD, key));
+            } else if (change.m_isNew) {
+                m_writer.addDocument(createDocument(key, change.m_text, change.m_isTrashed));
+            } else {
+                m_writer.updateDocument(new Term(ID_FIELD, key), createDocument(key, change.m_text, change.m_isTrashed));
+            }
+        }
+    }
+
+    private static Document createDocument(String key, String text, boolean isTrashed)
+    {
+        Document document = new Document();
+        document.add(new StringField(ID_FIELD, key, Field.Store.YES));
+        document.add(new TextField(TEXT_FIELD, text, Field.Store.NO));
+        document.add(new StoredField(KEY_FIELD, TextSuggester.toKey(text)));
+        document.add(new NumericDocValuesField(TRASHED_FIELD, isTrashed ? 1 : 0));
+        return document;
+    }
+
+    //在后台线程中调用
+    private void applyTrashMarks()
+    {
+        ArrayList<TrashMark> marks;
+        boolean refreshDeferred;
+        synchronized (m_lock) {
+            //重建时从数据库读出所有被删除的子树，之前的标记不再需要
+            if (m_rebuilding || m_pendingTrashMarks.isEmpty()) {
+                return;
+            }
+            marks = m_pendingTrashMarks;
+            m_pendingTrashMarks = new ArrayList<>();
+            refreshDeferred = m_deferRefreshDepth > 0;
+        }
+
+        TransactionalGraph graph = m_mindDb.openBackGraph();
+        try {
+            synchronized (m_writeLock) {
+                if (m_writer == null) {
+                    return;
+                }
+
+                for (TrashMark mark : marks) {
+                    Vertex root = graph.getVertex(mark.m_rootId);
+                    if (root != null) {
+                        markSubTree(m_writer, root, mark.m_isTrashed);
+                    }
+                }
+
+                if (! refreshDeferred) {
+                    m_searcherManager.maybeRefreshBlocking();
+                }
+            }
+
+        } catch (IOException e) {
+            s_logger.error("mark trashed vertices failed, rebuild text index: {}", Utils.getThrowableStackTraceString(e));
+            rebuildLater();
+
+        } finally {
+            graph.shutdown();
+        }
+    }
+
+    //不分批: doc values的修改先缓冲在IndexWriter中, 与文字修改一样在刷新时才能查到
+    private static void markSubTree(IndexWriter writer, Vertex root, boolean isTrashed) throws IOException
+    {
+        ArrayList<Vertex> queue = new ArrayList<>();
+        queue.add(root);
+
+        for (int i=0; i<queue.size(); i++) {
+            Vertex vertex = queue.get(i);
+            writer.updateNumericDocValue(new Term(ID_FIELD, vertex.getId().toString()), TRASHED_FIELD, isTrashed ? 1L : 0L);
+
+            for (Edge edge : vertex.getEdges(Direction.OUT)) {
+                Integer edgeType = edge.getProperty(MindDB.EDGE_TYPE_PROP_NAME);
+                if (edgeType == MindDB.EdgeType.INCLUDE.ordinal()) {
+                    queue.add(edge.getVertex(Direction.IN));
+                }
+            }
+        }
+    }
+
+    private final static Filter s_untrashedFilter = new UntrashedFilter();
+
+    //只接受TRASHED_FIELD为0的文档。doc values可能被修改, 每次从reader中读取, 不用FieldCache
+    private static class UntrashedFilter extends Filter {
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException
+        {
+            final NumericDocValues trashed = context.reader().getNumericDocValues(TRASHED_FIELD);
+            return new FieldCacheDocIdSet(context.reader().maxDoc(), acceptDocs) {
+                @Override
+                protected boolean matchDoc(int doc) {
+                    return trashed == null || trashed.get(doc) == 0;
+                }
+            };
+        }
+    }
+
+    //数据库被整个替换(如restore)后, 也要重建
+    void rebuildLater()
+    {
+        synchronized (m_lock) {
+            m_rebuilding = true;
+            m_complete = false;
+            m_pending.clear();
+            m_pendingTrashMarks.clear();
+        }
+        m_suggester.beginLoad(true);
+
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        });
+    }
+
+    //在后台线程中用自己的数据库实例读出所有节点。读取期间不持有m_writeLock, 查询仍可以进行, 只是结果不全
+    private void rebuild()
+    {
+        s_logger.info("rebuild text index: {}", m_dir);
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+
+        TransactionalGraph graph = m_mindDb.openBackGraph();
+        try {
+            IndexWriter writer;
+            synchronized (m_writeLock) {
+                writer = m_writer;
+            }
+            if (writer == null) {
+                return;
+            }
+
+            writer.deleteAll();
+            for (Vertex vertex : graph.getVertices()) {
+                if (m_closing) {
+                    return;
+                }
+
+                String text = vertex.getProperty(TEXT_FIELD);
+                if (text != null) {
+                    writer.addDocument(createDocument(vertex.getId().toString(), text, false));
+                    m_suggester.load(vertex.getId(), text);
+                    count++;
+                }
+            }
+
+            //被删除的子树, 读出所有节点之后再标记
+            Index<Vertex> trashIndex = ((IndexableGraph)graph).getIndex(MindDB.TRASH_INDEX_NAME, Vertex.class);
+            if (trashIndex != null) {
+                for (Vertex trashedRoot : trashIndex.get(MindDB.TRASH_KEY_NAME, MindDB.TRASH_KEY_NAME)) {
+                    if (m_closing) {
+                        return;
+                    }
+                    if (trashedRoot != null) {
+                        markSubTree(writer, trashedRoot, true);
+                    }
+                }
+            }
+
+            synchronized (m_lock) {
+                m_complete = true;
+            }
+            s_logger.info("text index rebuilt: {} vertices, {}ms", count, System.currentTimeMillis() - startTime);
+
+        } catch (Exception e) {
+            s_logger.error("rebuild text index failed: {}", Utils.getThrowableStackTraceString(e));
+
+        } finally {
+            graph.shutdown();
+            m_suggester.endLoad();
+            synchronized (m_lock) {
+                m_rebuilding = false;
+            }
+        }
+
+        flush();
+    }
+
+    //装入期间提交的修改比索引中的新, 所以在安排装入时就开始记录
+    private void loadSuggesterLater()
+    {
+        m_suggester.beginLoad(false);
+
+        m_executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (! loadSuggester()) {
+                    rebuildLater();
+                }
+            }
+        });
+    }
+
+    //从索引中保存的key装入, 不读数据库。旧的索引中没有key或删除标记时返回false
+    private boolean loadSuggester()
+    {
+        SearcherManager searcherManager = m_searcherManager;
+        if (searcherManager == null) {
+            m_suggester.endLoad();
+            return true;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Set<String> fieldsToLoad = new HashSet<>(Arrays.asList(ID_FIELD, KEY_FIELD));
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (AtomicReaderContext context : searcher.getIndexReader().leaves()) {
+                    AtomicReader reader = context.reader();
+                    Bits liveDocs = reader.getLiveDocs();
+
+                    if (reader.numDocs() > 0 && reader.getNumericDocValues(TRASHED_FIELD) == null) {
+                        return false;
+                    }
+
+                    for (int i=0; i<reader.maxDoc(); i++) {
+                        if (m_closing) {
+                            return true;
+                        }
+                        if (liveDocs != null && ! liveDocs.get(i)) {
+                            continue;
+                        }
+
+                        Document document = reader.document(i, fieldsToLoad);
+                        String key = document.get(KEY_FIELD);
+                        if (key == null) {
+                            return false;
+                        }
+                        m_suggester.load(new ORecordId(document.get(ID_FIELD)), key);
+                    }
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+
+        } catch (IOException | AlreadyClosedException e) {
+            s_logger.warn("load text suggester failed: {}", e.getMessage());
+            return false;
+
+        } finally {
+            m_suggester.endLoad();
+        }
+
+        s_logger.info("text suggester loaded: {} keys, {}ms", m_suggester.size(), System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    //按权重返回文字开头与text相同或只差一个字的节点, 包括已删除的节点。只读内存
+    List<TextSuggester.Suggestion> suggest(String text, int limit)
+    {
+        return m_suggester.suggest(text, limit);
+    }
+
+    //按相关度从高到低, 返回不在被删除子树中的第offset个开始的最多limit个节点id, 查询中的语法字符都当作普通文字。
+    //刚删除的子树在后台标记完成之前, 其中的节点还可能返回
+    List<String> search(String queryText, int offset, int limit)
+    {
+        ArrayList<String> keys = new ArrayList<>();
+
+        Query query;
+        try {
+            query = new QueryParser(Version.LUCENE_47, TEXT_FIELD, SearchSnippet.getAnalyzer())
+                    .parse(QueryParser.escape(queryText));
+        } catch (ParseException e) {
+            return keys;
+        }
+
+        flush();
+
+        SearcherManager searcherManager = m_searcherManager;
+        if (searcherManager == null) {
+            return keys;
+        }
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                Set<String> fieldsToLoad = Collections.singleton(ID_FIELD);
+                ScoreDoc scoreDocs[] = searcher.search(query, s_untrashedFilter, offset + limit).scoreDocs;
+                for (int i=offset; i<scoreDocs.length; i++) {
+                    keys.add(searcher.doc(scoreDocs[i].doc, fieldsToLoad).get(ID_FIELD));
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+
+        } catch (IOException | AlreadyClosedException e) {
+            s_logger.warn("search text index failed: {}", e.getMessage());
+        }
+
+        return keys;
+    }
+
+    //等待已安排的写入与重建完成。超时返回false
+    boolean waitUntilIdle(long timeout) throws InterruptedException
+    {
+        Future future = m_executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+
+        try {
+            future.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    //当前的段数，测试与性能测试使用
+    int getSegmentCount() throws IOException
+    {
+        SearcherManager searcherManager = m_searcherManager;
+        if (searcherManager == null) {
+            return 0;
+        }
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.getIndexReader().leaves().size();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package eulermind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//输入时的提示: 找出文字开头与输入相同(前缀匹配)或只差一个字(编辑距离为1)的节点, 按权重排序。
+//
+//每个节点的文字规范化成一个key(去掉首尾空白, 小写, 最多MAX_KEY_LENGTH个字符)。key按字典序排在一个字符数组中,
+//有相同前缀的key排在一起: 前缀匹配就是二分查找出一个区间。区间内按权重取前几个, 用一棵记录最大权重的线段树,
+//代价与区间大小无关。
+//模糊匹配把排序的key看作一棵隐式的trie, 沿着trie计算到输入的编辑距离, 超过1就剪枝。子节点的区间也用二分查找。
+//
+//增量修改先放在m_addedKeys中, 被修改或删除的节点记入m_staleIds, 查询时跳过主体中的这些节点。
+//修改积累到MERGE_THRESHOLD个时, 与主体归并成新的排序数组
+class TextSuggester {
+
+    static final int MAX_KEY_LENGTH = 32;
+
+    //输入太短时模糊匹配几乎匹配所有节点, 不做
+    static final int MIN_FUZZY_LENGTH = 3;
+
+    static final int MERGE_THRESHOLD = 8192;
+
+    static class Suggestion {
+        final Object m_dbId;
+        final String m_key;
+        final int m_weight;
+        final boolean m_isFuzzy;
+
+        Suggestion(Object dbId, String key, int weight, boolean isFuzzy)
+        {
+            m_dbId = dbId;
+            m_key = key;
+            m_weight = weight;
+            m_isFuzzy = isFuzzy;
+        }
+    }
+
+    private static final Comparator<Suggestion> sm_weightComparator = new Comparator<Suggestion>() {
+        @Override
+        public int compare(Suggestion o1, Suggestion o2) {
+            return o2.m_weight - o1.m_weight;
+        }
+    };
+
+    //主体: 第i个key是m_chars[m_keyStarts[i], m_keyStarts[i+1])
+    private char m_chars[] = new char[0];
+    private int m_keyStarts[] = new int[1];
+    private long m_ids[] = new long[0];
+    private int m_size = 0;
+
+    //最大权重的线段树, 叶子从m_leafBase开始, 多出的叶子权重为Integer.MIN_VALUE
+    private int m_weightTree[] = new int[2];
+    private int m_leafBase = 1;
+
+    //合并之前的修改
+    private HashMap<Long, String> m_addedKeys = new HashMap<>();
+    private HashSet<Long> m_staleIds = new HashSet<>();
+
+    //正在从索引或数据库中装入时, 期间被修改的节点。装入的旧文字不能覆盖它们
+    private HashSet<Long> m_touchedIdsDuringLoad;
+
+    static String toKey(String text)
+    {
+        String key = text.trim().toLowerCase(Locale.ROOT);
+        return key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+    }
+
+    //短的文字排在前面: 整个文字就是输入的内容时, 多半是要找的节点
+    static int weightOf(String key)
+    {
+        return MAX_KEY_LENGTH - key.length();
+    }
+
+    //未归并的修改可能覆盖主体中的节点, 先归并才能得到准确的个数
+    synchronized int size()
+    {
+        if (! m_staleIds.isEmpty()) {
+            merge();
+        }
+        return m_size;
+    }
+
+    //text为null表示删除
+    synchronized void put(Object dbId, String text)
+    {
+        long id = AdjacencyIndex.packId(dbId);
+        if (id == AdjacencyIndex.INVALID_KEY) {
+            return;
+        }
+
+        if (m_touchedIdsDuringLoad != null) {
+            m_touchedIdsDuringLoad.add(id);
+        }
+        putPacked(id, text, MERGE_THRESHOLD);
+    }
+
+    private void putPacked(long id, String text, int mergeThreshold)
+    {
+        String key = text == null ? "" : toKey(text);
+
+        m_staleIds.add(id);
+        if (key.isEmpty()) {
+            m_addedKeys.remove(id);
+        } else {
+            m_addedKeys.put(id, key);
+        }
+
+        if (m_staleIds.size() >= mergeThreshold) {
+            merge();
+        }
+    }
+
+    synchronized void remove(Object dbId)
+    {
+        put(dbId, null);
+    }
+
+    //清空后重新装入。装入期间仍可以查询和修改
+    synchronized void beginLoad(boolean clear)
+    {
+        if (clear) {
+            m_chars = new char[0];
+            m_keyStarts = new int[1];
+            m_ids = new long[0];
+            m_size = 0;
+            m_addedKeys.clear();
+            m_staleIds.clear();
+            buildWeightTree();
+        }
+        m_touchedIdsDuringLoad = new HashSet<>();
+    }
+
+    synchronized void load(Object dbId, String text)
+    {
+        long id = AdjacencyIndex.packId(dbId);
+        if (id == AdjacencyIndex.INVALID_KEY || m_touchedIdsDuringLoad.contains(id)) {
+            return;
+        }
+        //装入时积累到与主体一样多再归并, 总的代价是O(n log n)
+        putPacked(id, text, Math.max(MERGE_THRESHOLD, m_size));
+    }
+
+    synchronized void endLoad()
+    {
+        m_touchedIdsDuringLoad = null;
+        if (m_staleIds.size() >= MERGE_THRESHOLD) {
+            merge();
+        }
+    }
+
+    private int keyLength(int i)
+    {
+        return m_keyStarts[i + 1] - m_keyStarts[i];
+    }
+
+    private char keyCharAt(int i, int depth)
+    {
+        return m_chars[m_keyStarts[i] + depth];
+    }
+
+    private String getKey(int i)
+    {
+        return new String(m_chars, m_keyStarts[i], keyLength(i));
+    }
+
+    private int compareKey(int i, String key)
+    {
+        int length = keyLength(i);
+        int start = m_keyStarts[i];
+        int n = Math.min(length, key.length());
+        for (int j=0; j<n; j++) {
+            int diff = m_chars[start + j] - key.charAt(j);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length();
+    }
+
+    //第i个key以prefix开头时返回0
+    private int comparePrefix(int i, String prefix)
+    {
+        int length = keyLength(i);
+        int start = m_keyStarts[i];
+        int n = Math.min(length, prefix.length());
+        for (int j=0; j<n; j++) {
+            int diff = m_chars[start + j] - prefix.charAt(j);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length < prefix.length() ? -1 : 0;
+    }
+
+    //把m_addedKeys归并进主体, 去掉失效的节点
+    private void merge()
+    {
+        ArrayList<Map.Entry<Long, String>> added = new ArrayList<>(m_addedKeys.entrySet());
+        Collections.sort(added, new Comparator<Map.Entry<Long, String>>() {
+            @Override
+            public int compare(Map.Entry<Long, String> o1, Map.Entry<Long, String> o2) {
+                return o1.getValue().compareTo(o2.getValue());
+            }
+        });
+
+        int addedCharCount = 0;
+        for (Map.Entry<Long, String> entry : added) {
+            addedCharCount += entry.getValue().length();
+        }
+
+        int capacity = m_size + added.size();
+        char chars[] = new char[m_chars.length + addedCharCount];
+        int keyStarts[] = new int[capacity + 1];
+        long ids[] = new long[capacity];
+        int size = 0;
+        int charCount = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < m_size || j < added.size()) {
+            if (i < m_size && m_staleIds.contains(m_ids[i])) {
+                i++;
+                continue;
+            }
+
+            boolean takeOld = j == added.size() || (i < m_size && compareKey(i, added.get(j).getValue()) <= 0);
+            if (takeOld) {
+                int length = keyLength(i);
+                System.arraycopy(m_chars, m_keyStarts[i], chars, charCount, length);
+                charCount += length;
+                ids[size] = m_ids[i];
+                i++;
+            } else {
+                String key = added.get(j).getValue();
+                key.getChars(0, key.length(), chars, charCount);
+                charCount += key.length();
+                ids[size] = added.get(j).getKey();
+                j++;
+            }
+            size++;
+            keyStarts[size] = charCount;
+        }
+
+        m_chars = charCount == chars.length ? chars : Arrays.copyOf(chars, charCount);
+        m_keyStarts = size == capacity ? keyStarts : Arrays.copyOf(keyStarts, size + 1);
+        m_ids = size == capacity ? ids : Arrays.copyOf(ids, size);
+        m_size = size;
+
+        m_addedKeys.clear();
+        m_staleIds.clear();
+        buildWeightTree();
+    }
+
+    private void buildWeightTree()
+    {
+        m_leafBase = 1;
+        while (m_leafBase < m_size) {
+            m_leafBase <<= 1;
+        }
+
+        m_weightTree = new int[m_leafBase * 2];
+        Arrays.fill(m_weightTree, m_leafBase, m_leafBase * 2, Integer.MIN_VALUE);
+        for (int i=0; i<m_size; i++) {
+            m_weightTree[m_leafBase + i] = MAX_KEY_LENGTH - keyLength(i);
+        }
+        for (int node=m_leafBase-1; node>0; node--) {
+            m_weightTree[node] = Math.max(m_weightTree[node * 2], m_weightTree[node * 2 + 1]);
+        }
+    }
+
+    //第一个comparePrefix >= 0 (upper为false) 或 > 0 (upper为true) 的位置
+    private int searchPrefix(String prefix, boolean upper)
+    {
+        int low = 0;
+        int high = m_size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int cmp = comparePrefix(middle, prefix);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //[low, high)中的key都长于depth, 并且前depth个字符相同。返回第一个第depth个字符 >= c 的位置
+    private int searchChar(int low, int high, int depth, int c)
+    {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keyCharAt(middle, depth) < c) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //row[j]是trie上已走过的路径与query前j个字符的编辑距离, 算出再走一个字符c之后的一行, 返回其中的最小值
+    private static int nextRow(int row[], String query, char c, int next[])
+    {
+        next[0] = row[0] + 1;
+        int min = next[0];
+        for (int j=1; j<row.length; j++) {
+            int cost = query.charAt(j - 1) == c ? 0 : 1;
+            next[j] = Math.min(Math.min(row[j] + 1, next[j - 1] + 1), row[j - 1] + cost);
+            min = Math.min(min, next[j]);
+        }
+        return min;
+    }
+
+    private static int[] firstRow(String query)
+    {
+        int row[] = new int[query.length() + 1];
+        for (int j=0; j<row.length; j++) {
+            row[j] = j;
+        }
+        return row;
+    }
+
+    //key的某个前缀与query的编辑距离不超过1
+    private static boolean matchesFuzzy(String key, String query)
+    {
+        int row[] = firstRow(query);
+        int next[] = new int[row.length];
+
+        for (int depth=0; depth<key.length(); depth++) {
+            if (row[query.length()] <= 1) {
+                return true;
+            }
+            if (nextRow(row, query, key.charAt(depth), next) > 1) {
+                return false;
+            }
+            int swap[] = row;
+            row = next;
+            next = swap;
+        }
+        return row[query.length()] <= 1;
+    }
+
+    //[low, high)是前depth个字符相同的key, 找出其中与query模糊匹配的子区间
+    private void collectFuzzyRanges(String query, int low, int high, int depth, int row[], List<int[]> ranges)
+    {
+        //与路径等长的key排在最前面, 已经不能再匹配
+        while (low < high && keyLength(low) == depth) {
+            low++;
+        }
+
+        int rowMin = Integer.MAX_VALUE;
+        for (int distance : row) {
+            rowMin = Math.min(rowMin, distance);
+        }
+
+        int next[] = new int[row.length];
+
+        if (rowMin == 0) {
+            //路径与query的前缀相同, 下一个字符是任何字符都可能匹配(替换), 逐个列出
+            while (low < high) {
+                char c = keyCharAt(low, depth);
+                int end = c == Character.MAX_VALUE ? high : searchChar(low, high, depth, c + 1);
+                visitFuzzyChild(query, low, end, depth, row, next, c, ranges);
+                low = end;
+            }
+
+        } else {
+            //只有与query中距离为0或1的位置之后的字符相同, 才可能匹配
+            char candidates[] = new char[row.length - 1];
+            int candidateCount = 0;
+            for (int j=1; j<row.length; j++) {
+                if (row[j - 1] <= 1) {
+                    candidates[candidateCount++] = query.charAt(j - 1);
+                }
+            }
+            Arrays.sort(candidates, 0, candidateCount);
+
+            for (int k=0; k<candidateCount; k++) {
+                char c = candidates[k];
+                if (k > 0 && c == candidates[k - 1]) {
+                    continue;
+                }
+                int start = searchChar(low, high, depth, c);
+                if (start == high || keyCharAt(start, depth) != c) {
+                    continue;
+                }
+                int end = c == Character.MAX_VALUE ? high : searchChar(start, high, depth, c + 1);
+                visitFuzzyChild(query, start, end, depth, row, next, c, ranges);
+            }
+        }
+    }
+
+    private void visitFuzzyChild(String query, int low, int high, int depth, int row[], int next[], char c,
+                                 List<int[]> ranges)
+    {
+        int min = nextRow(row, query, c, next);
+        if (next[query.length()] <= 1) {
+            ranges.add(new int[] {low, high});
+        } else if (min <= 1) {
+            collectFuzzyRanges(query, low, high, depth + 1, next.clone(), ranges);
+        }
+    }
+
+    //在几个区间中按权重从大到小取出最多limit个有效的节点
+    private void collectTop(List<int[]> ranges, int limit, boolean isFuzzy, HashSet<Long> seenIds,
+                            List<Suggestion> suggestions)
+    {
+        PriorityQueue<Integer> queue = new PriorityQueue<>(16, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return m_weightTree[o2] - m_weightTree[o1];
+            }
+        });
+
+        for (int range[] : ranges) {
+            int low = range[0] + m_leafBase;
+            int high = range[1] + m_leafBase;
+            while (low < high) {
+                if ((low & 1) == 1) {
+                    queue.add(low++);
+                }
+                if ((high & 1) == 1) {
+                    queue.add(--high);
+                }
+                low >>= 1;
+                high >>= 1;
+            }
+        }
+
+        int found = 0;
+        while (found < limit && ! queue.isEmpty()) {
+            int node = queue.poll();
+            if (node < m_leafBase) {
+                queue.add(node * 2);
+                queue.add(node * 2 + 1);
+                continue;
+            }
+
+            int i = node - m_leafBase;
+            if (i >= m_size || m_staleIds.contains(m_ids[i]) || ! seenIds.add(m_ids[i])) {
+                continue;
+            }
+
+            suggestions.add(new Suggestion(AdjacencyIndex.unpackId(m_ids[i]), getKey(i), m_weightTree[node], isFuzzy));
+            found++;
+        }
+    }
+
+    //先取前缀匹配的, 不够limit个时再取模糊匹配的。各自按权重排序
+    synchronized List<Suggestion> suggest(String text, int limit)
+    {
+        ArrayList<Suggestion> suggestions = new ArrayList<>();
+        String query = toKey(text);
+        if (query.isEmpty() || limit <= 0) {
+            return suggestions;
+        }
+
+        HashSet<Long> seenIds = new HashSet<>();
+
+        int low = searchPrefix(query, false);
+        int high = searchPrefix(query, true);
+        collectMatches(Collections.singletonList(new int[] {low, high}), query, limit, false, seenIds, suggestions);
+
+        if (suggestions.size() < limit && query.length() >= MIN_FUZZY_LENGTH) {
+            ArrayList<int[]> ranges = new ArrayList<>();
+            collectFuzzyRanges(query, 0, m_size, 0, firstRow(query), ranges);
+            collectMatches(ranges, query, limit - suggestions.size(), true, seenIds, suggestions);
+        }
+
+        return suggestions;
+    }
+
+    //主体中的区间与未合并的修改一起按权重排序
+    private void collectMatches(List<int[]> ranges, String query, int limit, boolean isFuzzy,
+                                HashSet<Long> seenIds, List<Suggestion> suggestions)
+    {
+        ArrayList<Suggestion> matches = new ArrayList<>();
+        collectTop(ranges, limit, isFuzzy, seenIds, matches);
+
+        //未合并的修改中只保留权重最大的limit个, 堆顶是其中最小的
+        PriorityQueue<Suggestion> addedMatches = new PriorityQueue<>(limit, Collections.reverseOrder(sm_weightComparator));
+        for (Map.Entry<Long, String> entry : m_addedKeys.entrySet()) {
+            String key = entry.getValue();
+            int weight = weightOf(key);
+            if (addedMatches.size() == limit && weight <= addedMatches.peek().m_weight) {
+                continue;
+            }
+
+            //前缀匹配的已经都在结果中
+            boolean matched = isFuzzy ? ! key.startsWith(query) && matchesFuzzy(key, query) : key.startsWith(query);
+            if (! matched) {
+                continue;
+            }
+
+            addedMatches.add(new Suggestion(AdjacencyIndex.unpackId(entry.getKey()), key, weight, isFuzzy));
+            if (addedMatches.size() > limit) {
+                addedMatches.poll();
+            }
+        }
+        matches.addAll(addedMatches);
+
+        Collections.sort(matches, sm_weightComparator);
+        suggestions.addAll(matches.subList(0, Math.min(limit, matches.size())));
+    }
+}
@@ -0,0 +1,407 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.tinkerpop.blueprints.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//在后台线程中回收被删除的子树。使用自己的数据库实例，不与界面线程共用事务。
+//
+//只回收本次启动之前、并且超过保留时间的子树: 本次启动后删除的子树还可以通过undo恢复。
+//之前启动时删除、但还在undo日志中的子树也不回收。
+//子树从叶子开始删除，每BATCH_SIZE个节点提交一次。子树的根节点最后删除，并从回收站索引中去掉，
+//所以中途退出后，剩下的部分仍是一颗完整的子树, 下次启动时继续回收
+public class TrashCollector {
+
+    static Logger s_logger = LoggerFactory.getLogger(TrashCollector.class);
+
+    public final static int BATCH_SIZE = 1000;
+
+    //没有可回收的子树时，隔一段时间再检查
+    public final static long IDLE_INTERVAL = 60 * 1000;
+
+    //发生冲突后，隔一段时间再重试
+    private final static long RETRY_INTERVAL = 1000;
+
+    private final MindDB m_mindDb;
+    private final long m_sessionStartTime;
+    private volatile long m_retentionAge = 0;
+
+    private Thread m_thread;
+    private final Object m_lock = new Object();
+    private boolean m_stopRequested;
+    private boolean m_wakeUpRequested;
+    private boolean m_idle;
+
+    private final AtomicLong m_removedVertexCount = new AtomicLong();
+    private volatile int m_pendingSubTreeCount;
+
+    //已删除的节点，由MindDB在自己的线程中从m_adjacencyIndex中去掉
+    private final ConcurrentLinkedQueue<Object> m_removedVertexIds = new ConcurrentLinkedQueue<>();
+
+    //以下成员只在回收线程中使用
+    private TransactionalGraph m_graph;
+    private Index<Vertex> m_trashIndex;
+    private Index<Vertex> m_referentIndex;
+
+    TrashCollector(MindDB mindDb)
+    {
+        m_mindDb = mindDb;
+        m_sessionStartTime = System.currentTimeMillis();
+    }
+
+    //被删除超过retentionAge毫秒的子树才回收
+    public void setRetentionAge(long retentionAge)
+    {
+        m_retentionAge = retentionAge;
+        wakeUp();
+    }
+
+    public long getRetentionAge()
+    {
+        return m_retentionAge;
+    }
+
+    //已删除的节点数
+    public long getRemovedVertexCount()
+    {
+        return m_removedVertexCount.get();
+    }
+
+    //上次检查时，等待回收的子树个数
+    public int getPendingSubTreeCount()
+    {
+        return m_pendingSubTreeCount;
+    }
+
+    void start()
+    {
+        assert m_thread == null;
+
+        m_stopRequested = false;
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                collect();
+            }
+        }, "TrashCollector");
+
+        m_thread.setDaemon(true);
+        m_thread.setPriority(Thread.MIN_PRIORITY);
+        m_thread.start();
+    }
+
+    //不能用interrupt: 数据库的文件通道会被中断关闭。最多等待一批节点删除完成
+    void stop()
+    {
+        if (m_thread == null) {
+            return;
+        }
+
+        synchronized (m_lock) {
+            m_stopRequested = true;
+            m_lock.notifyAll();
+        }
+
+        try {
+            m_thread.join();
+        } catch (InterruptedException e) {
+            s_logger.warn("interrupted while waiting trash collector");
+        }
+        m_thread = null;
+    }
+
+    public void wakeUp()
+    {
+        synchronized (m_lock) {
+            m_idle = false;
+            m_wakeUpRequested = true;
+            m_lock.notifyAll();
+        }
+    }
+
+    //立即检查一次，等待可回收的子树都被删除。超时返回false
+    public boolean waitUntilIdle(long timeout) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (m_lock) {
+            m_idle = false;
+            m_wakeUpRequested = true;
+            m_lock.notifyAll();
+
+            while (! m_idle) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0 || m_thread == null) {
+                    return false;
+                }
+                m_lock.wait(remain);
+            }
+        }
+        return true;
+    }
+
+    Object pollRemovedVertexId()
+    {
+        return m_removedVertexIds.poll();
+    }
+
+    private boolean isStopRequested()
+    {
+        synchronized (m_lock) {
+            return m_stopRequested;
+        }
+    }
+
+    //返回false表示被要求退出
+    private boolean sleep(long millis)
+    {
+        synchronized (m_lock) {
+            long deadline = System.currentTimeMillis() + millis;
+            while (! m_stopRequested && ! m_wakeUpRequested) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    break;
+                }
+                try {
+                    m_lock.wait(remain);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            m_wakeUpRequested = false;
+            return ! m_stopRequested;
+        }
+    }
+
+    private void collect()
+    {
+        m_graph = m_mindDb.openBackGraph();
+
+        try {
+            m_trashIndex = ((IndexableGraph)m_graph).getIndex(MindDB.TRASH_INDEX_NAME, Vertex.class);
+            m_referentIndex = ((IndexableGraph)m_graph).getIndex(MindDB.REFERENT_INDEX_NAME, Vertex.class);
+
+            while (! isStopRequested()) {
+                long interval = RETRY_INTERVAL;
+
+                try {
+                    Vertex root = findCollectableSubTree();
+                    if (root == null) {
+                        synchronized (m_lock) {
+                            m_idle = true;
+                            m_lock.notifyAll();
+                        }
+                        interval = IDLE_INTERVAL;
+
+                    } else {
+                        removeSubTree(root);
+                        continue;
+                    }
+
+                } catch (OConcurrentModificationException e) {
+                    s_logger.info("trash collector meet conflict, retry later: {}", e.getMessage());
+                    m_graph.rollback();
+                }
+
+                if (! sleep(interval)) {
+                    break;
+                }
+            }
+
+        } catch (Exception e) {
+            s_logger.error("trash collector stopped: {}", Utils.getThrowableStackTraceString(e));
+
+        } finally {
+            m_graph.shutdown();
+            m_graph = null;
+
+            synchronized (m_lock) {
+                m_idle = true;
+                m_lock.notifyAll();
+            }
+        }
+    }
+
+    private Vertex findCollectableSubTree()
+    {
+        long cutoff = Math.min(m_sessionStartTime, System.currentTimeMillis() - m_retentionAge);
+
+        Vertex collectable = null;
+        int pendingCount = 0;
+
+        //不遍历m_trashIndex: MindDB在内存中保存了所有被删除子树的根节点。还没有提交的, 在这个数据库实例中读不到
+        for (Object trashedRootId : m_mindDb.getTrashedRootIds(m_trashIndex)) {
+            Vertex trashedRoot = m_graph.getVertex(trashedRootId);
+            if (trashedRoot == null) {
+                continue;
+            }
+
+            Long trashedTime = trashedRoot.getProperty(MindDB.IS_TRASHED_PROP_NAME);
+            if (trashedTime != null && trashedTime >= cutoff) {
+                continue;
+            }
+
+            if (m_mindDb.isReferredByUndoJournal(trashedRoot.getId())) {
+                continue;
+            }
+
+            pendingCount++;
+            if (collectable == null) {
+                collectable = trashedRoot;
+            }
+        }
+
+        m_pendingSubTreeCount = pendingCount;
+        return collectable;
+    }
+
+    private static boolean isIncludeEdge(Edge edge)
+    {
+        Integer edgeType = edge.getProperty(MindDB.EDGE_TYPE_PROP_NAME);
+        return edgeType == MindDB.EdgeType.INCLUDE.ordinal();
+    }
+
+    private boolean hasReferrer(Vertex vertex)
+    {
+        for (Edge edge : vertex.getEdges(Direction.IN)) {
+            if (! isIncludeEdge(edge)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ArrayList<Vertex> getChildren(Vertex vertex)
+    {
+        ArrayList<Vertex> children = new ArrayList<>();
+        for (Edge edge : vertex.getEdges(Direction.OUT)) {
+            if (isIncludeEdge(edge)) {
+                children.add(edge.getVertex(Direction.IN));
+            }
+        }
+        return children;
+    }
+
+    private void removeSubTree(Vertex root)
+    {
+        Long trashedTime = root.getProperty(MindDB.IS_TRASHED_PROP_NAME);
+        s_logger.info("collect subtree {} trashed at {}", root.getId(),
+                trashedTime == null ? null : new Date(trashedTime));
+
+        Object rootId = root.getId();
+
+        while (! isStopRequested()) {
+            //每次提交后重新读取根节点。子树可能已经被界面线程恢复，每一批删除之前都要重新检查
+            root = m_graph.getVertex(rootId);
+            if (! isStillTrashed(root) || ! m_mindDb.beginCollectingTrashedSubTree(rootId)) {
+                s_logger.info("subtree {} is restored, stop collecting it", rootId);
+                return;
+            }
+
+            boolean finished = removeLeavesOfSubTree(root, BATCH_SIZE);
+            m_graph.commit();
+
+            if (finished) {
+                m_mindDb.onTrashedSubTreeCollected(rootId);
+                return;
+            }
+        }
+    }
+
+    //是否还在被删除子树的集合中, 由之后的beginCollectingTrashedSubTree检查, 这里只检查提交过的标记
+    private boolean isStillTrashed(Vertex root)
+    {
+        return root != null && root.getProperty(MindDB.IS_TRASHED_PROP_NAME) != null;
+    }
+
+    //后序遍历, 最多删除maxCount个节点。整个子树 (包括根节点) 都删除后返回true
+    private boolean removeLeavesOfSubTree(Vertex root, int maxCount)
+    {
+        ArrayList<Vertex> vertexStack = new ArrayList<>();
+        ArrayList<Iterator<Vertex>> childrenStack = new ArrayList<>();
+
+        vertexStack.add(root);
+        childrenStack.add(getChildren(root).iterator());
+
+        int removedCount = 0;
+
+        while (removedCount < maxCount) {
+            int top = vertexStack.size() - 1;
+            Iterator<Vertex> children = childrenStack.get(top);
+
+            if (children.hasNext()) {
+                Vertex child = children.next();
+                vertexStack.add(child);
+                childrenStack.add(getChildren(child).iterator());
+
+            } else {
+                Vertex vertex = vertexStack.remove(top);
+                childrenStack.remove(top);
+
+                if (vertex == root) {
+                    m_trashIndex.remove(MindDB.TRASH_KEY_NAME, MindDB.TRASH_KEY_NAME, root);
+                    removeVertex(root);
+                    return true;
+                }
+
+                removeVertex(vertex);
+                removedCount++;
+            }
+        }
+
+        return false;
+    }
+
+    private void removeVertex(Vertex vertex)
+    {
+        //子树与外部之间的引用边在删除子树时已经去掉了，只剩子树内部的引用边。被引用的节点没有其他引用后，从m_referentIndex中去掉
+        ArrayList<Vertex> referents = new ArrayList<>();
+        for (Edge edge : vertex.getEdges(Direction.OUT)) {
+            if (! isIncludeEdge(edge)) {
+                referents.add(edge.getVertex(Direction.IN));
+            }
+        }
+
+        Object vertexId = vertex.getId();
+        m_referentIndex.remove(MindDB.REFERENT_KEY_NAME, MindDB.REFERENT_KEY_NAME, vertex);
+        m_graph.removeVertex(vertex);
+
+        for (Vertex referent : referents) {
+            if (! hasReferrer(referent)) {
+                m_referentIndex.remove(MindDB.REFERENT_KEY_NAME, MindDB.REFERENT_KEY_NAME, referent);
+            }
+        }
+
+        m_removedVertexIds.add(vertexId);
+        m_removedVertexCount.incrementAndGet();
+    }
+}
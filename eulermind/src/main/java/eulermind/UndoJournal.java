@@ -0,0 +1,455 @@
+package eulermind;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+//undo/redo日志: 每条记录是一组操作的二进制编码 (见MindDelta.Group), 只在末尾追加。
+//m_doneCount之前的记录可以undo, 之后的可以redo。undo之后再追加新记录，redo部分被截掉。
+//
+//最新的记录放在内存中，超过m_memoryCap字节后，把最旧的记录写到内存映射文件中。
+//关闭时把所有记录写入文件，下次打开同一个脑图时从文件中读出，undo历史在重启后仍然可用。
+//文件格式: 文件头 (magic, 版本, 记录个数, 可undo的记录个数, 数据结尾), 然后每条记录是 长度 + 内容
+class UndoJournal {
+    static Logger s_logger = LoggerFactory.getLogger(UndoJournal.class);
+
+    private static final int FILE_MAGIC = 0x45554a4c; //"EUJL"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4;
+    private static final int MIN_MAPPED_BYTES = 64 * 1024;
+
+    //为null时只用内存, 超过m_memoryCap后丢掉最旧的记录
+    private final File m_file;
+    private final long m_memoryCap;
+
+    private RandomAccessFile m_randomAccessFile;
+    private MappedByteBuffer m_mapped;
+    private int m_dataEnd = HEADER_BYTES;
+
+    //写入文件的记录的偏移，它们排在内存中的记录之前
+    private int m_spilledOffsets[] = new int[64];
+    private int m_spilledCount = 0;
+
+    private final ArrayList<byte[]> m_memoryRecords = new ArrayList<>();
+    private long m_memoryBytes = 0;
+
+    private int m_doneCount = 0;
+
+    UndoJournal(File file, long memoryCap)
+    {
+        m_file = file;
+        m_memoryCap = memoryCap;
+
+        if (m_file == null || ! m_file.exists()) {
+            return;
+        }
+
+        try {
+            if (! openFile()) {
+                s_logger.warn("invalid undo journal: {}", m_file);
+                discardFile();
+            }
+        } catch (IOException e) {
+            s_logger.warn("open undo journal failed: {}", e.getMessage());
+            discardFile();
+        }
+    }
+
+    int size()
+    {
+        return m_spilledCount + m_memoryRecords.size();
+    }
+
+    long getMemoryBytes()
+    {
+        return m_memoryBytes;
+    }
+
+    int getSpilledCount()
+    {
+        return m_spilledCount;
+    }
+
+    long getMappedBytes()
+    {
+        return m_mapped == null ? 0 : m_mapped.capacity();
+    }
+
+    boolean canUndo()
+    {
+        return m_doneCount > 0;
+    }
+
+    boolean canRedo()
+    {
+        return m_doneCount < size();
+    }
+
+    byte[] undoRecord()
+    {
+        assert canUndo();
+        m_doneCount--;
+        return getRecord(m_doneCount);
+    }
+
+    byte[] redoRecord()
+    {
+        assert canRedo();
+        return getRecord(m_doneCount++);
+    }
+
+    byte[] getRecord(int index)
+    {
+        if (index < m_spilledCount) {
+            int offset = m_spilledOffsets[index];
+            byte record[] = new byte[m_mapped.getInt(offset)];
+
+            ByteBuffer buffer = m_mapped.duplicate();
+            buffer.position(offset + 4);
+            buffer.get(record);
+            return record;
+
+        } else {
+            return m_memoryRecords.get(index - m_spilledCount);
+        }
+    }
+
+    void append(byte record[])
+    {
+        truncate(m_doneCount);
+
+        m_memoryRecords.add(record);
+        m_memoryBytes += record.length;
+        m_doneCount++;
+
+        if (m_memoryBytes > m_memoryCap) {
+            spill(m_memoryCap);
+        }
+    }
+
+    //去掉一条不能再使用的记录 (例如引用的节点已被回收)，前后的记录保留
+    void remove(int index)
+    {
+        assert index >= 0 && index < size();
+
+        if (index < m_spilledCount) {
+            int start = m_spilledOffsets[index];
+            int end = index + 1 < m_spilledCount ? m_spilledOffsets[index + 1] : m_dataEnd;
+            int removedBytes = end - start;
+
+            //后面的记录前移, 分段复制，源与目标可以重叠
+            byte chunk[] = new byte[Math.min(m_dataEnd - end, MIN_MAPPED_BYTES)];
+            ByteBuffer src = m_mapped.duplicate();
+            ByteBuffer dst = m_mapped.duplicate();
+            src.position(end);
+            src.limit(m_dataEnd);
+            dst.position(start);
+            while (src.hasRemaining()) {
+                int length = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, length);
+                dst.put(chunk, 0, length);
+            }
+
+            for (int i=index+1; i<m_spilledCount; i++) {
+                m_spilledOffsets[i - 1] = m_spilledOffsets[i] - removedBytes;
+            }
+            m_spilledCount--;
+            m_dataEnd -= removedBytes;
+
+        } else {
+            m_memoryBytes -= m_memoryRecords.remove(index - m_spilledCount).length;
+        }
+
+        if (index < m_doneCount) {
+            m_doneCount--;
+        }
+
+        if (m_mapped != null) {
+            writeHeader();
+        }
+    }
+
+    int getDoneCount()
+    {
+        return m_doneCount;
+    }
+
+    //历史已经不能使用，全部丢掉
+    void discardAll()
+    {
+        m_memoryRecords.clear();
+        m_memoryBytes = 0;
+        m_spilledCount = 0;
+        m_dataEnd = HEADER_BYTES;
+        m_doneCount = 0;
+
+        if (m_mapped != null) {
+            writeHeader();
+        }
+    }
+
+    void close()
+    {
+        if (m_file == null) {
+            return;
+        }
+
+        if (size() == 0) {
+            discardFile();
+            return;
+        }
+
+        spill(0);
+
+        if (m_mapped != null) {
+            m_mapped.force();
+        }
+        closeFile();
+    }
+
+    //只保留前count个记录
+    private void truncate(int count)
+    {
+        if (count < m_spilledCount) {
+            m_memoryRecords.clear();
+            m_memoryBytes = 0;
+
+            m_dataEnd = m_spilledOffsets[count];
+            m_spilledCount = count;
+            writeHeader();
+            shrinkFile();
+
+        } else {
+            int memoryCount = count - m_spilledCount;
+            for (int i=memoryCount; i<m_memoryRecords.size(); i++) {
+                m_memoryBytes -= m_memoryRecords.get(i).length;
+            }
+            m_memoryRecords.subList(memoryCount, m_memoryRecords.size()).clear();
+        }
+    }
+
+    //把最旧的内存记录写入文件，直到内存中的记录不超过memoryCap字节
+    private void spill(long memoryCap)
+    {
+        int count = 0;
+        long remainedBytes = m_memoryBytes;
+        while (remainedBytes > memoryCap && count < m_memoryRecords.size()) {
+            remainedBytes -= m_memoryRecords.get(count).length;
+            count++;
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        if (m_file != null) {
+            int oldSpilledCount = m_spilledCount;
+
+            try {
+                for (int i=0; i<count; i++) {
+                    writeToFile(m_memoryRecords.get(i));
+                }
+                writeHeader();
+
+            } catch (IOException e) {
+                s_logger.warn("spill undo journal failed: {}", e.getMessage());
+
+                //历史只能是连续的一段: 去掉文件中的部分，内存中的记录成为最旧的。
+                //这次写了一部分的记录还在内存中, 只减去之前已在文件中的个数
+                m_doneCount = Math.max(m_doneCount - oldSpilledCount, 0);
+                discardFile();
+                dropOldest(count);
+                return;
+            }
+
+            m_memoryRecords.subList(0, count).clear();
+            m_memoryBytes = remainedBytes;
+
+        } else {
+            dropOldest(count);
+        }
+    }
+
+    private void dropOldest(int memoryRecordCount)
+    {
+        assert m_spilledCount == 0;
+
+        m_memoryRecords.subList(0, memoryRecordCount).clear();
+
+        m_memoryBytes = 0;
+        for (byte record[] : m_memoryRecords) {
+            m_memoryBytes += record.length;
+        }
+
+        m_doneCount = Math.max(m_doneCount - memoryRecordCount, 0);
+    }
+
+    private void writeToFile(byte record[]) throws IOException
+    {
+        long newDataEnd = (long)m_dataEnd + 4 + record.length;
+        ensureMapped(newDataEnd);
+
+        m_mapped.putInt(m_dataEnd, record.length);
+        ByteBuffer buffer = m_mapped.duplicate();
+        buffer.position(m_dataEnd + 4);
+        buffer.put(record);
+
+        if (m_spilledCount == m_spilledOffsets.length) {
+            m_spilledOffsets = Arrays.copyOf(m_spilledOffsets, m_spilledCount * 2);
+        }
+        m_spilledOffsets[m_spilledCount++] = m_dataEnd;
+        m_dataEnd = (int)newDataEnd;
+    }
+
+    private void ensureMapped(long bytes) throws IOException
+    {
+        if (m_mapped != null && bytes <= m_mapped.capacity()) {
+            return;
+        }
+
+        long mappedBytes = m_mapped == null ? MIN_MAPPED_BYTES : (long)m_mapped.capacity() * 2;
+        mappedBytes = Math.min(Math.max(mappedBytes, bytes), Integer.MAX_VALUE);
+        if (bytes > mappedBytes) {
+            throw new IOException("undo journal is too large");
+        }
+
+        if (m_randomAccessFile == null) {
+            m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+        }
+        m_mapped = m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mappedBytes);
+    }
+
+    //截掉文件中的记录后，映射的空间远大于剩下的数据时，缩小映射和文件。
+    //有的系统不能缩小已映射的文件，失败时文件保持原来的大小
+    private void shrinkFile()
+    {
+        long mappedBytes = Math.max((long)m_dataEnd * 2, MIN_MAPPED_BYTES);
+        if (m_mapped == null || m_mapped.capacity() <= mappedBytes * 2) {
+            return;
+        }
+
+        try {
+            m_mapped.force();
+            m_mapped = m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mappedBytes);
+            m_randomAccessFile.setLength(mappedBytes);
+        } catch (IOException e) {
+            s_logger.warn("shrink undo journal failed: {}", e.getMessage());
+        }
+    }
+
+    private void writeHeader()
+    {
+        m_mapped.putInt(0, FILE_MAGIC);
+        m_mapped.putInt(4, FILE_VERSION);
+        m_mapped.putInt(8, m_spilledCount);
+        m_mapped.putInt(12, Math.min(m_doneCount, m_spilledCount));
+        m_mapped.putInt(16, m_dataEnd);
+    }
+
+    //文件无效时返回false
+    private boolean openFile() throws IOException
+    {
+        m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+        long fileBytes = m_randomAccessFile.length();
+        if (fileBytes < HEADER_BYTES || fileBytes > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        m_mapped = m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+
+        if (m_mapped.getInt(0) != FILE_MAGIC || m_mapped.getInt(4) != FILE_VERSION) {
+            return false;
+        }
+
+        int count = m_mapped.getInt(8);
+        int doneCount = m_mapped.getInt(12);
+        int dataEnd = m_mapped.getInt(16);
+
+        if (count < 0 || doneCount < 0 || doneCount > count || dataEnd < HEADER_BYTES || dataEnd > fileBytes) {
+            return false;
+        }
+
+        m_spilledOffsets = new int[Math.max(count, 64)];
+
+        int offset = HEADER_BYTES;
+        for (int i=0; i<count; i++) {
+            if (offset + 4 > dataEnd) {
+                return false;
+            }
+
+            int length = m_mapped.getInt(offset);
+            if (length < 0 || length > dataEnd - offset - 4) {
+                return false;
+            }
+
+            m_spilledOffsets[i] = offset;
+            offset += 4 + length;
+        }
+
+        if (offset != dataEnd) {
+            return false;
+        }
+
+        m_spilledCount = count;
+        m_doneCount = doneCount;
+        m_dataEnd = dataEnd;
+        return true;
+    }
+
+    private void closeFile()
+    {
+        m_mapped = null;
+
+        if (m_randomAccessFile != null) {
+            try {
+                m_randomAccessFile.close();
+            } catch (IOException e) {
+                s_logger.warn("close undo journal failed: {}", e.getMessage());
+            }
+            m_randomAccessFile = null;
+        }
+    }
+
+    private void discardFile()
+    {
+        closeFile();
+
+        m_spilledCount = 0;
+        m_dataEnd = HEADER_BYTES;
+
+        if (m_file != null && m_file.exists() && ! m_file.delete()) {
+            s_logger.warn("can not delete undo journal: {}", m_file);
+        }
+    }
+}
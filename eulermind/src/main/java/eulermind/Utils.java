@@ -483,7 +483,7 @@ public class Utils {
         */
     }
 
-    static String getThrowableStackTraceString(Throwable t) {
+    public static String getThrowableStackTraceString(Throwable t) {
         StringWriter stringWriter = new StringWriter();
         t.printStackTrace(new PrintWriter(stringWriter));
         return stringWriter.toString();
@@ -1,22 +1,21 @@
 package eulermind.importer;
 
-import com.tinkerpop.blueprints.Vertex;
 import eulermind.MindDB;
+import eulermind.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /*
 The MIT License (MIT)
@@ -40,55 +39,175 @@ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
 CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
+//先在本线程中建立目录结构, 再由工作线程池并行提取各文件的文本、整理行树,
+//本线程按目录顺序依次写入数据库。只有本线程访问数据库
 public class DirectoryImporter extends Importer{
 
     static Logger s_logger = LoggerFactory.getLogger(Importer.class);
 
+    //同时在提取或等待写入的文件数, 是工作线程数的倍数, 限制内存中的行树个数
+    static final int PENDING_FILES_PER_WORKER = 2;
+
+    private final int m_workerCount;
+
     public DirectoryImporter(MindDB mindDB)
     {
-        super(mindDB);
+        this(mindDB, Runtime.getRuntime().availableProcessors());
     }
 
-    private Object importFile(Object parentDBId, int pos, File file)
+    public DirectoryImporter(MindDB mindDB, int workerCount)
     {
-        Object dbId = addTextDBChild(parentDBId, pos, file.getName());
+        super(mindDB);
+        m_workerCount = Math.max(1, workerCount);
+    }
 
-        if (m_canceled) {
-            return dbId;
+    //一个待导入内容的文件, 和以它的文件名为文字的节点
+    private static class FileTask {
+        final File m_file;
+        final Object m_dbId;
+        Future<LineNode> m_lineTree;
+
+        FileTask(File file, Object dbId)
+        {
+            m_file = file;
+            m_dbId = dbId;
         }
 
-        if (file.isFile()) {
-            Importer importer;
-            if (file.getName().endsWith(".mm")) {
-                importer = new FreemindImporter(m_mindDb);
-            } else {
-                importer = new TikaPlainTextImporter(m_mindDb);
+        boolean isFreemind()
+        {
+            return m_file.getName().endsWith(".mm");
+        }
+    }
+
+    //广度优先建立目录节点，文件名排序，结果与文件系统的列举顺序无关
+    private List<FileTask> importDirectoryTree(Object dbId, File dir)
+    {
+        ArrayList<FileTask> fileTasks = new ArrayList<FileTask>();
+
+        LinkedList<FileTask> dirs = new LinkedList<FileTask>();
+        dirs.add(new FileTask(dir, dbId));
+
+        while (! dirs.isEmpty() && ! m_canceled) {
+            FileTask dirTask = dirs.removeFirst();
+
+            File[] innerFiles = dirTask.m_file.listFiles();
+            if (innerFiles == null || innerFiles.length == 0) {
+                continue;
             }
+            Arrays.sort(innerFiles);
 
-            try {
-                importer.importFile(dbId, 0, file.getAbsolutePath());
-                progressStep(file.getAbsolutePath());
-            } catch (Exception e) {
-                e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+            ArrayList<String> names = new ArrayList<String>(innerFiles.length);
+            for (File innerFile : innerFiles) {
+                names.add(innerFile.getName());
             }
-        } else if (file.isDirectory()) {
-            File[] innerFiles = file.listFiles();
+
+            List<Object> innerDbIds = addTextDBChildren(dirTask.m_dbId, 0, names);
             for (int i=0; i<innerFiles.length; i++) {
-                importFile(dbId, i, innerFiles[i]);
+                FileTask innerTask = new FileTask(innerFiles[i], innerDbIds.get(i));
+                if (innerFiles[i].isDirectory()) {
+                    dirs.add(innerTask);
+                } else if (innerFiles[i].isFile()) {
+                    fileTasks.add(innerTask);
+                }
+            }
+        }
+
+        return fileTasks;
+    }
+
+    private void submit(ExecutorService executor, final FileTask fileTask)
+    {
+        //.mm文件由本线程流式导入
+        if (fileTask.isFreemind()) {
+            return;
+        }
+
+        fileTask.m_lineTree = executor.submit(new Callable<LineNode>() {
+            @Override
+            public LineNode call() throws Exception {
+                if (m_canceled) {
+                    return null;
+                }
+                return TikaPlainTextImporter.fileToLineTree(fileTask.m_file);
             }
+        });
+    }
+
+    private void importFileContent(FileTask fileTask, TikaPlainTextImporter lineTreeImporter)
+    {
+        try {
+            if (fileTask.isFreemind()) {
+                new FreemindImporter(m_mindDb).importFile(fileTask.m_dbId, 0, fileTask.m_file.getAbsolutePath());
+            } else {
+                LineNode root = fileTask.m_lineTree.get();
+                if (root != null && ! m_canceled) {
+                    lineTreeImporter.importLineTree(fileTask.m_dbId, 0, root);
+                }
+            }
+        } catch (ExecutionException e) {
+            s_logger.warn("can't extract text of {}: {}", fileTask.m_file, e.getCause());
+        } catch (Exception e) {
+            s_logger.warn("can't import {}: {}", fileTask.m_file, Utils.getThrowableStackTraceString(e));
         }
+    }
+
+    private void importFileContents(List<FileTask> fileTasks)
+    {
+        resetProgress(fileTasks.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(m_workerCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DirectoryImporter worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-        return dbId;
+        TikaPlainTextImporter lineTreeImporter = new TikaPlainTextImporter(m_mindDb);
+        int maxPending = m_workerCount * PENDING_FILES_PER_WORKER;
+
+        try {
+            int submitted = 0;
+            for (int i=0; i<fileTasks.size() && ! m_canceled; i++) {
+                while (submitted < fileTasks.size() && submitted < i + maxPending) {
+                    submit(executor, fileTasks.get(submitted));
+                    submitted++;
+                }
+
+                FileTask fileTask = fileTasks.get(i);
+                importFileContent(fileTask, lineTreeImporter);
+                fileTask.m_lineTree = null;
+
+                progressStep(fileTask.m_file.getAbsolutePath());
+            }
+        } finally {
+            //取消时不等待正在提取的文件
+            executor.shutdownNow();
+        }
     }
 
     public List importFile(Object parentDBId, int pos, String path)
-            throws IOException, SAXException, ParserConfigurationException
+            throws Exception
     {
         File file = new File(path);
 
         ArrayList newChildren = new ArrayList();
-        Object newChild = importFile(parentDBId, pos, file);
-        newChildren.add(newChild);
+
+        //文件夹内的各个Importer共用同一个BulkInsertSession
+        openBulkInsertSession();
+        try {
+            Object newChild = addTextDBChild(parentDBId, pos, file.getName());
+            newChildren.add(newChild);
+
+            if (file.isDirectory()) {
+                importFileContents(importDirectoryTree(newChild, file));
+            } else {
+                importFileContents(Arrays.asList(new FileTask(file, newChild)));
+            }
+        } finally {
+            closeBulkInsertSession();
+        }
         return newChildren;
     }
 
@@ -3,21 +3,19 @@ package eulermind.importer;
 import eulermind.MindDB;
 import com.tinkerpop.blueprints.Vertex;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
-
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,117 +43,223 @@ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
 CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
+//用StAX流式读入, 不建DOM树，也不递归。除了解析链接用的 ID -> dbId 表，内存不随节点数增长
 public class FreemindImporter extends Importer{
 
     static Logger s_logger = LoggerFactory.getLogger(FreemindImporter.class);
 
+    //一串兄弟节点攒够这么多再一次写入数据库
+    static final int FLUSH_BATCH_SIZE = 1000;
+
+    //进度按已读字节的千分比报告
+    static final int PROGRESS_SCALE = 1000;
+
     public FreemindImporter(MindDB mindDB)
     {
         super(mindDB);
     }
 
-    private Object importFreemindNode(Object parentDBId, int pos, org.w3c.dom.Element element,
-                                      HashMap<String, Object> mmId2dbIdMap,
-                                      HashMap<String, String> mmLinkMap)
-    {
-        String mmId = element.getAttribute("ID");
-        String text = element.getAttribute("TEXT");
+    //某个父节点下还没有写入数据库的兄弟节点
+    private static class SiblingBuffer {
+        final Object m_parentDBId;
 
+        //只有导入的顶层节点需要指定位置；新节点的子节点总是追加在最后
+        final boolean m_isTop;
+        int m_pos;
 
-        Object dbId = addTextDBChild(parentDBId, pos, text);
-        progressStep(text);
+        ArrayList<String> m_texts = new ArrayList<String>();
+        ArrayList<String> m_mmIds = new ArrayList<String>();
 
-        mmId2dbIdMap.put(mmId, dbId);
+        //最近写入的节点, 它的子节点可能还没有读完
+        Object m_lastDBId;
 
-        String linkAttribute = element.getAttribute("LINK");
-        if (linkAttribute.length() > 1 && linkAttribute.substring(0, 4).equals("#ID_")) {
-            mmLinkMap.put(mmId, linkAttribute.substring(1));
+        SiblingBuffer(Object parentDBId, boolean isTop, int pos)
+        {
+            m_parentDBId = parentDBId;
+            m_isTop = isTop;
+            m_pos = pos;
         }
+    }
 
-        NodeList nodes = element.getChildNodes();
-        int childPos = 0;
+    private HashMap<String, Object> m_mmId2dbIdMap;
 
-        for (int i=0; i < nodes.getLength() && m_canceled == false; i++)
-        {
-            org.w3c.dom.Node node = nodes.item(i);
-            if (node.getNodeName().equals("node")) {
-                importFreemindNode(dbId, childPos, (Element)node, mmId2dbIdMap, mmLinkMap);
-                childPos++;
-                //process child element
-            } else if (node.getNodeName().equals("arrowlink")) {
-                mmLinkMap.put(mmId, ((Element)node).getAttribute("DESTINATION"));
+    //{源ID, 目标ID}, 一个节点可以有多个arrowlink
+    private ArrayList<String[]> m_mmLinks;
+
+    private ArrayList<Object> m_newChildren;
+
+    //把缓存的兄弟节点写入数据库。lastClosed为true表示最后一个节点的子节点也已经读完
+    private void flush(SiblingBuffer buffer, boolean lastClosed)
+    {
+        if (buffer.m_texts.isEmpty()) {
+            if (lastClosed && buffer.m_lastDBId != null) {
+                finishDBChildren(buffer.m_lastDBId);
             }
+            return;
         }
 
-        return dbId;
+        //前一次写入的最后一个节点已经有了后续兄弟，它的子节点都读完了
+        if (buffer.m_lastDBId != null) {
+            finishDBChildren(buffer.m_lastDBId);
+        }
+
+        List<Object> dbIds = addTextDBChildren(buffer.m_parentDBId, buffer.m_pos, buffer.m_texts);
+
+        if (buffer.m_isTop) {
+            m_newChildren.addAll(dbIds);
+            if (buffer.m_pos >= 0) {
+                buffer.m_pos += dbIds.size();
+            }
+        }
+
+        for (int i=0; i<dbIds.size(); i++) {
+            String mmId = buffer.m_mmIds.get(i);
+            if (mmId != null) {
+                m_mmId2dbIdMap.put(mmId, dbIds.get(i));
+            }
+            if (i < dbIds.size() - 1 || lastClosed) {
+                finishDBChildren(dbIds.get(i));
+            }
+        }
+
+        buffer.m_lastDBId = dbIds.get(dbIds.size() - 1);
+        buffer.m_texts.clear();
+        buffer.m_mmIds.clear();
     }
 
-    private List importFromInputStream(Object parentDBId, int pos, InputStream inputStream)
-            throws IOException, SAXException, ParserConfigurationException
+    private static String getAttribute(XMLStreamReader reader, String name)
     {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
 
-        ArrayList newChildren = new ArrayList();
+    private List importFromInputStream(Object parentDBId, int pos, InputStream inputStream, long totalBytes)
+            throws IOException, XMLStreamException
+    {
+        m_mmId2dbIdMap = new HashMap<String, Object>();
+        m_mmLinks = new ArrayList<String[]>();
+        m_newChildren = new ArrayList<Object>();
 
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        //Load and parse XML file into DOM
-        Document document = null;
-        //DOM parser instance
-        DocumentBuilder builder = builderFactory.newDocumentBuilder();
-        //parse an XML file into a DOM tree
-        document = builder.parse(inputStream);
+        resetProgress(PROGRESS_SCALE);
 
-        NodeList nodeList = document.getElementsByTagName("node");
-        resetProgress(nodeList.getLength());
+        CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(inputStream));
 
-        //get root element
-        Element rootElement = document.getDocumentElement();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(countingInputStream);
 
-        HashMap<String, Object> mmId2dbIdMap = new HashMap<String, Object>();
-        HashMap<String, String> mmLinkMap = new HashMap<String, String>();
+        //buffers[i] 是第i层未关闭的node元素下的兄弟节点, buffers[0]是导入的顶层节点
+        ArrayList<SiblingBuffer> buffers = new ArrayList<SiblingBuffer>();
+        buffers.add(new SiblingBuffer(parentDBId, true, pos));
 
-        //traverse child elements
-        NodeList nodes = rootElement.getChildNodes();
-        for (int i=0; i < nodes.getLength(); i++)
-        {
-            org.w3c.dom.Node node = nodes.item(i);
-            if (node.getNodeName().equals("node")) {
-                Object newChild = importFreemindNode(parentDBId, pos, (Element)node, mmId2dbIdMap, mmLinkMap);
-                newChildren.add(newChild);
-                //process child element
+        //未关闭的node元素的ID
+        ArrayList<String> openMmIds = new ArrayList<String>();
+
+        openBulkInsertSession();
+        try {
+            while (reader.hasNext() && ! m_canceled) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if (name.equals("node")) {
+                        int depth = openMmIds.size();
+
+                        //第一个子节点：先把父节点写入数据库，得到它的id
+                        if (buffers.size() == depth) {
+                            SiblingBuffer parentBuffer = buffers.get(depth - 1);
+                            flush(parentBuffer, false);
+                            buffers.add(new SiblingBuffer(parentBuffer.m_lastDBId, false, -1));
+                        }
+
+                        String text = getAttribute(reader, "TEXT");
+                        String mmId = reader.getAttributeValue(null, "ID");
+
+                        SiblingBuffer buffer = buffers.get(depth);
+                        buffer.m_texts.add(text);
+                        buffer.m_mmIds.add(mmId);
+
+                        String linkAttribute = getAttribute(reader, "LINK");
+                        if (mmId != null && linkAttribute.startsWith("#ID_")) {
+                            m_mmLinks.add(new String[] {mmId, linkAttribute.substring(1)});
+                        }
+
+                        openMmIds.add(mmId);
+
+                        if (buffer.m_texts.size() >= FLUSH_BATCH_SIZE) {
+                            flush(buffer, false);
+                        }
+
+                        setProgress((int)(countingInputStream.getByteCount() * PROGRESS_SCALE / totalBytes), text);
+
+                    } else if (name.equals("arrowlink") && ! openMmIds.isEmpty()) {
+                        String mmId = openMmIds.get(openMmIds.size() - 1);
+                        if (mmId != null) {
+                            m_mmLinks.add(new String[] {mmId, getAttribute(reader, "DESTINATION")});
+                        }
+                    }
+
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("node")) {
+                    openMmIds.remove(openMmIds.size() - 1);
+                    int depth = openMmIds.size();
+
+                    //关闭的节点有子节点, 它们已全部读完
+                    if (buffers.size() > depth + 1) {
+                        flush(buffers.remove(depth + 1), true);
+                        finishDBChildren(buffers.get(depth).m_lastDBId);
+                    }
+                }
             }
-        }
 
-        for(String mmLinkSource : mmLinkMap.keySet()) {
-            String mmLinkTarget = mmLinkMap.get(mmLinkSource);
+            if (! m_canceled) {
+                flush(buffers.get(0), true);
+            }
 
-            //s_logger.info("import freemind link {} -> {}", mmLinkSource, mmLinkTarget);
-            Object dbLinkSource = mmId2dbIdMap.get(mmLinkSource);
-            Object dbLinkTarget = mmId2dbIdMap.get(mmLinkTarget);
+        } finally {
+            reader.close();
+            closeBulkInsertSession();
+        }
 
-            if (dbLinkSource != null && dbLinkTarget != null) {
-                //s_logger.info("import link {} -> {}", dbLinkSource, dbLinkTarget);
+        for (String[] mmLink : m_mmLinks) {
+            //s_logger.info("import freemind link {} -> {}", mmLink[0], mmLink[1]);
+            Object dbLinkSource = m_mmId2dbIdMap.get(mmLink[0]);
+            Object dbLinkTarget = m_mmId2dbIdMap.get(mmLink[1]);
 
+            if (dbLinkSource != null && dbLinkTarget != null) {
                 Vertex vertexSource = m_mindDb.getVertex(dbLinkSource);
                 Vertex vertexTarget = m_mindDb.getVertex(dbLinkTarget);
                 m_mindDb.addRefEdge(vertexSource, vertexTarget);
             }
         }
 
+        setProgress(PROGRESS_SCALE, "");
+
+        List newChildren = m_newChildren;
+        m_mmId2dbIdMap = null;
+        m_mmLinks = null;
+        m_newChildren = null;
         return newChildren;
     }
 
     public List importFile(Object parentDBId, int pos, String path)
-            throws IOException, SAXException, ParserConfigurationException
+            throws IOException, XMLStreamException
     {
-        FileInputStream inputStream = new FileInputStream(path);
-        return importFromInputStream(parentDBId, pos, inputStream);
-
+        File file = new File(path);
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return importFromInputStream(parentDBId, pos, inputStream, Math.max(file.length(), 1));
+        } finally {
+            inputStream.close();
+        }
     }
 
     public List importString(Object parentDBId, int pos, final String str)
             throws Exception
     {
+        byte bytes[] = str.getBytes("UTF-8");
         InputStream inputStream = IOUtils.toInputStream(str, "UTF-8");
-        return importFromInputStream(parentDBId, pos, inputStream);
+        return importFromInputStream(parentDBId, pos, inputStream, Math.max(bytes.length, 1));
     }
 }
@@ -1,8 +1,6 @@
 package eulermind.importer;
 
-import com.tinkerpop.blueprints.Vertex;
 import eulermind.MindDB;
-import eulermind.MindModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,14 +39,36 @@ public abstract class Importer {
         m_mindDb = mindDB;
     }
 
+    private MindDB.BulkInsertSession m_bulkInsertSession;
+
+    //importFile, importString 开始时调用，结束时(finally中)调用closeBulkInsertSession
+    protected void openBulkInsertSession()
+    {
+        m_bulkInsertSession = m_mindDb.openBulkInsertSession();
+    }
+
+    protected void closeBulkInsertSession()
+    {
+        m_bulkInsertSession.close();
+        m_bulkInsertSession = null;
+    }
+
     protected Object addTextDBChild(Object parentDBId, int pos, String text)
     {
-        m_logger.info("import addTextDBChild : {}", text);
+        m_logger.debug("import addTextDBChild : {}", text);
+        return m_bulkInsertSession.appendChild(parentDBId, pos, text);
+    }
+
+    protected void finishDBChildren(Object parentDBId)
+    {
+        m_bulkInsertSession.finishChildren(parentDBId);
+    }
 
-        Vertex dbParent = m_mindDb.getVertex(parentDBId);
-        MindDB.EdgeVertex edgeVertex = m_mindDb.addChild(dbParent, pos);
-        edgeVertex.m_target.setProperty(MindModel.TEXT_PROP_NAME, text);
-        return edgeVertex.m_target.getId();
+    //一次添加一串兄弟节点，返回新节点的id
+    protected List<Object> addTextDBChildren(Object parentDBId, int pos, List<String> texts)
+    {
+        m_logger.debug("import addTextDBChildren : {} children", texts.size());
+        return m_bulkInsertSession.appendChildren(parentDBId, pos, texts);
     }
 
     abstract public List importFile(Object parentDBId, int pos, final String path) throws Exception;
@@ -63,6 +83,17 @@ public abstract class Importer {
         m_progress = 0;
     }
 
+    //流式导入不知道节点总数，按已读的字节数报告进度, 进度值变化时才通知
+    protected void setProgress(int progress, String info) {
+        if (progress == m_progress) {
+            return;
+        }
+        m_progress = progress;
+        if (m_progressListener != null) {
+            m_progressListener.notifyProgress(m_progress, m_maxProgress, info);
+        }
+    }
+
     protected void progressStep(String info) {
         m_progress++;
         if (m_progressListener != null) {
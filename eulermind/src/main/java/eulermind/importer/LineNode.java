@@ -18,6 +18,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.*;
 
 /*
@@ -47,39 +49,79 @@ class LineNode extends DefaultMutableTreeNode {
     static final int MAX_CHILD_COUNT = 20;
     static Logger s_logger = LoggerFactory.getLogger(Importer.class);
     int m_indent;
-    String m_trimLine;
     int m_blankLines;
 
-    LineNode(String line) {
+    //文字不单独保存成字符串，只记录在共享缓冲区中的位置(已去掉首尾空白)。写入数据库时才生成字符串
+    LineBuffer m_buffer;
+    int m_textStart;
+    int m_textEnd;
+
+    //整篇文字共用的缓冲区。缓冲区扩大时，各行仍通过它找到新的数组
+    static class LineBuffer {
+        char m_chars[];
+        int m_length;
+
+        LineBuffer(char chars[], int length)
+        {
+            m_chars = chars;
+            m_length = length;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (capacity > m_chars.length) {
+                m_chars = Arrays.copyOf(m_chars, Math.max(capacity, m_chars.length * 2));
+            }
+        }
+    }
+
+    private static final LineBuffer EMPTY_BUFFER = new LineBuffer(new char[0], 0);
+
+    LineNode(LineBuffer buffer, int start, int end) {
         super();
 
+        char chars[] = buffer.m_chars;
         int textStart = 0;
         int textEnd = 0;
 
-        for (textStart=0; textStart<line.length() && Character.isWhitespace(line.charAt(textStart));  textStart++) {
-            m_indent += (line.charAt(textStart) == '\t') ? 4 : 1;
+        for (textStart=start; textStart<end && Character.isWhitespace(chars[textStart]);  textStart++) {
+            m_indent += (chars[textStart] == '\t') ? 4 : 1;
         }
 
-        for (textEnd=line.length(); textEnd>textStart && Character.isWhitespace(line.charAt(textEnd-1)); textEnd--) {
+        for (textEnd=end; textEnd>textStart && Character.isWhitespace(chars[textEnd-1]); textEnd--) {
         }
 
-        m_trimLine = line.substring(textStart, textEnd);
+        m_buffer = buffer;
+        m_textStart = textStart;
+        m_textEnd = textEnd;
 
-        m_blankLines = m_trimLine.length() == 0 ? 1 : 0;
+        m_blankLines = textEnd == textStart ? 1 : 0;
+    }
+
+    LineNode(String line) {
+        this(new LineBuffer(line.toCharArray(), line.length()), 0, line.length());
     }
 
     LineNode(int blankLines) {
         assert blankLines > 0;
         m_indent = 0;
-        m_trimLine = "";
+        m_buffer = EMPTY_BUFFER;
         m_blankLines = blankLines;
     }
 
+    String getTrimLine() {
+        return new String(m_buffer.m_chars, m_textStart, m_textEnd - m_textStart);
+    }
+
+    void appendTrimLine(StringBuilder builder) {
+        builder.append(m_buffer.m_chars, m_textStart, m_textEnd - m_textStart);
+    }
+
     public String toString() {
         if (isBlank()) {
             return ((Integer)m_blankLines).toString() + " blankLine";
         } else {
-            return m_trimLine;
+            return getTrimLine();
         }
     }
 
@@ -108,34 +150,99 @@ class LineNode extends DefaultMutableTreeNode {
         return m_blankLines > 0;
     }
 
-    private static List<LineNode> splitTextToLines(String text)
-    {
-        String lines[] = StringUtils.splitPreserveAllTokens(text, '\n');
+    //一边接收文字一边切分成行，不生成每行的字符串。Tika可以直接写到这里
+    static class LineTreeBuilder extends Writer {
+        private LineBuffer m_buffer = new LineBuffer(new char[8192], 0);
+
+        //当前行的开始位置, 之前的字符都已经切分成行
+        private int m_lineStart = 0;
+
+        private ArrayList<LineNode> m_compressedLines = new ArrayList<>();
+
+        @Override
+        public void write(char chars[], int offset, int length)
+        {
+            m_buffer.ensureCapacity(m_buffer.m_length + length);
+            System.arraycopy(chars, offset, m_buffer.m_chars, m_buffer.m_length, length);
+            splitNewChars(length);
+        }
+
+        @Override
+        public void write(String str, int offset, int length)
+        {
+            m_buffer.ensureCapacity(m_buffer.m_length + length);
+            str.getChars(offset, offset + length, m_buffer.m_chars, m_buffer.m_length);
+            splitNewChars(length);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        boolean isEmpty()
+        {
+            return m_buffer.m_length == 0;
+        }
 
-        ArrayList<LineNode> compressedLines = new ArrayList<>();
+        private void splitNewChars(int newCharCount)
+        {
+            char chars[] = m_buffer.m_chars;
+            int end = m_buffer.m_length + newCharCount;
+
+            for (int i=m_buffer.m_length; i<end; i++) {
+                if (chars[i] == '\n') {
+                    addLine(m_lineStart, i);
+                    m_lineStart = i + 1;
+                }
+            }
+            m_buffer.m_length = end;
+        }
 
         //把相邻连续空行压缩成一个，并记录下连续空行数。 以后利用空行对文章分章节
-        for (String line : lines) {
-            LineNode curNode = new LineNode(line);
+        private void addLine(int start, int end)
+        {
+            LineNode curNode = new LineNode(m_buffer, start, end);
 
             if (curNode.isBlank()) {
-                if (compressedLines.size() == 0) {
-                    continue;
+                if (m_compressedLines.size() == 0) {
+                    return;
                 }
 
-                LineNode last = compressedLines.get(compressedLines.size() - 1);
+                LineNode last = m_compressedLines.get(m_compressedLines.size() - 1);
                 if (last.isBlank()) {
                     last.m_blankLines++;
                 } else {
-                    compressedLines.add(curNode);
+                    m_compressedLines.add(curNode);
                 }
 
             } else {
-                compressedLines.add(curNode);
+                m_compressedLines.add(curNode);
             }
         }
 
-        return compressedLines;
+        //没有非空行时返回null
+        LineNode build()
+        {
+            //与按'\n'切分一样，非空文字的最后一段也算一行
+            if (m_buffer.m_length > 0) {
+                addLine(m_lineStart, m_buffer.m_length);
+                m_lineStart = m_buffer.m_length;
+            }
+
+            if (m_compressedLines.isEmpty()) {
+                return null;
+            }
+
+            List<LineNode> lines = m_compressedLines;
+            m_compressedLines = new ArrayList<>();
+            return linesToLineTree(lines);
+        }
     }
 
     //从栈中弹出同级的节点。用于从树遍历路径归约成树
@@ -312,7 +419,8 @@ class LineNode extends DefaultMutableTreeNode {
     private static LanguageDetector s_languageDetector = null;
     private static TextObjectFactory s_textObjectFactory = null;
 
-    private static void initLanguageDetector() {
+    //目录导入时多个工作线程同时整理行树
+    private static synchronized void initLanguageDetector() {
         if (s_textObjectFactory != null) {
             return;
         }
@@ -350,88 +458,97 @@ class LineNode extends DefaultMutableTreeNode {
         }
     }
 
+    //sentenceStarts[0, count)中第一个不小于value的位置, 没有时返回count
+    private static int lowerBound(int sentenceStarts[], int count, int value)
+    {
+        int pos = Arrays.binarySearch(sentenceStarts, 0, count, value);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
     private static void brokenSentencesToTree(LineNode root) {
 
         //合并子节点的文字，并记录每行在大字符串中的位置
-        ArrayList<Integer> lineStarts = new ArrayList<>();
-        String combinedLine = "";
-        for (int i=0; i<root.getChildCount() ; i++) {
-            lineStarts.add(combinedLine.length());
-            combinedLine += root.getChildAt(i).m_trimLine + (i < root.getChildCount() - 1 ? " " : "");
+        int childCount = root.getChildCount();
+        int lineStarts[] = new int[childCount + 1];
+        StringBuilder combinedBuilder = new StringBuilder();
+        for (int i=0; i<childCount ; i++) {
+            lineStarts[i] = combinedBuilder.length();
+            root.getChildAt(i).appendTrimLine(combinedBuilder);
+            if (i < childCount - 1) {
+                combinedBuilder.append(' ');
+            }
         }
-        lineStarts.add(combinedLine.length()); //缀上一个结尾
+        lineStarts[childCount] = combinedBuilder.length(); //缀上一个结尾
+        String combinedLine = combinedBuilder.toString();
 
         //重新划分句子
         BreakIterator boundary = BreakIterator.getSentenceInstance(getStringULocale(combinedLine));
         boundary.setText(combinedLine);
 
-        ArrayList<Integer> icuSentenceStarts = new ArrayList<>();
+        int sentenceStarts[] = new int[16];
+        int sentenceStartCount = 0;
+        BitSet isSentenceStart = new BitSet(combinedLine.length() + 1);
         for (int icuSentenceStart = boundary.first();
              icuSentenceStart != BreakIterator.DONE; //icuSentenceStart会缀上combinedLine.length()
              icuSentenceStart = boundary.next()) {
 
-            icuSentenceStarts.add(icuSentenceStart);
+            if (sentenceStartCount == sentenceStarts.length) {
+                sentenceStarts = Arrays.copyOf(sentenceStarts, sentenceStartCount * 2);
+            }
+            sentenceStarts[sentenceStartCount++] = icuSentenceStart;
+            isSentenceStart.set(icuSentenceStart);
         }
 
         //去掉不在句子末尾的断行
-        Iterator<Integer> lineStartIter = lineStarts.iterator();
-        while (lineStartIter.hasNext()) {
-           Integer lineStart = lineStartIter.next();
-            if (!(icuSentenceStarts.contains(lineStart - 1) || icuSentenceStarts.contains(lineStart))) {
-                lineStartIter.remove();
+        int lineStartCount = 0;
+        for (int lineStart : lineStarts) {
+            if ((lineStart > 0 && isSentenceStart.get(lineStart - 1)) || isSentenceStart.get(lineStart)) {
+                lineStarts[lineStartCount++] = lineStart;
             }
         }
 
-        assert(lineStarts.contains(combinedLine.length()));
+        assert(lineStarts[lineStartCount - 1] == combinedLine.length());
 
         //以下情况不需要整理：
         //1 排列整齐，但每行末尾都没有句号, 这种情况肯定多于两行。linsStarts.size == 2 (0和combinedLine.length()) 并且 root.getChildCount >= 2
         //2 每个断行的位置都是断句的位置。
-        if (lineStarts.size() == 2 && root.getChildCount() >= 2 || lineStarts.size() - 1 == root.getChildCount()) {
+        if (lineStartCount == 2 && childCount >= 2 || lineStartCount - 1 == childCount) {
             return;
         }
 
-        assert(lineStarts.size() - 1 < root.getChildCount());
+        assert(lineStartCount - 1 < childCount);
 
         root.removeAllChildren();
 
+        //句子节点共用合并后的文字
+        LineBuffer combinedBuffer = new LineBuffer(combinedLine.toCharArray(), combinedLine.length());
+
         //整理成树：
         // 句尾的断行，就是正确的分段。作为子树分界点
         // 句子节点就是叶子节点
-        for (int lineIdx=0; lineIdx<lineStarts.size()-1; lineIdx++) {
-            int lineStart = lineStarts.get(lineIdx);
-            int lineEnd = lineStarts.get(lineIdx + 1);
-
-            int firstSentenceInThisLine = 0;
-            int firstSentenceInNextLine = 0;
-
-            for (firstSentenceInThisLine = 0;
-                 firstSentenceInThisLine < icuSentenceStarts.size()-1 ;
-                 firstSentenceInThisLine++)
-            {
-                int sentenceStart = icuSentenceStarts.get(firstSentenceInThisLine);
-                if (lineStart <= sentenceStart && sentenceStart < lineEnd) {
-                    break;
-                }
+        // 两个数组都是递增的，用二分查找代替从头扫描
+        int lastSentence = sentenceStartCount - 1;
+        for (int lineIdx=0; lineIdx<lineStartCount-1; lineIdx++) {
+            int lineStart = lineStarts[lineIdx];
+            int lineEnd = lineStarts[lineIdx + 1];
+
+            //本行中的第一个句子, 没有时为lastSentence
+            int firstSentenceInThisLine = lowerBound(sentenceStarts, lastSentence, lineStart);
+            if (firstSentenceInThisLine < lastSentence && sentenceStarts[firstSentenceInThisLine] >= lineEnd) {
+                firstSentenceInThisLine = lastSentence;
             }
 
-            for (firstSentenceInNextLine = firstSentenceInThisLine + 1;
-                 firstSentenceInNextLine < icuSentenceStarts.size() - 1;
-                 firstSentenceInNextLine++)
-            {
-                int sentenceStart = icuSentenceStarts.get(firstSentenceInNextLine);
-                if (sentenceStart >= lineEnd) {
-                    break;
-                }
-            }
+            //其后第一个不在本行的句子, 最多到lastSentence
+            int firstSentenceInNextLine = Math.max(firstSentenceInThisLine + 1,
+                    lowerBound(sentenceStarts, lastSentence, lineEnd));
 
             assert firstSentenceInNextLine - firstSentenceInThisLine >= 1;
 
             if (firstSentenceInNextLine - firstSentenceInThisLine == 1) {
-                int sentenceStart = icuSentenceStarts.get(firstSentenceInThisLine);
-                int sentenceEnd = icuSentenceStarts.get(firstSentenceInNextLine);
+                int sentenceStart = sentenceStarts[firstSentenceInThisLine];
+                int sentenceEnd = sentenceStarts[firstSentenceInNextLine];
 
-                LineNode lineNode = new LineNode(combinedLine.substring(sentenceStart, sentenceEnd));
+                LineNode lineNode = new LineNode(combinedBuffer, sentenceStart, sentenceEnd);
                 root.add(lineNode);
 
             } else {
@@ -439,10 +556,10 @@ class LineNode extends DefaultMutableTreeNode {
                 for (int sentence = firstSentenceInThisLine;
                     sentence < firstSentenceInNextLine;
                     sentence++) {
-                    int sentenceStart = icuSentenceStarts.get(sentence);
-                    int sentenceEnd = icuSentenceStarts.get(sentence + 1);
+                    int sentenceStart = sentenceStarts[sentence];
+                    int sentenceEnd = sentenceStarts[sentence + 1];
 
-                    LineNode sentenceNode = new LineNode(combinedLine.substring(sentenceStart, sentenceEnd));
+                    LineNode sentenceNode = new LineNode(combinedBuffer, sentenceStart, sentenceEnd);
                     lineNode.add(sentenceNode);
                 }
                 root.add(lineNode);
@@ -464,23 +581,30 @@ class LineNode extends DefaultMutableTreeNode {
 
         root.add(detachedChildren.get(0));
 
+        //之前各行中，可能成为后面行的父亲或兄弟的行, 缩进严格递增
+        //缩进大于或等于当前行的那些行，已经被当前行挡住，不必再向上找
+        ArrayList<LineNode> indentStack = new ArrayList<LineNode>();
+        indentStack.add(detachedChildren.get(0));
+
         for (int i=1; i<detachedChildren.size(); i++) {
 
             LineNode detachedChild = detachedChildren.get(i);
 
-            //向上找到一行，它的缩进大于或等于当前行
+            //向上找到一行，它的缩进小于或等于当前行
             //等于： 它是当前行的兄弟
             //小于：它是当前行的父亲
-            for (int j = i - 1; j >= 0; j--) {
-                LineNode attachedChild = detachedChildren.get(j);
-                if (attachedChild.m_indent < detachedChild.m_indent) {
-                    attachedChild.add(detachedChild);
-                    break;
-                } else if (attachedChild.m_indent == detachedChild.m_indent) {
-                    attachedChild.getParent().add(detachedChild);
-                    break;
-                }
+            while (indentStack.get(indentStack.size() - 1).m_indent > detachedChild.m_indent) {
+                indentStack.remove(indentStack.size() - 1);
+            }
+
+            LineNode attachedChild = indentStack.get(indentStack.size() - 1);
+            if (attachedChild.m_indent < detachedChild.m_indent) {
+                attachedChild.add(detachedChild);
+            } else {
+                attachedChild.getParent().add(detachedChild);
+                indentStack.remove(indentStack.size() - 1);
             }
+            indentStack.add(detachedChild);
 
             assert(detachedChild.getParent() != null);
         }
@@ -534,9 +658,27 @@ class LineNode extends DefaultMutableTreeNode {
         }
     }
 
+    //没有非空行时返回null
     public static LineNode textToLineTree(String text)
     {
-        List<LineNode> lines = splitTextToLines(text);
+        LineTreeBuilder builder = new LineTreeBuilder();
+        builder.write(text, 0, text.length());
+        return builder.build();
+    }
+
+    public static LineNode textToLineTree(Reader reader) throws IOException
+    {
+        LineTreeBuilder builder = new LineTreeBuilder();
+        char chars[] = new char[8192];
+        int length;
+        while ((length = reader.read(chars)) >= 0) {
+            builder.write(chars, 0, length);
+        }
+        return builder.build();
+    }
+
+    private static LineNode linesToLineTree(List<LineNode> lines)
+    {
         //s_logger.info("split to  : [{}]", lineListToString(lines));
 
         LineNode root = reduceToChapterTreeByBlankLine(lines);
@@ -556,16 +698,14 @@ class LineNode extends DefaultMutableTreeNode {
         return root;
     }
 
-    private static String lineTreeToString(LineNode root, int level)
+    private static void lineTreeToString(LineNode root, int level, StringBuilder builder)
     {
-        String str = StringUtils.repeat(" ", level);
-        str += root.toString() + "\n";
+        builder.append(StringUtils.repeat(" ", level));
+        builder.append(root.toString()).append("\n");
 
         for (int i=0; i<root.getChildCount(); i++) {
-            str += lineTreeToString(root.getChildAt(i), level+1);
+            lineTreeToString(root.getChildAt(i), level+1, builder);
         }
-
-        return str;
     }
 
     private static String lineListToString(List<LineNode> list)
@@ -574,7 +714,7 @@ class LineNode extends DefaultMutableTreeNode {
         stringBuilder.append("\n");
         for (LineNode node : list) {
             stringBuilder.append(StringUtils.repeat(" ", node.m_indent));
-            stringBuilder.append(node.m_trimLine);
+            node.appendTrimLine(stringBuilder);
             stringBuilder.append("\n");
 
         }
@@ -582,9 +722,11 @@ class LineNode extends DefaultMutableTreeNode {
         return stringBuilder.toString();
     }
 
-    private static String lineTreeToString(LineNode root)
+    static String lineTreeToString(LineNode root)
     {
-        return "\n" + lineTreeToString(root, 0);
+        StringBuilder builder = new StringBuilder("\n");
+        lineTreeToString(root, 0, builder);
+        return builder.toString();
     }
 
     public static int getLineTreeNodeCount(LineNode root)
@@ -10,7 +10,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 import org.apache.tika.detect.DefaultDetector;
-import org.apache.tika.detect.Detector;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.Parser;
@@ -51,35 +50,72 @@ public class TikaPlainTextImporter extends Importer{
         super(mindDB);
     }
 
+    private void importLineNodeChildren(Object dbId, LineNode parent)
+    {
+        if (parent.getChildCount() == 0 || m_canceled) {
+            return;
+        }
+
+        ArrayList<String> texts = new ArrayList<String>(parent.getChildCount());
+        for (int i=0; i<parent.getChildCount(); i++) {
+            texts.add(parent.getChildAt(i).toString());
+        }
+
+        List<Object> childDbIds = addTextDBChildren(dbId, 0, texts);
+
+        for (int i=0; i<parent.getChildCount() && m_canceled == false; i++) {
+            progressStep(texts.get(i));
+            importLineNodeChildren(childDbIds.get(i), parent.getChildAt(i));
+        }
+    }
+
     private Object importLineNode(Object parentDBId, int pos, LineNode root)
     {
         Object dbId = addTextDBChild(parentDBId, pos, root.toString());
         progressStep(root.toString());
 
-        for (int i=0; i<root.getChildCount() && m_canceled == false; i++) {
-            importLineNode(dbId, i, root.getChildAt(i));
-        }
+        importLineNodeChildren(dbId, root);
         return dbId;
     }
 
-    @Override
-    public List importString(Object parentDBId, int pos, String text)
+    //写入一棵已经整理好的行树, 可以在其他线程中提取文本、建树
+    List importLineTree(Object parentDBId, int pos, LineNode root)
     {
-        LineNode root = LineNode.textToLineTree(text);
-
         int nodeCount = LineNode.getLineTreeNodeCount(root);
         resetProgress(nodeCount);
 
-        Object dbId = importLineNode(parentDBId, pos, root);
-        List list = new ArrayList();
-        list.add(dbId);
-        return list;
+        openBulkInsertSession();
+        try {
+            Object dbId = importLineNode(parentDBId, pos, root);
+            List list = new ArrayList();
+            list.add(dbId);
+            return list;
+        } finally {
+            closeBulkInsertSession();
+        }
     }
 
-    public String getPlainTextByTika(File file) throws IOException, TikaException, SAXException
+    @Override
+    public List importString(Object parentDBId, int pos, String text)
+    {
+        LineNode root = LineNode.textToLineTree(text);
+        if (root == null) {
+            return new ArrayList();
+        }
+        return importLineTree(parentDBId, pos, root);
+    }
+
+    //AutoDetectParser 构造时要加载所有解析器, 每个线程只建一个，反复使用
+    private static ThreadLocal<Parser> s_parsers = new ThreadLocal<Parser>() {
+        @Override
+        protected Parser initialValue() {
+            return new AutoDetectParser(new DefaultDetector());
+        }
+    };
+
+    private static void parseByTika(File file, Writer output) throws IOException, TikaException, SAXException
     {
-        Detector detector = new DefaultDetector();
-        Parser parser = new AutoDetectParser(detector);
+        Parser parser = s_parsers.get();
         ParseContext context = new ParseContext();
         context.set(Parser.class, parser);
 
@@ -87,16 +123,27 @@ public class TikaPlainTextImporter extends Importer{
         metadata.add(Metadata.RESOURCE_NAME_KEY, file.getName());
 
         TikaInputStream input = TikaInputStream.get(file, metadata);
-        String text = null;
         try {
-            Writer output = new CharArrayWriter();
             parser.parse(input, new BodyContentHandler(output), metadata, context);
-            text = output.toString();
         } finally {
             input.close();
         }
+    }
+
+    public static String getPlainTextByTika(File file) throws IOException, TikaException, SAXException
+    {
+        Writer output = new CharArrayWriter();
+        parseByTika(file, output);
+        return output.toString();
+    }
 
-        return text;
+    //没有文字时返回null。不访问数据库，可以在工作线程中调用
+    //Tika输出的文字直接写入LineTreeBuilder切分成行，不再生成整篇的字符串
+    static LineNode fileToLineTree(File file) throws IOException, TikaException, SAXException
+    {
+        LineNode.LineTreeBuilder builder = new LineNode.LineTreeBuilder();
+        parseByTika(file, builder);
+        return builder.build();
     }
 
     public List importFile(Object parentDBId, int pos, final String path) throws Exception
@@ -104,16 +151,13 @@ public class TikaPlainTextImporter extends Importer{
         File file = new File(path);
 
         m_logger.info("import File by tika: {}", path);
-        String plainText = getPlainTextByTika(file);
+        LineNode root = fileToLineTree(file);
 
-        if (m_canceled) {
+        if (m_canceled || root == null) {
             return new ArrayList();
         }
 
-        if (plainText != null && !plainText.isEmpty()) {
-            return importString(parentDBId, pos, plainText);
-        }
-        return new ArrayList();
+        return importLineTree(parentDBId, pos, root);
     }
 
 }
@@ -1,5 +1,6 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import prefuse.data.Node;
@@ -53,6 +54,7 @@ public class AddingChild extends MindOperator{
 
         Node child = m_mindModel.addChild(parent, pos, m_text);
         m_childDbId = m_mindModel.getDbId(child);
+        m_deltas.add(MindDelta.newSubTree(m_childDbId));
 
         //重新取parent的路径
         m_parentPathAfterDoing = getNodePath(parent);
@@ -60,12 +62,4 @@ public class AddingChild extends MindOperator{
         m_laterCursorPath.add(pos);
         return true;
     }
-
-    public void undo() {
-        m_mindModel.trashNode(m_childDbId);
-    }
-
-    public void redo() {
-        m_mindModel.restoreNodeFromTrash(m_childDbId);
-    }
 }
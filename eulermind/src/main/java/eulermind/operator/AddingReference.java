@@ -1,8 +1,8 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
-import prefuse.data.Edge;
 import prefuse.data.Node;
 
 import java.util.ArrayList;
@@ -75,6 +75,7 @@ public class AddingReference extends MindOperator {
         Node referrer = getNodeByPath(m_referrerPath);
 
         m_mindModel.addReference(getNodeByPath(m_referrerPath), m_pos, m_referentDBId);
+        m_deltas.add(MindDelta.addReference(m_referrerDBId, m_pos, m_referentDBId));
 
         m_referrerPathAfterDoing = getNodePath(referrer);
 
@@ -83,14 +84,4 @@ public class AddingReference extends MindOperator {
 
         return true;
     }
-
-    public void undo() {
-        Node referentNode  = getNodeByPath(m_laterCursorPath);
-        Edge referEdge = referentNode.getParentEdge();
-        m_mindModel.removeReference(MindModel.getDbId(referEdge));
-    }
-
-    public void redo() {
-        m_mindModel.addReference(getNodeByPath(m_referrerPath), m_pos, m_referentDBId);
-    }
 }
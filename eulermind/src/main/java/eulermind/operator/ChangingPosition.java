@@ -1,5 +1,6 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import prefuse.data.Edge;
@@ -62,6 +63,10 @@ public class ChangingPosition extends MindOperator{
         Node parent = getNodeByPath(m_parentPath);
         changePosition(m_parentPath, m_oldPos, m_newPos);
 
+        if (m_oldPos != m_newPos) {
+            m_deltas.add(MindDelta.changePosition(MindModel.getDbId(parent), m_oldPos, m_newPos));
+        }
+
         m_parentPathAfterDoing = getNodePath(parent);
 
         //在引用父节点的情况下， 在显示树中改变一个节点的位置，有可能改变父节点，以及父节点的父节点的位置..
@@ -72,22 +77,6 @@ public class ChangingPosition extends MindOperator{
         return true;
     }
 
-    public void undo()
-    {
-        m_logger.info("arg:");
-
-        changePosition(m_parentPathAfterDoing, m_newPos, m_oldPos);
-
-        m_logger.info("ret:");
-    }
-
-    public void redo()
-    {
-        m_logger.info("arg: ");
-        changePosition(m_parentPath, m_oldPos, m_newPos);
-        m_logger.info("ret: ");
-    }
-
     private void changePosition(ArrayList<Integer> parentPath, int oldPos, int newPos)
     {
         m_logger.info("arg: {}:{}", "parentPath", parentPath);
@@ -2,6 +2,7 @@ package eulermind.operator;
 
 import com.tinkerpop.blueprints.Vertex;
 import eulermind.MindDB;
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import eulermind.view.NodeControl;
@@ -187,6 +188,7 @@ public class DraggingNode extends MindOperator{
 
         if (m_mindModel.m_mindDb.vertexIdIsSelf(m_oldSourceDbId, m_newSourceDbId)) {
             m_mindModel.changeChildPos(m_oldEdgeDbId, m_newPos);
+            m_deltas.add(MindDelta.changePosition(m_oldSourceDbId, m_oldPos, m_newPos));
         } else {
             if (m_fromSameView) {
                 handoverRelation(m_oldSourceDbId, m_oldPos, m_oldParentOrReferrerPath,
@@ -196,6 +198,7 @@ public class DraggingNode extends MindOperator{
                         m_newSourceDbId, m_newPos, null);
 
             }
+            m_deltas.add(MindDelta.handover(m_oldSourceDbId, m_oldPos, m_newSourceDbId, m_newPos));
         }
 
         if (m_fromSameView) {
@@ -211,42 +214,6 @@ public class DraggingNode extends MindOperator{
         return true;
     }
 
-    public void undo()
-    {
-        m_logger.info("arg:");
-        if (m_mindModel.m_mindDb.vertexIdIsSelf(m_oldSourceDbId, m_newSourceDbId)) {
-            m_mindModel.changeChildPos(m_oldEdgeDbId, m_oldPos);
-        } else {
-            if (m_fromSameView) {
-                handoverRelation(m_newSourceDbId, m_newPos, m_newParentOrReferrerPathAfterDoing,
-                        m_oldSourceDbId, m_oldPos, m_oldParentOrReferrerPathAfterDoing);
-            } else {
-                handoverRelation(m_newSourceDbId, m_newPos, null,
-                        m_oldSourceDbId, m_oldPos, null);
-            }
-        }
-
-        m_logger.info("ret:");
-    }
-
-    public void redo()
-    {
-        m_logger.info("arg:");
-        if (m_mindModel.m_mindDb.vertexIdIsSelf(m_oldSourceDbId, m_newSourceDbId)) {
-            m_mindModel.changeChildPos(m_oldEdgeDbId, m_newPos);
-        } else {
-            if (m_fromSameView) {
-                handoverRelation(m_oldSourceDbId, m_oldPos, m_oldParentOrReferrerPath,
-                        m_newSourceDbId, m_newPos, m_newParentOrReferrerPath);
-            } else {
-                handoverRelation(m_oldSourceDbId, m_oldPos, null,
-                        m_newSourceDbId, m_newPos, null);
-
-            }
-        }
-        m_logger.info("ret:");
-    }
-
     private void handoverRelation(Object oldSourceDbId, int oldPos, ArrayList<Integer> oldSourcePath,
                                   Object newSourceDbId, int newPos, ArrayList<Integer> newSourcePath)
     {
@@ -1,5 +1,6 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import eulermind.view.MindView;
@@ -72,6 +73,10 @@ public class ImportingFile extends MindOperator{
             m_newChildren = m_mindModel.importText(parent, m_text);
         }
 
+        for (Object newChild : m_newChildren) {
+            m_deltas.add(MindDelta.newSubTree(newChild));
+        }
+
         //importFIle之后，parent的路径可能会改变，所以要重新取一次路径
         m_parentPathAfterDoing = getNodePath(parent);
 
@@ -79,16 +84,4 @@ public class ImportingFile extends MindOperator{
         m_laterCursorPath.add(parent.getChildCount() - 1);
         return true;
     }
-
-    public void undo() {
-        for (int i=0; i<m_newChildren.size(); i++) {
-            m_mindModel.trashNode(m_newChildren.get(i));
-        }
-    }
-
-    public void redo() {
-        for (int i=0; i<m_newChildren.size(); i++) {
-            m_mindModel.restoreNodeFromTrash(m_newChildren.get(i));
-        }
-    }
 }
@@ -85,37 +85,6 @@ public class MovingNodeToDbId extends MindOperator{
         return true;
     }
 
-    public void undo()
-    {
-        /*
-        m_logger.info("arg:");
-            if (m_isRefNode) {
-                handoverReferent(m_newParentOrReferrerPathAfterDoing, m_newPos,
-                        m_oldParentOrReferrerPathAfterDoing, m_formerCursorPos);
-
-            } else {
-                handoverChild(m_newParentOrReferrerPathAfterDoing, m_newPos,
-                        m_oldParentOrReferrerPathAfterDoing, m_formerCursorPos);
-            }
-
-        m_logger.info("ret:");
-        */
-    }
-
-    public void redo()
-    {
-        /*
-        m_logger.info("arg:");
-            if (m_isRefNode) {
-                handoverReferent(m_oldParentOrReferrerPath, m_formerCursorPos, m_newParentOrReferrerPath, m_newPos);
-
-            } else {
-                handoverChild(m_oldParentOrReferrerPath, m_formerCursorPos, m_newParentOrReferrerPath, m_newPos);
-            }
-            */
-
-    }
-
     private void handoverReferent(ArrayList<Integer> oldReferrerPath, int oldPos, Object newReferrerDbId)
     {
         /*
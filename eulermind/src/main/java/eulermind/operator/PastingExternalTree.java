@@ -1,5 +1,6 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import prefuse.data.Node;
@@ -55,6 +56,7 @@ public class PastingExternalTree extends MindOperator {
         }
 
         m_newSubTreeRootDbId = m_mindModel.getDbId(newSubTreeRoot);
+        m_deltas.add(MindDelta.newSubTree(m_newSubTreeRootDbId));
 
         //重新取parent的路径
         m_parentPathAfterDoing = getNodePath(parent);
@@ -62,12 +64,4 @@ public class PastingExternalTree extends MindOperator {
         m_laterCursorPath.add(m_pos);
         return true;
     }
-
-    public void undo() {
-        m_mindModel.trashNode(m_newSubTreeRootDbId);
-    }
-
-    public void redo() {
-        m_mindModel.restoreNodeFromTrash(m_newSubTreeRootDbId);
-    }
 }
@@ -1,12 +1,12 @@
 package eulermind.operator;
 
 import eulermind.MindDB;
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import prefuse.data.Node;
 import prefuse.data.Tree;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /*
@@ -62,32 +62,16 @@ public class Removing extends MindOperator {
             MindDB mindDb = m_mindModel.m_mindDb;
             List<MindDB.EdgeVertexId> outEdgeVetexIds = mindDb.getOutEdgeVertexIds(mindDb.getVertex(m_formerCursorParentId));
             m_mindModel.removeReference(outEdgeVetexIds.get(m_formerCursorPos).m_edgeId);
+            m_deltas.add(MindDelta.removeReference(m_formerCursorParentId, m_formerCursorPos, m_formerCursorId));
         } else {
             m_mindModel.trashNode(m_formerCursorId);
+            m_deltas.add(MindDelta.trashSubTree(m_formerCursorId));
         }
 
         m_laterCursorPath = getNodePath(laterCursor);
         return true;
     }
 
-    public void undo()
-    {
-        ArrayList parentPath = (ArrayList)m_formerCursorPath.clone();
-        parentPath.remove(parentPath.size() - 1);
-
-        Node parentNode = getNodeByPath(parentPath);
-        if (m_isRefNode) {
-            m_mindModel.addReference(parentNode, m_formerCursorPos, m_formerCursorId);
-        } else {
-            m_mindModel.restoreNodeFromTrash(m_formerCursorId);
-        }
-    }
-
-    public void redo()
-    {
-        does();
-    }
-
     private Node getNearestKeptSibling(Node node)
     {
         int start = node.getIndex();
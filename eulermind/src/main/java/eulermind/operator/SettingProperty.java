@@ -1,5 +1,6 @@
 package eulermind.operator;
 
+import eulermind.MindDelta;
 import eulermind.MindModel;
 import eulermind.MindOperator;
 import prefuse.data.Node;
@@ -49,17 +50,8 @@ public class SettingProperty extends MindOperator {
         }
 
         m_mindModel.setProperty(m_nodeDBId, m_property, m_newValue);
+        m_deltas.add(MindDelta.setProperty(m_nodeDBId, m_property, m_oldValue, m_newValue));
         m_laterCursorPath = (ArrayList<Integer>) m_formerCursorPath.clone();
         return true;
     }
-
-    public void undo ()
-    {
-        m_mindModel.setProperty(m_nodeDBId, m_property, m_oldValue);
-    }
-
-    public void redo ()
-    {
-        does();
-    }
 }
@@ -1,7 +1,6 @@
 package eulermind.view;
 
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
-import com.tinkerpop.blueprints.Vertex;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
@@ -47,8 +46,14 @@ public class MindCombobox extends JComboBox {
     boolean m_hasPromptList;
 
     private ArrayList<PromptedNode> m_promptedNodes = new ArrayList<PromptedNode>();
-    private SwingWorker<Boolean, PromptedNode> m_queryWorker;
-    private Timer m_queryDelayTimer;
+    private SwingWorker<Boolean, MindDB.SearchCandidate> m_queryWorker;
+
+    //提示列表最多显示的结果数
+    static final int PROMPT_PAGE_SIZE = 50;
+
+    //前缀提示不够一页时, 停止输入这么久之后再用全文查找补足
+    static final int FULL_TEXT_QUERY_DELAY = 500;
+    private Timer m_fullTextQueryTimer;
 
     MindEditorListener m_mindEditorListener;
 
@@ -124,28 +129,37 @@ public class MindCombobox extends JComboBox {
 
         //SwingWorker 被设计为只执行一次。多次执行 SwingWorker 将不会调用两次 doInBackground 方法。
         //所以每次要 new一个新对象
-        m_queryWorker = new QueryWorker();
+        m_queryWorker = new QueryWorker(false);
         m_queryWorker.execute();
     }
 
-
-    private void startDelayedQuery()
+    private void startDelayedFullTextQuery()
     {
-        m_queryDelayTimer = new Timer(500, new ActionListener() {
+        m_fullTextQueryTimer = new Timer(FULL_TEXT_QUERY_DELAY, new ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent actionEvent) {
-                startQueryWorker();
+                //前缀提示还没有结束, 再等一会
+                if (m_queryWorker != null && ! m_queryWorker.isDone()) {
+                    m_fullTextQueryTimer.restart();
+                    return;
+                }
+
+                m_fullTextQueryTimer = null;
+                if (m_promptedNodes.size() < PROMPT_PAGE_SIZE) {
+                    m_queryWorker = new QueryWorker(true);
+                    m_queryWorker.execute();
+                }
             }
         });
-        m_queryDelayTimer.setRepeats(false);
-        m_queryDelayTimer.setCoalesce(true);
-        m_queryDelayTimer.start();
+        m_fullTextQueryTimer.setRepeats(false);
+        m_fullTextQueryTimer.setCoalesce(true);
+        m_fullTextQueryTimer.start();
     }
 
     private void updatePromptList()
     {
-        if (m_queryDelayTimer != null) {
-            m_queryDelayTimer.stop();
-            m_queryDelayTimer = null;
+        if (m_fullTextQueryTimer != null) {
+            m_fullTextQueryTimer.stop();
+            m_fullTextQueryTimer = null;
         }
 
         stopQueryWorker();
@@ -155,7 +169,9 @@ public class MindCombobox extends JComboBox {
             m_promptedNodes.clear();
 
         } else {
-            startDelayedQuery();
+            //前缀提示来自内存中的TextSuggester, 每次输入都立即查询; 全文查找要等用户停下来
+            startQueryWorker();
+            startDelayedFullTextQuery();
         }
     }
 
@@ -229,69 +245,101 @@ public class MindCombobox extends JComboBox {
         final public Object m_parentDBId;
         final public String m_parentText;
 
-        PromptedNode(Vertex vertex)
+        final public String m_snippet;
+
+        PromptedNode(MindDB.SearchHit hit)
         {
-            m_dbId = vertex.getId();
-            m_text = vertex.getProperty(MindModel.TEXT_PROP_NAME);
-
-            MindDB.EdgeVertex edgeParent = m_mindDb.getParentEge(vertex);
-            if (edgeParent == null) {
-                m_parentDBId = null;
-                m_parentText = null;
-            } else {
-                m_parentDBId = edgeParent.m_source.getId();
-                m_parentText = edgeParent.m_source.getProperty(MindModel.TEXT_PROP_NAME);
-            }
+            m_dbId = hit.m_dbId;
+            m_text = hit.m_text;
+            m_parentDBId = hit.m_parentDbId;
+            m_parentText = hit.m_parentText;
+            m_snippet = hit.m_snippet;
         }
     }
 
-    private class QueryWorker extends SwingWorker<Boolean, PromptedNode> {
-        //doInBackground是在一个单独线程中运行的函数， 结果放在m_promptNodes中。 这里不能添加ListModel
+    private class QueryWorker extends SwingWorker<Boolean, MindDB.SearchCandidate> {
+        //为true时用全文查找补足前缀提示
+        private final boolean m_fullText;
+
+        QueryWorker(boolean fullText)
+        {
+            m_fullText = fullText;
+        }
+
+        //doInBackground是在一个单独线程中运行的函数。这里不能添加ListModel, 结果在process中放入m_promptNodes。
+        //这里只查索引: OrientDB的数据库实例绑定在界面线程上, m_adjacencyIndex也没有加锁, 节点与父节点在process中读取
         @Override
         protected Boolean doInBackground()
         {
-            /*
-            //整个数据库查找, 如果打开orientdb的线程与操作数据库的线程不是同一个, 需要调用:
-            ODatabaseRecordThreadLocal.INSTANCE.set(m_mindDb.m_graph.getRawGraph());
-            */
-
             String inputed = m_editorComponent.getText();
 
             m_logger.info("query vertex: " + inputed);
 
-            for (Vertex vertex : m_mindDb.getVertices(MindModel.TEXT_PROP_NAME, inputed))  {
-
-                if (m_mindDb.isVertexTrashed(vertex)) {
-                    continue;
-                }
+            //只取一页。被删除的节点仍在TextSuggester中, 前缀提示多取一些
+            List<MindDB.SearchCandidate> candidates = m_fullText ?
+                    m_mindDb.searchCandidates(inputed, 0, PROMPT_PAGE_SIZE) :
+                    m_mindDb.suggestCandidates(inputed, PROMPT_PAGE_SIZE * 2);
 
-                PromptedNode promptedNode = new PromptedNode(vertex);
-                publish(promptedNode);
-                m_promptedNodes.add(promptedNode);
-
-                if (isCancelled()) {
-                    return false;
-                }
+            if (isCancelled()) {
+                return false;
             }
 
+            publish(candidates.toArray(new MindDB.SearchCandidate[candidates.size()]));
             return true;
         }
 
         @Override
-        protected void process(List<PromptedNode> promptedNodes)
+        protected void process(List<MindDB.SearchCandidate> candidates)
         {
-            for (PromptedNode promptedNode : promptedNodes) {
-                m_logger.info("get promptedNode " + promptedNode.m_dbId);
+            //已被新的查询取代
+            if (isCancelled()) {
+                return;
+            }
 
-                if (promptedNode.m_parentText != null) {
-                    addItem(promptedNode.m_text + " @ " + promptedNode.m_parentText);
-                } else  {
-                    addItem("root: " + promptedNode.m_text);
+            //全文查找的结果中, 跳过已经作为前缀提示列出的。每次只读还缺的个数, 被删除的节点去掉后再读后面的
+            ArrayList<MindDB.SearchCandidate> newCandidates = new ArrayList<>();
+            for (MindDB.SearchCandidate candidate : candidates) {
+                if (! isPrompted(candidate.m_dbId)) {
+                    newCandidates.add(candidate);
+                }
+            }
+
+            int next = 0;
+            while (m_promptedNodes.size() < PROMPT_PAGE_SIZE && next < newCandidates.size()) {
+                int end = Math.min(newCandidates.size(), next + PROMPT_PAGE_SIZE - m_promptedNodes.size());
+                List<MindDB.SearchHit> hits = m_mindDb.readSearchHits(newCandidates.subList(next, end));
+                next = end;
+
+                for (MindDB.SearchHit hit : hits) {
+                    PromptedNode promptedNode = new PromptedNode(hit);
+                    m_logger.info("get promptedNode " + promptedNode.m_dbId);
+                    m_promptedNodes.add(promptedNode);
+
+                    if (promptedNode.m_parentText != null) {
+                        addItem("<html>" + promptedNode.m_snippet + " @ " + escapeHtml(promptedNode.m_parentText) + "</html>");
+                    } else  {
+                        addItem("<html>root: " + promptedNode.m_snippet + "</html>");
+                    }
                 }
             }
         }
     };
 
+    private boolean isPrompted(Object dbId)
+    {
+        for (PromptedNode promptedNode : m_promptedNodes) {
+            if (promptedNode.m_dbId.equals(dbId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String escapeHtml(String text)
+    {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
     public void setMindEditorListener(MindEditorListener listener)
     {
         m_mindEditorListener = listener;
@@ -28,12 +28,13 @@ import prefuse.Visualization;
 
 import prefuse.controls.*;
 import prefuse.data.*;
+import prefuse.data.expression.AbstractPredicate;
+import prefuse.data.expression.Predicate;
 import prefuse.util.ColorLib;
 import prefuse.util.FontLib;
 import prefuse.util.PrefuseLib;
 import prefuse.util.ui.UILib;
 import prefuse.visual.*;
-import prefuse.visual.expression.VisiblePredicate;
 import prefuse.visual.sort.TreeDepthItemSorter;
 
 /*
@@ -553,6 +554,14 @@ public class MindView extends Display {
         return text;
     }
 
+    //"更多子节点"的占位节点不复制
+    private final static Predicate sm_copiedItemPredicate = new AbstractPredicate() {
+        @Override
+        public boolean getBoolean(Tuple tuple) {
+            return ((VisualItem)tuple).isVisible() && ! MindModel.isMoreChildrenNode(tuple);
+        }
+    };
+
     public ArrayList<Tree> getSelectedSubTrees()
     {
         ArrayList<Tree> subTrees = new ArrayList<>();
@@ -563,7 +572,7 @@ public class MindView extends Display {
 
         for (Node node : selectedNodes) {
             //只复制可见的部分，不可见的部分可能在数据库内数目巨大
-            subTrees.add(m_visualTree.copySubTree(toVisual(node), VisiblePredicate.TRUE,
+            subTrees.add(m_visualTree.copySubTree(toVisual(node), sm_copiedItemPredicate,
                     MindModel.sm_nodePropNames, MindModel.sm_edgePropNames));
         }
 
@@ -640,6 +649,8 @@ public class MindView extends Display {
         Node newNode;
 
         if (asChild) {
+            //新节点追加在最后，子节点很多时，先挂上所有的子节点
+            m_mindModel.attachChildrenUntil(cursorNode, m_mindModel.getDBChildCount(cursorNode) - 1);
             newNode = m_tree.addChild(cursorNode, cursorNode.getChildCount());
             m_folder.unfoldNode(toVisual(cursorNode));
 
@@ -682,6 +693,12 @@ public class MindView extends Display {
         return (m_mindModel.getDbId(tuple) == null);
     }
 
+    //挂上占位节点后面的一页子节点，返回新挂上的第一个子节点
+    NodeItem attachMoreChildren(NodeItem moreChildrenItem)
+    {
+        return toVisual(m_mindModel.attachMoreChildren(toSource(moreChildrenItem)));
+    }
+
     public NodeItem getCursorNodeItem()
     {
         return m_cursor.getLastSelectedNodeItem();
@@ -825,7 +842,7 @@ public class MindView extends Display {
                 }
 
                 MindOperator operator = new AddingReference(m_mindModel, getCursorSourceNode(),
-                        markedDbId, getCursorSourceNode().getChildCount());
+                        markedDbId, m_mindModel.getDBChildCount(getCursorSourceNode()));
 
                 operators.add(operator);
             }
@@ -1120,7 +1137,7 @@ public class MindView extends Display {
 
             } else {
                 referrerNode = droppedNode;
-                edgePosition = droppedNode.getChildCount();
+                edgePosition = mindModel.getDBChildCount(droppedNode);
             }
 
             //由于添加引用操作，是新建Node。所以多选的时候，选集中的后续节点不能作为前驱节点的兄弟
@@ -1167,7 +1184,7 @@ public class MindView extends Display {
 
             } else {
                 referrerNode = droppedNode;
-                edgePosition = droppedNode.getChildCount();
+                edgePosition = mindModel.getDBChildCount(droppedNode);
             }
 
             //由于添加引用操作，是新建Node。所以多选的时候，选集中的后续节点不能作为前驱节点的兄弟
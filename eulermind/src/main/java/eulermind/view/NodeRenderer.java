@@ -67,7 +67,13 @@ public class NodeRenderer extends MyLabelRenderer {
 
     protected String getText(VisualItem item) {
         //return m_mindView.m_mindModel.getText((NodeItem)item) + " " + MindTreeLayout.getLayoutInfo((NodeItem)item);
-        return m_mindView.m_mindModel.getText((NodeItem)item);
+        String text = m_mindView.m_mindModel.getText((NodeItem)item);
+
+        //正在后台读取子节点
+        if (MindModel.isChildrenLoading(item)) {
+            text += " (loading)";
+        }
+        return text;
         //return m_mindView.m_mindModel.getNodeDebugInfo((NodeItem)item);
     }
 
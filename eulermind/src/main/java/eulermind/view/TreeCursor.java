@@ -1,5 +1,6 @@
 package eulermind.view;
 
+import eulermind.MindModel;
 import prefuse.data.Node;
 import prefuse.data.Tree;
 import prefuse.visual.NodeItem;
@@ -90,6 +91,12 @@ public class TreeCursor extends NodeControl {
 
     private void selectNodeItem(final NodeItem item, SelectMode m_selectMode)
     {
+        //光标不停在"更多子节点"的占位节点上: 挂上下一页子节点，移到其中的第一个
+        if (MindModel.isMoreChildrenNode(item)) {
+            moveToNodeItem(m_mindView.attachMoreChildren(item), m_selectMode);
+            return;
+        }
+
         if (m_selectMode == SelectMode.ONLY_ONE) {
             m_selectedNodes.clear();
             m_selectedNodes.add(item);
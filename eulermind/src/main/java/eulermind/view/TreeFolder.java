@@ -2,6 +2,7 @@ package eulermind.view;
 import java.awt.event.MouseEvent;
 import java.util.*;
 
+import eulermind.MindModel;
 import prefuse.Visualization;
 import prefuse.data.*;
 
@@ -91,6 +92,28 @@ public class TreeFolder extends NodeControl {
         node.setExpanded(true);
     }
 
+    //子节点还没有挂上时，在后台线程中读取，读完再展开。读取期间节点显示"正在读取"
+    void unfoldNodeAsync(final NodeItem node)
+    {
+        MindModel mindModel = m_mindView.m_mindModel;
+        Node sourceNode = m_mindView.toSource(node);
+
+        if (mindModel.isChildrenAttached(sourceNode)) {
+            unfoldNode(node);
+            return;
+        }
+
+        mindModel.attachChildrenAsync(sourceNode, new Runnable() {
+            @Override
+            public void run() {
+                if (node.isValid()) {
+                    unfoldNode(node);
+                    m_mindView.renderTree();
+                }
+            }
+        });
+    }
+
     public void foldNode(NodeItem node)
     {
         final Visualization vis = node.getVisualization();
@@ -149,9 +172,14 @@ public class TreeFolder extends NodeControl {
             return;
         }
 
-        if (isFolded(node)) {
+        if (MindModel.isChildrenLoading(node)) {
+            //正在读取子节点时又折叠，丢弃读取的结果
+            m_logger.info("cancel unfoldNode");
+            m_mindView.m_mindModel.cancelAttachingChildren(m_mindView.toSource(node));
+        }
+        else if (isFolded(node)) {
             m_logger.info("unfoldNode");
-            unfoldNode(node);
+            unfoldNodeAsync(node);
         }
         else {
             m_logger.info("foldNode");
@@ -92,6 +92,8 @@ public class Graph extends CompositeTupleSet {
     protected static final String INLINKS   = PrefuseLib.FIELD_PREFIX + "inlinks";
     /** Out-links adjacency list data field for the links table */
     protected static final String OUTLINKS  = PrefuseLib.FIELD_PREFIX + "outlinks";
+    /** Index of a node among the children of its parent, maintained by Tree */
+    protected static final String SIBLING_INDEX = PrefuseLib.FIELD_PREFIX + "siblingIndex";
     /** Schema used for the internal graph linkage table */
     
     /** Indicates incoming edges (inlinks) */
@@ -262,7 +264,7 @@ public class Graph extends CompositeTupleSet {
         for (Iterator itr = nodeTable.getColumnNames(); itr.hasNext(); ) {
             String field = (String)itr.next();
             if (!field.equals(OUTDEGREE) && !field.equals(INDEGREE) && !field.equals(OUTLINKS) && !field.equals(INLINKS)
-                    && !field.equals(nodeKeyField)) {
+                    && !field.equals(SIBLING_INDEX) && !field.equals(nodeKeyField)) {
 
                 m_logger.info("add field: {}", field);
 
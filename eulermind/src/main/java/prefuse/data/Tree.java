@@ -124,6 +124,20 @@ public class Tree extends Graph {
         }
         m_really_root = m_root;
     }
+
+    /**
+     * Adds the sibling index column before the graph linkage is built.
+     * @see prefuse.data.Graph#init(Table, Table, boolean, String, String, String)
+     */
+    protected void init(Table nodes, Table edges, boolean directed,
+            String nodeKey, String sourceKey, String targetKey)
+    {
+        //与Graph的邻接表列一起建立。共享别的树的节点表时(如VisualTree)，该列由那棵树维护
+        if (nodes.getColumnNumber(INDEGREE) < 0 && nodes.getColumnNumber(SIBLING_INDEX) < 0) {
+            nodes.addColumn(SIBLING_INDEX, int.class, -1);
+        }
+        super.init(nodes, edges, directed, nodeKey, sourceKey, targetKey);
+    }
     
     /**
      * Internal method for setting the root node.
@@ -445,12 +459,84 @@ public class Tree extends Graph {
         return isAncestorOf(subTreeRoot, node) || node == subTreeRoot;
     }
 
+    // ------------------------------------------------------------------------
+    // Sibling Index
+
+    //SpanningTree与原图共享节点表，那里没有这一列，只能扫描兄弟节点
+    private boolean isSiblingIndexMaintained()
+    {
+        return getNodeTable().getColumnNumber(SIBLING_INDEX) >= 0;
+    }
+
+    //重新设置parent的第from到第to-1个子节点的序号
+    private void updateSiblingIndexes(int parent, int from, int to)
+    {
+        Table nodeTable = getNodeTable();
+        int[] outlinks = (int[])nodeTable.get(parent, OUTLINKS);
+        to = Math.min(to, getChildCount(parent));
+
+        for (int i=Math.max(from, 0); i<to; i++) {
+            int child = getTargetNode(outlinks[i]);
+            if (child >= 0 && nodeTable.getInt(child, SIBLING_INDEX) != i) {
+                nodeTable.setInt(child, SIBLING_INDEX, i);
+            }
+        }
+    }
+
+    /**
+     * Adds a link and renumbers the children after the inserted one.
+     * @see prefuse.data.Graph#addLink(String, String, int, int, int)
+     */
+    protected void addLink(String edgesColName, String degreeColName, int n, int e, int edgePosInNode) {
+        super.addLink(edgesColName, degreeColName, n, e, edgePosInNode);
+
+        if (edgesColName.equals(OUTLINKS) && isSiblingIndexMaintained()) {
+            int childCount = getChildCount(n);
+            updateSiblingIndexes(n, Math.min(edgePosInNode, childCount - 1), childCount);
+        }
+    }
+
+    /**
+     * Removes a link and renumbers the children after the removed one.
+     * @see prefuse.data.Graph#remLink(String, String, int, int)
+     */
+    protected boolean remLink(String edgesColName, String degreeColName, int n, int e) {
+        if (!edgesColName.equals(OUTLINKS) || !isSiblingIndexMaintained()) {
+            return super.remLink(edgesColName, degreeColName, n, e);
+        }
+
+        Table nodeTable = getNodeTable();
+        int[] outlinks = (int[])nodeTable.get(n, OUTLINKS);
+        int childCount = getChildCount(n);
+
+        //先用子节点上记录的序号，边的终点列被修改时再退回到扫描
+        int pos = -1;
+        int child = getTargetNode(e);
+        if (child >= 0) {
+            pos = nodeTable.getInt(child, SIBLING_INDEX);
+        }
+        if (pos < 0 || pos >= childCount || outlinks[pos] != e) {
+            pos = 0;
+        }
+
+        if (!super.remLink(edgesColName, degreeColName, n, e)) {
+            return false;
+        }
+
+        updateSiblingIndexes(n, pos, childCount - 1);
+        return true;
+    }
+
     public int getIndexInSiblings(int child)
     {
         int parent = getParent(child);
         if (parent == -1)
             return -1;
 
+        if (isSiblingIndexMaintained()) {
+            return getNodeTable().getInt(child, SIBLING_INDEX);
+        }
+
         int[] outlinks = (int[])getNodeTable().get(parent, OUTLINKS);
         for (int i=0; i<getChildCount(parent); i++)
         {
@@ -528,6 +614,10 @@ public class Tree extends Graph {
             outlinks[newIndex] = tmp;
         }
 
+        if (isSiblingIndexMaintained()) {
+            updateSiblingIndexes(parent, Math.min(oldIndex, newIndex), Math.max(oldIndex, newIndex) + 1);
+        }
+
         return oldIndex;
     }
 
@@ -664,6 +754,49 @@ public class Tree extends Graph {
         for ( int i=node; i!=m_root && i>=0; ++depth, i=getParent(i) );
         return depth;
     }
+
+    /**
+     * Get the path from the root to the given node id: the index of each
+     * ancestor (and of the node itself) among its siblings.
+     * @param node a node id (node table row number)
+     * @return the path, an empty array for the root node, or null if the
+     * input node id is not in the tree.
+     */
+    public int[] getPath(int node) {
+        int depth = getDepth(node);
+        if ( depth < 0 )
+            return null;
+
+        int[] path = new int[depth];
+        for ( int i=node; depth>0; i=getParent(i) ) {
+            path[--depth] = getIndexInSiblings(i);
+        }
+        return path;
+    }
+
+    /**
+     * Get the path from the root to the given node.
+     * @param node a node
+     * @return the path, or null if the node is not in the tree.
+     * @see #getPath(int)
+     */
+    public int[] getPath(Node node) {
+        nodeCheck(node, true);
+        return getPath(node.getRow());
+    }
+
+    /**
+     * Get the node id at the given path from the root.
+     * @param path the index among siblings of each level
+     * @return the node id, or -1 if the path is not in the tree.
+     */
+    public int getNodeRowByPath(int[] path) {
+        int node = m_root;
+        for ( int i=0; i<path.length && node>=0; ++i ) {
+            node = getChild(node, path[i]);
+        }
+        return node;
+    }
     
     /**
      * Get the number of children of the given node id.
@@ -1003,6 +1136,7 @@ public class Tree extends Graph {
         newNodeTable.removeColumn(INDEGREE);
         newNodeTable.removeColumn(OUTLINKS);
         newNodeTable.removeColumn(INLINKS);
+        newNodeTable.removeColumn(SIBLING_INDEX);
 
         Tree newTree = new Tree(newNodeTable, newEdgeTable, m_nkey, m_skey, m_tkey);
 
@@ -1,14 +1,21 @@
 package prefuse.data.search;
 
 import java.io.IOException;
-import org.slf4j.Logger;  import org.slf4j.LoggerFactory;
+import java.util.HashMap;
 
-/*
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.queryParser.ParseException;
-import org.apache.lucene.search.Hits;
-*/
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+import org.slf4j.Logger;  import org.slf4j.LoggerFactory;
 
 import prefuse.data.Tuple;
 import prefuse.util.StringLib;
@@ -25,6 +32,13 @@ import prefuse.util.collections.IntObjectHashMap;
  * application classpath.
  * </p> 
  *
+ * <p>
+ * Each indexed Tuple field becomes one Lucene Document. Re-indexing a field
+ * replaces its Document and unindexing deletes it, so the index can track
+ * changing Tuple values incrementally. Queries use the Lucene query syntax
+ * and collect all matching Tuples without scoring them.
+ * </p>
+ *
  * @version 1.0
  * @author <a href="http://jheer.org">jeffrey heer</a>
  * @see prefuse.data.query.SearchQueryBinding
@@ -37,27 +51,32 @@ public class KeywordSearchTupleSet extends SearchTupleSet {
     protected IntObjectHashMap m_map = new IntObjectHashMap();
     protected String m_query = "";
     
-//    protected LuceneSearcher m_lucene = null;
+    protected LuceneSearcher m_lucene = null;
     protected boolean m_storeTermVectors = false;
+
+    // true if m_lucene was created here and must be closed by close()
+    private boolean m_ownsLucene = false;
     
     protected int m_id = 1;
+
+    // field name -> (Tuple -> document ID) for the indexed Tuple fields
+    private HashMap m_ids = new HashMap();
     
     /**
      * Creates a new KeywordSearchFocusSet using an in-memory search index.
      */
     public KeywordSearchTupleSet() {
- //       m_lucene = new LuceneSearcher();
+        m_lucene = new LuceneSearcher();
+        m_ownsLucene = true;
     }
     
     /**
      * Creates a new TextSearchFocusSet with the given LuceneSearcher.
      * @param searcher the {@link LuceneSearcher} to use.
      */
-    /*
     public KeywordSearchTupleSet(LuceneSearcher searcher) {
         m_lucene = searcher;
     }
-    */
     
     /**
      * Returns the current search query, if any.
@@ -83,77 +102,102 @@ public class KeywordSearchTupleSet extends SearchTupleSet {
         Tuple[] rem = clearInternal();
         m_query = query;
         
-        query.trim();
+        query = query.trim();
         if ( query.length() == 0 ) {
-            this.fireTupleEvent(null, DELETE);
+            fireTupleEvent(null, rem);
             return;
         }
         
- //       m_lucene.setReadMode(true);
-        
-        /*
         try {
-        
-            Hits hits = m_lucene.search(query);
-            for ( int i=0; i < hits.length(); i++ ) {
-                Tuple t = getMatchingTuple(hits.doc(i));
-                addInternal(t);
-            }
+            m_lucene.search(query, new TupleCollector());
             Tuple[] add = getTupleCount() > 0 ? toArray() : null;
             fireTupleEvent(add, rem);
         } catch (ParseException e) {
             s_logger.warn("Lucene query parse exception.\n"+
                     StringLib.getStackTrace(e));
+            fireTupleEvent(null, rem);
         } catch (IOException e) {
             s_logger.warn("Lucene IO exception.\n"+
                     StringLib.getStackTrace(e));
+            fireTupleEvent(null, rem);
         }
-        */
-        
     }
     
     /**
-     * Return the Tuple matching the given Lucene Document, if any.
-     * @param d the Document to lookup.
-     * @return the matching Tuple, or null if none.
+     * Collects the Tuples of the matching Documents, looking up their IDs
+     * in the per-segment doc values instead of loading stored fields.
      */
-    /*
-    protected Tuple getMatchingTuple(Document d) {
-        int id = Integer.parseInt(d.get(LuceneSearcher.ID));
-        return (Tuple)m_map.get(id);
-    }
-    */
+    private class TupleCollector extends Collector {
+        private NumericDocValues m_docIds;
+
+        public void setScorer(Scorer scorer) {
+        }
+        public void setNextReader(AtomicReaderContext context)
+            throws IOException
+        {
+            m_docIds = context.reader().getNumericDocValues(LuceneSearcher.ID);
+        }
+        public void collect(int doc) {
+            if ( m_docIds == null )
+                return;
+            Tuple t = (Tuple)m_map.get((int)m_docIds.get(doc));
+            if ( t != null )
+                addInternal(t);
+        }
+        public boolean acceptsDocsOutOfOrder() {
+            return true;
+        }
+    } // end of inner class TupleCollector
     
     /**
+     * Indexes the given field of the provided Tuple instance. If the field
+     * was indexed before, its Document is replaced with the current value.
      * @see prefuse.data.search.SearchTupleSet#index(prefuse.data.Tuple, java.lang.String)
      */
     public void index(Tuple t, String field) {
-    	/*
-        m_lucene.setReadMode(false);
         String s;
-        if ( (s=t.getString(field)) == null ) return;
+        if ( (s=t.getString(field)) == null ) {
+            unindex(t, field);
+            return;
+        }
         
-        int id = m_id++;
-        m_lucene.addDocument(getDocument(id, s));        
-        m_map.put(id, t);
-        */
+        HashMap ids = (HashMap)m_ids.get(field);
+        if ( ids == null ) {
+            ids = new HashMap();
+            m_ids.put(field, ids);
+        }
+
+        Integer id = (Integer)ids.get(t);
+        if ( id == null ) {
+            id = Integer.valueOf(m_id++);
+            ids.put(t, id);
+            m_map.put(id.intValue(), t);
+            m_lucene.addDocument(getDocument(id.intValue(), s));
+        } else {
+            m_lucene.updateDocument(new Term(LuceneSearcher.ID, id.toString()),
+                                    getDocument(id.intValue(), s));
+        }
     }
 
     /**
-     * Returns false, as unindexing values is not currently supported.
+     * Returns true, as unindexing is supported by this class.
      * @see prefuse.data.search.SearchTupleSet#isUnindexSupported()
      */
     public boolean isUnindexSupported() {
-        return false;
+        return true;
     }
     
     /**
-     * This method throws an exception, as unidexing is not supported.
      * @see prefuse.data.search.SearchTupleSet#unindex(prefuse.data.Tuple, java.lang.String)
-     * @throws UnsupportedOperationException
      */
-    public void unindex(Tuple t, String attrName) {
-        throw new UnsupportedOperationException();
+    public void unindex(Tuple t, String field) {
+        HashMap ids = (HashMap)m_ids.get(field);
+        Integer id = ( ids == null ? null : (Integer)ids.remove(t) );
+        if ( id == null )
+            return;
+
+        m_map.removeKey(id.intValue());
+        m_lucene.deleteDocuments(new Term(LuceneSearcher.ID, id.toString()));
     }
     
     /**
@@ -162,24 +206,28 @@ public class KeywordSearchTupleSet extends SearchTupleSet {
      * @param text the text the Document should contain
      * @return a new Lucene Document instance
      */
-    /*
     protected Document getDocument(int id, String text) {
+        FieldType textType = TextField.TYPE_NOT_STORED;
+        if ( m_storeTermVectors ) {
+            textType = new FieldType(TextField.TYPE_NOT_STORED);
+            textType.setStoreTermVectors(true);
+            textType.freeze();
+        }
+
         Document d = new Document();
-        d.add(Field.Text(LuceneSearcher.FIELD, text, m_storeTermVectors));
-        d.add(Field.Keyword(LuceneSearcher.ID, String.valueOf(id)));
+        d.add(new Field(LuceneSearcher.FIELD, text, textType));
+        d.add(new StringField(LuceneSearcher.ID, String.valueOf(id), Field.Store.NO));
+        d.add(new NumericDocValuesField(LuceneSearcher.ID, id));
         return d;
     }
-    */
     
     /**
      * Get the {@link LuceneSearcher} instance used by this class.
      * @return returns the backing lucene searcher.
      */
-    /*
     public LuceneSearcher getLuceneSearcher() {
         return m_lucene;
     }
-    */
     
     /**
      * Returns a copy of the mapping from Lucene document IDs to prefuse Tuple instances.
@@ -194,8 +242,23 @@ public class KeywordSearchTupleSet extends SearchTupleSet {
      * @see prefuse.data.tuple.TupleSet#clear()
      */
     public void clear() {
-        //m_lucene = new LuceneSearcher();
+        m_lucene.deleteAll();
+        m_map.clear();
+        m_ids.clear();
         super.clear();
     }
+
+    /**
+     * Closes the in-memory search index created by this tuple set and
+     * releases its IndexWriter. A LuceneSearcher passed to the constructor
+     * belongs to the caller and is left open. This tuple set can not be
+     * searched or indexed afterwards.
+     */
+    public void close() {
+        if ( m_ownsLucene ) {
+            m_lucene.close();
+            m_ownsLucene = false;
+        }
+    }
     
 }  // end of class KeywordSearchTupleSet
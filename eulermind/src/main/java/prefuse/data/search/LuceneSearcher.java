@@ -0,0 +1,355 @@
+package prefuse.data.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;  import org.slf4j.LoggerFactory;
+
+import prefuse.util.StringLib;
+
+/**
+ * Adapter class for interfacing with the Lucene search engine. By default,
+ * instances of this class use an in-memory search index for Chinese and
+ * English text, for use within a single application session. The class can,
+ * however, be parameterized for any number of other configurations, including
+ * accessing persistent search indices, e.g. through an
+ * {@link org.apache.lucene.store.MMapDirectory MMapDirectory}.
+ *
+ * <p>Documents can be added, updated and deleted at any time. Changes are
+ * not committed, but become visible to the next search issued, which
+ * reopens the index reader in near-real-time if the index was modified.</p>
+ *
+ * @version 1.0
+ * @author <a href="http://jheer.org">jeffrey heer</a>
+ */
+public class LuceneSearcher {
+
+    private static final Logger s_logger
+        = LoggerFactory.getLogger(LuceneSearcher.class.getName());
+
+    /** Default Document field used to index text. */
+    public static final String FIELD = "prefuse-text";
+    /** Document field used to store the document ID number. */
+    public static final String ID = "prefuse-id";
+    /** The Lucene version whose behavior the analyzer and parser match. */
+    public static final Version VERSION = Version.LUCENE_47;
+
+    private Directory directory;
+    private Analyzer analyzer;
+    private String[] fields;
+
+    private SearcherManager searcherManager;
+    private IndexWriter writer;
+    private boolean m_changed = false;
+    private boolean m_readOnly = false;
+
+    private HashMap m_hitCountCache;
+
+    /**
+     * Create a new LuceneSearcher using an in-memory search index.
+     */
+    public LuceneSearcher() {
+        this(new RAMDirectory(), FIELD, false);
+    }
+
+    /**
+     * Create a new LuceneSearcher using the specified search index location.
+     * @param dir the Lucene Directory indicating the search index to use.
+     */
+    public LuceneSearcher(Directory dir) {
+        this(dir, FIELD, false);
+    }
+
+    /**
+     * Create a new LuceneSearcher using a specified search index location,
+     * a particular Document field to index, and given read/write status.
+     * @param dir the Lucene Directory indicating the search index to use.
+     * @param field the Lucene Document field that should be indexed.
+     * @param readOnly if this index is read-only or is writable.
+     */
+    public LuceneSearcher(Directory dir, String field, boolean readOnly) {
+        this(dir, new String[]{field}, readOnly);
+    }
+
+    /**
+     * Create a new LuceneSearcher using a specified search index location,
+     * a particular Document fields to index, and given read/write status.
+     * A read-only index must already exist in the given directory.
+     * @param dir the Lucene Directory indicating the search index to use.
+     * @param fields the Lucene Document fields that should be indexed.
+     * @param readOnly if this index is read-only or is writable.
+     * @throws RuntimeException if the index can not be opened
+     */
+    public LuceneSearcher(Directory dir, String[] fields, boolean readOnly) {
+        m_hitCountCache = new HashMap();
+        directory = dir;
+        analyzer = new SmartChineseAnalyzer(VERSION);
+        this.fields = (String[])fields.clone();
+        m_readOnly = readOnly;
+        try {
+            if ( readOnly ) {
+                searcherManager = new SearcherManager(directory, null);
+            } else {
+                writer = new IndexWriter(directory,
+                        new IndexWriterConfig(VERSION, analyzer));
+                searcherManager = new SearcherManager(writer, true, null);
+            }
+        } catch ( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Parses the given query String, using the current analyzer, over the
+     * indexed Document fields.
+     * @param query the search query
+     * @return the parsed Query
+     * @throws ParseException if the query is not parsed successfully
+     */
+    public Query parse(String query) throws ParseException {
+        if ( fields.length == 1 ) {
+            return new QueryParser(VERSION, fields[0], analyzer).parse(query);
+        } else {
+            return new MultiFieldQueryParser(VERSION, fields, analyzer).parse(query);
+        }
+    }
+
+    /**
+     * Searches the Lucene index using the given query String, passing every
+     * matching document to the given Collector. Unlike a top-N search, this
+     * does not score or sort the matches, so collecting all of them takes
+     * time linear in the number of matches only.
+     * @param query the search query
+     * @param collector the Collector receiving the matching documents
+     * @throws ParseException if the query is not parsed successfully
+     * @throws IOException if an input/ouput error occurs
+     */
+    public void search(String query, Collector collector)
+        throws ParseException, IOException
+    {
+        Query q = parse(query);
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            searcher.search(q, collector);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Return the result count for the given search query. To allow quick
+     * repeated look ups, the hit count is cached (this cache is cleared
+     * whenever a change to the search index occurs).
+     * @param query the search query
+     * @return the number of matches to the query
+     * @throws ParseException if the query is not parsed successfully
+     * @throws IOException if an input/ouput error occurs
+     */
+    public int numHits(String query) throws ParseException, IOException {
+        Integer count;
+        if ( (count=(Integer)m_hitCountCache.get(query)) == null ) {
+            TotalHitCountCollector collector = new TotalHitCountCollector();
+            search(query, collector);
+            count = Integer.valueOf(collector.getTotalHits());
+            m_hitCountCache.put(query, count);
+        }
+        return count.intValue();
+    }
+
+    /**
+     * Acquires an IndexSearcher reflecting all changes made so far. The
+     * searcher must be handed back with
+     * {@link SearcherManager#release(IndexSearcher)} through
+     * {@link #getSearcherManager()} after use.
+     * @return an up to date IndexSearcher
+     * @throws IOException if an input/ouput error occurs
+     */
+    public IndexSearcher acquireSearcher() throws IOException {
+        if ( m_changed ) {
+            m_changed = false;
+            searcherManager.maybeRefreshBlocking();
+        }
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Add a document to the Lucene search index.
+     * @param d the Document to add
+     * @throws IllegalStateException if the searcher is read-only
+     * @throws RuntimeException if the index can not be written
+     */
+    public void addDocument(Document d) {
+        checkWritable();
+        try {
+            writer.addDocument(d, analyzer);
+            indexChanged();
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    /**
+     * Replace the documents containing the given term with a new document,
+     * or add the document if there are none.
+     * @param t the term identifying the documents to replace
+     * @param d the new Document
+     * @throws IllegalStateException if the searcher is read-only
+     * @throws RuntimeException if the index can not be written
+     */
+    public void updateDocument(Term t, Document d) {
+        checkWritable();
+        try {
+            writer.updateDocument(t, d, analyzer);
+            indexChanged();
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    /**
+     * Delete the documents containing the given term from the index.
+     * @param t the term identifying the documents to delete
+     * @throws IllegalStateException if the searcher is read-only
+     * @throws RuntimeException if the index can not be written
+     */
+    public void deleteDocuments(Term t) {
+        checkWritable();
+        try {
+            writer.deleteDocuments(t);
+            indexChanged();
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    /**
+     * Delete all documents from the index.
+     * @throws IllegalStateException if the searcher is read-only
+     * @throws RuntimeException if the index can not be written
+     */
+    public void deleteAll() {
+        checkWritable();
+        try {
+            writer.deleteAll();
+            indexChanged();
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    private RuntimeException writeFailed(IOException e) {
+        s_logger.warn("Lucene IO exception.\n"+StringLib.getStackTrace(e));
+        return new RuntimeException(e);
+    }
+
+    private void checkWritable() {
+        if ( m_readOnly ) {
+            throw new IllegalStateException(
+                    "Documents can not be changed in a read-only " +
+                    "LuceneSearcher");
+        }
+    }
+
+    private void indexChanged() {
+        m_changed = true;
+        m_hitCountCache.clear();
+    }
+
+    /**
+     * Commits any changes to the search index and releases its resources.
+     * This LuceneSearcher can not be used afterwards.
+     * @throws RuntimeException if the changes can not be committed
+     */
+    public void close() {
+        try {
+            searcherManager.close();
+            if ( writer != null )
+                writer.close();
+        } catch (IOException e) {
+            throw writeFailed(e);
+        }
+    }
+
+    /**
+     * Returns the Analyzer used to process text. See Lucene documentation
+     * for more details.
+     * @return returns the analyzer.
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * Sets the Analyzer used to process text. See Lucene documentation
+     * for more details.
+     * @param analyzer the analyzer to set
+     */
+    public void setAnalyzer(Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Returns the indexed Document fields. These fields determine which
+     * fields are indexed as Documents are added and which fields are
+     * queried over when searches are issued.
+     * @return returns the indexed Document fields
+     */
+    public String[] getFields() {
+        return (String[])fields.clone();
+    }
+
+    /**
+     * Sets the indexed Document fields. These fields determine which
+     * fields are indexed as Documents are added and which fields are
+     * queried over when searches are issued.
+     * param fields the indexed Document fields to use
+     */
+    public void setFields(String[] fields) {
+        this.fields = (String[])fields.clone();
+    }
+
+    /**
+     * Returns the Lucene Directory holding the search index.
+     * @return returns the Directory.
+     */
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the Lucene SearcherManager. See Lucene documentation
+     * for more details.
+     * @return returns the SearcherManager.
+     */
+    public SearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
+    /**
+     * Indicates if ths LuceneSearcher is read-only.
+     * @return true if read-only, false if writes are allowed
+     */
+    public boolean isReadOnly() {
+        return m_readOnly;
+    }
+
+} // end of class LuceneSearcher
@@ -0,0 +1,391 @@
+package prefuse.data.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import prefuse.data.Tuple;
+import prefuse.util.collections.CompositeIterator;
+
+
+/**
+ * A compact alternative to {@link Trie} for indexing large numbers of words.
+ * Instead of allocating branch and leaf objects for every indexed word, the
+ * distinct words are kept sorted in a single packed character array, so
+ * that the words sharing a prefix form a contiguous range that is found by
+ * binary search -- an implicit trie. The Tuples associated with the words
+ * are stored in one array, grouped by word, taking a single reference per
+ * indexed word/Tuple pair.
+ *
+ * <p>Words added or removed since the last compaction are buffered in a
+ * small sorted map and a deletion bit set, and are merged into the packed
+ * arrays once the buffer grows to a fraction of the index size. This keeps
+ * the amortized cost of updates low while lookups consult both parts.
+ * Call {@link #compact()} after indexing a large batch of words to release
+ * the buffer right away.</p>
+ *
+ * @version 1.0
+ * @see PrefixSearchTupleSet
+ */
+public class PackedTrie implements PrefixIndex {
+
+    /** Minimum number of buffered changes before a compaction. */
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    private boolean m_caseSensitive;
+
+    // sorted distinct words, word i is m_chars[m_wordStarts[i], m_wordStarts[i+1])
+    private char[] m_chars = new char[0];
+    private int[] m_wordStarts = new int[1];
+    private int m_wordCount = 0;
+
+    // tuples of word i are m_tuples[m_tupleStarts[i], m_tupleStarts[i+1])
+    private Object[] m_tuples = new Object[0];
+    private int[] m_tupleStarts = new int[1];
+    private BitSet m_removed = new BitSet();
+    private int m_removedCount = 0;
+
+    // words added since the last compaction
+    private TreeMap m_added = new TreeMap();
+    private int m_addedCount = 0;
+
+    /**
+     * Create a new PackedTrie with the specified case-sensitivity.
+     * @param caseSensitive true if the index should be case sensitive for
+     * indexed words, false otherwise.
+     */
+    public PackedTrie(boolean caseSensitive) {
+        m_caseSensitive = caseSensitive;
+    }
+
+    /**
+     * @see prefuse.data.search.PrefixIndex#isCaseSensitive()
+     */
+    public boolean isCaseSensitive() {
+        return m_caseSensitive;
+    }
+
+    /**
+     * Returns the number of word/Tuple pairs in this index.
+     * @return the number of indexed word/Tuple pairs
+     */
+    public int size() {
+        return m_tupleStarts[m_wordCount] - m_removedCount + m_addedCount;
+    }
+
+    /**
+     * @see prefuse.data.search.PrefixIndex#addString(java.lang.String, prefuse.data.Tuple)
+     */
+    public void addString(String word, Tuple t) {
+        String key = normalize(word);
+        ArrayList list = (ArrayList)m_added.get(key);
+        if ( list == null ) {
+            list = new ArrayList(1);
+            m_added.put(key, list);
+        }
+        list.add(t);
+        ++m_addedCount;
+        compactIfNeeded();
+    }
+
+    /**
+     * @see prefuse.data.search.PrefixIndex#removeString(java.lang.String, prefuse.data.Tuple)
+     */
+    public void removeString(String word, Tuple t) {
+        String key = normalize(word);
+
+        ArrayList list = (ArrayList)m_added.get(key);
+        if ( list != null ) {
+            for ( int i=0; i<list.size(); ++i ) {
+                if ( list.get(i) == t ) {
+                    list.remove(i);
+                    if ( list.isEmpty() )
+                        m_added.remove(key);
+                    --m_addedCount;
+                    return;
+                }
+            }
+        }
+
+        int w = findWord(key);
+        if ( w < 0 )
+            return; // couldn't find word
+        for ( int i=m_tupleStarts[w]; i<m_tupleStarts[w+1]; ++i ) {
+            if ( m_tuples[i] == t && !m_removed.get(i) ) {
+                m_removed.set(i);
+                ++m_removedCount;
+                compactIfNeeded();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @see prefuse.data.search.PrefixIndex#clear()
+     */
+    public void clear() {
+        m_chars = new char[0];
+        m_wordStarts = new int[1];
+        m_wordCount = 0;
+        m_tuples = new Object[0];
+        m_tupleStarts = new int[1];
+        m_removed = new BitSet();
+        m_removedCount = 0;
+        m_added.clear();
+        m_addedCount = 0;
+    }
+
+    /**
+     * @see prefuse.data.search.PrefixIndex#prefixIterator(java.lang.String)
+     */
+    public Iterator prefixIterator(String prefix) {
+        if ( prefix.length() < 1 )
+            return Collections.EMPTY_LIST.iterator();
+
+        String key = normalize(prefix);
+        int lo = searchPrefix(key, false);
+        int hi = searchPrefix(key, true);
+
+        Iterator packed = ( lo == hi ? null : new PackedIterator(
+            m_tuples, m_removed, m_tupleStarts[lo], m_tupleStarts[hi]) );
+        Iterator added = ( m_added.isEmpty() ? null : new AddedIterator(
+            m_added.tailMap(key).entrySet().iterator(), key) );
+        return new CompositeIterator(packed, added);
+    }
+
+    /**
+     * Merges all words added or removed since the last compaction into the
+     * packed arrays, releasing the memory used to buffer them.
+     */
+    public void compact() {
+        int count = size();
+        int maxWords = m_wordCount + m_added.size();
+        int addedChars = 0;
+        for ( Iterator iter = m_added.keySet().iterator(); iter.hasNext(); )
+            addedChars += ((String)iter.next()).length();
+
+        char[] chars = new char[m_chars.length + addedChars];
+        int[] wordStarts = new int[maxWords+1];
+        Object[] tuples = new Object[count];
+        int[] tupleStarts = new int[maxWords+1];
+        int nchars = 0, nwords = 0, ntuples = 0;
+
+        Iterator addedIter = m_added.entrySet().iterator();
+        Map.Entry added = ( addedIter.hasNext() ? (Map.Entry)addedIter.next() : null );
+        int w = 0;
+        while ( w < m_wordCount || added != null ) {
+            int cmp;
+            if ( added == null )
+                cmp = -1;
+            else if ( w >= m_wordCount )
+                cmp = 1;
+            else
+                cmp = compareWord(w, (String)added.getKey());
+
+            int start = ntuples;
+            if ( cmp <= 0 ) {
+                for ( int i=m_tupleStarts[w]; i<m_tupleStarts[w+1]; ++i ) {
+                    if ( !m_removed.get(i) )
+                        tuples[ntuples++] = m_tuples[i];
+                }
+            }
+            if ( cmp >= 0 ) {
+                ArrayList list = (ArrayList)added.getValue();
+                for ( int i=0; i<list.size(); ++i )
+                    tuples[ntuples++] = list.get(i);
+            }
+
+            // words whose tuples were all removed are dropped
+            if ( ntuples > start ) {
+                if ( cmp <= 0 ) {
+                    int len = m_wordStarts[w+1] - m_wordStarts[w];
+                    System.arraycopy(m_chars, m_wordStarts[w], chars, nchars, len);
+                    nchars += len;
+                } else {
+                    String key = (String)added.getKey();
+                    key.getChars(0, key.length(), chars, nchars);
+                    nchars += key.length();
+                }
+                ++nwords;
+                wordStarts[nwords] = nchars;
+                tupleStarts[nwords] = ntuples;
+            }
+
+            if ( cmp <= 0 )
+                ++w;
+            if ( cmp >= 0 )
+                added = ( addedIter.hasNext() ? (Map.Entry)addedIter.next() : null );
+        }
+
+        m_chars = ( nchars == chars.length ? chars : Arrays.copyOf(chars, nchars) );
+        m_wordStarts = ( nwords == maxWords ? wordStarts : Arrays.copyOf(wordStarts, nwords+1) );
+        m_tupleStarts = ( nwords == maxWords ? tupleStarts : Arrays.copyOf(tupleStarts, nwords+1) );
+        m_wordCount = nwords;
+        m_tuples = tuples;
+        m_removed = new BitSet();
+        m_removedCount = 0;
+        m_added.clear();
+        m_addedCount = 0;
+    }
+
+    private void compactIfNeeded() {
+        int threshold = Math.max(MIN_COMPACT_SIZE, m_tuples.length / 4);
+        if ( m_addedCount + m_removedCount >= threshold )
+            compact();
+    }
+
+    private String normalize(String word) {
+        if ( m_caseSensitive )
+            return word;
+
+        // do our own looping to match the per-character case folding of Trie
+        char[] chars = null;
+        for ( int i=0; i<word.length(); ++i ) {
+            char c = word.charAt(i);
+            char lc = Character.toLowerCase(c);
+            if ( lc != c ) {
+                if ( chars == null )
+                    chars = word.toCharArray();
+                chars[i] = lc;
+            }
+        }
+        return ( chars == null ? word : new String(chars) );
+    }
+
+    private int compareWord(int w, String word) {
+        int start = m_wordStarts[w];
+        int len = m_wordStarts[w+1] - start;
+        int n = Math.min(len, word.length());
+        for ( int i=0; i<n; ++i ) {
+            int diff = m_chars[start+i] - word.charAt(i);
+            if ( diff != 0 ) return diff;
+        }
+        return len - word.length();
+    }
+
+    /**
+     * Compares word w against a prefix, returning 0 if w starts with it.
+     */
+    private int comparePrefix(int w, String prefix) {
+        int start = m_wordStarts[w];
+        int len = m_wordStarts[w+1] - start;
+        int n = Math.min(len, prefix.length());
+        for ( int i=0; i<n; ++i ) {
+            int diff = m_chars[start+i] - prefix.charAt(i);
+            if ( diff != 0 ) return diff;
+        }
+        return ( len < prefix.length() ? -1 : 0 );
+    }
+
+    /**
+     * Returns the first word for which comparePrefix is >= 0, or > 0 if
+     * upper is true.
+     */
+    private int searchPrefix(String prefix, boolean upper) {
+        int lo = 0, hi = m_wordCount;
+        while ( lo < hi ) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePrefix(mid, prefix);
+            if ( cmp < 0 || (upper && cmp == 0) )
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private int findWord(String word) {
+        int lo = 0, hi = m_wordCount - 1;
+        while ( lo <= hi ) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareWord(mid, word);
+            if ( cmp < 0 )
+                lo = mid + 1;
+            else if ( cmp > 0 )
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Iterates over a range of the packed tuples, skipping removed entries.
+     * The arrays are replaced rather than modified by a compaction, so the
+     * iterator stays valid across one.
+     */
+    private static class PackedIterator implements Iterator {
+        private Object[] m_tuples;
+        private BitSet m_removed;
+        private int m_cur, m_end;
+
+        PackedIterator(Object[] tuples, BitSet removed, int start, int end) {
+            m_tuples = tuples;
+            m_removed = removed;
+            m_cur = removed.nextClearBit(start);
+            m_end = end;
+        }
+        public boolean hasNext() {
+            return m_cur < m_end;
+        }
+        public Object next() {
+            if ( m_cur >= m_end )
+                throw new NoSuchElementException();
+            Object o = m_tuples[m_cur];
+            m_cur = m_removed.nextClearBit(m_cur+1);
+            return o;
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    } // end of inner class PackedIterator
+
+    /**
+     * Iterates over the tuples of buffered words, starting from the first
+     * word not less than the prefix and stopping at the first word that
+     * does not start with it.
+     */
+    private static class AddedIterator implements Iterator {
+        private Iterator m_entries;
+        private String m_prefix;
+        private ArrayList m_list;
+        private int m_cur;
+
+        AddedIterator(Iterator entries, String prefix) {
+            m_entries = entries;
+            m_prefix = prefix;
+            advance();
+        }
+        private void advance() {
+            m_list = null;
+            m_cur = 0;
+            if ( m_entries.hasNext() ) {
+                Map.Entry e = (Map.Entry)m_entries.next();
+                if ( ((String)e.getKey()).startsWith(m_prefix) )
+                    m_list = (ArrayList)e.getValue();
+            }
+        }
+        public boolean hasNext() {
+            return m_list != null;
+        }
+        public Object next() {
+            if ( m_list == null )
+                throw new NoSuchElementException();
+            Object o = m_list.get(m_cur++);
+            if ( m_cur >= m_list.size() )
+                advance();
+            return o;
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    } // end of inner class AddedIterator
+
+} // end of class PackedTrie
@@ -0,0 +1,54 @@
+package prefuse.data.search;
+
+import java.util.Iterator;
+
+import prefuse.data.Tuple;
+
+
+/**
+ * Interface for word indices supporting prefix lookups, used by
+ * {@link PrefixSearchTupleSet} to map indexed words to the Tuples that
+ * contain them.
+ *
+ * @version 1.0
+ * @see Trie
+ * @see PackedTrie
+ */
+public interface PrefixIndex {
+
+    /**
+     * Indicates if this index takes the case of letters into account.
+     * @return true if the index is case-sensitive, false otherwise
+     */
+    public boolean isCaseSensitive();
+
+    /**
+     * Add a new word to the index, associated with the given Tuple.
+     * @param word the word to add to the index
+     * @param t the Tuple associated with the word
+     */
+    public void addString(String word, Tuple t);
+
+    /**
+     * Remove a word/Tuple pair from the index.
+     * @param word the word to remove
+     * @param t the associate Tuple to remove
+     */
+    public void removeString(String word, Tuple t);
+
+    /**
+     * Returns an iterator over the Tuples of all indexed words that start
+     * with the given prefix. A Tuple is returned once for each matching
+     * word/Tuple pair that was added.
+     * @param prefix the prefix to lookup
+     * @return an iterator over the matching Tuples. The iterator is empty
+     * if the prefix is the empty string or nothing matches.
+     */
+    public Iterator prefixIterator(String prefix);
+
+    /**
+     * Removes all words from the index.
+     */
+    public void clear();
+
+} // end of interface PrefixIndex
@@ -9,8 +9,8 @@ import prefuse.data.Tuple;
 /**
  * <p>
  * SearchTupleSet implementation supporting word prefix searches over indexed
- * Tuple data fields. This class uses a {@link Trie Trie} data structure
- * to find search results quickly; however, only prefix matches will be
+ * Tuple data fields. This class uses a {@link PrefixIndex PrefixIndex}, by
+ * default a {@link Trie Trie} data structure, to find search results quickly; however, only prefix matches will be
  * identified as valid search matches. Multi-term search queries will result
  * in the union of the results for the individual query terms. That is, Tuples
  * that match any one of the terms will be included in the results.
@@ -27,8 +27,7 @@ import prefuse.data.Tuple;
  */
 public class PrefixSearchTupleSet extends SearchTupleSet {
     
-    private Trie m_trie;
-    private Trie.TrieNode m_curNode;
+    private PrefixIndex m_trie;
     private String m_delim = " \t\n\r";
     private String m_query = "";
     
@@ -45,7 +44,18 @@ public class PrefixSearchTupleSet extends SearchTupleSet {
      * sensitive, false otherwise.
      */
     public PrefixSearchTupleSet(boolean caseSensitive) {
-        m_trie = new Trie(caseSensitive);
+        this(new Trie(caseSensitive));
+    }
+    
+    /**
+     * Creates a new PrefixSearchTupleSet using the given word index. Use a
+     * {@link PackedTrie} to index large numbers of tuples with a smaller
+     * memory footprint than the default {@link Trie}.
+     * @param index the (empty) index to store the indexed words in. Its
+     * case sensitivity determines that of the search routines.
+     */
+    public PrefixSearchTupleSet(PrefixIndex index) {
+        m_trie = index;
     }
     
     /**
@@ -111,12 +121,9 @@ public class PrefixSearchTupleSet extends SearchTupleSet {
      * Issues a prefix search and collects the results
      */
     private void prefixSearch(String query) {
-        m_curNode = m_trie.find(query);
-        if ( m_curNode != null ) {
-            Iterator iter = trieIterator();
-            while ( iter.hasNext() )
-                addInternal((Tuple)iter.next());
-        }
+        Iterator iter = m_trie.prefixIterator(query);
+        while ( iter.hasNext() )
+            addInternal((Tuple)iter.next());
     }
     
     /**
@@ -163,7 +170,7 @@ public class PrefixSearchTupleSet extends SearchTupleSet {
      * @see prefuse.data.tuple.TupleSet#clear()
      */
     public void clear() {
-        m_trie = new Trie(m_trie.isCaseSensitive());
+        m_trie.clear();
         super.clear();
     }
     
@@ -171,8 +178,4 @@ public class PrefixSearchTupleSet extends SearchTupleSet {
         m_trie.removeString(s,t);
     }
     
-    private Iterator trieIterator() {
-        return m_trie.new TrieIterator(m_curNode);
-    }
-    
 }  // end of class PrefixSearchTupleSet
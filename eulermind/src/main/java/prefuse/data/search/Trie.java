@@ -1,5 +1,6 @@
 package prefuse.data.search;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
@@ -17,8 +18,9 @@ import prefuse.data.Tuple;
  * @version 1.0
  * @author <a href="http://jheer.org">jeffrey heer</a>
  * @see PrefixSearchTupleSet
+ * @see PackedTrie
  */
-public class Trie {
+public class Trie implements PrefixIndex {
 
     /**
      * Base class for nodes in the trie structure.
@@ -125,6 +127,13 @@ public class Trie {
         addLeaf(root, leaf, 0);
     }
     
+    /**
+     * Removes all words from the trie.
+     */
+    public void clear() {
+        root = new TrieBranch();
+    }
+    
     /**
      * Remove a word/Tuple pair from the trie.
      * @param word the word to remove
@@ -285,6 +294,19 @@ public class Trie {
         return (word.length() < 1 ? null : find(word, root, 0));
     }
     
+    /**
+     * Returns an iterator over the Tuples of all words in this Trie that
+     * start with the given prefix.
+     * @param prefix the prefix to lookup
+     * @return an iterator over the matching Tuples
+     * @see PrefixIndex#prefixIterator(String)
+     */
+    public Iterator prefixIterator(String prefix) {
+        TrieNode n = find(prefix);
+        return ( n == null ? Collections.EMPTY_LIST.iterator()
+                           : new TrieIterator(n) );
+    }
+    
     private TrieNode find(String word, TrieBranch b, int depth) {
         char c = getChar(word, depth);
         int i = getIndex(b.chars, c);
@@ -0,0 +1,474 @@
+package eulermind;
+
+import com.tinkerpop.blueprints.Vertex;
+import eulermind.importer.FreemindImporter;
+import eulermind.importer.Importer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//不是单元测试，直接运行main: MindDBBenchmarks [nodeCount] [mapNodeCount]
+public class MindDBBenchmarks {
+
+    static final int FAN_OUT = 10;
+
+    private StringBuffer m_report = new StringBuffer();
+
+    private String m_curTest;
+    private int m_numItems;
+    private long m_timeIn;
+
+    private void startTest(String name, int numItems)
+    {
+        m_curTest = name;
+        m_numItems = numItems;
+        m_timeIn = System.currentTimeMillis();
+    }
+
+    private void endTest()
+    {
+        long t = System.currentTimeMillis() - m_timeIn;
+        double ips = t == 0 ? 0 : 1000 * ((double) m_numItems) / t;
+        m_report.append(m_curTest).append("\t")
+                .append(m_numItems).append("\t")
+                .append(t / 1000.0).append("s\t")
+                .append(((int) (ips * 100)) / 100.0).append(" items/s")
+                .append('\n');
+        m_curTest = null;
+    }
+
+    //当前线程累计分配的字节数。JVM不支持时返回-1
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static MindDB openMindDb(String name)
+    {
+        String path = System.getProperty("java.io.tmpdir") + File.separator + "eulermind_benchmark_" + name;
+        deleteMindDb(path);
+
+        MindDB mindDb = new OrientMindDb(path);
+        mindDb.startUp();
+        return mindDb;
+    }
+
+    private static void closeMindDb(MindDB mindDb)
+    {
+        mindDb.shutdown();
+        deleteMindDb(mindDb.m_path);
+    }
+
+    private static void deleteMindDb(String path)
+    {
+        try {
+            FileUtils.deleteDirectory(new File(path));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //按层生成一棵每个节点有FAN_OUT个子节点的树, 逐个调用addChild
+    private void importTreeByAddChild(int nodeCount)
+    {
+        MindDB mindDb = openMindDb("addChild");
+
+        startTest("import by addChild", nodeCount);
+
+        LinkedList<Object> parents = new LinkedList<Object>();
+        parents.add(mindDb.getRootId());
+        int added = 0;
+
+        while (added < nodeCount) {
+            Vertex parent = mindDb.getVertex(parents.removeFirst());
+            for (int i=0; i<FAN_OUT && added < nodeCount; i++) {
+                MindDB.EdgeVertex edgeVertex = mindDb.addChild(parent, i);
+                edgeVertex.m_target.setProperty(MindModel.TEXT_PROP_NAME, "node " + added);
+                parents.add(edgeVertex.m_target.getId());
+                added++;
+            }
+        }
+        mindDb.commit();
+
+        endTest();
+        closeMindDb(mindDb);
+    }
+
+    //生成同样的树, 使用BulkInsertSession
+    private void importTreeByBulkInsertSession(int nodeCount)
+    {
+        MindDB mindDb = openMindDb("bulkInsert");
+
+        startTest("import by BulkInsertSession", nodeCount);
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession();
+
+        LinkedList<Object> parents = new LinkedList<Object>();
+        parents.add(mindDb.getRootId());
+        int added = 0;
+
+        while (added < nodeCount) {
+            Object parentId = parents.removeFirst();
+            List<String> texts = new ArrayList<String>();
+            for (int i=0; i<FAN_OUT && added < nodeCount; i++) {
+                texts.add("node " + added);
+                added++;
+            }
+            parents.addAll(session.appendChildren(parentId, 0, texts));
+        }
+        session.close();
+
+        endTest();
+        closeMindDb(mindDb);
+    }
+
+    //同样的树, 导入期间全文索引照常刷新, 或推迟到session关闭时。计时到导入的文字都能查到为止
+    private void importTreeWithTextIndex(int nodeCount, boolean deferTextIndexRefresh) throws Exception
+    {
+        MindDB mindDb = openMindDb("textIndex");
+        mindDb.m_textIndex.waitUntilIdle(60 * 1000);
+
+        startTest("import with text index " + (deferTextIndexRefresh ? "deferred" : "refreshed"), nodeCount);
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession(deferTextIndexRefresh);
+
+        LinkedList<Object> parents = new LinkedList<Object>();
+        parents.add(mindDb.getRootId());
+        int added = 0;
+
+        while (added < nodeCount) {
+            Object parentId = parents.removeFirst();
+            List<String> texts = new ArrayList<String>();
+            for (int i=0; i<FAN_OUT && added < nodeCount; i++) {
+                texts.add("node " + added);
+                added++;
+            }
+            parents.addAll(session.appendChildren(parentId, 0, texts));
+        }
+        session.close();
+        mindDb.m_textIndex.waitUntilIdle(60 * 1000);
+
+        endTest();
+
+        m_report.append("  ").append(mindDb.m_textIndex.getSegmentCount()).append(" segments\n");
+        closeMindDb(mindDb);
+    }
+
+    //按堆的编号写出一棵每个节点有FAN_OUT个子节点的树, 每1000个节点加一个arrowlink
+    private static void writeFreemindNode(Writer writer, int node, int nodeCount) throws IOException
+    {
+        writer.write("<node TEXT=\"node " + node + "\" ID=\"ID_" + node + "\">");
+        if (node % 1000 == 999) {
+            writer.write("<arrowlink DESTINATION=\"ID_" + node / 2 + "\"/>");
+        }
+        for (int child = node * FAN_OUT + 1; child <= node * FAN_OUT + FAN_OUT && child < nodeCount; child++) {
+            writeFreemindNode(writer, child, nodeCount);
+        }
+        writer.write("</node>\n");
+    }
+
+    private static long getUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    //流式导入一个合成的.mm文件
+    private void importFreemindMap(int nodeCount) throws Exception
+    {
+        File mapFile = File.createTempFile("eulermind_benchmark", ".mm");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mapFile), "UTF-8"));
+        writer.write("<map version=\"1.0.1\">\n");
+        writeFreemindNode(writer, 0, nodeCount);
+        writer.write("</map>\n");
+        writer.close();
+
+        MindDB mindDb = openMindDb("freemind");
+
+        final long usedHeapBefore = getUsedHeap();
+        final long peakHeap[] = {usedHeapBefore};
+
+        FreemindImporter importer = new FreemindImporter(mindDb);
+        importer.setProgressListener(new Importer.ProgressListener() {
+            @Override
+            public void notifyProgress(int progress, int maxProgress, String message) {
+                Runtime runtime = Runtime.getRuntime();
+                peakHeap[0] = Math.max(peakHeap[0], runtime.totalMemory() - runtime.freeMemory());
+            }
+        });
+
+        startTest("import freemind map, " + mapFile.length() / 1024 / 1024 + "MB", nodeCount);
+        importer.importFile(mindDb.getRootId(), 0, mapFile.getAbsolutePath());
+        endTest();
+
+        m_report.append("  heap grew ").append((peakHeap[0] - usedHeapBefore) / 1024 / 1024)
+                .append("MB at most, ").append((getUsedHeap() - usedHeapBefore) / 1024 / 1024)
+                .append("MB retained\n");
+
+        closeMindDb(mindDb);
+        mapFile.delete();
+    }
+
+    //一条深度为depth的链，查询最深节点与各层祖先的关系:
+    //  沿getInheritPath查找, 关闭区间标号后沿父节点查找, 使用区间标号
+    private void queryAncestorsOfDeepChain(int depth, int queryCount)
+    {
+        MindDB mindDb = openMindDb("deepChain");
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession();
+        ArrayList<Object> chain = new ArrayList<Object>();
+        chain.add(mindDb.getRootId());
+        for (int i=0; i<depth; i++) {
+            chain.add(session.appendChild(chain.get(i), 0, "level " + i));
+        }
+        session.close();
+
+        Object deepest = chain.get(depth);
+
+        startTest("getInheritPath().contains (depth " + depth + ")", queryCount);
+        for (int i=0; i<queryCount; i++) {
+            mindDb.getInheritPath(deepest).contains(chain.get(i % depth));
+        }
+        endTest();
+
+        mindDb.setIntervalLabelEnabled(false);
+        startTest("isDescendantOf by parent walk (depth " + depth + ")", queryCount);
+        for (int i=0; i<queryCount; i++) {
+            mindDb.vertexIdIsDescendantOf(deepest, chain.get(i % depth));
+        }
+        endTest();
+
+        mindDb.setIntervalLabelEnabled(true);
+        startTest("isDescendantOf by interval label (depth " + depth + ")", queryCount);
+        for (int i=0; i<queryCount; i++) {
+            mindDb.vertexIdIsDescendantOf(deepest, chain.get(i % depth));
+        }
+        endTest();
+
+        closeMindDb(mindDb);
+    }
+
+    //删除很多子树后，undo (恢复被删除的子树) 的延迟不应随回收站的大小增长
+    private void trashAndRestoreSubTrees(int subTreeCount)
+    {
+        MindDB mindDb = openMindDb("trash");
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession();
+        List<String> texts = new ArrayList<String>();
+        for (int i=0; i<subTreeCount; i++) {
+            texts.add("trashed " + i);
+        }
+        List<Object> subTreeIds = session.appendChildren(mindDb.getRootId(), 0, texts);
+        session.close();
+
+        startTest("trashSubTree", subTreeCount);
+        for (Object subTreeId : subTreeIds) {
+            mindDb.trashSubTree(mindDb.getVertex(subTreeId));
+        }
+        endTest();
+
+        startTest("restoreTrashedSubTree (undo)", subTreeCount);
+        for (int i=subTreeCount-1; i>=0; i--) {
+            Vertex vertex = mindDb.getVertex(subTreeIds.get(i));
+            mindDb.getTrashedTreeContext(vertex);
+            mindDb.restoreTrashedSubTree(vertex);
+        }
+        endTest();
+
+        closeMindDb(mindDb);
+    }
+
+    //打开viewCount个界面树，共约nodeCount行，修改一个在每个树上都有化身的节点。
+    //只用MindModel的界面树，不创建MindView (需要窗口)
+    private void editNodeInOpenTrees(int nodeCount, int viewCount, int editCount)
+    {
+        String path = System.getProperty("java.io.tmpdir") + File.separator + "eulermind_benchmark_avatar";
+        deleteMindDb(path);
+        MindModel mindModel = new MindModel(path);
+        MindDB mindDb = mindModel.m_mindDb;
+
+        //每个界面树: 根节点, fanOut个子节点, 每个子节点下fanOut个孙节点
+        int fanOut = (int)Math.sqrt(nodeCount / viewCount);
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession();
+        List<String> texts = new ArrayList<String>();
+        for (int i=0; i<fanOut; i++) {
+            texts.add("node " + i);
+        }
+
+        List<String> viewRootTexts = new ArrayList<String>();
+        for (int i=0; i<viewCount; i++) {
+            viewRootTexts.add("view " + i);
+        }
+
+        List<Object> viewRootIds = session.appendChildren(mindDb.getRootId(), 0, viewRootTexts);
+        for (Object viewRootId : viewRootIds) {
+            for (Object childId : session.appendChildren(viewRootId, 0, texts)) {
+                session.appendChildren(childId, 0, texts);
+            }
+        }
+
+        //每个树上都引用同一个节点
+        Object editedId = viewRootIds.get(0);
+        session.close();
+
+        for (Object viewRootId : viewRootIds) {
+            mindDb.addRefEdge(mindDb.getVertex(viewRootId), mindDb.getVertex(editedId), 0);
+        }
+        mindDb.commit();
+
+        int rowCount = 0;
+        for (Object viewRootId : viewRootIds) {
+            rowCount += mindModel.findOrPutTree(viewRootId).getNodeCount();
+        }
+
+        startTest("setProperty with " + viewCount + " trees, " + rowCount + " rows", editCount);
+        for (int i=0; i<editCount; i++) {
+            mindModel.setProperty(editedId, MindModel.TEXT_PROP_NAME, "edited " + i);
+        }
+        endTest();
+
+        mindModel.close();
+        deleteMindDb(path);
+    }
+
+    //模拟一次渲染: 界面上有displayCount个节点，每个节点读取父节点的出边列表 (getDBChildCount, getChildOrReferent,
+    //verifyNode都是这样的只读访问)。出边列表在缓存中，统计每次渲染分配的内存
+    private void readOutEdgesInRenderPass(int displayCount, int passCount)
+    {
+        MindDB mindDb = openMindDb("renderPass");
+
+        int fanOut = (int)Math.sqrt(displayCount);
+
+        MindDB.BulkInsertSession session = mindDb.openBulkInsertSession();
+        List<String> texts = new ArrayList<String>();
+        for (int i=0; i<fanOut; i++) {
+            texts.add("node " + i);
+        }
+        List<Object> parentIds = session.appendChildren(mindDb.getRootId(), 0, texts);
+        for (Object parentId : parentIds) {
+            session.appendChildren(parentId, 0, texts);
+        }
+        session.close();
+
+        ArrayList<Vertex> parents = new ArrayList<Vertex>();
+        for (Object parentId : parentIds) {
+            parents.add(mindDb.getVertex(parentId));
+        }
+
+        //第一次读入缓存
+        for (Vertex parent : parents) {
+            mindDb.getOutEdgeVertexIds(parent);
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        startTest("read out edges, " + fanOut * fanOut + " nodes per pass", fanOut * fanOut * passCount);
+
+        int targetCount = 0;
+        for (int pass=0; pass<passCount; pass++) {
+            for (Vertex parent : parents) {
+                for (int i=0; i<fanOut; i++) {
+                    List<MindDB.EdgeVertexId> outEdgeVertexIds = mindDb.getOutEdgeVertexIds(parent);
+                    if (outEdgeVertexIds.get(i).m_targetId != null) {
+                        targetCount++;
+                    }
+                }
+            }
+        }
+
+        endTest();
+        long allocatedAfter = getAllocatedBytes();
+
+        assert targetCount == fanOut * fanOut * passCount;
+        if (allocatedBefore >= 0) {
+            m_report.append("  allocated ").append((allocatedAfter - allocatedBefore) / passCount)
+                    .append(" bytes per pass\n");
+        }
+
+        closeMindDb(mindDb);
+    }
+
+    //被删除子树保存的引用边信息: 旧格式 (每条单独序列化) 与二进制格式的编码、解码
+    private void encodeRefLinkInfos(int count)
+    {
+        ArrayList<MindDB.RefLinkInfo> refLinkInfos = TestRefLinkInfo.createRefLinkInfos(count);
+
+        startTest("RefLinkInfo old format", count);
+        ArrayList<byte[]> oldStreams = new ArrayList<byte[]>(count);
+        for (MindDB.RefLinkInfo refLinkInfo : refLinkInfos) {
+            oldStreams.add(refLinkInfo.toStream());
+        }
+        for (int i=0; i<count; i++) {
+            refLinkInfos.get(i).fromStream(oldStreams.get(i));
+        }
+        endTest();
+
+        startTest("RefLinkInfo binary format", count);
+        ArrayList<MindDB.RefLinkInfo> decoded = MindDB.RefLinkInfo.fromBytes(MindDB.RefLinkInfo.toBytes(refLinkInfos));
+        endTest();
+
+        assert decoded.size() == count;
+    }
+
+    public static void main(String argv[]) throws Exception
+    {
+        int nodeCount = argv.length > 0 ? Integer.parseInt(argv[0]) : 100000;
+        int mapNodeCount = argv.length > 1 ? Integer.parseInt(argv[1]) : 1000000;
+
+        MindDBBenchmarks benchmarks = new MindDBBenchmarks();
+        benchmarks.m_report.append("TEST\tCOUNT\tTIME\tTHROUGHPUT\n");
+
+        benchmarks.importTreeByAddChild(nodeCount);
+        benchmarks.importTreeByBulkInsertSession(nodeCount);
+        benchmarks.importTreeWithTextIndex(nodeCount, false);
+        benchmarks.importTreeWithTextIndex(nodeCount, true);
+        benchmarks.queryAncestorsOfDeepChain(10, nodeCount);
+        benchmarks.queryAncestorsOfDeepChain(100, nodeCount);
+        benchmarks.queryAncestorsOfDeepChain(1000, nodeCount);
+        benchmarks.trashAndRestoreSubTrees(nodeCount);
+        benchmarks.editNodeInOpenTrees(nodeCount, 20, 1000);
+        benchmarks.readOutEdgesInRenderPass(10000, 100);
+        benchmarks.encodeRefLinkInfos(nodeCount);
+        benchmarks.importFreemindMap(mapNodeCount);
+
+        System.out.print(benchmarks.m_report);
+    }
+}
@@ -0,0 +1,116 @@
+package eulermind;
+
+import junit.framework.TestCase;
+import prefuse.data.Table;
+import prefuse.util.collections.IntIterator;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+public class TestAvatarIndex extends TestCase {
+
+    final static String DB_ID = "dbId";
+    final static int ID_COUNT = 50;
+
+    Table m_table;
+    AvatarIndex m_index;
+
+    public void setUp() {
+        m_table = new Table();
+        m_table.addColumn(DB_ID, Object.class, null);
+    }
+
+    //原来的做法: 扫描整个表
+    ArrayList<Integer> scanRows(Object dbId)
+    {
+        ArrayList<Integer> rows = new ArrayList<>();
+        IntIterator allRows = m_table.rows();
+        while (allRows.hasNext()) {
+            int row = allRows.nextInt();
+            if (dbId.equals(m_table.get(row, DB_ID))) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    void assertSameAsScan()
+    {
+        for (int i=0; i<ID_COUNT; i++) {
+            Object dbId = "#9:" + i;
+            assertEquals(scanRows(dbId), m_index.getRows(dbId));
+        }
+    }
+
+    public void testExistingRows() {
+        for (int i=0; i<ID_COUNT * 2; i++) {
+            int row = m_table.addRow();
+            m_table.set(row, DB_ID, "#9:" + (i % ID_COUNT));
+        }
+
+        m_index = new AvatarIndex(m_table, DB_ID);
+        assertEquals(2, m_index.getRows("#9:0").size());
+        assertSameAsScan();
+    }
+
+    public void testRandomChanges() {
+        m_index = new AvatarIndex(m_table, DB_ID);
+        Random random = new Random(1);
+
+        for (int i=0; i<10000; i++) {
+            int op = random.nextInt(4);
+
+            if (op == 0 || m_table.getRowCount() == 0) {
+                int row = m_table.addRow();
+                m_table.set(row, DB_ID, "#9:" + random.nextInt(ID_COUNT));
+
+            } else {
+                IntIterator rows = m_table.rows();
+                int row = rows.nextInt();
+                for (int skip = random.nextInt(m_table.getRowCount()); skip > 0; skip--) {
+                    row = rows.nextInt();
+                }
+
+                if (op == 1) {
+                    m_table.removeRow(row);
+                } else if (op == 2) {
+                    m_table.set(row, DB_ID, "#9:" + random.nextInt(ID_COUNT));
+                } else {
+                    //编辑中的占位节点没有dbId
+                    m_table.set(row, DB_ID, null);
+                }
+            }
+
+            if (i % 500 == 0) {
+                assertSameAsScan();
+            }
+        }
+
+        assertSameAsScan();
+
+        m_table.clear();
+        assertSameAsScan();
+    }
+}
@@ -1,12 +1,19 @@
 package eulermind;
 
+import com.orientechnologies.orient.core.id.ORecordId;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
+import eulermind.importer.DirectoryImporter;
+import eulermind.importer.FreemindImporter;
+import eulermind.importer.Importer;
 import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /*
 The MIT License (MIT)
@@ -51,6 +58,7 @@ public class TestMindDB extends TestCase {
     public void setUp() {
         m_dbPath = System.getProperty("java.io.tmpdir") + File.separator + "eulermind_test";
         m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
 
         m_root = m_mindDB.getVertex(m_mindDB.getRootId());
         m_v0 = m_mindDB.addChild(m_root).m_target;
@@ -124,6 +132,682 @@ public class TestMindDB extends TestCase {
     }
 
 
+    public void testBulkInsert() {
+        MindDB.BulkInsertSession session = m_mindDB.openBulkInsertSession();
+
+        ArrayList<String> texts = new ArrayList<String>();
+        for (int i=0; i<1000; i++) {
+            texts.add("bulk " + i);
+        }
+
+        //插入到m_v0已有的两个子节点之间
+        List<Object> childIds = session.appendChildren(m_v0.getId(), 1, texts);
+        List<Object> grandChildIds = session.appendChildren(childIds.get(0), 0, texts);
+        session.close();
+
+        assertEquals(1002, m_mindDB.getChildOrReferentCount(m_v0));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 0).m_target.getId(), m_v00.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 1001).m_target.getId(), m_v01.getId()));
+
+        for (int i=0; i<texts.size(); i++) {
+            MindDB.EdgeVertex child = m_mindDB.getChildOrReferent(m_v0, i + 1);
+            assertTrue(m_mindDB.vertexIdIsSelf(childIds.get(i), child.m_target.getId()));
+            assertEquals(texts.get(i), child.m_target.getProperty(MindModel.TEXT_PROP_NAME));
+            assertTrue(child.m_edge.getProperty(MindDB.EDGE_INNER_ID_PROP_NAME) instanceof Long);
+
+            MindDB.EdgeVertex grandChild = m_mindDB.getChildOrReferent(m_mindDB.getVertex(childIds.get(0)), i);
+            assertTrue(m_mindDB.vertexIdIsSelf(grandChildIds.get(i), grandChild.m_target.getId()));
+        }
+
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(grandChildIds.get(999), m_root.getId()));
+        assertInitTree();
+    }
+
+    //流式导入: 兄弟节点超过一批, 链接指向后面的节点
+    public void testFreemindImport() throws Exception {
+        StringBuilder mm = new StringBuilder("<map version=\"1.0.1\">");
+        mm.append("<node TEXT=\"top\" ID=\"ID_top\" LINK=\"#ID_last\">");
+        for (int i=0; i<1500; i++) {
+            mm.append("<node TEXT=\"wide ").append(i).append("\"/>");
+        }
+        mm.append("<node TEXT=\"deep\"><node TEXT=\"last\" ID=\"ID_last\"><arrowlink DESTINATION=\"ID_top\"/>");
+        mm.append("</node></node></node></map>");
+
+        FreemindImporter importer = new FreemindImporter(m_mindDB);
+        List newChildren = importer.importString(m_v0.getId(), 1, mm.toString());
+        assertEquals(1, newChildren.size());
+
+        Vertex top = m_mindDB.getChildOrReferent(m_v0, 1).m_target;
+        assertTrue(m_mindDB.vertexIdIsSelf(newChildren.get(0), top.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 2).m_target.getId(), m_v01.getId()));
+
+        //1500个子节点, deep, 指向last的引用
+        assertEquals(1502, m_mindDB.getChildOrReferentCount(top));
+        assertEquals("wide 1499", m_mindDB.getChildOrReferent(top, 1499).m_target.getProperty(MindModel.TEXT_PROP_NAME));
+
+        Vertex deep = m_mindDB.getChildOrReferent(top, 1500).m_target;
+        Vertex last = m_mindDB.getChildOrReferent(deep, 0).m_target;
+        assertEquals("last", last.getProperty(MindModel.TEXT_PROP_NAME));
+
+        MindDB.EdgeVertex link = m_mindDB.getChildOrReferent(top, 1501);
+        assertEquals(MindDB.EdgeType.REFERENCE, m_mindDB.getEdgeType(link.m_edge));
+        assertTrue(m_mindDB.vertexIdIsSelf(link.m_target.getId(), last.getId()));
+
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(last, 0).m_target.getId(), top.getId()));
+        assertInitTree();
+    }
+
+    //多个工作线程提取文本，写入顺序仍与目录顺序一致
+    public void testDirectoryImport() throws Exception {
+        File dir = new File(m_dbPath + "_import");
+        FileUtils.deleteDirectory(dir);
+        for (int i=0; i<20; i++) {
+            FileUtils.writeStringToFile(new File(dir, "file" + (char)('a' + i) + ".txt"), "line " + i, "UTF-8");
+        }
+        FileUtils.writeStringToFile(new File(dir, "sub/inner.txt"), "inner", "UTF-8");
+
+        final ArrayList<String> progressMessages = new ArrayList<String>();
+        DirectoryImporter importer = new DirectoryImporter(m_mindDB, 4);
+        importer.setProgressListener(new Importer.ProgressListener() {
+            @Override
+            public void notifyProgress(int progress, int maxProgress, String message) {
+                progressMessages.add(message);
+            }
+        });
+
+        importer.importFile(m_v1.getId(), 0, dir.getAbsolutePath());
+        FileUtils.deleteDirectory(dir);
+
+        Vertex dirVertex = m_mindDB.getChildOrReferent(m_v1, 0).m_target;
+        assertEquals(21, m_mindDB.getChildOrReferentCount(dirVertex));
+        assertEquals(21, progressMessages.size());
+
+        for (int i=0; i<20; i++) {
+            Vertex fileVertex = m_mindDB.getChildOrReferent(dirVertex, i).m_target;
+            assertEquals("file" + (char)('a' + i) + ".txt", fileVertex.getProperty(MindModel.TEXT_PROP_NAME));
+            assertTrue(progressMessages.get(i).endsWith(fileVertex.getProperty(MindModel.TEXT_PROP_NAME).toString()));
+
+            assertTrue(m_mindDB.getChildOrReferentCount(fileVertex) > 0);
+        }
+
+        Vertex sub = m_mindDB.getChildOrReferent(dirVertex, 20).m_target;
+        assertEquals("sub", sub.getProperty(MindModel.TEXT_PROP_NAME));
+        assertEquals(1, m_mindDB.getChildOrReferentCount(sub));
+    }
+
+    //反复插入到同一位置，中间没有空位时兄弟节点被重新编号
+    public void testRenumberSiblings()
+    {
+        ArrayList<Object> childIds = new ArrayList<Object>();
+        for (int i=0; i<200; i++) {
+            childIds.add(m_mindDB.addChild(m_v0, 1).m_target.getId());
+        }
+
+        assertEquals(202, m_mindDB.getChildOrReferentCount(m_v0));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 0).m_target.getId(), m_v00.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 201).m_target.getId(), m_v01.getId()));
+
+        for (int i=0; i<200; i++) {
+            assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 200 - i).m_target.getId(),
+                    childIds.get(i)));
+        }
+
+        m_mindDB.verifyVertex(m_v0);
+        assertInitTree();
+    }
+
+    //只读的调用者共享缓存中的快照，出边增删后换成新的快照，旧快照不变
+    public void testOutEdgeSnapshot()
+    {
+        OutEdgeList before = m_mindDB.getOutEdgeVertexIds(m_v0);
+        assertSame(before, m_mindDB.getOutEdgeVertexIds(m_v0));
+        assertEquals(2, before.size());
+
+        Object newChildId = m_mindDB.addChild(m_v0, 1).m_target.getId();
+        OutEdgeList after = m_mindDB.getOutEdgeVertexIds(m_v0);
+
+        assertNotSame(before, after);
+        assertTrue(after.getVersion() > before.getVersion());
+        assertEquals(2, before.size());
+        assertEquals(3, after.size());
+        assertTrue(m_mindDB.vertexIdIsSelf(newChildId, after.get(1).m_targetId));
+        assertEquals(1, after.indexOf(after.get(1)));
+        assertFalse(before.contains(after.get(1)));
+
+        MindDB.EdgeVertex refEdge = m_mindDB.addRefEdge(m_v0, m_v1);
+        m_mindDB.removeRefEdge(refEdge.m_edge);
+        assertEquals(after, m_mindDB.getOutEdgeVertexIds(m_v0));
+
+        try {
+            after.add(after.get(0));
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        m_mindDB.verifyVertex(m_v0);
+    }
+
+    //旧版本的innerId是字符串，读取出边时转换成long
+    public void testMigrateStringInnerId()
+    {
+        Edge edge00 = m_mindDB.getParentEge(m_v00).m_edge;
+        Edge edge01 = m_mindDB.getParentEge(m_v01).m_edge;
+        Edge edge1 = m_mindDB.getParentEge(m_v1).m_edge;
+
+        edge00.setProperty(MindDB.EDGE_INNER_ID_PROP_NAME, "n");
+        edge01.setProperty(MindDB.EDGE_INNER_ID_PROP_NAME, "h");
+        edge1.removeProperty(MindDB.EDGE_INNER_ID_PROP_NAME);
+        m_mindDB.commit();
+
+        m_mindDB.m_edgeVertexIdCache = m_mindDB.new EdgeVertexIdCache();
+
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 0).m_target.getId(), m_v01.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 1).m_target.getId(), m_v00.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_root, 1).m_target.getId(), m_v1.getId()));
+
+        assertTrue(m_mindDB.getEdge(edge00.getId()).getProperty(MindDB.EDGE_INNER_ID_PROP_NAME) instanceof Long);
+        assertTrue(m_mindDB.getEdge(edge1.getId()).getProperty(MindDB.EDGE_INNER_ID_PROP_NAME) instanceof Long);
+
+        m_mindDB.verifyVertex(m_v0);
+        m_mindDB.verifyVertex(m_root);
+    }
+
+    //先向上查父节点时, 也要换成long型的innerId
+    public void testMigrateStringInnerIdByParentLookup()
+    {
+        Edge edge00 = m_mindDB.getParentEge(m_v00).m_edge;
+        Edge edge01 = m_mindDB.getParentEge(m_v01).m_edge;
+
+        edge00.setProperty(MindDB.EDGE_INNER_ID_PROP_NAME, "n");
+        edge01.removeProperty(MindDB.EDGE_INNER_ID_PROP_NAME);
+        m_mindDB.commit();
+
+        m_mindDB.m_edgeVertexIdCache = m_mindDB.new EdgeVertexIdCache();
+        m_mindDB.m_adjacencyIndex.clear();
+        m_mindDB.m_adjacencyIndex.setRoot(m_mindDB.getRootId());
+
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getParentDbId(m_v01.getId()), m_v0.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getParentEge(m_v00).m_source.getId(), m_v0.getId()));
+        assertFalse(m_mindDB.isVertexIdTrashed(m_v00.getId()));
+
+        assertTrue(m_mindDB.getEdge(edge00.getId()).getProperty(MindDB.EDGE_INNER_ID_PROP_NAME) instanceof Long);
+        assertTrue(m_mindDB.getEdge(edge01.getId()).getProperty(MindDB.EDGE_INNER_ID_PROP_NAME) instanceof Long);
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 0).m_target.getId(), m_v00.getId()));
+
+        m_mindDB.verifyVertex(m_v0);
+    }
+
+    //只有被删除子树的根节点被标记，子树外部的引用边被保存
+    public void testTrashSubTree()
+    {
+        m_mindDB.addRefEdge(m_v1, m_v00);
+        m_mindDB.addRefEdge(m_v01, m_v00);
+        m_mindDB.addRefEdge(m_v00, m_v10);
+
+        m_mindDB.trashSubTree(m_v0);
+
+        assertTrue(m_mindDB.isVertexTrashed(m_v0));
+        assertTrue(m_mindDB.isVertexIdTrashed(m_v00.getId()));
+        assertFalse(m_mindDB.isVertexIdTrashed(m_v1.getId()));
+        assertFalse(m_mindDB.isVertexIdTrashed(m_root.getId()));
+        assertNull(m_mindDB.getVertex(m_v00.getId()).getProperty(MindDB.IS_TRASHED_PROP_NAME));
+
+        MindDB.TrashedTreeContext context = m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(m_v0.getId()));
+        assertEquals(1, context.m_refLinkInfos.size());
+        assertEquals(m_v1.getId(), context.m_refLinkInfos.get(0).m_referrer);
+
+        //子树内部的引用边不变, 子树引出的引用边也被删除并保存
+        assertEquals(1, m_mindDB.getReferrers(m_v00).size());
+        assertNull(m_mindDB.getReferrers(m_v10));
+        assertNotNull(m_mindDB.getVertex(m_v0.getId()).getProperty(MindDB.SAVED_REFERENT_INFO_PROP_NAME));
+
+        m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(m_v0.getId()));
+        assertFalse(m_mindDB.isVertexIdTrashed(m_v00.getId()));
+        assertEquals(2, m_mindDB.getReferrers(m_v00).size());
+        assertEquals(1, m_mindDB.getReferrers(m_v10).size());
+        assertInitTree();
+
+        //回收被删除的子树时，子树引出的引用边也被删除
+        Object v0Id = m_v0.getId();
+        Object v10Id = m_v10.getId();
+        m_mindDB.trashSubTree(m_mindDB.getVertex(v0Id));
+        m_mindDB.shutdown();
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+
+        assertTrue(m_mindDB.getTrashCollector().waitUntilIdle(10000));
+        assertNull(m_mindDB.getVertex(v0Id));
+        assertNull(m_mindDB.getReferrers(m_mindDB.getVertex(v10Id)));
+        assertFalse(m_mindDB.isVertexIdTrashed(v10Id));
+    }
+
+    public void testSearch()
+    {
+        m_v0.setProperty(MindModel.TEXT_PROP_NAME, "apple");
+        m_v00.setProperty(MindModel.TEXT_PROP_NAME, "apple pie <recipe>");
+        m_v01.setProperty(MindModel.TEXT_PROP_NAME, "banana");
+        m_v1.setProperty(MindModel.TEXT_PROP_NAME, "fruit");
+        m_v10.setProperty(MindModel.TEXT_PROP_NAME, "apple tree");
+        m_mindDB.commit();
+
+        List<MindDB.SearchHit> hits = m_mindDB.search("apple", 0, 10);
+        assertEquals(3, hits.size());
+        for (MindDB.SearchHit hit : hits) {
+            assertTrue(hit.m_snippet.contains("<b>apple</b>"));
+        }
+
+        MindDB.SearchHit treeHit = m_mindDB.search("tree", 0, 10).get(0);
+        assertEquals(m_v10.getId(), treeHit.m_dbId);
+        assertEquals(m_v1.getId(), treeHit.m_parentDbId);
+        assertEquals("fruit", treeHit.m_parentText);
+
+        MindDB.SearchHit pieHit = m_mindDB.search("pie", 0, 10).get(0);
+        assertTrue(pieHit.m_snippet.contains("&lt;recipe&gt;"));
+
+        //分页
+        assertEquals(hits.get(1).m_dbId, m_mindDB.search("apple", 1, 1).get(0).m_dbId);
+        assertTrue(m_mindDB.search("apple", 3, 10).isEmpty());
+
+        //被删除子树中的节点不出现在结果中, 标记完成后由全文索引过滤
+        m_mindDB.trashSubTree(m_v0);
+        hits = m_mindDB.search("apple", 0, 10);
+        assertEquals(1, hits.size());
+        assertEquals(m_v10.getId(), hits.get(0).m_dbId);
+
+        assertTrue(m_mindDB.m_textIndex.waitUntilIdle(10000));
+        assertEquals(1, m_mindDB.m_textIndex.search("apple", 0, 10).size());
+
+        m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(m_v0.getId()));
+        m_mindDB.commit();
+        assertTrue(m_mindDB.m_textIndex.waitUntilIdle(10000));
+        assertEquals(3, m_mindDB.m_textIndex.search("apple", 0, 10).size());
+    }
+
+    public void testSuggest()
+    {
+        m_v0.setProperty(MindModel.TEXT_PROP_NAME, "apple");
+        m_v00.setProperty(MindModel.TEXT_PROP_NAME, "apple pie");
+        m_v01.setProperty(MindModel.TEXT_PROP_NAME, "banana");
+        m_v10.setProperty(MindModel.TEXT_PROP_NAME, "green apple");
+        m_mindDB.commit();
+
+        //只有前缀匹配的, 短的优先。不查全文索引
+        List<MindDB.SearchHit> hits = m_mindDB.suggest("Apple", 10);
+        assertEquals(2, hits.size());
+        assertEquals(m_v0.getId(), hits.get(0).m_dbId);
+        assertEquals(m_v00.getId(), hits.get(1).m_dbId);
+        assertTrue(hits.get(0).m_snippet.startsWith("<b>apple</b>"));
+
+        //拼错的输入
+        assertEquals(m_v01.getId(), m_mindDB.suggest("banna", 10).get(0).m_dbId);
+
+        assertEquals(1, m_mindDB.suggest("apple", 1).size());
+
+        m_mindDB.trashSubTree(m_v0);
+        assertTrue(m_mindDB.suggest("apple", 10).isEmpty());
+
+        //后台线程查到的候选节点还包括被删除的, 界面线程读取时去掉
+        List<MindDB.SearchCandidate> candidates = m_mindDB.suggestCandidates("apple", 10);
+        assertEquals(2, candidates.size());
+        assertTrue(m_mindDB.readSearchHits(candidates).isEmpty());
+    }
+
+    public void testTextIndex() throws Exception
+    {
+        m_v0.setProperty(MindModel.TEXT_PROP_NAME, "old text");
+        m_mindDB.commit();
+        assertEquals(1, m_mindDB.m_textIndex.search("old", 0, 10).size());
+
+        m_v0.setProperty(MindModel.TEXT_PROP_NAME, "new text");
+        m_mindDB.commit();
+        assertTrue(m_mindDB.m_textIndex.search("old", 0, 10).isEmpty());
+        assertEquals(m_v0.getId().toString(), m_mindDB.m_textIndex.search("new", 0, 10).get(0));
+
+        //批量导入期间不刷新查询结果, 关闭session后才能查到
+        MindDB.BulkInsertSession session = m_mindDB.openBulkInsertSession();
+        Object importedId = session.appendChild(m_root.getId(), 0, "imported");
+        m_mindDB.commit();
+        assertTrue(m_mindDB.m_textIndex.search("imported", 0, 10).isEmpty());
+        session.close();
+        assertEquals(importedId, m_mindDB.search("imported", 0, 10).get(0).m_dbId);
+
+        //索引丢失或损坏时，从数据库重建
+        Object v0Id = m_v0.getId();
+        m_mindDB.shutdown();
+        FileUtils.deleteDirectory(new File(m_dbPath + File.separator + "textIndex"));
+
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+        assertTrue(m_mindDB.m_textIndex.waitUntilIdle(30000));
+        assertEquals(v0Id, m_mindDB.search("new", 0, 10).get(0).m_dbId);
+        assertEquals(importedId, m_mindDB.search("imported", 0, 10).get(0).m_dbId);
+    }
+
+    //本次启动之前删除、并且超过保留时间的子树，在后台分批回收
+    public void testTrashCollector() throws InterruptedException
+    {
+        MindDB.BulkInsertSession session = m_mindDB.openBulkInsertSession();
+        ArrayList<String> texts = new ArrayList<String>();
+        for (int i=0; i<50; i++) {
+            texts.add("collected " + i);
+        }
+        for (Object childId : session.appendChildren(m_v0.getId(), 0, texts)) {
+            session.appendChildren(childId, 0, texts);
+        }
+        session.close();
+
+        Object v0Id = m_v0.getId();
+        m_mindDB.trashSubTree(m_v0);
+
+        //本次启动后删除的子树不回收
+        assertTrue(m_mindDB.getTrashCollector().waitUntilIdle(10000));
+        assertNotNull(m_mindDB.getVertex(v0Id));
+
+        m_mindDB.shutdown();
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+
+        TrashCollector trashCollector = m_mindDB.getTrashCollector();
+
+        trashCollector.setRetentionAge(24L * 3600 * 1000);
+        assertTrue(trashCollector.waitUntilIdle(10000));
+        assertNotNull(m_mindDB.getVertex(v0Id));
+        assertEquals(0, trashCollector.getRemovedVertexCount());
+
+        trashCollector.setRetentionAge(0);
+        assertTrue(trashCollector.waitUntilIdle(60000));
+        assertNull(m_mindDB.getVertex(v0Id));
+        assertEquals(1 + 2 + 50 + 50 * 50, trashCollector.getRemovedVertexCount());
+        assertEquals(0, trashCollector.getPendingSubTreeCount());
+
+        assertInitTreeWithoutV0();
+    }
+
+    //undo日志中还能恢复的子树，重启后也不回收
+    public void testUndoJournalKeepsTrashedSubTree()
+    {
+        Object v0Id = m_v0.getId();
+        Object v1Id = m_v1.getId();
+        m_mindDB.trashSubTree(m_v0);
+        m_mindDB.trashSubTree(m_v1);
+
+        ArrayList<MindDelta> deltas = new ArrayList<MindDelta>();
+        deltas.add(MindDelta.trashSubTree(v0Id));
+        ArrayList<MindDelta.Step> steps = new ArrayList<MindDelta.Step>();
+        steps.add(new MindDelta.Step(new int[0], new int[0], deltas));
+
+        UndoJournal journal = new UndoJournal(m_mindDB.getUndoJournalFile(), 1 << 20);
+        journal.append(new MindDelta.Group(m_mindDB.getRootId(), steps).toBytes());
+        journal.close();
+
+        m_mindDB.shutdown();
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+
+        TrashCollector trashCollector = m_mindDB.getTrashCollector();
+        trashCollector.setRetentionAge(0);
+        assertTrue(trashCollector.waitUntilIdle(60000));
+        assertNotNull(m_mindDB.getVertex(v0Id));
+        assertNull(m_mindDB.getVertex(v1Id));
+        assertTrue(m_mindDB.isReferredByUndoJournal(v0Id));
+    }
+
+    private static void assertInvalidUndoRecord(byte record[])
+    {
+        try {
+            MindDelta.Group.fromBytes(record);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    //损坏的undo记录都抛出IOException, 由MindController丢掉这一条
+    public void testReadCorruptUndoRecord() throws IOException
+    {
+        ArrayList<MindDelta> deltas = new ArrayList<MindDelta>();
+        deltas.add(MindDelta.trashSubTree(m_v0.getId()));
+        ArrayList<MindDelta.Step> steps = new ArrayList<MindDelta.Step>();
+        steps.add(new MindDelta.Step(new int[0], new int[0], deltas));
+        byte record[] = new MindDelta.Group(m_mindDB.getRootId(), steps).toBytes();
+
+        //版本(1) 根节点id(10) 步数(1) 两个光标路径(1+1) 修改个数(1) 修改类型(1)
+        assertEquals(1, MindDelta.Group.fromBytes(record).m_steps.size());
+
+        assertInvalidUndoRecord(Arrays.copyOf(record, record.length - 1));
+
+        byte badType[] = record.clone();
+        badType[15] = 100;
+        assertInvalidUndoRecord(badType);
+
+        badType[15] = -1;
+        assertInvalidUndoRecord(badType);
+
+        //超过5个字节的varint
+        byte badVarInt[] = record.clone();
+        Arrays.fill(badVarInt, 11, 16, (byte)0xFF);
+        assertInvalidUndoRecord(badVarInt);
+
+        //步数超过剩下的字节数
+        byte badCount[] = record.clone();
+        badCount[11] = 100;
+        assertInvalidUndoRecord(badCount);
+    }
+
+    //已经恢复的子树不再回收, 已经开始回收的子树不能恢复
+    public void testRestoreCollectingSubTree()
+    {
+        m_mindDB.trashSubTree(m_v1);
+        m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(m_v1.getId()));
+        assertFalse(m_mindDB.beginCollectingTrashedSubTree(m_v1.getId()));
+
+        m_mindDB.trashSubTree(m_v0);
+        assertTrue(m_mindDB.beginCollectingTrashedSubTree(m_v0.getId()));
+        assertTrue(m_mindDB.isTrashedSubTreeCollecting(m_v0.getId()));
+        assertNull(m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(m_v0.getId())));
+        assertTrue(m_mindDB.isVertexIdTrashed(m_v00.getId()));
+        assertInitTreeWithoutV0();
+    }
+
+    //回收站中有很多子树时，判断一个节点是否是被删除子树的根节点
+    public void testTrashIndexMembership()
+    {
+        MindDB.BulkInsertSession session = m_mindDB.openBulkInsertSession();
+        ArrayList<String> texts = new ArrayList<String>();
+        for (int i=0; i<1000; i++) {
+            texts.add("trashed " + i);
+        }
+        List<Object> leafIds = session.appendChildren(m_v1.getId(), 0, texts);
+        session.close();
+
+        for (Object leafId : leafIds) {
+            m_mindDB.trashSubTree(m_mindDB.getVertex(leafId));
+        }
+
+        for (Object leafId : leafIds) {
+            assertNotNull(m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(leafId)));
+            assertNull(m_mindDB.getParentEdgeId(leafId));
+        }
+        assertNull(m_mindDB.getTrashedTreeContext(m_v10));
+
+        //undo按删除的逆序恢复
+        for (int i=leafIds.size()-1; i>=500; i--) {
+            m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(leafIds.get(i)));
+            assertNull(m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(leafIds.get(i))));
+        }
+
+        //重新打开数据库后，从m_trashIndex读入
+        m_mindDB.shutdown();
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+        m_mindDB.getTrashCollector().setRetentionAge(24L * 3600 * 1000);
+
+        assertNotNull(m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(leafIds.get(0))));
+        assertNull(m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(leafIds.get(999))));
+        assertEquals(501, m_mindDB.getChildOrReferentCount(m_mindDB.getVertex(m_v1.getId())));
+    }
+
+    private void assertInitTreeWithoutV0()
+    {
+        assertEquals(1, m_mindDB.getChildOrReferentCount(m_mindDB.getVertex(m_mindDB.getRootId())));
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_root.getId()));
+    }
+
+    public void testAdjacencyIndex()
+    {
+        m_mindDB.handoverChild(m_v10, m_v0, 1);
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_v0.getId()));
+        assertFalse(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_v1.getId()));
+        assertTrue(m_mindDB.vertexIdIsSelf(m_mindDB.getChildOrReferent(m_v0, 1).m_target.getId(), m_v10.getId()));
+
+        //被删除的子树与原来的树断开
+        m_mindDB.trashSubTree(m_v0);
+        assertFalse(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_root.getId()));
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_v0.getId()));
+
+        m_mindDB.restoreTrashedSubTree(m_v0);
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(m_v100.getId(), m_root.getId()));
+
+        List inheritPath = m_mindDB.getInheritPath(m_v100.getId());
+        Object v100Id = m_v100.getId();
+        Object v1Id = m_v1.getId();
+
+        //重新打开数据库，从快照中读入索引
+        m_mindDB.shutdown();
+        m_mindDB = new OrientMindDb(m_dbPath);
+        m_mindDB.startUp();
+
+        assertTrue(m_mindDB.m_adjacencyIndex.isParentKnown(v100Id));
+        assertEquals(inheritPath, m_mindDB.getInheritPath(v100Id));
+        assertFalse(m_mindDB.vertexIdIsAncestorOf(v1Id, v100Id));
+        assertFalse(new File(m_dbPath + File.separator + "adjacency.idx").exists());
+    }
+
+    //被回收的节点从索引中去掉, 快照中不再保存
+    public void testAdjacencyIndexForgetVertex() throws IOException
+    {
+        AdjacencyIndex adjacencyIndex = new AdjacencyIndex();
+        ArrayList<Object> childIds = new ArrayList<Object>();
+        for (int i=1; i<=1000; i++) {
+            childIds.add(new ORecordId(9, i));
+        }
+
+        adjacencyIndex.setRoot(new ORecordId(9, 0));
+        adjacencyIndex.setChildren(new ORecordId(9, 0), childIds);
+        adjacencyIndex.setChildren(childIds.get(0), Arrays.<Object>asList(new ORecordId(9, 2000)));
+
+        for (int i=0; i<childIds.size(); i+=2) {
+            adjacencyIndex.forgetVertex(childIds.get(i));
+        }
+        assertFalse(adjacencyIndex.isParentKnown(new ORecordId(9, 2000)));
+        assertEquals(500, adjacencyIndex.getChildCount(new ORecordId(9, 0)));
+
+        //哈希表中删除后, 其他节点仍能找到
+        for (int i=1; i<childIds.size(); i+=2) {
+            assertEquals(new ORecordId(9, 0), adjacencyIndex.getParentId(childIds.get(i)));
+        }
+
+        File file = new File(m_dbPath + File.separator + "forget_test.idx");
+        adjacencyIndex.save(file);
+        assertTrue(adjacencyIndex.load(file));
+        file.delete();
+
+        assertEquals(502, adjacencyIndex.size());
+        assertEquals(500, adjacencyIndex.getChildCount(new ORecordId(9, 0)));
+        assertEquals(childIds.get(1), adjacencyIndex.getChildId(new ORecordId(9, 0), 0));
+        assertFalse(adjacencyIndex.isParentKnown(childIds.get(0)));
+    }
+
+    //区间标号的结果必须与沿父节点查找的结果相同
+    private void assertIntervalLabelsValid()
+    {
+        Object ids[] = {m_root.getId(), m_v0.getId(), m_v1.getId(), m_v00.getId(), m_v01.getId(),
+                m_v10.getId(), m_v100.getId()};
+
+        for (Object thiz : ids) {
+            for (Object that : ids) {
+                m_mindDB.setIntervalLabelEnabled(false);
+                boolean expected = m_mindDB.vertexIdIsDescendantOf(thiz, that);
+                m_mindDB.setIntervalLabelEnabled(true);
+
+                Boolean labelled = m_mindDB.m_adjacencyIndex.isDescendantOfByLabel(thiz, that);
+                assertTrue(labelled == null || labelled == expected);
+                assertEquals(expected, m_mindDB.vertexIdIsDescendantOf(thiz, that));
+            }
+        }
+    }
+
+    public void testIntervalLabel()
+    {
+        assertTrue(m_mindDB.m_adjacencyIndex.isLabelled(m_v100.getId()));
+        assertIntervalLabelsValid();
+
+        m_mindDB.handoverChild(m_v10, m_v0, 0);
+        assertTrue(m_mindDB.m_adjacencyIndex.isLabelled(m_v100.getId()));
+        assertIntervalLabelsValid();
+
+        m_mindDB.changeEdgePos(m_mindDB.getParentEge(m_v10).m_edge, 2);
+        assertIntervalLabelsValid();
+
+        //被删除的子树没有标号
+        m_mindDB.trashSubTree(m_v0);
+        assertFalse(m_mindDB.m_adjacencyIndex.isLabelled(m_v100.getId()));
+        assertIntervalLabelsValid();
+
+        m_mindDB.restoreTrashedSubTree(m_v0);
+        assertTrue(m_mindDB.m_adjacencyIndex.isLabelled(m_v100.getId()));
+        assertIntervalLabelsValid();
+
+        //一条很深的链, 反复重新标号
+        Object parentId = m_v100.getId();
+        MindDB.BulkInsertSession session = m_mindDB.openBulkInsertSession();
+        for (int i=0; i<2000; i++) {
+            parentId = session.appendChild(parentId, 0, "level " + i);
+        }
+        session.close();
+
+        assertTrue(m_mindDB.m_adjacencyIndex.isLabelled(parentId));
+        assertTrue(m_mindDB.vertexIdIsDescendantOf(parentId, m_v10.getId()));
+        assertFalse(m_mindDB.vertexIdIsDescendantOf(parentId, m_v1.getId()));
+    }
+
+    //引用边端点的个数沿父节点累加, 移动和删除子树后保持一致
+    public void testRefEndpointCount()
+    {
+        m_mindDB.addRefEdge(m_v1, m_v00);
+        m_mindDB.addRefEdge(m_v0, m_v100);
+
+        //第一次删除子树时登记引用边的端点
+        m_mindDB.trashSubTree(m_v01);
+        AdjacencyIndex adjacencyIndex = m_mindDB.m_adjacencyIndex;
+        assertEquals(4, adjacencyIndex.getRefEndpointCount(m_root.getId()));
+        assertEquals(2, adjacencyIndex.getRefEndpointCount(m_v0.getId()));
+        assertEquals(2, adjacencyIndex.getRefEndpointCount(m_v1.getId()));
+        assertEquals(0, adjacencyIndex.getRefEndpointCount(m_v01.getId()));
+
+        m_mindDB.handoverChild(m_v10, m_v0, 0);
+        assertEquals(3, adjacencyIndex.getRefEndpointCount(m_v0.getId()));
+        assertEquals(1, adjacencyIndex.getRefEndpointCount(m_v1.getId()));
+
+        m_mindDB.addRefEdge(m_v1, m_v10);
+        assertEquals(5, adjacencyIndex.getRefEndpointCount(m_root.getId()));
+
+        //外部的引用边被删除并保存, 只剩子树内部的引用边
+        m_mindDB.trashSubTree(m_v0);
+        assertEquals(0, adjacencyIndex.getRefEndpointCount(m_root.getId()));
+        assertEquals(2, adjacencyIndex.getRefEndpointCount(m_v0.getId()));
+
+        MindDB.TrashedTreeContext context = m_mindDB.getTrashedTreeContext(m_mindDB.getVertex(m_v0.getId()));
+        assertEquals(2, context.m_refLinkInfos.size());
+
+        m_mindDB.restoreTrashedSubTree(m_mindDB.getVertex(m_v0.getId()));
+        assertEquals(5, adjacencyIndex.getRefEndpointCount(m_root.getId()));
+
+        m_mindDB.removeRefEdge(m_mindDB.getReferrers(m_v00).get(0).m_edge);
+        assertFalse(adjacencyIndex.isRefEndpoint(m_v00.getId()));
+        assertTrue(adjacencyIndex.isRefEndpoint(m_v1.getId()));
+        assertEquals(4, adjacencyIndex.getRefEndpointCount(m_root.getId()));
+    }
+
     public void testIndex()
     {
    // getOrCreateIndex [MindDB]
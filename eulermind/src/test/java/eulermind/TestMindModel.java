@@ -0,0 +1,259 @@
+package eulermind;
+
+import com.tinkerpop.blueprints.Vertex;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import prefuse.data.Node;
+import prefuse.data.Tree;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+public class TestMindModel extends TestCase {
+    final static int WIDE_CHILD_COUNT = MindModel.CHILDREN_PAGE_SIZE * 2 + 100;
+
+    MindModel m_mindModel;
+    String m_dbPath;
+
+    Tree m_tree;
+    Node m_wideNode;
+    ArrayList<Object> m_wideChildIds = new ArrayList<>();
+
+    public void setUp() {
+        m_dbPath = System.getProperty("java.io.tmpdir") + File.separator + "eulermind_model_test";
+        m_mindModel = new MindModel(m_dbPath);
+
+        //根节点的第一个子节点下有很多子节点
+        MindDB mindDb = m_mindModel.m_mindDb;
+        Vertex root = mindDb.getVertex(mindDb.getRootId());
+        Vertex wideVertex = mindDb.getChildOrReferent(root, 0).m_target;
+
+        for (int i=0; i<WIDE_CHILD_COUNT; i++) {
+            Vertex child = mindDb.addChild(wideVertex).m_target;
+            child.setProperty(MindModel.TEXT_PROP_NAME, "wide_" + i);
+            m_wideChildIds.add(child.getId());
+        }
+        mindDb.commit();
+
+        m_tree = m_mindModel.findOrPutTree(mindDb.getRootId());
+        m_wideNode = m_tree.getRoot().getChild(0);
+    }
+
+    public void tearDown() {
+        m_mindModel.close();
+        try {
+            FileUtils.deleteDirectory(new File(m_dbPath));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void assertAttachedChildren(int attachedCount)
+    {
+        assertEquals(attachedCount, m_mindModel.getAttachedChildCount(m_wideNode));
+        assertEquals(attachedCount < WIDE_CHILD_COUNT, m_mindModel.hasMoreChildren(m_wideNode));
+        assertTrue(m_mindModel.isChildrenAttached(m_wideNode));
+
+        for (int i=0; i<attachedCount; i++) {
+            assertEquals(m_wideChildIds.get(i), MindModel.getDbId(m_wideNode.getChild(i)));
+        }
+    }
+
+    public void testAttachByPage() {
+        assertAttachedChildren(MindModel.CHILDREN_PAGE_SIZE);
+
+        Node moreChildrenNode = m_wideNode.getChild(MindModel.CHILDREN_PAGE_SIZE);
+        assertTrue(MindModel.isMoreChildrenNode(moreChildrenNode));
+        assertEquals(0, m_mindModel.getDBChildCount(moreChildrenNode));
+
+        Node firstNewChild = m_mindModel.attachMoreChildren(moreChildrenNode);
+        assertEquals(MindModel.CHILDREN_PAGE_SIZE, firstNewChild.getIndex());
+        assertAttachedChildren(MindModel.CHILDREN_PAGE_SIZE * 2);
+
+        //按路径找节点时，挂上路径上需要的子节点
+        int lastPos = WIDE_CHILD_COUNT - 1;
+        Node lastChild = m_mindModel.getNodeByPath(m_tree, new int[] {0, lastPos});
+        assertEquals(m_wideChildIds.get(lastPos), MindModel.getDbId(lastChild));
+        assertAttachedChildren(WIDE_CHILD_COUNT);
+    }
+
+    public void testChangeChildPosOutOfPage() {
+        Object movedId = m_wideChildIds.remove(0);
+        m_wideChildIds.add(MindModel.CHILDREN_PAGE_SIZE + 10, movedId);
+
+        Object edgeId = MindModel.getDbId(m_wideNode.getChild(0).getParentEdge());
+        m_mindModel.changeChildPos(edgeId, MindModel.CHILDREN_PAGE_SIZE + 10);
+
+        //移到已经挂上的子节点之后，不再显示
+        assertAttachedChildren(MindModel.CHILDREN_PAGE_SIZE - 1);
+
+        m_mindModel.attachMoreChildren(m_wideNode.getChild(MindModel.CHILDREN_PAGE_SIZE - 1));
+        assertAttachedChildren(MindModel.CHILDREN_PAGE_SIZE * 2 - 1);
+    }
+
+    public void testAddChildIntoPage() {
+        Node newChild = m_mindModel.addChild(m_wideNode, 1, "new");
+        m_wideChildIds.add(1, MindModel.getDbId(newChild));
+
+        assertEquals(1, newChild.getIndex());
+        assertTrue(MindModel.isMoreChildrenNode(m_wideNode.getChild(MindModel.CHILDREN_PAGE_SIZE + 1)));
+    }
+
+    public void testChildrenAttachedOfAvatars() {
+        Node root = m_tree.getRoot();
+        Node leaf = m_wideNode.getChild(0);
+        Object leafId = MindModel.getDbId(leaf);
+        assertTrue(m_mindModel.isChildrenAttached(leaf));
+
+        //根节点引用这个叶子节点，界面树上有它的两个化身
+        int refPos = m_mindModel.getDBChildCount(root);
+        m_mindModel.addReference(root, refPos, leafId);
+        Node leafAvatar = root.getChild(refPos);
+        assertEquals(leafId, MindModel.getDbId(leafAvatar));
+        assertTrue(m_mindModel.isChildrenAttached(leafAvatar));
+
+        Node newChild = m_mindModel.addChild(leaf, 0, "new");
+        for (Node avatar : new Node[] {leaf, leafAvatar}) {
+            assertEquals(1, m_mindModel.getDBChildCount(avatar));
+            assertEquals(1, avatar.getChildCount());
+            assertTrue(m_mindModel.isChildrenAttached(avatar));
+        }
+
+        m_mindModel.trashNode(MindModel.getDbId(newChild));
+        for (Node avatar : new Node[] {leaf, leafAvatar}) {
+            assertEquals(0, m_mindModel.getDBChildCount(avatar));
+            assertEquals(0, avatar.getChildCount());
+            assertTrue(m_mindModel.isChildrenAttached(avatar));
+        }
+    }
+
+    public void testBatch() {
+        long commitCount = m_mindModel.m_mindDb.getCommitCount();
+
+        m_mindModel.beginBatch();
+        for (int i=0; i<10; i++) {
+            m_mindModel.trashNode(m_wideChildIds.remove(0));
+        }
+        //第一页后面的子节点，只更新占位节点的计数
+        Node newChild = m_mindModel.addChild(m_wideNode, 0, "new");
+        m_wideChildIds.add(0, MindModel.getDbId(newChild));
+        Set<Tree> changedTrees = m_mindModel.endBatch();
+
+        assertTrue(changedTrees.contains(m_tree));
+        assertEquals(commitCount + 1, m_mindModel.m_mindDb.getCommitCount());
+
+        int attachedCount = MindModel.CHILDREN_PAGE_SIZE - 9;
+        assertAttachedChildren(attachedCount);
+
+        Node moreChildrenNode = m_wideNode.getChild(attachedCount);
+        assertTrue(MindModel.isMoreChildrenNode(moreChildrenNode));
+        assertEquals("... " + (m_wideChildIds.size() - attachedCount) + " more", MindModel.getText(moreChildrenNode));
+
+        //没有修改的批量操作，不提交
+        m_mindModel.beginBatch();
+        assertTrue(m_mindModel.endBatch().isEmpty());
+        assertEquals(commitCount + 1, m_mindModel.m_mindDb.getCommitCount());
+    }
+
+    //undo日志中的记录只含数据库id与位置，经过编码解码后仍能重放
+    MindDelta.Group roundTrip(MindDelta... deltas) throws Exception
+    {
+        MindDelta.Step step = new MindDelta.Step(new int[] {0}, new int[] {0, 1}, Arrays.asList(deltas));
+        Object rootDbId = MindModel.getDbId(m_tree.getRoot());
+        byte bytes[] = new MindDelta.Group(rootDbId, Arrays.asList(step)).toBytes();
+
+        MindDelta.Group group = MindDelta.Group.fromBytes(bytes);
+        assertEquals(rootDbId, group.m_rootDbId);
+        assertTrue(Arrays.equals(new int[] {0, 1}, group.m_steps.get(0).m_laterCursorPath));
+        assertTrue(group.isApplicable(m_mindModel.m_mindDb));
+        return group;
+    }
+
+    public void testUndoDeltas() throws Exception {
+        Object wideId = MindModel.getDbId(m_wideNode);
+
+        m_mindModel.beginBatch();
+        Node newChild = m_mindModel.addChild(m_wideNode, 0, "new");
+        m_mindModel.endBatch();
+
+        Object newChildId = MindModel.getDbId(newChild);
+        MindDelta.Step step = roundTrip(MindDelta.newSubTree(newChildId)).m_steps.get(0);
+
+        step.undo(m_mindModel);
+        assertTrue(m_mindModel.isVertexTrashed(newChildId));
+        assertEquals(m_wideChildIds.get(0), MindModel.getDbId(m_wideNode.getChild(0)));
+
+        step.redo(m_mindModel);
+        assertFalse(m_mindModel.isVertexTrashed(newChildId));
+        assertEquals(newChildId, MindModel.getDbId(m_wideNode.getChild(0)));
+
+        step = roundTrip(MindDelta.setProperty(newChildId, MindModel.TEXT_PROP_NAME, "new", "changed")).m_steps.get(0);
+        step.redo(m_mindModel);
+        assertEquals("changed", MindModel.getText(m_wideNode.getChild(0)));
+        step.undo(m_mindModel);
+        assertEquals("new", MindModel.getText(m_wideNode.getChild(0)));
+
+        m_mindModel.changeChildPos(MindModel.getDbId(m_wideNode.getChildEdge(0)), 2);
+        step = roundTrip(MindDelta.changePosition(wideId, 0, 2)).m_steps.get(0);
+        step.undo(m_mindModel);
+        assertEquals(newChildId, MindModel.getDbId(m_wideNode.getChild(0)));
+        step.redo(m_mindModel);
+        assertEquals(newChildId, MindModel.getDbId(m_wideNode.getChild(2)));
+    }
+
+    public void testAttachChildrenAsync() throws Exception {
+        m_mindModel.closeSubTree(m_tree);
+
+        //根节点的三个子节点都在后台读取
+        final CountDownLatch attachedLatch = new CountDownLatch(3);
+        m_mindModel.startChildrenLoader(new Runnable() {
+            @Override
+            public void run() {
+                attachedLatch.countDown();
+            }
+        });
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                m_tree = m_mindModel.findOrPutTree(m_mindModel.m_mindDb.getRootId());
+                m_wideNode = m_tree.getRoot().getChild(0);
+                assertTrue(MindModel.isChildrenLoading(m_wideNode));
+                assertEquals(0, m_wideNode.getChildCount());
+            }
+        });
+
+        assertTrue(attachedLatch.await(30, TimeUnit.SECONDS));
+
+        assertFalse(MindModel.isChildrenLoading(m_wideNode));
+        assertAttachedChildren(MindModel.CHILDREN_PAGE_SIZE);
+    }
+}
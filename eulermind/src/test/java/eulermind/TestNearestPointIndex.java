@@ -0,0 +1,117 @@
+package eulermind;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+public class TestNearestPointIndex extends TestCase {
+
+    //原来pairNodeAvatars的做法: 逐个比较剩下的点，取第一个距离最小的
+    static int[] pairByScan(double xs1[], double ys1[], double xs2[], double ys2[])
+    {
+        ArrayList<Integer> points2 = new ArrayList<Integer>();
+        for (int i=0; i<xs2.length; i++) {
+            points2.add(i);
+        }
+
+        int pairs[] = new int[xs1.length];
+        for (int i=0; i<xs1.length; i++) {
+            int nearest = -1;
+            double minDistanceSquare = Double.MAX_VALUE;
+
+            for (int j : points2) {
+                double distanceSquare = (xs1[i] - xs2[j]) * (xs1[i] - xs2[j]) + (ys1[i] - ys2[j]) * (ys1[i] - ys2[j]);
+                if (distanceSquare < minDistanceSquare) {
+                    minDistanceSquare = distanceSquare;
+                    nearest = j;
+                }
+            }
+
+            pairs[i] = nearest;
+            points2.remove((Integer)nearest);
+        }
+        return pairs;
+    }
+
+    static int[] pairByIndex(double xs1[], double ys1[], double xs2[], double ys2[])
+    {
+        NearestPointIndex index = new NearestPointIndex(xs2, ys2);
+
+        int pairs[] = new int[xs1.length];
+        for (int i=0; i<xs1.length; i++) {
+            pairs[i] = index.removeNearest(xs1[i], ys1[i]);
+        }
+        return pairs;
+    }
+
+    static double[] randomCoordinates(Random random, int count, int range)
+    {
+        double coordinates[] = new double[count];
+        for (int i=0; i<count; i++) {
+            //range较小时有很多重合的点与距离相等的点
+            coordinates[i] = random.nextInt(range) * 10.0;
+        }
+        return coordinates;
+    }
+
+    public void testEmpty() {
+        NearestPointIndex index = new NearestPointIndex(new double[0], new double[0]);
+        assertEquals(0, index.size());
+        assertEquals(-1, index.removeNearest(0, 0));
+    }
+
+    public void testRemoveAll() {
+        NearestPointIndex index = new NearestPointIndex(new double[] {0, 10, 20}, new double[] {0, 0, 0});
+        assertEquals(1, index.removeNearest(11, 0));
+        assertEquals(2, index.removeNearest(11, 0));
+        assertEquals(0, index.removeNearest(11, 0));
+        assertEquals(0, index.size());
+        assertEquals(-1, index.removeNearest(11, 0));
+    }
+
+    public void testSameAsScan() {
+        Random random = new Random(1);
+
+        for (int round=0; round<500; round++) {
+            int count1 = random.nextInt(60);
+            int count2 = count1 + random.nextInt(10);
+            int range = 1 + random.nextInt(round % 2 == 0 ? 5 : 1000);
+
+            double xs1[] = randomCoordinates(random, count1, range);
+            double ys1[] = randomCoordinates(random, count1, range);
+            double xs2[] = randomCoordinates(random, count2, range);
+            double ys2[] = randomCoordinates(random, count2, range);
+
+            int expected[] = pairByScan(xs1, ys1, xs2, ys2);
+            int actual[] = pairByIndex(xs1, ys1, xs2, ys2);
+
+            for (int i=0; i<count1; i++) {
+                assertEquals(expected[i], actual[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+public class TestRefLinkInfo extends TestCase {
+
+    static ArrayList<MindDB.RefLinkInfo> createRefLinkInfos(int count)
+    {
+        Random random = new Random(0);
+        ArrayList<MindDB.RefLinkInfo> refLinkInfos = new ArrayList<>();
+
+        for (int i=0; i<count; i++) {
+            refLinkInfos.add(new MindDB.RefLinkInfo(
+                    new ORecordId(9, random.nextInt(Integer.MAX_VALUE)),
+                    new ORecordId(9, (long)random.nextInt(Integer.MAX_VALUE) << 8),
+                    new ORecordId(random.nextInt(Short.MAX_VALUE), random.nextInt(1000)),
+                    random.nextInt(MindDB.MAX_OUT_EDGES)));
+        }
+        return refLinkInfos;
+    }
+
+    private static void assertRefLinkInfoEquals(MindDB.RefLinkInfo expected, MindDB.RefLinkInfo actual)
+    {
+        assertEquals(expected.m_referrer, actual.m_referrer);
+        assertEquals(expected.m_referent, actual.m_referent);
+        assertEquals(expected.m_edge, actual.m_edge);
+        assertEquals(expected.m_pos, actual.m_pos);
+    }
+
+    public void testRoundTrip()
+    {
+        ArrayList<MindDB.RefLinkInfo> refLinkInfos = createRefLinkInfos(100);
+
+        byte bytes[] = MindDB.RefLinkInfo.toBytes(refLinkInfos);
+        assertEquals(MindDB.RefLinkInfo.HEADER_BYTES + MindDB.RefLinkInfo.REF_LINK_INFO_BYTES * 100, bytes.length);
+
+        ArrayList<MindDB.RefLinkInfo> decoded = MindDB.RefLinkInfo.fromBytes(bytes);
+        assertEquals(refLinkInfos.size(), decoded.size());
+        for (int i=0; i<refLinkInfos.size(); i++) {
+            assertRefLinkInfoEquals(refLinkInfos.get(i), decoded.get(i));
+        }
+
+        assertTrue(MindDB.RefLinkInfo.fromBytes(MindDB.RefLinkInfo.toBytes(new ArrayList<MindDB.RefLinkInfo>())).isEmpty());
+    }
+
+    //旧数据库中的RefLinkInfo是base64编码的
+    public void testReadOldFormat()
+    {
+        for (MindDB.RefLinkInfo refLinkInfo : createRefLinkInfos(100)) {
+            MindDB.RefLinkInfo decoded = refLinkInfo.fromStream(refLinkInfo.toStream());
+            assertRefLinkInfoEquals(refLinkInfo, decoded);
+        }
+    }
+
+    public void testUnknownVersion()
+    {
+        byte bytes[] = MindDB.RefLinkInfo.toBytes(createRefLinkInfos(1));
+        bytes[0] = MindDB.RefLinkInfo.FORMAT_VERSION + 1;
+
+        try {
+            MindDB.RefLinkInfo.fromBytes(bytes);
+            fail();
+        } catch (RuntimeException e) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package eulermind;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+public class TestSiblingOrder extends TestCase {
+
+    private long m_keys[];
+    private int m_size;
+    private long m_renumberedCount;
+
+    public void setUp() {
+        m_keys = new long[16];
+        m_size = 0;
+        m_renumberedCount = 0;
+    }
+
+    private void insert(int pos)
+    {
+        SiblingOrder.Renumbering renumbering = SiblingOrder.insert(m_keys, m_size, pos, 1);
+
+        for (int i=renumbering.m_from; i<renumbering.m_to; i++) {
+            m_keys[i] = renumbering.getRenumberedKey(pos, 1, i);
+        }
+        m_renumberedCount += renumbering.m_to - renumbering.m_from;
+
+        if (m_size == m_keys.length) {
+            long newKeys[] = new long[m_size * 2];
+            System.arraycopy(m_keys, 0, newKeys, 0, m_size);
+            m_keys = newKeys;
+        }
+
+        System.arraycopy(m_keys, pos, m_keys, pos + 1, m_size - pos);
+        m_keys[pos] = renumbering.getInsertedKey(pos, 0);
+        m_size++;
+    }
+
+    private void assertOrdered()
+    {
+        for (int i=0; i<m_size; i++) {
+            assertTrue(SiblingOrder.MIN_KEY < m_keys[i] && m_keys[i] < SiblingOrder.MAX_KEY);
+            if (i > 0) {
+                assertTrue(m_keys[i - 1] < m_keys[i]);
+            }
+        }
+    }
+
+    public void testAppend() {
+        for (int i=0; i<10000; i++) {
+            insert(m_size);
+        }
+        assertOrdered();
+        assertEquals(0, m_renumberedCount);
+    }
+
+    public void testPrepend() {
+        for (int i=0; i<10000; i++) {
+            insert(0);
+        }
+        assertOrdered();
+        assertEquals(0, m_renumberedCount);
+    }
+
+    //在最后两个兄弟之间插入一百万次, 每次插入平均只重新编号很少的键
+    public void testInsertAtSamePosition() {
+        insert(0);
+        insert(1);
+
+        for (int i=0; i<1000000; i++) {
+            insert(m_size - 1);
+        }
+
+        assertOrdered();
+        assertTrue(m_renumberedCount < 1000000);
+    }
+
+    public void testRandomInsert() {
+        Random random = new Random(0);
+        for (int i=0; i<20000; i++) {
+            insert(random.nextInt(m_size + 1));
+        }
+        assertOrdered();
+    }
+
+    public void testEvenlySpacedKeys() {
+        long keys[] = SiblingOrder.getEvenlySpacedKeys(100, 104, 3);
+        assertEquals(101, keys[0]);
+        assertEquals(102, keys[1]);
+        assertEquals(103, keys[2]);
+
+        assertNull(SiblingOrder.getEvenlySpacedKeys(100, 103, 3));
+    }
+}
@@ -0,0 +1,147 @@
+package eulermind;
+
+import com.orientechnologies.orient.core.id.ORecordId;
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+public class TestTextSuggester extends TestCase {
+
+    TextSuggester m_suggester;
+
+    public void setUp() {
+        m_suggester = new TextSuggester();
+    }
+
+    static Object id(int position)
+    {
+        return new ORecordId(9, position);
+    }
+
+    private HashSet<Object> suggestIds(String text, boolean isFuzzy)
+    {
+        HashSet<Object> ids = new HashSet<>();
+        for (TextSuggester.Suggestion suggestion : m_suggester.suggest(text, 1000)) {
+            if (suggestion.m_isFuzzy == isFuzzy) {
+                ids.add(suggestion.m_dbId);
+            }
+        }
+        return ids;
+    }
+
+    public void testPrefix() {
+        m_suggester.put(id(0), "Apple pie");
+        m_suggester.put(id(1), "  apple");
+        m_suggester.put(id(2), "banana");
+        m_suggester.put(id(3), "apples and oranges");
+
+        //短的文字排在前面
+        List<TextSuggester.Suggestion> suggestions = m_suggester.suggest("APP", 2);
+        assertEquals(2, suggestions.size());
+        assertEquals(id(1), suggestions.get(0).m_dbId);
+        assertEquals("apple", suggestions.get(0).m_key);
+        assertEquals(id(0), suggestions.get(1).m_dbId);
+        assertFalse(suggestions.get(1).m_isFuzzy);
+
+        assertTrue(m_suggester.suggest("cherry", 10).isEmpty());
+        assertTrue(m_suggester.suggest("  ", 10).isEmpty());
+    }
+
+    public void testFuzzy() {
+        m_suggester.put(id(0), "apple pie");
+        m_suggester.put(id(1), "maple");
+        m_suggester.put(id(2), "application");
+
+        //替换, 多一个字, 少一个字
+        assertEquals(2, suggestIds("aple", true).size());
+        assertTrue(suggestIds("apole", true).contains(id(0)));
+        assertTrue(suggestIds("appple", true).contains(id(0)));
+        assertTrue(suggestIds("xpple", true).contains(id(0)));
+
+        //前缀匹配的不重复出现在模糊匹配中
+        assertEquals(2, suggestIds("appl", false).size());
+        assertTrue(suggestIds("appl", true).isEmpty());
+
+        //太短的输入不做模糊匹配
+        assertTrue(suggestIds("ap", true).isEmpty());
+        assertTrue(suggestIds("xyzzy", true).isEmpty());
+    }
+
+    public void testUpdateAndRemove() {
+        int count = TextSuggester.MERGE_THRESHOLD * 3;
+        for (int i=0; i<count; i++) {
+            m_suggester.put(id(i), "node " + i);
+        }
+        assertEquals(count, m_suggester.size());
+        assertEquals(1, m_suggester.suggest("node 123", 1).size());
+        assertEquals("node 123", m_suggester.suggest("node 123", 1).get(0).m_key);
+
+        //已归并的节点被修改、删除
+        m_suggester.put(id(123), "renamed");
+        m_suggester.remove(id(124));
+        assertEquals(id(123), m_suggester.suggest("renamed", 10).get(0).m_dbId);
+        for (TextSuggester.Suggestion suggestion : m_suggester.suggest("node 12", 1000)) {
+            assertFalse(suggestion.m_dbId.equals(id(123)));
+            assertFalse(suggestion.m_dbId.equals(id(124)));
+        }
+        assertEquals(count - 1, m_suggester.size());
+    }
+
+    //与逐个比较的结果相同
+    public void testRandom() {
+        Random random = new Random(1);
+        String alphabet = "abc 中文";
+        String texts[] = new String[1000];
+
+        for (int i=0; i<TextSuggester.MERGE_THRESHOLD * 2; i++) {
+            int position = random.nextInt(texts.length);
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int j=0; j<length; j++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            texts[position] = builder.toString();
+            m_suggester.put(id(position), texts[position]);
+        }
+
+        for (int i=0; i<100; i++) {
+            String query = "" + alphabet.charAt(random.nextInt(alphabet.length())) + alphabet.charAt(random.nextInt(alphabet.length()));
+            query = TextSuggester.toKey(query);
+            if (query.isEmpty()) {
+                continue;
+            }
+
+            HashSet<Object> expected = new HashSet<>();
+            for (int position=0; position<texts.length; position++) {
+                if (texts[position] != null && TextSuggester.toKey(texts[position]).startsWith(query)) {
+                    expected.add(id(position));
+                }
+            }
+            assertEquals(expected, suggestIds(query, false));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package eulermind;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+public class TestUndoJournal extends TestCase {
+
+    File m_file;
+
+    public void setUp() {
+        m_file = new File(System.getProperty("java.io.tmpdir") + File.separator + "eulermind_undo_journal_test");
+        m_file.delete();
+    }
+
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    static byte[] makeRecord(int i)
+    {
+        byte record[] = new byte[100 + i % 50];
+        Arrays.fill(record, (byte)i);
+        return record;
+    }
+
+    void assertRecords(UndoJournal journal, int count)
+    {
+        assertEquals(count, journal.size());
+        for (int i=0; i<count; i++) {
+            assertTrue(Arrays.equals(makeRecord(i), journal.getRecord(i)));
+        }
+    }
+
+    public void testUndoRedo() {
+        UndoJournal journal = new UndoJournal(null, 1 << 20);
+        assertFalse(journal.canUndo());
+
+        for (int i=0; i<3; i++) {
+            journal.append(makeRecord(i));
+        }
+
+        assertTrue(Arrays.equals(makeRecord(2), journal.undoRecord()));
+        assertTrue(Arrays.equals(makeRecord(1), journal.undoRecord()));
+        assertTrue(journal.canRedo());
+        assertTrue(Arrays.equals(makeRecord(1), journal.redoRecord()));
+
+        //undo之后的新记录截掉redo部分
+        journal.append(makeRecord(2));
+        assertFalse(journal.canRedo());
+        assertRecords(journal, 3);
+    }
+
+    public void testSpillToFile() {
+        UndoJournal journal = new UndoJournal(m_file, 1000);
+
+        for (int i=0; i<500; i++) {
+            journal.append(makeRecord(i));
+            assertTrue(journal.getMemoryBytes() <= 1000);
+        }
+
+        assertTrue(journal.getSpilledCount() > 400);
+        assertRecords(journal, 500);
+
+        //截掉已经写入文件的记录
+        for (int i=0; i<200; i++) {
+            journal.undoRecord();
+        }
+        journal.append(makeRecord(300));
+        assertRecords(journal, 301);
+        assertTrue(Arrays.equals(makeRecord(300), journal.undoRecord()));
+
+        journal.close();
+    }
+
+    //截掉文件中的大部分记录后，映射的空间随之缩小
+    public void testShrinkFile() {
+        UndoJournal journal = new UndoJournal(m_file, 1000);
+        for (int i=0; i<5000; i++) {
+            journal.append(makeRecord(i));
+        }
+        long mappedBytes = journal.getMappedBytes();
+        assertTrue(mappedBytes > 4 * 64 * 1024);
+
+        for (int i=0; i<4990; i++) {
+            journal.undoRecord();
+        }
+        journal.append(makeRecord(10));
+        assertTrue(journal.getMappedBytes() < mappedBytes);
+        assertRecords(journal, 11);
+
+        for (int i=11; i<1000; i++) {
+            journal.append(makeRecord(i));
+        }
+        assertRecords(journal, 1000);
+        journal.close();
+
+        journal = new UndoJournal(m_file, 1000);
+        assertRecords(journal, 1000);
+        journal.close();
+    }
+
+    //去掉一条文件中的记录和一条内存中的记录，其他记录与undo位置不变
+    public void testRemove() {
+        UndoJournal journal = new UndoJournal(m_file, 1000);
+        for (int i=0; i<100; i++) {
+            journal.append(makeRecord(i));
+        }
+        for (int i=0; i<10; i++) {
+            journal.undoRecord();
+        }
+        assertTrue(journal.getSpilledCount() > 20);
+
+        journal.remove(95);
+        journal.remove(20);
+        assertEquals(98, journal.size());
+        assertEquals(89, journal.getDoneCount());
+        assertTrue(Arrays.equals(makeRecord(19), journal.getRecord(19)));
+        assertTrue(Arrays.equals(makeRecord(21), journal.getRecord(20)));
+        assertTrue(Arrays.equals(makeRecord(94), journal.getRecord(93)));
+        assertTrue(Arrays.equals(makeRecord(96), journal.getRecord(94)));
+        assertTrue(Arrays.equals(makeRecord(89), journal.undoRecord()));
+        journal.close();
+
+        journal = new UndoJournal(m_file, 1000);
+        assertEquals(98, journal.size());
+        assertEquals(88, journal.getDoneCount());
+        assertTrue(Arrays.equals(makeRecord(21), journal.getRecord(20)));
+        assertTrue(Arrays.equals(makeRecord(99), journal.getRecord(97)));
+        journal.close();
+    }
+
+    public void testReopen() {
+        UndoJournal journal = new UndoJournal(m_file, 1000);
+        for (int i=0; i<100; i++) {
+            journal.append(makeRecord(i));
+        }
+        journal.undoRecord();
+        journal.close();
+
+        journal = new UndoJournal(m_file, 1000);
+        assertRecords(journal, 100);
+        assertTrue(journal.canRedo());
+        assertTrue(Arrays.equals(makeRecord(99), journal.redoRecord()));
+        assertTrue(Arrays.equals(makeRecord(99), journal.undoRecord()));
+        assertTrue(Arrays.equals(makeRecord(98), journal.undoRecord()));
+        journal.close();
+
+        //没有记录时删除文件
+        journal = new UndoJournal(m_file, 1000);
+        journal.discardAll();
+        journal.close();
+        assertFalse(m_file.exists());
+    }
+
+    public void testMemoryOnlyDropsOldest() {
+        UndoJournal journal = new UndoJournal(null, 1000);
+        for (int i=0; i<100; i++) {
+            journal.append(makeRecord(i));
+        }
+
+        assertTrue(journal.getMemoryBytes() <= 1000);
+        assertTrue(journal.size() < 100);
+        assertTrue(Arrays.equals(makeRecord(99), journal.getRecord(journal.size() - 1)));
+    }
+
+    public void testInvalidFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(m_file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        out.close();
+
+        UndoJournal journal = new UndoJournal(m_file, 1000);
+        assertEquals(0, journal.size());
+        assertFalse(m_file.exists());
+    }
+}
@@ -0,0 +1,82 @@
+package eulermind.importer;
+
+import java.io.CharArrayReader;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//不是单元测试，直接运行main: LineNodeBenchmarks [megaChars]
+public class LineNodeBenchmarks {
+
+    //一篇像书或日志的文字: 空行分章节, 自动断行的段落, 缩进的列表
+    static char[] generateText(int charCount)
+    {
+        Random random = new Random(1);
+        String words[] = {"the", "mind", "map", "node", "import", "太阳", "学校", "老师", "作业", "line"};
+        StringBuilder text = new StringBuilder(charCount + 1000);
+
+        while (text.length() < charCount) {
+            int kind = random.nextInt(3);
+            int lineCount = 5 + random.nextInt(200);
+
+            for (int i=0; i<lineCount; i++) {
+                if (kind == 2) {
+                    for (int indent = random.nextInt(4); indent > 0; indent--) {
+                        text.append("  ");
+                    }
+                }
+                for (int j = 3 + random.nextInt(10); j > 0; j--) {
+                    text.append(words[random.nextInt(words.length)]);
+                    text.append(kind == 0 && random.nextInt(8) == 0 ? ". " : " ");
+                }
+                text.append('\n');
+            }
+
+            for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                text.append('\n');
+            }
+        }
+
+        char chars[] = new char[text.length()];
+        text.getChars(0, text.length(), chars, 0);
+        return chars;
+    }
+
+    public static void main(String argv[]) throws Exception
+    {
+        int megaChars = argv.length > 0 ? Integer.parseInt(argv[0]) : 50;
+        char text[] = generateText(megaChars * 1024 * 1024);
+
+        //第一遍预热
+        for (int pass=0; pass<2; pass++) {
+            long timeIn = System.currentTimeMillis();
+            LineNode root = LineNode.textToLineTree(new CharArrayReader(text));
+            long t = System.currentTimeMillis() - timeIn;
+
+            System.out.println("textToLineTree\t" + text.length + " chars\t"
+                    + LineNode.getLineTreeNodeCount(root) + " nodes\t"
+                    + t / 1000.0 + "s\t"
+                    + (t == 0 ? 0 : ((long)text.length * 1000 / t / 1024)) + " Kchars/s");
+        }
+    }
+}
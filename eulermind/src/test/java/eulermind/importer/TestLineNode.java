@@ -0,0 +1,132 @@
+package eulermind.importer;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.Random;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2012-2014 wangxuguang ninesunqian@163.com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+the Software, and to permit persons to whom the Software is furnished to do so,
+subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+//整理结果与原来逐遍处理的实现一致
+public class TestLineNode extends TestCase {
+
+    void assertLineTree(String expected, String text) throws Exception
+    {
+        assertEquals(expected, LineNode.lineTreeToString(LineNode.textToLineTree(text)));
+        assertEquals(expected, LineNode.lineTreeToString(LineNode.textToLineTree(new StringReader(text))));
+    }
+
+    public void testChapters() throws Exception {
+        assertLineTree("\n" +
+                "3 blankLine\n" +
+                " 1 blankLine\n" +
+                "  first line\n" +
+                "  second line\n" +
+                "  third line\n" +
+                " 1 blankLine\n" +
+                "  chapter two\n" +
+                "  more words\n",
+                "first line\nsecond line\nthird line\n\n\nchapter two\nmore words\n");
+    }
+
+    public void testBrokenSentences() throws Exception {
+        assertLineTree("\n" +
+                "1 blankLine\n" +
+                " How are you.\n" +
+                " p\n" +
+                "  Thank you very much.\n" +
+                "  We will\n",
+                " How are \nyou. \nThank you\nvery much.    We will\n\n\n");
+    }
+
+    public void testNestingList() throws Exception {
+        assertLineTree("\n" +
+                "1 blankLine\n" +
+                " list 1\n" +
+                "  list 1-1\n" +
+                "  list 1-2\n" +
+                "   list 1-2-1\n" +
+                " list 2\n" +
+                "  list 2-1\n",
+                "list 1\n  list 1-1\n  list 1-2\n\tlist 1-2-1\nlist 2\n  list 2-1\n");
+    }
+
+    public void testMixedChinese() throws Exception {
+        assertLineTree("\n" +
+                "3 blankLine\n" +
+                " 1 blankLine\n" +
+                "  整齐第一行\n" +
+                "  整齐第二行\n" +
+                "  整齐第三行\n" +
+                " 1 blankLine\n" +
+                "  自动段行1 自动段行2。\n" +
+                "  自动段行3 自动段行4。\n" +
+                " 1 blankLine\n" +
+                "  缩进1\n" +
+                "   缩进1-1\n" +
+                "   缩进1-2\n" +
+                "  缩进2\n" +
+                "   缩进2-1\n",
+                "整齐第一行\n整齐第二行\n整齐第三行\n\n\n" +
+                " 自动段行1\n自动段行2。\n自动段行3\n自动段行4。\n\n\n" +
+                "缩进1\n  缩进1-1\n  缩进1-2\n缩进2\n  缩进2-1\n");
+    }
+
+    public void testTooManySiblings() throws Exception {
+        StringBuilder text = new StringBuilder();
+        StringBuilder expected = new StringBuilder("\n1 blankLine\n");
+        for (int i=0; i<45; i++) {
+            text.append("item ").append(i).append("\n");
+            if (i % LineNode.MAX_CHILD_COUNT == 0) {
+                expected.append(" 1 blankLine\n");
+            }
+            expected.append("  item ").append(i).append("\n");
+        }
+        assertLineTree(expected.toString(), text.toString());
+    }
+
+    public void testBlankText() throws Exception {
+        assertNull(LineNode.textToLineTree(""));
+        assertNull(LineNode.textToLineTree(" \n\t\n\n"));
+    }
+
+    //Tika分多次写入，每次的边界可能在一行中间
+    public void testChunkedWrites() throws Exception {
+        Random random = new Random(1);
+        String words[] = {"alpha", "beta.", "太阳", "学校。", "x?", "\n", "\n", "  ", "\t", "\r\n"};
+        StringBuilder text = new StringBuilder();
+        for (int i=0; i<5000; i++) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+
+        String expected = LineNode.lineTreeToString(LineNode.textToLineTree(text.toString()));
+
+        LineNode.LineTreeBuilder builder = new LineNode.LineTreeBuilder();
+        for (int start = 0; start < text.length(); ) {
+            int end = Math.min(text.length(), start + 1 + random.nextInt(100));
+            builder.write(text.substring(start, end).toCharArray(), 0, end - start);
+            start = end;
+        }
+        assertEquals(expected, LineNode.lineTreeToString(builder.build()));
+    }
+}
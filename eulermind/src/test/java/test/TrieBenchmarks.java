@@ -0,0 +1,114 @@
+package test;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import prefuse.data.Table;
+import prefuse.data.Tuple;
+import prefuse.data.search.PackedTrie;
+import prefuse.data.search.PrefixIndex;
+import prefuse.data.search.Trie;
+
+/**
+ * Compares the memory use and lookup speed of {@link Trie} and
+ * {@link PackedTrie} when indexing the labels of a large table, the way
+ * PrefixSearchTupleSet does. Run with a fixed heap, e.g. -Xmx2g.
+ */
+public class TrieBenchmarks {
+
+    static final String LABEL = "label";
+    static final int NUM_ROWS = 500000;
+    static final int WORDS_PER_ROW = 3;
+    static final int VOCABULARY_SIZE = 200000;
+    static final int NUM_LOOKUPS = 10000;
+
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for ( int i=0; i<5; ++i ) {
+            System.gc();
+            try { Thread.sleep(100); } catch ( InterruptedException e ) { }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static String randomWord(Random rand) {
+        // skewed towards a few frequent words, like real labels
+        int idx = (int)(VOCABULARY_SIZE * Math.pow(rand.nextDouble(), 3));
+        return "w" + Integer.toString(idx, 36);
+    }
+
+    private static Table createTable() {
+        Random rand = new Random(42);
+        Table t = new Table();
+        t.addColumn(LABEL, String.class);
+        t.addRows(NUM_ROWS);
+        for ( int r=0; r<NUM_ROWS; ++r ) {
+            StringBuffer sbuf = new StringBuffer();
+            for ( int i=0; i<WORDS_PER_ROW; ++i ) {
+                if ( i > 0 ) sbuf.append(' ');
+                sbuf.append(randomWord(rand));
+            }
+            t.setString(r, LABEL, sbuf.toString());
+            t.getTuple(r); // create the tuple up front, it is not index memory
+        }
+        return t;
+    }
+
+    private static void index(PrefixIndex index, Table t) {
+        for ( int r=0; r<NUM_ROWS; ++r ) {
+            Tuple tuple = t.getTuple(r);
+            String[] words = tuple.getString(LABEL).split(" ");
+            for ( int i=0; i<words.length; ++i )
+                index.addString(words[i], tuple);
+        }
+        if ( index instanceof PackedTrie )
+            ((PackedTrie)index).compact();
+    }
+
+    private static void benchmark(String name, PrefixIndex index, Table t) {
+        long before = usedMemory();
+        long time = System.currentTimeMillis();
+        index(index, t);
+        time = System.currentTimeMillis() - time;
+        long memory = usedMemory() - before;
+
+        Random rand = new Random(7);
+        String[] prefixes = new String[NUM_LOOKUPS];
+        for ( int i=0; i<NUM_LOOKUPS; ++i ) {
+            String word = randomWord(rand);
+            prefixes[i] = word.substring(0, Math.min(word.length(), 2 + rand.nextInt(3)));
+        }
+
+        long matches = 0;
+        long lookupTime = System.nanoTime();
+        for ( int i=0; i<NUM_LOOKUPS; ++i ) {
+            for ( Iterator iter = index.prefixIterator(prefixes[i]); iter.hasNext(); iter.next() )
+                ++matches;
+        }
+        lookupTime = System.nanoTime() - lookupTime;
+
+        long removeTime = System.currentTimeMillis();
+        for ( int r=0; r<NUM_ROWS; r+=10 ) {
+            Tuple tuple = t.getTuple(r);
+            String[] words = tuple.getString(LABEL).split(" ");
+            for ( int i=0; i<words.length; ++i )
+                index.removeString(words[i], tuple);
+        }
+        removeTime = System.currentTimeMillis() - removeTime;
+
+        System.out.println(name + "\tindex: " + time + "ms\t"
+            + "memory: " + (memory >> 20) + "MB\t"
+            + "lookup: " + (lookupTime / NUM_LOOKUPS / 1000) + "us/query ("
+            + (matches / NUM_LOOKUPS) + " tuples)\t"
+            + "unindex 10%: " + removeTime + "ms");
+    }
+
+    public static void main(String[] args) {
+        Table t = createTable();
+        System.out.println(NUM_ROWS + " rows, " + WORDS_PER_ROW + " words per row");
+
+        benchmark("Trie", new Trie(false), t);
+        benchmark("PackedTrie", new PackedTrie(false), t);
+    }
+
+}
@@ -2,6 +2,7 @@ package test.prefuse.data;
 
 import java.net.URL;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.zip.GZIPInputStream;
 
 import javax.swing.JFrame;
@@ -91,6 +92,84 @@ public class TreeTest extends TestCase {
         assertEquals(true, tree.isValidTree());
     }
     
+    // index of the child among its siblings, found by scanning the parent
+    private static int scanIndexInSiblings(Node child) {
+        Node parent = child.getParent();
+        for ( int i=0; i<parent.getChildCount(); ++i ) {
+            if ( parent.getChild(i) == child )
+                return i;
+        }
+        return -1;
+    }
+
+    private static void assertSiblingIndexes(Tree tree) {
+        Iterator iter = new TreeNodeIterator(tree.getRoot());
+        while ( iter.hasNext() ) {
+            Node node = (Node)iter.next();
+            if ( node == tree.getRoot() ) {
+                assertEquals(-1, tree.getIndexInSiblings(node));
+                assertEquals(0, tree.getPath(node).length);
+                continue;
+            }
+
+            int index = tree.getIndexInSiblings(node);
+            assertEquals(scanIndexInSiblings(node), index);
+
+            int[] path = tree.getPath(node);
+            assertEquals(index, path[path.length-1]);
+            assertEquals(node.getRow(), tree.getNodeRowByPath(path));
+        }
+    }
+
+    public void testSiblingIndex() {
+        Tree tree = GraphLib.getBalancedTree(3,3);
+        assertSiblingIndexes(tree);
+
+        Random random = new Random(1);
+        for ( int i=0; i<2000; ++i ) {
+            Node[] nodes = new Node[tree.getNodeCount()];
+            Iterator iter = new TreeNodeIterator(tree.getRoot());
+            for ( int j=0; iter.hasNext(); ++j ) {
+                nodes[j] = (Node)iter.next();
+            }
+            Node node = nodes[random.nextInt(nodes.length)];
+            Node parent = node.getParent();
+
+            int op = random.nextInt(4);
+            if ( op == 0 || parent == null || tree.getNodeCount() < 10 ) {
+                tree.addChild(node, random.nextInt(node.getChildCount()+1));
+            } else if ( op == 1 ) {
+                tree.removeChild(node);
+            } else if ( op == 2 ) {
+                tree.changeChildIndex(parent, node.getIndex(),
+                        random.nextInt(parent.getChildCount()));
+            } else {
+                // move the node under one of its siblings
+                Node sibling = parent.getChild(random.nextInt(parent.getChildCount()));
+                if ( sibling != node ) {
+                    tree.changeEdgeSource(node.getParentEdge(), sibling,
+                            random.nextInt(sibling.getChildCount()+1));
+                }
+            }
+
+            if ( i % 100 == 0 ) {
+                assertSiblingIndexes(tree);
+            }
+        }
+
+        assertSiblingIndexes(tree);
+        assertEquals(true, tree.isValidTree());
+    }
+
+    public void testCopySubTreeSiblingIndex() {
+        Tree tree = GraphLib.getBalancedTree(3,2);
+        Node c = tree.getRoot().getChild(1);
+        Tree copy = tree.copySubTree(c, null, null, null);
+
+        assertEquals(3, copy.getRoot().getChildCount());
+        assertSiblingIndexes(copy);
+    }
+
     public static void main(String[] argv) {
         URL url = TreeTest.class.getResource(TREE_CHI);
         Tree t = null;
@@ -0,0 +1,17 @@
+package test.prefuse.data.search;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class All_PrefuseDataSearch_Tests {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite("Test for test.prefuse.data.search");
+        //$JUnit-BEGIN$
+        suite.addTestSuite(PackedTrieTest.class);
+        suite.addTestSuite(KeywordSearchTupleSetTest.class);
+        //$JUnit-END$
+        return suite;
+    }
+
+}
@@ -0,0 +1,84 @@
+package test.prefuse.data.search;
+
+import junit.framework.TestCase;
+import prefuse.data.Table;
+import prefuse.data.search.KeywordSearchTupleSet;
+
+public class KeywordSearchTupleSetTest extends TestCase {
+
+    static final String LABEL = "label";
+    static final String NOTE = "note";
+    
+    Table t;
+    KeywordSearchTupleSet search;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        t = new Table();
+        t.addColumn(LABEL, String.class);
+        t.addColumn(NOTE, String.class);
+        t.addRows(3);
+        t.setString(0, LABEL, "中国 北京");
+        t.setString(1, LABEL, "北京 大学");
+        t.setString(2, LABEL, "search engine");
+        t.setString(2, NOTE, "北京");
+        
+        search = new KeywordSearchTupleSet();
+        for ( int r=0; r<3; ++r )
+            search.index(t.getTuple(r), LABEL);
+    }
+
+    protected void tearDown() throws Exception {
+        search.close();
+        super.tearDown();
+    }
+    
+    public void testSearch() {
+        search.search("北京");
+        assertEquals(2, search.getTupleCount());
+        assertTrue(search.containsTuple(t.getTuple(0)));
+        assertTrue(search.containsTuple(t.getTuple(1)));
+        
+        search.search("中国 engine");
+        assertEquals(2, search.getTupleCount());
+        assertTrue(search.containsTuple(t.getTuple(2)));
+        
+        // malformed queries match nothing
+        search.search("(engine");
+        assertEquals(0, search.getTupleCount());
+        
+        search.search("");
+        assertEquals(0, search.getTupleCount());
+    }
+    
+    public void testIncrementalIndex() {
+        assertTrue(search.isUnindexSupported());
+        
+        // a re-indexed field replaces its previous value
+        t.setString(0, LABEL, "上海");
+        search.index(t.getTuple(0), LABEL);
+        search.search("北京");
+        assertEquals(1, search.getTupleCount());
+        search.search("上海");
+        assertEquals(1, search.getTupleCount());
+        
+        search.index(t.getTuple(2), NOTE);
+        search.search("北京");
+        assertEquals(2, search.getTupleCount());
+        
+        search.unindex(t.getTuple(1), LABEL);
+        search.search("北京");
+        assertEquals(1, search.getTupleCount());
+        assertTrue(search.containsTuple(t.getTuple(2)));
+        
+        // other indexed fields of the tuple remain searchable
+        search.unindex(t.getTuple(2), NOTE);
+        search.search("engine");
+        assertEquals(1, search.getTupleCount());
+        
+        search.clear();
+        search.search("search");
+        assertEquals(0, search.getTupleCount());
+    }
+    
+}
@@ -0,0 +1,137 @@
+package test.prefuse.data.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import prefuse.data.Table;
+import prefuse.data.Tuple;
+import prefuse.data.search.PackedTrie;
+import prefuse.data.search.PrefixIndex;
+import prefuse.data.search.PrefixSearchTupleSet;
+import prefuse.data.search.Trie;
+
+public class PackedTrieTest extends TestCase {
+
+    static final String LABEL = "label";
+    
+    Table t;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        t = new Table();
+        t.addColumn(LABEL, String.class);
+        t.addRows(200);
+    }
+    
+    private static List matches(PrefixIndex index, String prefix) {
+        ArrayList rows = new ArrayList();
+        for ( Iterator iter = index.prefixIterator(prefix); iter.hasNext(); )
+            rows.add(new Integer(((Tuple)iter.next()).getRow()));
+        Collections.sort(rows);
+        return rows;
+    }
+    
+    public void testPrefixIterator() {
+        PackedTrie trie = new PackedTrie(false);
+        trie.addString("Apple", t.getTuple(0));
+        trie.addString("apricot", t.getTuple(1));
+        trie.addString("apple", t.getTuple(2));
+        trie.addString("banana", t.getTuple(3));
+        
+        assertEquals(3, matches(trie, "ap").size());
+        assertEquals(2, matches(trie, "APPLE").size());
+        assertEquals(0, matches(trie, "apples").size());
+        assertEquals(0, matches(trie, "").size());
+        
+        // the same results once the words are packed
+        trie.compact();
+        assertEquals(3, matches(trie, "ap").size());
+        assertEquals(2, matches(trie, "APPLE").size());
+        assertEquals(1, matches(trie, "b").size());
+        
+        trie.removeString("APPLE", t.getTuple(0));
+        assertEquals(1, matches(trie, "apple").size());
+        trie.removeString("banana", t.getTuple(0)); // not indexed
+        assertEquals(3, trie.size());
+        
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertFalse(trie.prefixIterator("a").hasNext());
+    }
+    
+    public void testCaseSensitive() {
+        PackedTrie trie = new PackedTrie(true);
+        trie.addString("Apple", t.getTuple(0));
+        trie.addString("apple", t.getTuple(1));
+        assertEquals(1, matches(trie, "A").size());
+        assertEquals(1, matches(trie, "a").size());
+    }
+    
+    /**
+     * Random additions and removals should give the same matches as Trie,
+     * both before and after the buffered changes are compacted.
+     */
+    public void testAgainstTrie() {
+        Random rand = new Random(42);
+        String alphabet = "abcAB中文";
+        Trie trie = new Trie(false);
+        PackedTrie packed = new PackedTrie(false);
+        ArrayList words = new ArrayList();
+        ArrayList tuples = new ArrayList();
+        
+        for ( int i=0; i<20000; ++i ) {
+            if ( words.isEmpty() || rand.nextInt(3) > 0 ) {
+                StringBuffer sbuf = new StringBuffer();
+                int len = 1 + rand.nextInt(5);
+                for ( int j=0; j<len; ++j )
+                    sbuf.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+                String word = sbuf.toString();
+                Tuple tuple = t.getTuple(rand.nextInt(t.getRowCount()));
+                trie.addString(word, tuple);
+                packed.addString(word, tuple);
+                words.add(word);
+                tuples.add(tuple);
+            } else {
+                int idx = rand.nextInt(words.size());
+                String word = (String)words.remove(idx);
+                Tuple tuple = (Tuple)tuples.remove(idx);
+                trie.removeString(word, tuple);
+                packed.removeString(word, tuple);
+            }
+            
+            if ( i % 500 == 0 ) {
+                assertEquals(words.size(), packed.size());
+                for ( int j=0; j<20; ++j ) {
+                    String prefix = alphabet.substring(rand.nextInt(alphabet.length()));
+                    prefix = prefix.substring(0, Math.min(prefix.length(), 1 + rand.nextInt(2)));
+                    assertEquals(matches(trie, prefix), matches(packed, prefix));
+                }
+            }
+        }
+    }
+    
+    public void testSearchTupleSet() {
+        t.setString(0, LABEL, "prefuse visualization");
+        t.setString(1, LABEL, "Prefix search");
+        t.setString(2, LABEL, "toolkit");
+        
+        PrefixSearchTupleSet search = new PrefixSearchTupleSet(new PackedTrie(false));
+        for ( int r=0; r<3; ++r )
+            search.index(t.getTuple(r), LABEL);
+        
+        search.search("pre");
+        assertEquals(2, search.getTupleCount());
+        search.search("vis tool");
+        assertEquals(2, search.getTupleCount());
+        
+        search.unindex(t.getTuple(0), LABEL);
+        search.search("pre");
+        assertEquals(1, search.getTupleCount());
+        assertTrue(search.containsTuple(t.getTuple(1)));
+    }
+    
+}